@@ -1,27 +1,65 @@
 package cn.apmen.jsagent.example.configuration;
 
 import cn.apmen.jsagent.example.tools.CodeExecutorTool;
+import cn.apmen.jsagent.example.tools.CodeExecutorTool_AgentTools;
 import cn.apmen.jsagent.framework.agent.WorkerAgent;
+import cn.apmen.jsagent.framework.cluster.ClusterConfig;
+import cn.apmen.jsagent.framework.cluster.ClusterCoordinator;
+import cn.apmen.jsagent.framework.cluster.ClusterNode;
+import cn.apmen.jsagent.framework.compaction.BackgroundCompactor;
+import cn.apmen.jsagent.framework.compaction.CompactionConfig;
 import cn.apmen.jsagent.framework.conversation.ConversationService;
+import cn.apmen.jsagent.framework.conversation.impl.FileConversationService;
+import cn.apmen.jsagent.framework.conversation.impl.R2dbcConversationService;
 import cn.apmen.jsagent.framework.conversation.impl.InMemoryConversationService;
 import cn.apmen.jsagent.framework.core.AgentConfig;
 import cn.apmen.jsagent.framework.core.AgentRunner;
 import cn.apmen.jsagent.framework.core.CoreAgent;
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.journal.ConversationJournal;
+import cn.apmen.jsagent.framework.journal.InMemoryConversationJournal;
+import cn.apmen.jsagent.framework.journal.JournalConversationService;
+import cn.apmen.jsagent.framework.journal.JournalMemoryService;
 import cn.apmen.jsagent.framework.llm.LlmConfig;
-import cn.apmen.jsagent.framework.mcp.MCPTool;
+import cn.apmen.jsagent.framework.mcp.AbstractMCPTool;
+import cn.apmen.jsagent.framework.memory.BoundedInMemoryMemoryService;
+import cn.apmen.jsagent.framework.memory.BoundedMemoryConfig;
+import cn.apmen.jsagent.framework.memory.FileMemoryService;
 import cn.apmen.jsagent.framework.memory.InMemoryMemoryService;
 import cn.apmen.jsagent.framework.memory.MemoryService;
 import cn.apmen.jsagent.framework.openaiunified.OpenAIUnifiedChatClient;
+import cn.apmen.jsagent.framework.snapshot.SnapshotConfig;
+import cn.apmen.jsagent.framework.snapshot.Snapshottable;
+import cn.apmen.jsagent.framework.snapshot.StateSnapshotter;
+import cn.apmen.jsagent.framework.token.BpeEncoding;
+import cn.apmen.jsagent.framework.token.BpeTokenizer;
+import cn.apmen.jsagent.framework.token.TokenCounter;
 import cn.apmen.jsagent.framework.tool.AgentTool;
+import cn.apmen.jsagent.framework.tool.RelevanceToolSelector;
+import cn.apmen.jsagent.framework.tool.ToolBulkheadPolicy;
+import cn.apmen.jsagent.framework.tool.ToolCircuitBreakerPolicy;
 import cn.apmen.jsagent.framework.tool.ToolRegistry;
+import cn.apmen.jsagent.framework.tool.ToolResultCache;
+import cn.apmen.jsagent.framework.tool.ToolSchedulers;
+import cn.apmen.jsagent.framework.tool.ToolSelectorConfig;
+import io.r2dbc.spi.ConnectionFactory;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Agent框架配置类 - 使用新的工具设计模式
@@ -36,6 +74,99 @@ public class AgentConfiguration {
     @Value("${agent.llm.openai.base-url}")
     private String openaiApiBaseUrl;
 
+    @Value("${agent.tools.virtual-threads.enabled:false}")
+    private boolean virtualThreadsEnabled;
+
+    @Value("${agent.tools.virtual-threads.pinning-threshold:20ms}")
+    private Duration pinningThreshold;
+
+    @Value("${agent.mcp.native-tools.enabled:false}")
+    private boolean mcpNativeToolsEnabled;
+
+    @Value("${agent.tools.cache.max-entries:1024}")
+    private int toolCacheMaxEntries;
+
+    @Value("${agent.tools.bulkhead.max-concurrency:8}")
+    private int toolMaxConcurrency;
+
+    @Value("${agent.tools.bulkhead.max-queue-size:32}")
+    private int toolMaxQueueSize;
+
+    @Value("${agent.tools.bulkhead.timeout:180s}")
+    private Duration toolTimeout;
+
+    @Value("${agent.tools.straggler-deadline:0s}")
+    private Duration toolStragglerDeadline;
+
+    @Value("${agent.tools.circuit-breaker.enabled:true}")
+    private boolean toolCircuitBreakerEnabled;
+
+    @Value("${agent.tools.selection.enabled:false}")
+    private boolean toolSelectionEnabled;
+
+    @Value("${agent.tools.selection.top-k:8}")
+    private int toolSelectionTopK;
+
+    @Value("${agent.tools.selection.min-tool-count:12}")
+    private int toolSelectionMinToolCount;
+
+    @Value("${agent.tools.selection.pinned-tools:}")
+    private String toolSelectionPinnedTools;
+
+    @Value("${agent.conversation.journal.enabled:false}")
+    private boolean journalEnabled;
+
+    @Value("${agent.conversation.journal.max-conversations:10000}")
+    private int journalMaxConversations;
+
+    @Value("${agent.conversation.journal.max-entries-per-conversation:2000}")
+    private int journalMaxEntriesPerConversation;
+
+    @Value("${agent.storage.type:memory}")
+    private String storageType;
+
+    @Value("${agent.storage.directory:./data}")
+    private String storageDirectory;
+
+    @Value("${agent.storage.off-heap-bytes:0}")
+    private long storageOffHeapBytes;
+
+    @Value("${agent.storage.snapshot.interval:30s}")
+    private Duration snapshotInterval;
+
+    @Value("${agent.cluster.self-id:}")
+    private String clusterSelfId;
+
+    @Value("${agent.cluster.shared-secret:}")
+    private String clusterSharedSecret;
+
+    @Value("${agent.cluster.nodes:}")
+    private String clusterNodes;
+
+    @Value("${agent.cluster.membership-file:}")
+    private String clusterMembershipFile;
+
+    @Value("${agent.cluster.routing:forward}")
+    private String clusterRouting;
+
+    @Value("${agent.tokenizer.encoding:cl100k_base}")
+    private String tokenizerEncoding;
+
+    @Value("${agent.tokenizer.vocabulary:}")
+    private String tokenizerVocabulary;
+
+    @Value("${agent.compaction.enabled:false}")
+    private boolean compactionEnabled;
+
+    @Value("${agent.compaction.model:gpt-4o-mini}")
+    private String compactionModel;
+
+    @Value("${agent.compaction.trigger-tokens:8000}")
+    private long compactionTriggerTokens;
+
+    @Value("${agent.compaction.retain-recent-tokens:2000}")
+    private long compactionRetainRecentTokens;
+
     /**
      * 配置OpenAI统一客户端
      */
@@ -49,20 +180,143 @@ public class AgentConfiguration {
      */
     @Bean
     public ToolRegistry toolRegistry() {
-        return new ToolRegistry();
+        // 虚拟线程执行配置（需要Java 21+，使用 -Pjdk21 构建；也可由 -Djs-agent.tools.virtual-threads=true 开启）
+        if (virtualThreadsEnabled || ToolSchedulers.isVirtualThreadsEnabled()) {
+            ToolSchedulers.setVirtualThreadsEnabled(true);
+            ToolSchedulers.startPinningDiagnostics(pinningThreshold);
+        }
+        ToolRegistry toolRegistry = new ToolRegistry(
+                new ToolResultCache(toolCacheMaxEntries, ToolResultCache.DEFAULT_MAX_ENTRY_CHARS));
+        // 未声明舱壁策略的工具使用默认并发、排队与超时限制
+        toolRegistry.setDefaultBulkheadPolicy(ToolBulkheadPolicy.of(toolMaxConcurrency, toolMaxQueueSize,
+                toolTimeout.isZero() ? null : toolTimeout));
+        // 未声明熔断策略的工具按工具名使用默认熔断策略
+        if (toolCircuitBreakerEnabled) {
+            toolRegistry.setDefaultCircuitBreakerPolicy(ToolCircuitBreakerPolicy.defaults());
+        }
+        if (!toolStragglerDeadline.isZero()) {
+            toolRegistry.setStragglerDeadline(toolStragglerDeadline);
+        }
+        return toolRegistry;
+    }
+
+    /**
+     * 配置Token计数器，词表缺失时退回估算
+     */
+    @Bean
+    public TokenCounter tokenCounter() {
+        BpeEncoding encoding = BpeEncoding.fromName(tokenizerEncoding);
+        try {
+            return tokenizerVocabulary.isBlank()
+                    ? BpeTokenizer.load(encoding)
+                    : BpeTokenizer.load(encoding, Path.of(tokenizerVocabulary));
+        } catch (AgentException e) {
+            log.warn("BPE词表不可用，使用估算Token计数器: {}", e.getMessage());
+            return TokenCounter.heuristic();
+        }
+    }
+
+    /**
+     * 配置后台摘要压缩器
+     */
+    @Bean(destroyMethod = "close")
+    public BackgroundCompactor backgroundCompactor(OpenAIUnifiedChatClient openAIClient) {
+        return new BackgroundCompactor(openAIClient, CompactionConfig.builder()
+                .model(compactionModel)
+                .triggerTokens(compactionTriggerTokens)
+                .retainRecentTokens(compactionRetainRecentTokens)
+                .build());
+    }
+
+    /**
+     * 配置会话事件日志
+     */
+    @Bean
+    public ConversationJournal conversationJournal() {
+        return new InMemoryConversationJournal(journalMaxConversations, journalMaxEntriesPerConversation);
     }
 
     /**
      * 配置对话服务
      */
     @Bean
-    public ConversationService conversationService() {
-        return new InMemoryConversationService();
+    public ConversationService conversationService(ConversationJournal conversationJournal,
+                                                   ObjectProvider<ConnectionFactory> connectionFactory,
+                                                   TokenCounter tokenCounter,
+                                                   BackgroundCompactor backgroundCompactor) {
+        if (journalEnabled) {
+            return new JournalConversationService(conversationJournal, tokenCounter);
+        }
+        if ("file".equalsIgnoreCase(storageType)) {
+            return new FileConversationService(Path.of(storageDirectory, "conversations"), tokenCounter);
+        }
+        if ("r2dbc".equalsIgnoreCase(storageType)) {
+            R2dbcConversationService r2dbcConversationService = new R2dbcConversationService(connectionFactory.getObject(), tokenCounter);
+            r2dbcConversationService.initializeSchema().block(); // 启动阶段建表
+            return r2dbcConversationService;
+        }
+        return new InMemoryConversationService(tokenCounter, compactionEnabled ? backgroundCompactor : null);
     }
 
     @Bean
-    public MemoryService memoryService() {
-        return new InMemoryMemoryService();
+    public MemoryService memoryService(ConversationJournal conversationJournal, TokenCounter tokenCounter,
+                                       BackgroundCompactor backgroundCompactor) {
+        if (journalEnabled) {
+            return new JournalMemoryService(conversationJournal, tokenCounter);
+        }
+        if ("file".equalsIgnoreCase(storageType)) {
+            return new FileMemoryService(Path.of(storageDirectory, "memory"), tokenCounter);
+        }
+        if ("bounded".equalsIgnoreCase(storageType)) {
+            return new BoundedInMemoryMemoryService(BoundedMemoryConfig.builder()
+                    .spillDirectory(Path.of(storageDirectory, "memory-spill"))
+                    .maxOffHeapBytes(storageOffHeapBytes)
+                    .build(), tokenCounter);
+        }
+        return new InMemoryMemoryService(tokenCounter, compactionEnabled ? backgroundCompactor : null);
+    }
+
+    /**
+     * 配置内存状态快照：启动时并行恢复，之后定期写增量快照，仅memory存储类型生效
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "agent.storage.snapshot.enabled", havingValue = "true")
+    public StateSnapshotter stateSnapshotter(ConversationService conversationService, MemoryService memoryService) {
+        StateSnapshotter snapshotter = new StateSnapshotter(SnapshotConfig.builder()
+                .directory(Path.of(storageDirectory, "snapshots"))
+                .interval(snapshotInterval)
+                .build(), snapshottables(conversationService, memoryService));
+        snapshotter.restore();
+        snapshotter.start();
+        return snapshotter;
+    }
+
+    /**
+     * 配置集群：按conversationId一致性哈希路由到归属节点，成员变化时移交会话状态（仅memory存储类型可移交）
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "agent.cluster.enabled", havingValue = "true")
+    public ClusterCoordinator clusterCoordinator(ConversationService conversationService, MemoryService memoryService) {
+        ClusterCoordinator coordinator = new ClusterCoordinator(ClusterConfig.builder()
+                .selfId(clusterSelfId)
+                .sharedSecret(clusterSharedSecret)
+                .nodes(Arrays.stream(clusterNodes.split(","))
+                        .map(String::trim)
+                        .filter(spec -> !spec.isEmpty())
+                        .map(ClusterNode::parse)
+                        .collect(Collectors.toList()))
+                .membershipFile(clusterMembershipFile.isBlank() ? null : Path.of(clusterMembershipFile))
+                .routingMode(ClusterConfig.RoutingMode.valueOf(clusterRouting.toUpperCase(Locale.ROOT)))
+                .build(), snapshottables(conversationService, memoryService));
+        coordinator.start();
+        return coordinator;
+    }
+
+    private static List<Snapshottable<?>> snapshottables(ConversationService conversationService, MemoryService memoryService) {
+        return Stream.of(conversationService, memoryService)
+                .filter(Snapshottable.class::isInstance)
+                .map(service -> (Snapshottable<?>) service)
+                .collect(Collectors.toList());
     }
 
     /**
@@ -174,19 +428,21 @@ public class AgentConfiguration {
     @Bean
     public String initializeTools(ToolRegistry toolRegistry,
                                  AgentTool mathExpertAgentTool, CodeExecutorTool codeExecutorTool,
-                                 AgentTool writingAssistantAgentTool, MCPTool bingSearchMCPTool,
-                                 MCPTool amapMCPTool, MCPTool datetimeMCPTool, MCPTool weatherMCPTool) {
+                                 AgentTool writingAssistantAgentTool, AbstractMCPTool bingSearchMCPTool,
+                                 AbstractMCPTool amapMCPTool, AbstractMCPTool datetimeMCPTool, AbstractMCPTool weatherMCPTool) {
 
         log.info("开始注册工具到ToolRegistry...");
 
-        // 注册基础工具
-        toolRegistry.registerExecutor(codeExecutorTool);
+        // 注册基础工具，执行器由@AgentToolMethod在编译期生成
+        toolRegistry.registerExecutors(CodeExecutorTool_AgentTools.executors(codeExecutorTool));
 
-        // 注册MCP工具
-        toolRegistry.registerExecutor(bingSearchMCPTool);
-        toolRegistry.registerExecutor(amapMCPTool);
-        toolRegistry.registerExecutor(datetimeMCPTool);
-        toolRegistry.registerExecutor(weatherMCPTool);
+        // 注册MCP工具，开启原生工具时由MCPToolCatalog逐个注册服务器中的工具
+        if (!mcpNativeToolsEnabled) {
+            toolRegistry.registerExecutor(bingSearchMCPTool);
+            toolRegistry.registerExecutor(amapMCPTool);
+            toolRegistry.registerExecutor(datetimeMCPTool);
+            toolRegistry.registerExecutor(weatherMCPTool);
+        }
 
         // 注册Agent工具
         toolRegistry.registerExecutor(mathExpertAgentTool);
@@ -201,6 +457,22 @@ public class AgentConfiguration {
         return "tools-initialized";
     }
 
+    /**
+     * 配置工具选择器：工具较多时每轮只发送与对话相关的工具
+     */
+    @Bean
+    public RelevanceToolSelector toolSelector() {
+        Set<String> pinnedTools = Arrays.stream(toolSelectionPinnedTools.split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .collect(Collectors.toSet());
+        return new RelevanceToolSelector(ToolSelectorConfig.builder()
+                .topK(toolSelectionTopK)
+                .minToolCount(toolSelectionMinToolCount)
+                .pinnedTools(pinnedTools)
+                .build());
+    }
+
     /**
      * 配置核心Agent
      */
@@ -208,6 +480,7 @@ public class AgentConfiguration {
     public CoreAgent coreAgent(OpenAIUnifiedChatClient openAIClient,
                               ToolRegistry toolRegistry,
                               LlmConfig llmConfig,
+                              RelevanceToolSelector toolSelector,
                               String initializeTools) { // 依赖工具初始化完成
 
         return CoreAgent.builder()
@@ -217,7 +490,8 @@ public class AgentConfiguration {
                 .openAIUnifiedChatClient(openAIClient)
                 .toolRegistry(toolRegistry)
                 .llmConfig(llmConfig)
-                .tools(toolRegistry.getAllTools()) // 直接从ToolRegistry获取所有工具
+                .useRegistryTools(true) // 每次请求从ToolRegistry获取所有工具，MCP工具目录刷新后立即生效
+                .toolSelector(toolSelectionEnabled ? toolSelector : null)
                 .build();
     }
 
@@ -238,7 +512,9 @@ public class AgentConfiguration {
     public AgentRunner agentRunner(CoreAgent coreAgent,
                                   AgentConfig agentConfig,
                                   ConversationService conversationService,
-                                  MemoryService memoryService) {
-        return new AgentRunner(coreAgent, agentConfig, conversationService, memoryService);
+                                  MemoryService memoryService,
+                                  ConversationJournal conversationJournal) {
+        return new AgentRunner(coreAgent, agentConfig, conversationService, memoryService,
+                journalEnabled ? conversationJournal : null);
     }
 }
@@ -1,23 +1,117 @@
 package cn.apmen.jsagent.example.configuration;
 
+import cn.apmen.jsagent.example.tools.InProcessJavaRunner;
+import cn.apmen.jsagent.example.tools.InterpreterPoolConfig;
+import cn.apmen.jsagent.example.tools.InterpreterWorkerPool;
+import cn.apmen.jsagent.framework.mcp.AbstractMCPTool;
+import cn.apmen.jsagent.framework.mcp.AsyncMCPTool;
+import cn.apmen.jsagent.framework.mcp.MCPClientPool;
 import cn.apmen.jsagent.framework.mcp.MCPTool;
+import cn.apmen.jsagent.framework.tool.ToolBulkheadPolicy;
+import cn.apmen.jsagent.framework.tool.ToolCachePolicy;
+import cn.apmen.jsagent.framework.tool.ToolCircuitBreakerPolicy;
 import io.modelcontextprotocol.client.McpSyncClient;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 @Slf4j
 @Configuration
 public class CommonToolConfiguration {
 
+    /**
+     * 结果与当前时间无关的日期时间子工具，只有这些调用走缓存
+     */
+    static final Set<String> PURE_DATETIME_TOOLS = Set.of(
+            "datetime_time_delta", "datetime_convert_time", "datetime_is_leap_year",
+            "datetime_days_of_month", "datetime_is_valid_date");
+
+    @Value("${agent.mcp.bulkhead.max-concurrency:8}")
+    private int mcpMaxConcurrency;
+
+    @Value("${agent.mcp.bulkhead.max-queue-size:32}")
+    private int mcpMaxQueueSize;
+
+    @Value("${agent.mcp.bulkhead.timeout:180s}")
+    private Duration mcpTimeout;
+
+    @Value("${agent.mcp.circuit-breaker.failure-rate-threshold:0.5}")
+    private double mcpFailureRateThreshold;
+
+    @Value("${agent.mcp.circuit-breaker.slow-call-duration:30s}")
+    private Duration mcpSlowCallDuration;
+
+    @Value("${agent.mcp.circuit-breaker.open-duration:30s}")
+    private Duration mcpOpenDuration;
+
+    @Value("${agent.tools.code-executor.workers.pool-size:2}")
+    private int interpreterPoolSize;
+
+    @Value("${agent.tools.code-executor.workers.max-queue-size:16}")
+    private int interpreterMaxQueueSize;
+
+    @Value("${agent.tools.code-executor.workers.max-executions:100}")
+    private int interpreterMaxExecutions;
+
+    @Value("${agent.tools.code-executor.java.cache-size:64}")
+    private int javaCacheSize;
+
+    @Value("${agent.tools.code-executor.java.max-output-bytes:1048576}")
+    private int javaMaxOutputBytes;
+
+    @Value("${agent.tools.code-executor.java.max-runaway-threads:4}")
+    private int javaMaxRunawayThreads;
+
+    /**
+     * 代码执行工具的常驻Python进程池
+     */
+    @Bean(name = "pythonWorkerPool", destroyMethod = "close")
+    @ConditionalOnProperty(name = "agent.tools.code-executor.workers.enabled", havingValue = "true", matchIfMissing = true)
+    public InterpreterWorkerPool pythonWorkerPool() {
+        return InterpreterWorkerPool.python(interpreterPoolConfig());
+    }
+
+    /**
+     * 代码执行工具的常驻Bash进程池
+     */
+    @Bean(name = "shellWorkerPool", destroyMethod = "close")
+    @ConditionalOnProperty(name = "agent.tools.code-executor.workers.enabled", havingValue = "true", matchIfMissing = true)
+    public InterpreterWorkerPool shellWorkerPool() {
+        return InterpreterWorkerPool.shell(interpreterPoolConfig());
+    }
+
+    /**
+     * 代码执行工具的进程内Java编译执行，代码片段与应用共享JVM，需显式开启
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "agent.tools.code-executor.java.in-process", havingValue = "true")
+    public InProcessJavaRunner inProcessJavaRunner() {
+        return new InProcessJavaRunner(javaCacheSize, javaMaxOutputBytes, javaMaxRunawayThreads);
+    }
+
+    private InterpreterPoolConfig interpreterPoolConfig() {
+        return InterpreterPoolConfig.builder()
+                .poolSize(interpreterPoolSize)
+                .maxQueueSize(interpreterMaxQueueSize)
+                .maxExecutionsPerWorker(interpreterMaxExecutions)
+                .build();
+    }
+
     /**
      * 创建Bing搜索MCPTool - 直接输出给用户
      */
     @Bean
-    public MCPTool bingSearchMCPTool(McpSyncClient bingSearchMCPClient) {
+    public AbstractMCPTool bingSearchMCPTool(@Qualifier("bingSearchMCPClient") ObjectProvider<McpSyncClient> syncClient,
+                                             @Qualifier("bingSearchMCPClientPool") ObjectProvider<MCPClientPool> clientPool) {
         String description = """
             Bing网页搜索工具，支持以下工具：
 
@@ -32,7 +126,8 @@ public class CommonToolConfiguration {
             注意：快速模式返回摘要，非快速模式可获取完整网页内容
             """;
 
-        return new MCPTool(bingSearchMCPClient, "bing_search", description);
+        return mcpTool(syncClient, clientPool, "bing_search", description)
+                .withCachePolicy(ToolCachePolicy.global(Duration.ofMinutes(10)));
     }
 
     /**
@@ -40,7 +135,8 @@ public class CommonToolConfiguration {
      * 基于实际MCP服务器返回的工具列表创建
      */
     @Bean
-    public MCPTool amapMCPTool(McpSyncClient amapMCPClient) {
+    public AbstractMCPTool amapMCPTool(@Qualifier("amapMCPClient") ObjectProvider<McpSyncClient> syncClient,
+                                       @Qualifier("amapMCPClientPool") ObjectProvider<MCPClientPool> clientPool) {
         String description = """
             高德地图服务工具集合，支持以下工具：
 
@@ -92,7 +188,9 @@ public class CommonToolConfiguration {
             使用方式: tool_name指定具体工具名，arguments包含该工具的参数
             """;
 
-        return new MCPTool(amapMCPClient, "amap_maps", description);
+        // 地理编码与POI信息变化缓慢
+        return mcpTool(syncClient, clientPool, "amap_maps", description)
+                .withCachePolicy(ToolCachePolicy.global(Duration.ofHours(1)));
     }
 
     /**
@@ -100,7 +198,8 @@ public class CommonToolConfiguration {
      * 基于实际MCP服务器返回的工具列表创建
      */
     @Bean
-    public MCPTool datetimeMCPTool(McpSyncClient datetimeMCPClient) {
+    public AbstractMCPTool datetimeMCPTool(@Qualifier("datetimeMCPClient") ObjectProvider<McpSyncClient> syncClient,
+                                           @Qualifier("datetimeMCPClientPool") ObjectProvider<MCPClientPool> clientPool) {
         String description = """
             日期时间工具集合，支持以下工具：
 
@@ -146,7 +245,11 @@ public class CommonToolConfiguration {
             使用方式: tool_name指定具体工具名，arguments包含该工具的参数
             """;
 
-        return new MCPTool(datetimeMCPClient, "datetime_tools", description);
+        return mcpTool(syncClient, clientPool, "datetime_tools", description)
+                .withCachePolicy(ToolCachePolicy.builder()
+                        .ttl(Duration.ofHours(1))
+                        .condition(arguments -> PURE_DATETIME_TOOLS.contains(arguments.get("tool_name")))
+                        .build());
     }
 
     /**
@@ -154,7 +257,8 @@ public class CommonToolConfiguration {
      * 基于实际MCP服务器返回的工具列表创建
      */
     @Bean
-    public MCPTool weatherMCPTool(McpSyncClient weatherMCPClient) {
+    public AbstractMCPTool weatherMCPTool(@Qualifier("weatherMCPClient") ObjectProvider<McpSyncClient> syncClient,
+                                          @Qualifier("weatherMCPClientPool") ObjectProvider<MCPClientPool> clientPool) {
         String description = """
             天气服务工具集合，支持以下工具：
 
@@ -180,7 +284,39 @@ public class CommonToolConfiguration {
             注意：所有查询都基于经纬度坐标进行，请确保提供正确的经纬度参数
             """;
 
-        return new MCPTool(weatherMCPClient, "weather_tools", description);
+        return mcpTool(syncClient, clientPool, "weather_tools", description)
+                .withCachePolicy(ToolCachePolicy.global(Duration.ofMinutes(10)));
+    }
+
+    /**
+     * 存在客户端池（agent.mcp.client-mode=async）时创建非阻塞的AsyncMCPTool，否则创建MCPTool
+     */
+    private AbstractMCPTool mcpTool(ObjectProvider<McpSyncClient> syncClient, ObjectProvider<MCPClientPool> clientPool,
+                                    String toolName, String description) {
+        MCPClientPool pool = clientPool.getIfAvailable();
+        AbstractMCPTool tool = pool != null
+                ? new AsyncMCPTool(pool, toolName, description)
+                : new MCPTool(syncClient.getObject(), toolName, description);
+        return tool.withBulkheadPolicy(mcpBulkheadPolicy(mcpMaxConcurrency, mcpMaxQueueSize, mcpTimeout))
+                .withCircuitBreakerPolicy(mcpCircuitBreakerPolicy(mcpFailureRateThreshold, mcpSlowCallDuration, mcpOpenDuration));
+    }
+
+    /**
+     * 每个MCP服务的舱壁策略，超时为0时不限制
+     */
+    static ToolBulkheadPolicy mcpBulkheadPolicy(int maxConcurrency, int maxQueueSize, Duration timeout) {
+        return ToolBulkheadPolicy.of(maxConcurrency, maxQueueSize, timeout.isZero() ? null : timeout);
     }
 
+    /**
+     * 每个MCP服务的熔断策略
+     */
+    static ToolCircuitBreakerPolicy mcpCircuitBreakerPolicy(double failureRateThreshold, Duration slowCallDuration,
+                                                            Duration openDuration) {
+        return ToolCircuitBreakerPolicy.builder()
+                .failureRateThreshold(failureRateThreshold)
+                .slowCallDuration(slowCallDuration)
+                .openDuration(openDuration)
+                .build();
+    }
 }
@@ -1,19 +1,45 @@
 package cn.apmen.jsagent.example.configuration;
 
+import cn.apmen.jsagent.framework.mcp.MCPClientPool;
+import cn.apmen.jsagent.framework.mcp.MCPPoolConfig;
 import io.modelcontextprotocol.client.McpClient;
 import io.modelcontextprotocol.client.McpSyncClient;
 import io.modelcontextprotocol.client.transport.HttpClientSseClientTransport;
+import io.modelcontextprotocol.spec.McpSchema;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import reactor.core.publisher.Mono;
 
 import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
+/**
+ * MCP客户端配置
+ * agent.mcp.client-mode=sync（默认）创建McpSyncClient，async为每个服务创建McpAsyncClient客户端池
+ * （工具调用不占用工作线程，多会话并发，健康探测与自动重连）
+ */
 @Slf4j
 @Configuration
 public class MCPClientConfiguration {
 
+    private static final String CLIENT_MODE = "agent.mcp.client-mode";
+
+    // 服务 -> tools/list_changed通知的监听器
+    private final Map<String, Consumer<List<McpSchema.Tool>>> toolsChangeListeners = new ConcurrentHashMap<>();
+
+    @Value("${agent.mcp.pool.size:4}")
+    private int poolSize;
+    @Value("${agent.mcp.pool.max-outstanding-per-client:64}")
+    private int poolMaxOutstanding;
+    @Value("${agent.mcp.pool.health-check-interval:15s}")
+    private Duration poolHealthCheckInterval;
+
     @Value("${agent.mcp.bingsearch.url}")
     private String bingSearchUrl;
     @Value("${agent.mcp.bingsearch.sse-endpoint}")
@@ -38,6 +64,7 @@ public class MCPClientConfiguration {
      * 创建Bing搜索MCP客户端
      */
     @Bean(name = "bingSearchMCPClient")
+    @ConditionalOnProperty(name = CLIENT_MODE, havingValue = "sync", matchIfMissing = true)
     public McpSyncClient bingSearchMCPClient() {
         try {
             log.info("正在初始化Bing搜索MCP客户端...");
@@ -48,6 +75,7 @@ public class MCPClientConfiguration {
                                     .build())
                     .requestTimeout(Duration.ofSeconds(60))  // 增加请求超时时间
                     .initializationTimeout(Duration.ofSeconds(30))  // 增加初始化超时时间
+                    .toolsChangeConsumer(tools -> notifyToolsChanged("bingSearch", tools))
                     .build();
 
             client.initialize();
@@ -74,6 +102,7 @@ public class MCPClientConfiguration {
      * 创建日期时间MCP客户端
      */
     @Bean(name = "datetimeMCPClient")
+    @ConditionalOnProperty(name = CLIENT_MODE, havingValue = "sync", matchIfMissing = true)
     public McpSyncClient datetimeMCPClient() {
         try {
             log.info("正在初始化日期时间MCP客户端...");
@@ -84,6 +113,7 @@ public class MCPClientConfiguration {
                                     .build())
                     .requestTimeout(Duration.ofSeconds(60))
                     .initializationTimeout(Duration.ofSeconds(30))
+                    .toolsChangeConsumer(tools -> notifyToolsChanged("datetime", tools))
                     .build();
 
             client.initialize();
@@ -110,6 +140,7 @@ public class MCPClientConfiguration {
      * 创建天气MCP客户端
      */
     @Bean(name = "weatherMCPClient")
+    @ConditionalOnProperty(name = CLIENT_MODE, havingValue = "sync", matchIfMissing = true)
     public McpSyncClient weatherMCPClient() {
         try {
             log.info("正在初始化天气MCP客户端...");
@@ -120,6 +151,7 @@ public class MCPClientConfiguration {
                                     .build())
                     .requestTimeout(Duration.ofSeconds(60))
                     .initializationTimeout(Duration.ofSeconds(30))
+                    .toolsChangeConsumer(tools -> notifyToolsChanged("weather", tools))
                     .build();
 
             client.initialize();
@@ -146,6 +178,7 @@ public class MCPClientConfiguration {
      * 创建高德地图MCP客户端
      */
     @Bean(name = "amapMCPClient")
+    @ConditionalOnProperty(name = CLIENT_MODE, havingValue = "sync", matchIfMissing = true)
     public McpSyncClient amapMCPClient() {
         try {
             log.info("正在初始化高德地图MCP客户端...");
@@ -156,6 +189,7 @@ public class MCPClientConfiguration {
                                     .build())
                     .requestTimeout(Duration.ofSeconds(60))
                     .initializationTimeout(Duration.ofSeconds(30))
+                    .toolsChangeConsumer(tools -> notifyToolsChanged("amap", tools))
                     .build();
 
             client.initialize();
@@ -178,4 +212,88 @@ public class MCPClientConfiguration {
         }
     }
 
+    /**
+     * 创建Bing搜索MCP客户端池
+     */
+    @Bean(name = "bingSearchMCPClientPool", destroyMethod = "close")
+    @ConditionalOnProperty(name = CLIENT_MODE, havingValue = "async")
+    public MCPClientPool bingSearchMCPClientPool() {
+        return createClientPool("bingSearch", "Bing搜索", bingSearchUrl, bingSearchSseEndpoint);
+    }
+
+    /**
+     * 创建日期时间MCP客户端池
+     */
+    @Bean(name = "datetimeMCPClientPool", destroyMethod = "close")
+    @ConditionalOnProperty(name = CLIENT_MODE, havingValue = "async")
+    public MCPClientPool datetimeMCPClientPool() {
+        return createClientPool("datetime", "日期时间", datetimeUrl, datetimeSseEndpoint);
+    }
+
+    /**
+     * 创建天气MCP客户端池
+     */
+    @Bean(name = "weatherMCPClientPool", destroyMethod = "close")
+    @ConditionalOnProperty(name = CLIENT_MODE, havingValue = "async")
+    public MCPClientPool weatherMCPClientPool() {
+        return createClientPool("weather", "天气", weatherUrl, weatherSseEndpoint);
+    }
+
+    /**
+     * 创建高德地图MCP客户端池
+     */
+    @Bean(name = "amapMCPClientPool", destroyMethod = "close")
+    @ConditionalOnProperty(name = CLIENT_MODE, havingValue = "async")
+    public MCPClientPool amapMCPClientPool() {
+        return createClientPool("amap", "高德地图", amapUrl, amapSseEndpoint);
+    }
+
+    /**
+     * 创建MCP异步客户端池：每个客户端使用独立的SSE连接，启动时至少一个客户端初始化成功，
+     * 其余客户端与运行期失效的客户端在后台按退避重连
+     */
+    private MCPClientPool createClientPool(String server, String label, String url, String sseEndpoint) {
+        log.info("正在初始化{}MCP客户端池，客户端数: {}", label, poolSize);
+        MCPClientPool pool = new MCPClientPool(label,
+                () -> McpClient.async(
+                                HttpClientSseClientTransport.builder(url)
+                                        .sseEndpoint(sseEndpoint)
+                                        .build())
+                        .requestTimeout(Duration.ofSeconds(60))
+                        .initializationTimeout(Duration.ofSeconds(30))
+                        .toolsChangeConsumer(tools -> {
+                            notifyToolsChanged(server, tools);
+                            return Mono.empty();
+                        })
+                        .build(),
+                MCPPoolConfig.builder()
+                        .poolSize(poolSize)
+                        .maxOutstandingPerClient(poolMaxOutstanding)
+                        .healthCheckInterval(poolHealthCheckInterval)
+                        .build());
+        try {
+            pool.start();
+        } catch (Exception e) {
+            log.error("{}MCP客户端池初始化失败", label, e);
+            throw new RuntimeException("Failed to initialize " + label + " MCP client pool: " + e.getMessage(), e);
+        }
+        log.info("{}MCP客户端池初始化成功", label);
+        return pool;
+    }
+
+    /**
+     * 注册服务的tools/list_changed监听器
+     * @param server 服务标识（bingSearch、datetime、weather、amap）
+     */
+    public void addToolsChangeListener(String server, Consumer<List<McpSchema.Tool>> listener) {
+        toolsChangeListeners.put(server, listener);
+    }
+
+    private void notifyToolsChanged(String server, List<McpSchema.Tool> tools) {
+        Consumer<List<McpSchema.Tool>> listener = toolsChangeListeners.get(server);
+        if (listener != null) {
+            listener.accept(tools);
+        }
+    }
+
 }
@@ -0,0 +1,138 @@
+package cn.apmen.jsagent.example.configuration;
+
+import cn.apmen.jsagent.framework.mcp.MCPCatalogConfig;
+import cn.apmen.jsagent.framework.mcp.MCPClientPool;
+import cn.apmen.jsagent.framework.mcp.MCPToolCatalog;
+import cn.apmen.jsagent.framework.tool.ToolCachePolicy;
+import cn.apmen.jsagent.framework.tool.ToolRegistry;
+import io.modelcontextprotocol.client.McpSyncClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * MCP原生工具配置
+ * agent.mcp.native-tools.enabled=true 时，每个MCP服务的工具按服务器声明的参数结构逐个注册到ToolRegistry，
+ * 代替tool_name + arguments的通用包装；工具目录缓存在磁盘上，收到tools/list_changed时后台刷新
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "agent.mcp.native-tools.enabled", havingValue = "true")
+public class MCPToolCatalogConfiguration {
+
+    @Value("${agent.mcp.native-tools.cache-directory:./data/mcp-catalog}")
+    private String cacheDirectory;
+
+    @Value("${agent.mcp.native-tools.refresh-interval:10m}")
+    private Duration refreshInterval;
+
+    @Value("${agent.mcp.bulkhead.max-concurrency:8}")
+    private int mcpMaxConcurrency;
+
+    @Value("${agent.mcp.bulkhead.max-queue-size:32}")
+    private int mcpMaxQueueSize;
+
+    @Value("${agent.mcp.bulkhead.timeout:180s}")
+    private Duration mcpTimeout;
+
+    @Value("${agent.mcp.circuit-breaker.failure-rate-threshold:0.5}")
+    private double mcpFailureRateThreshold;
+
+    @Value("${agent.mcp.circuit-breaker.slow-call-duration:30s}")
+    private Duration mcpSlowCallDuration;
+
+    @Value("${agent.mcp.circuit-breaker.open-duration:30s}")
+    private Duration mcpOpenDuration;
+
+    private final MCPClientConfiguration clientConfiguration;
+
+    public MCPToolCatalogConfiguration(MCPClientConfiguration clientConfiguration) {
+        this.clientConfiguration = clientConfiguration;
+    }
+
+    /**
+     * Bing搜索工具目录
+     */
+    @Bean(destroyMethod = "close")
+    public MCPToolCatalog bingSearchToolCatalog(ToolRegistry toolRegistry,
+                                                @Qualifier("bingSearchMCPClient") ObjectProvider<McpSyncClient> syncClient,
+                                                @Qualifier("bingSearchMCPClientPool") ObjectProvider<MCPClientPool> clientPool) {
+        return catalog("bingSearch", toolRegistry, syncClient, clientPool, catalogConfig()
+                .cachePolicy(ToolCachePolicy.global(Duration.ofMinutes(10)))
+                .build());
+    }
+
+    /**
+     * 高德地图工具目录，地理编码与POI信息变化缓慢
+     */
+    @Bean(destroyMethod = "close")
+    public MCPToolCatalog amapToolCatalog(ToolRegistry toolRegistry,
+                                          @Qualifier("amapMCPClient") ObjectProvider<McpSyncClient> syncClient,
+                                          @Qualifier("amapMCPClientPool") ObjectProvider<MCPClientPool> clientPool) {
+        return catalog("amap", toolRegistry, syncClient, clientPool, catalogConfig()
+                .cachePolicy(ToolCachePolicy.global(Duration.ofHours(1)))
+                .build());
+    }
+
+    /**
+     * 日期时间工具目录，只缓存与当前时间无关的工具
+     */
+    @Bean(destroyMethod = "close")
+    public MCPToolCatalog datetimeToolCatalog(ToolRegistry toolRegistry,
+                                              @Qualifier("datetimeMCPClient") ObjectProvider<McpSyncClient> syncClient,
+                                              @Qualifier("datetimeMCPClientPool") ObjectProvider<MCPClientPool> clientPool) {
+        Map<String, ToolCachePolicy> cachePolicies = new HashMap<>();
+        CommonToolConfiguration.PURE_DATETIME_TOOLS.forEach(name ->
+                cachePolicies.put(name, ToolCachePolicy.global(Duration.ofHours(1))));
+        return catalog("datetime", toolRegistry, syncClient, clientPool, catalogConfig()
+                .cachePolicies(cachePolicies)
+                .build());
+    }
+
+    /**
+     * 天气工具目录
+     */
+    @Bean(destroyMethod = "close")
+    public MCPToolCatalog weatherToolCatalog(ToolRegistry toolRegistry,
+                                             @Qualifier("weatherMCPClient") ObjectProvider<McpSyncClient> syncClient,
+                                             @Qualifier("weatherMCPClientPool") ObjectProvider<MCPClientPool> clientPool) {
+        return catalog("weather", toolRegistry, syncClient, clientPool, catalogConfig()
+                .cachePolicy(ToolCachePolicy.global(Duration.ofMinutes(10)))
+                .build());
+    }
+
+    private MCPCatalogConfig.MCPCatalogConfigBuilder catalogConfig() {
+        return MCPCatalogConfig.builder()
+                .cacheDirectory(Path.of(cacheDirectory))
+                .refreshInterval(refreshInterval)
+                // 同一服务的全部工具共享舱壁与熔断状态
+                .bulkheadPolicy(CommonToolConfiguration.mcpBulkheadPolicy(mcpMaxConcurrency, mcpMaxQueueSize, mcpTimeout))
+                .circuitBreakerPolicy(CommonToolConfiguration.mcpCircuitBreakerPolicy(
+                        mcpFailureRateThreshold, mcpSlowCallDuration, mcpOpenDuration));
+    }
+
+    /**
+     * 按客户端模式创建并启动工具目录，同时订阅该服务的tools/list_changed通知
+     */
+    private MCPToolCatalog catalog(String server, ToolRegistry toolRegistry,
+                                   ObjectProvider<McpSyncClient> syncClient, ObjectProvider<MCPClientPool> clientPool,
+                                   MCPCatalogConfig config) {
+        MCPClientPool pool = clientPool.getIfAvailable();
+        MCPToolCatalog catalog = pool != null
+                ? MCPToolCatalog.forClientPool(server, pool, toolRegistry, config)
+                : MCPToolCatalog.forSyncClient(server, syncClient.getObject(), toolRegistry, config);
+        clientConfiguration.addToolsChangeListener(server, catalog::onToolsChanged);
+        catalog.start();
+        log.info("MCP工具目录 {} 已注册工具: {}", server, catalog.getRegisteredToolNames());
+        return catalog;
+    }
+}
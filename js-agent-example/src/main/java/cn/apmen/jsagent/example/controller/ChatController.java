@@ -1,14 +1,21 @@
 package cn.apmen.jsagent.example.controller;
 
+import cn.apmen.jsagent.framework.cluster.ClusterConfig;
+import cn.apmen.jsagent.framework.cluster.ClusterCoordinator;
+import cn.apmen.jsagent.framework.cluster.ClusterNode;
 import cn.apmen.jsagent.framework.core.AgentEvent;
 import cn.apmen.jsagent.framework.core.AgentRunner;
 import cn.apmen.jsagent.framework.protocol.UserChatMessage;
 import cn.apmen.jsagent.framework.protocol.UserChatRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
@@ -27,14 +34,34 @@ public class ChatController {
 
     private final AgentRunner agentRunner;
 
+    // 集群模式下按conversationId路由到归属节点，未启用集群时为空
+    private final ObjectProvider<ClusterCoordinator> clusterCoordinator;
+
     /**
      * 非流式聊天接口
      */
     @PostMapping("/message")
-    public Mono<ChatResponse> chat(@RequestBody ChatRequest request) {
+    public Mono<ChatResponse> chat(@RequestBody ChatRequest request,
+                                   @RequestHeader(value = ClusterCoordinator.FORWARDED_HEADER, required = false) String forwardedBy,
+                                   ServerHttpResponse httpResponse) {
         log.info("收到聊天请求: {}", request.getMessage());
 
         String conversationId = request.getConversationId() != null ? request.getConversationId() : "default-conversation";
+        ClusterCoordinator cluster = clusterCoordinator.getIfAvailable();
+        if (cluster == null) {
+            return chatLocally(request, conversationId);
+        }
+        request.setConversationId(conversationId);
+        return cluster.route(conversationId, forwardedBy, owner -> {
+            if (cluster.routingMode() == ClusterConfig.RoutingMode.REDIRECT) {
+                redirect(httpResponse, cluster, owner, "/api/chat/message");
+                return Mono.empty();
+            }
+            return cluster.forward(owner, "/api/chat/message", request, ChatResponse.class);
+        }, () -> chatLocally(request, conversationId));
+    }
+
+    private Mono<ChatResponse> chatLocally(ChatRequest request, String conversationId) {
         // 构建用户聊天请求
         UserChatRequest userChatRequest = UserChatRequest.builder()
                 .userId(request.getUserId() != null ? request.getUserId() : "default-user")
@@ -59,10 +86,27 @@ public class ChatController {
      * 流式聊天接口
      */
     @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<AgentEvent> chatStream(@RequestBody ChatRequest request) {
+    public Flux<AgentEvent> chatStream(@RequestBody ChatRequest request,
+                                       @RequestHeader(value = ClusterCoordinator.FORWARDED_HEADER, required = false) String forwardedBy,
+                                       ServerHttpResponse httpResponse) {
         log.info("收到流式聊天请求: {}", request.getMessage());
 
         String conversationId = request.getConversationId() != null ? request.getConversationId() : "default-conversation";
+        ClusterCoordinator cluster = clusterCoordinator.getIfAvailable();
+        if (cluster == null) {
+            return chatStreamLocally(request, conversationId);
+        }
+        request.setConversationId(conversationId);
+        return cluster.routeStream(conversationId, forwardedBy, owner -> {
+            if (cluster.routingMode() == ClusterConfig.RoutingMode.REDIRECT) {
+                redirect(httpResponse, cluster, owner, "/api/chat/stream");
+                return Flux.empty();
+            }
+            return cluster.forwardStream(owner, "/api/chat/stream", request, AgentEvent.class);
+        }, () -> chatStreamLocally(request, conversationId));
+    }
+
+    private Flux<AgentEvent> chatStreamLocally(ChatRequest request, String conversationId) {
         // 构建用户聊天请求
         UserChatRequest userChatRequest = UserChatRequest.builder()
                 .userId(request.getUserId() != null ? request.getUserId() : "default-user")
@@ -81,6 +125,15 @@ public class ChatController {
                 .doOnError(error -> log.error("Stream error for conversation {}: {}", conversationId, error.getMessage()));
     }
 
+    /**
+     * 307重定向到归属节点，客户端以相同的方法和请求体重发
+     */
+    private void redirect(ServerHttpResponse httpResponse, ClusterCoordinator cluster, ClusterNode owner, String path) {
+        log.debug("Redirecting conversation request to node {}", owner.getId());
+        httpResponse.setStatusCode(HttpStatus.TEMPORARY_REDIRECT);
+        httpResponse.getHeaders().setLocation(cluster.redirectUri(owner, path));
+    }
+
     /**
      * 聊天请求DTO
      */
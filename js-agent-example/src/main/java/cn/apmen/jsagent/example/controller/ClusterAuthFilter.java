@@ -0,0 +1,63 @@
+package cn.apmen.jsagent.example.controller;
+
+import cn.apmen.jsagent.framework.cluster.ClusterCoordinator;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/**
+ * 集群请求校验
+ * /internal/cluster 下的接口和 /internal/tools 下修改状态的接口只接受携带正确共享密钥的请求；
+ * 其他请求未携带正确密钥时去掉来源节点头，外部客户端不能伪造已转发标记绕过路由
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "agent.cluster.enabled", havingValue = "true")
+public class ClusterAuthFilter implements WebFilter {
+
+    private static final String INTERNAL_PATH = "/internal/cluster";
+
+    private static final String TOOL_ADMIN_PATH = "/internal/tools";
+
+    private final ClusterCoordinator clusterCoordinator;
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        if (clusterCoordinator.authenticate(request.getHeaders().getFirst(ClusterCoordinator.AUTH_HEADER))) {
+            return chain.filter(exchange);
+        }
+
+        String path = request.getPath().pathWithinApplication().value();
+        if (isUnder(path, INTERNAL_PATH)
+                || (isUnder(path, TOOL_ADMIN_PATH) && !HttpMethod.GET.equals(request.getMethod()))) {
+            log.warn("Rejected unauthenticated cluster request {} from {}", path, request.getRemoteAddress());
+            exchange.getResponse().setStatusCode(HttpStatus.FORBIDDEN);
+            return exchange.getResponse().setComplete();
+        }
+        if (!request.getHeaders().containsKey(ClusterCoordinator.FORWARDED_HEADER)
+                && !request.getHeaders().containsKey(ClusterCoordinator.AUTH_HEADER)) {
+            return chain.filter(exchange);
+        }
+        ServerHttpRequest stripped = request.mutate()
+                .headers(headers -> {
+                    headers.remove(ClusterCoordinator.FORWARDED_HEADER);
+                    headers.remove(ClusterCoordinator.AUTH_HEADER);
+                })
+                .build();
+        return chain.filter(exchange.mutate().request(stripped).build());
+    }
+
+    private static boolean isUnder(String path, String prefix) {
+        return path.equals(prefix) || path.startsWith(prefix + "/");
+    }
+}
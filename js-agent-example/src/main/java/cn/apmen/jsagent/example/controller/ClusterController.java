@@ -0,0 +1,45 @@
+package cn.apmen.jsagent.example.controller;
+
+import cn.apmen.jsagent.framework.cluster.ClusterCoordinator;
+import cn.apmen.jsagent.framework.cluster.HandoffBatch;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+/**
+ * 集群内部接口 - 会话状态移交与哈希环状态
+ */
+@RestController
+@RequestMapping("/internal/cluster")
+@Slf4j
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "agent.cluster.enabled", havingValue = "true")
+public class ClusterController {
+
+    private final ClusterCoordinator clusterCoordinator;
+
+    /**
+     * 接收其他节点移交的会话状态
+     */
+    @PostMapping("/handoff")
+    public Mono<Map<String, Object>> handoff(@RequestBody HandoffBatch batch) {
+        return clusterCoordinator.acceptHandoff(batch)
+                .map(accepted -> Map.<String, Object>of("accepted", accepted));
+    }
+
+    /**
+     * 哈希环与转发、移交统计
+     */
+    @GetMapping("/ring")
+    public Mono<Map<String, Object>> ring() {
+        return Mono.fromCallable(clusterCoordinator::getStatistics);
+    }
+}
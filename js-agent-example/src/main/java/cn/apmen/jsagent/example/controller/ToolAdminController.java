@@ -0,0 +1,91 @@
+package cn.apmen.jsagent.example.controller;
+
+import cn.apmen.jsagent.framework.tool.RelevanceToolSelector;
+import cn.apmen.jsagent.framework.tool.ToolRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+/**
+ * 工具管理接口 - 工具执行统计、工具选择统计与熔断器状态
+ * 修改熔断器状态的接口默认关闭，需配置 agent.tools.admin.write-enabled=true；
+ * 开启集群时这些接口还需携带节点共享密钥（见ClusterAuthFilter）
+ */
+@RestController
+@RequestMapping("/internal/tools")
+@Slf4j
+@RequiredArgsConstructor
+public class ToolAdminController {
+
+    private final ToolRegistry toolRegistry;
+    private final RelevanceToolSelector toolSelector;
+
+    @Value("${agent.tools.admin.write-enabled:false}")
+    private boolean writeEnabled;
+
+    /**
+     * 工具注册、缓存、舱壁与熔断统计
+     */
+    @GetMapping("/statistics")
+    public Mono<Map<String, Object>> statistics() {
+        return Mono.fromCallable(toolRegistry::getStatistics);
+    }
+
+    /**
+     * 工具选择统计
+     */
+    @GetMapping("/selection")
+    public Mono<Map<String, Object>> selection() {
+        return Mono.fromCallable(toolSelector::getStatistics);
+    }
+
+    /**
+     * 全部熔断器的状态
+     */
+    @GetMapping("/circuit-breakers")
+    public Mono<Map<String, Object>> circuitBreakers() {
+        return Mono.fromCallable(() -> toolRegistry.getCircuitBreakers().getStatistics());
+    }
+
+    /**
+     * 重置熔断器为关闭状态
+     * 熔断器键可能包含"/"（如 groupKey/toolName），因此通过查询参数传入
+     */
+    @PostMapping("/circuit-breakers/reset")
+    public Mono<Map<String, Object>> reset(@RequestParam String key) {
+        if (!writeEnabled) {
+            return writeDisabled();
+        }
+        boolean reset = toolRegistry.getCircuitBreakers().reset(key);
+        log.info("Circuit breaker {} reset requested: {}", key, reset);
+        return Mono.just(Map.of("key", key, "reset", reset));
+    }
+
+    /**
+     * 手动打开熔断器，如维护中的MCP服务
+     */
+    @PostMapping("/circuit-breakers/open")
+    public Mono<Map<String, Object>> open(@RequestParam String key) {
+        if (!writeEnabled) {
+            return writeDisabled();
+        }
+        boolean opened = toolRegistry.getCircuitBreakers().forceOpen(key);
+        log.info("Circuit breaker {} open requested: {}", key, opened);
+        return Mono.just(Map.of("key", key, "opened", opened));
+    }
+
+    private static Mono<Map<String, Object>> writeDisabled() {
+        return Mono.error(new ResponseStatusException(HttpStatus.FORBIDDEN,
+                "Circuit breaker changes are disabled, set agent.tools.admin.write-enabled=true"));
+    }
+}
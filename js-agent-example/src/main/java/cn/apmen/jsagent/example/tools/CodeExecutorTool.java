@@ -1,12 +1,15 @@
 package cn.apmen.jsagent.example.tools;
 
 import cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall;
-import cn.apmen.jsagent.framework.tool.AbstractToolExecutor;
-import cn.apmen.jsagent.framework.tool.ToolContext;
+import cn.apmen.jsagent.framework.tool.ToolExecutionMode;
 import cn.apmen.jsagent.framework.tool.ToolResult;
+import cn.apmen.jsagent.framework.tool.annotation.AgentToolMethod;
+import cn.apmen.jsagent.framework.tool.annotation.ToolParam;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
-import reactor.core.publisher.Mono;
 
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
@@ -16,89 +19,77 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Locale;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
 
 /**
  * 代码执行工具 - 支持多种编程语言的代码执行
  * 支持的语言：JavaScript, Python, Java, Shell
+ * 参数Schema与参数绑定由@AgentToolMethod在编译期生成，见 CodeExecutorTool_AgentTools
+ * Python与Shell代码优先在常驻解释器进程池中执行，见 InterpreterWorkerPool；开启进程内执行后Java代码在当前JVM中编译执行，见 InProcessJavaRunner
  */
 @Component
 @Slf4j
-public class CodeExecutorTool extends AbstractToolExecutor {
+public class CodeExecutorTool {
 
     private final ScriptEngineManager scriptEngineManager = new ScriptEngineManager();
     private static final int EXECUTION_TIMEOUT_SECONDS = 30;
     private static final String TEMP_DIR = System.getProperty("java.io.tmpdir");
 
-    @Override
-    public String getToolName() {
-        return "code_executor";
-    }
+    // 常驻解释器进程池，为null或不可用时每次启动新进程执行
+    private final InterpreterWorkerPool pythonWorkerPool;
+    private final InterpreterWorkerPool shellWorkerPool;
+    // 进程内Java编译执行（需显式开启），为null或不可用时使用javac/java进程
+    private final InProcessJavaRunner javaRunner;
 
-    @Override
-    public String getDescription() {
-        return "执行代码片段，支持JavaScript、Python、Java、Shell等多种编程语言";
+    public CodeExecutorTool() {
+        this(null, null, null);
     }
 
-    @Override
-    public Map<String, Object> getParametersDefinition() {
-        Map<String, Object> parameters = new HashMap<>();
-        parameters.put("type", "object");
-
-        Map<String, Object> properties = new HashMap<>();
-
-        // language 参数定义
-        Map<String, Object> languageProperty = new HashMap<>();
-        languageProperty.put("type", "string");
-        languageProperty.put("description", "编程语言类型");
-        languageProperty.put("enum", Arrays.asList("javascript", "python", "java", "shell", "bash"));
-        properties.put("language", languageProperty);
-
-        // code 参数定义
-        Map<String, Object> codeProperty = new HashMap<>();
-        codeProperty.put("type", "string");
-        codeProperty.put("description", "要执行的代码内容");
-        properties.put("code", codeProperty);
-
-        // timeout 参数定义（可选）
-        Map<String, Object> timeoutProperty = new HashMap<>();
-        timeoutProperty.put("type", "integer");
-        timeoutProperty.put("description", "执行超时时间（秒），默认30秒");
-        timeoutProperty.put("default", 30);
-        properties.put("timeout", timeoutProperty);
-
-        parameters.put("properties", properties);
-        parameters.put("required", new String[]{"language", "code"});
-
-        return parameters;
+    @Autowired
+    public CodeExecutorTool(@Qualifier("pythonWorkerPool") ObjectProvider<InterpreterWorkerPool> pythonWorkerPool,
+                            @Qualifier("shellWorkerPool") ObjectProvider<InterpreterWorkerPool> shellWorkerPool,
+                            ObjectProvider<InProcessJavaRunner> javaRunner) {
+        this.pythonWorkerPool = pythonWorkerPool != null ? pythonWorkerPool.getIfAvailable() : null;
+        this.shellWorkerPool = shellWorkerPool != null ? shellWorkerPool.getIfAvailable() : null;
+        this.javaRunner = javaRunner != null ? javaRunner.getIfAvailable() : null;
     }
 
-    @Override
-    public String[] getRequiredParameters() {
-        return new String[]{"language", "code"};
+    /**
+     * 代码执行参数
+     */
+    public record Arguments(
+            @ToolParam(description = "编程语言类型", allowedValues = {"javascript", "js", "python", "py", "java", "shell", "bash"})
+            String language,
+            @ToolParam(description = "要执行的代码内容")
+            String code,
+            @ToolParam(description = "执行超时时间（秒），默认30秒", required = false,
+                    defaultValue = "30", min = 1, max = 600)
+            int timeout) {
     }
 
-    @Override
-    protected Mono<ToolResult> doExecute(ToolCall toolCall, ToolContext context, Map<String, Object> arguments) {
-        String language = getStringParameter(arguments, "language");
-        String code = getStringParameter(arguments, "code");
-        int timeout = getIntParameter(arguments, "timeout", EXECUTION_TIMEOUT_SECONDS);
-
-        log.info("执行代码: language={}, timeout={}s", language, timeout);
-        log.debug("代码内容: {}", code);
+    @AgentToolMethod(name = "code_executor",
+            description = "执行代码片段，支持JavaScript、Python、Java、Shell等多种编程语言",
+            executionMode = ToolExecutionMode.VIRTUAL_THREAD)
+    public ToolResult execute(Arguments arguments, ToolCall toolCall) {
+        log.info("执行代码: language={}, timeout={}s", arguments.language(), arguments.timeout());
+        log.debug("代码内容: {}", arguments.code());
 
+        // 进程启动与waitFor均为阻塞操作；同步方法由生成的执行器放到executionMode对应的调度器上执行
         try {
-            String result = executeCode(language, code, timeout);
-            return Mono.just(success(toolCall.getId(), result));
+            return ToolResult.success(toolCall.getId(),
+                    executeCode(arguments.language(), arguments.code(), arguments.timeout()));
         } catch (Exception e) {
             log.error("代码执行失败", e);
-            return Mono.just(error(toolCall.getId(), "代码执行失败: " + e.getMessage()));
+            return ToolResult.error(toolCall.getId(), "代码执行失败: " + e.getMessage());
         }
     }
 
@@ -106,7 +97,7 @@ public class CodeExecutorTool extends AbstractToolExecutor {
      * 执行代码
      */
     private String executeCode(String language, String code, int timeout) throws Exception {
-        switch (language.toLowerCase()) {
+        switch (language.toLowerCase(Locale.ROOT)) {
             case "javascript":
             case "js":
                 return executeJavaScript(code);
@@ -159,6 +150,10 @@ public class CodeExecutorTool extends AbstractToolExecutor {
      * 执行Python代码
      */
     private String executePython(String code, int timeout) throws Exception {
+        if (pythonWorkerPool != null && pythonWorkerPool.isAvailable()) {
+            return executeInPool(pythonWorkerPool, code, timeout, "Python代码执行超时");
+        }
+
         // 创建临时Python文件
         Path tempFile = createTempFile("python_code", ".py", code);
 
@@ -212,13 +207,30 @@ public class CodeExecutorTool extends AbstractToolExecutor {
                    "}";
         }
 
-        // 创建临时Java文件
-        Path tempFile = createTempFile(className, ".java", code);
-        Path tempDir = tempFile.getParent();
+        // 开启时优先在进程内编译执行，调用了System.exit或使用反射的代码仍使用独立JVM
+        if (javaRunner != null && javaRunner.isAvailable()) {
+            InProcessJavaRunner.Result result;
+            try {
+                result = javaRunner.run(className, code, Duration.ofSeconds(timeout));
+            } catch (TimeoutException e) {
+                throw new RuntimeException("Java代码执行超时");
+            }
+            if (result != null) {
+                if (!result.compiled()) {
+                    return "编译失败:\n" + result.diagnostics();
+                }
+                return formatResult(result.exitCode(), result.output(), result.truncated());
+            }
+        }
+
+        // 创建临时Java文件，public类的文件名必须与类名一致，每次执行使用独立的临时目录
+        Path tempDir = Files.createTempDirectory(Paths.get(TEMP_DIR), "java_code");
+        Path tempFile = tempDir.resolve(className + ".java");
+        Files.write(tempFile, code.getBytes(StandardCharsets.UTF_8));
 
         try {
             // 编译Java代码
-            ProcessBuilder compileBuilder = new ProcessBuilder("javac", tempFile.toString());
+            ProcessBuilder compileBuilder = new ProcessBuilder("javac", "-encoding", "UTF-8", tempFile.toString());
             compileBuilder.directory(tempDir.toFile());
             Process compileProcess = compileBuilder.start();
 
@@ -255,9 +267,10 @@ public class CodeExecutorTool extends AbstractToolExecutor {
             return "执行成功:\n" + output.toString();
 
         } finally {
-            // 清理临时文件
-            Files.deleteIfExists(tempFile);
-            Files.deleteIfExists(Paths.get(tempDir.toString(), className + ".class"));
+            // 清理临时目录（含内部类的class文件）
+            try (Stream<Path> files = Files.walk(tempDir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
         }
     }
 
@@ -270,6 +283,10 @@ public class CodeExecutorTool extends AbstractToolExecutor {
             throw new SecurityException("检测到不安全的Shell命令");
         }
 
+        if (shellWorkerPool != null && shellWorkerPool.isAvailable()) {
+            return executeInPool(shellWorkerPool, code, timeout, "Shell脚本执行超时");
+        }
+
         Path tempFile = createTempFile("shell_script", ".sh", code);
 
         try {
@@ -305,6 +322,31 @@ public class CodeExecutorTool extends AbstractToolExecutor {
         }
     }
 
+    /**
+     * 在常驻解释器进程中执行，输出格式与单次进程执行一致
+     */
+    private String executeInPool(InterpreterWorkerPool pool, String code, int timeout, String timeoutMessage)
+            throws Exception {
+        InterpreterWorkerPool.Result result;
+        try {
+            result = pool.execute(code, Duration.ofSeconds(timeout));
+        } catch (TimeoutException e) {
+            throw new RuntimeException(timeoutMessage);
+        }
+
+        return formatResult(result.exitCode(), result.output(), result.truncated());
+    }
+
+    private String formatResult(int exitCode, String output, boolean truncated) {
+        if (truncated) {
+            output = output + "\n...（输出过长，已截断）";
+        }
+        if (exitCode != 0) {
+            return "执行失败 (退出码: " + exitCode + "):\n" + output;
+        }
+        return "执行成功:\n" + output;
+    }
+
     /**
      * 创建临时文件
      */
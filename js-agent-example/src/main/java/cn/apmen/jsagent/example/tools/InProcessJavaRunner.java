@@ -0,0 +1,686 @@
+package cn.apmen.jsagent.example.tools;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内Java代码执行
+ * 使用复用的JavaCompiler在内存中编译，编译结果按源码哈希缓存；每次执行使用新的类加载器
+ * （父加载器为平台类加载器，看不到应用类，静态状态不在执行之间保留），在独立线程中运行main，
+ * System.out/System.err按线程路由到本次执行的输出缓冲区。
+ * 线程无法被强制终止：超时后只中断线程并丢弃其后续输出，仍在运行的超时线程达到上限时不再进程内执行；
+ * 调用System.exit/Runtime.halt或使用反射、MethodHandle（可绕过静态检查间接调用任意方法）的代码不在进程内执行，
+ * 由调用方退回到独立JVM。类加载器只隔离类可见性，代码片段仍与应用共享进程、文件系统与JVM全局状态，默认关闭
+ */
+@Slf4j
+public class InProcessJavaRunner implements AutoCloseable {
+
+    private static final InheritableThreadLocal<OutputCapture> CAPTURE = new InheritableThreadLocal<>();
+
+    /**
+     * 反射调用入口：java.lang.reflect下的类、MethodHandle/VarHandle查找与调用、Class上的成员查找
+     */
+    private static final String REFLECTION_PACKAGE = "java/lang/reflect/";
+    private static final Set<String> METHOD_HANDLE_CLASSES = Set.of(
+            "java/lang/invoke/MethodHandle", "java/lang/invoke/MethodHandles",
+            "java/lang/invoke/MethodHandles$Lookup", "java/lang/invoke/VarHandle");
+    private static final Set<String> CLASS_MEMBER_LOOKUPS = Set.of(
+            "forName", "getMethod", "getMethods", "getDeclaredMethod", "getDeclaredMethods",
+            "getConstructor", "getConstructors", "getDeclaredConstructor", "getDeclaredConstructors",
+            "getField", "getFields", "getDeclaredField", "getDeclaredFields", "getRecordComponents");
+    private static volatile boolean outputRoutingInstalled;
+
+    /**
+     * 执行结果
+     * @param compiled 是否编译成功
+     * @param diagnostics 编译错误信息
+     * @param exitCode 退出码，main抛出异常时为1
+     * @param output 合并后的System.out/System.err输出
+     * @param truncated 输出是否超过上限被截断
+     * @param cached 是否命中编译缓存
+     */
+    public record Result(boolean compiled, String diagnostics, int exitCode, String output,
+                         boolean truncated, boolean cached) {
+    }
+
+    private final JavaCompiler compiler;
+    private final StandardJavaFileManager standardFileManager;
+    private final int maxOutputBytes;
+    private final int maxRunawayThreads;
+    private final Map<String, CompiledProgram> cache;
+    private final Set<Thread> runawayThreads = Collections.synchronizedSet(new HashSet<>());
+    private final AtomicInteger threadCounter = new AtomicInteger();
+
+    private final AtomicLong compilations = new AtomicLong();
+    private final AtomicLong compileNanos = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong delegated = new AtomicLong();
+
+    /**
+     * @param cacheSize 编译结果缓存条数
+     * @param maxOutputBytes 单次执行保留的输出上限（字节）
+     * @param maxRunawayThreads 允许仍在运行的超时线程数，达到后不再进程内执行
+     */
+    public InProcessJavaRunner(int cacheSize, int maxOutputBytes, int maxRunawayThreads) {
+        this.compiler = ToolProvider.getSystemJavaCompiler();
+        this.standardFileManager = compiler != null
+                ? compiler.getStandardFileManager(null, Locale.ROOT, StandardCharsets.UTF_8) : null;
+        if (standardFileManager != null) {
+            try {
+                // 代码片段只能使用JDK类，不能编译依赖应用类路径的代码
+                standardFileManager.setLocation(StandardLocation.CLASS_PATH, List.of());
+            } catch (IOException e) {
+                log.warn("Failed to reset compiler class path: {}", e.getMessage());
+            }
+        }
+        this.maxOutputBytes = maxOutputBytes;
+        this.maxRunawayThreads = maxRunawayThreads;
+        int capacity = Math.max(1, cacheSize);
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledProgram> eldest) {
+                return size() > capacity;
+            }
+        });
+        if (compiler == null) {
+            log.warn("No system Java compiler available (running on a JRE), in-process Java execution disabled");
+        }
+    }
+
+    /**
+     * 是否可以进程内执行：需要JDK编译器，且仍在运行的超时线程未达上限
+     */
+    public boolean isAvailable() {
+        if (compiler == null) {
+            return false;
+        }
+        runawayThreads.removeIf(thread -> !thread.isAlive());
+        return runawayThreads.size() < maxRunawayThreads;
+    }
+
+    /**
+     * 编译并执行代码的main方法
+     * @param className 主类的简单类名
+     * @param source 源码
+     * @param timeout 执行超时时间（不含编译）
+     * @return 执行结果；代码调用了System.exit或使用反射等需要独立进程时返回null
+     * @throws TimeoutException 执行超时
+     */
+    public Result run(String className, String source, Duration timeout) throws TimeoutException, InterruptedException {
+        String key = sourceHash(className, source);
+        CompiledProgram program = cache.get(key);
+        boolean cached = program != null;
+        if (cached) {
+            cacheHits.incrementAndGet();
+        } else {
+            program = compile(className, source);
+            cache.put(key, program);
+        }
+
+        if (!program.compiled()) {
+            return new Result(false, program.diagnostics(), 1, "", false, cached);
+        }
+        if (program.needsProcess()) {
+            delegated.incrementAndGet();
+            return null;
+        }
+        return execute(program, timeout, cached);
+    }
+
+    private Result execute(CompiledProgram program, Duration timeout, boolean cached)
+            throws TimeoutException, InterruptedException {
+        installOutputRouting();
+        MemoryClassLoader loader = new MemoryClassLoader(program.classes());
+        OutputCapture capture = new OutputCapture(maxOutputBytes);
+        int[] exitCode = {0};
+
+        Runnable main = () -> {
+            CAPTURE.set(capture);
+            try {
+                Method method = loader.loadClass(program.mainClass()).getMethod("main", String[].class);
+                if (!Modifier.isStatic(method.getModifiers())) {
+                    throw new NoSuchMethodException("main method must be static");
+                }
+                method.setAccessible(true);
+                method.invoke(null, (Object) new String[0]);
+            } catch (InvocationTargetException e) {
+                exitCode[0] = 1;
+                e.getCause().printStackTrace(System.err);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                exitCode[0] = 1;
+                System.err.println("无法执行main方法: " + e);
+            } finally {
+                System.out.flush();
+                System.err.flush();
+            }
+        };
+
+        Thread thread = new Thread(null, main, "java-snippet-" + threadCounter.incrementAndGet());
+        thread.setDaemon(true);
+        thread.setContextClassLoader(loader);
+        executions.incrementAndGet();
+        thread.start();
+        thread.join(Math.max(1, timeout.toMillis()));
+
+        if (thread.isAlive()) {
+            capture.close();
+            thread.interrupt();
+            runawayThreads.add(thread);
+            timeouts.incrementAndGet();
+            log.warn("Java snippet {} timed out after {}ms and is still running", thread.getName(), timeout.toMillis());
+            throw new TimeoutException("Java snippet timed out");
+        }
+        return new Result(true, "", exitCode[0], capture.text(), capture.truncated(), cached);
+    }
+
+    /**
+     * 在内存中编译，标准文件管理器不是线程安全的，编译串行进行
+     */
+    private synchronized CompiledProgram compile(String className, String source) {
+        long start = System.nanoTime();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        MemoryFileManager fileManager = new MemoryFileManager(standardFileManager);
+        JavaFileObject sourceFile = new SourceFile(className, source);
+        Boolean success = compiler.getTask(null, fileManager, diagnostics,
+                List.of("-proc:none", "-Xlint:none", "-g"), null, List.of(sourceFile)).call();
+        compilations.incrementAndGet();
+        compileNanos.addAndGet(System.nanoTime() - start);
+
+        if (!Boolean.TRUE.equals(success)) {
+            return new CompiledProgram(false, formatDiagnostics(diagnostics), null, Map.of(), false);
+        }
+
+        Map<String, byte[]> classes = fileManager.classes();
+        String mainClass = null;
+        boolean needsProcess = false;
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            String name = entry.getKey();
+            if (name.equals(className) || name.endsWith("." + className)) {
+                mainClass = name;
+            }
+            needsProcess |= requiresSeparateJvm(entry.getValue());
+        }
+        if (mainClass == null) {
+            return new CompiledProgram(false, "未找到类 " + className, null, Map.of(), false);
+        }
+        return new CompiledProgram(true, "", mainClass, classes, needsProcess);
+    }
+
+    private static String formatDiagnostics(DiagnosticCollector<JavaFileObject> diagnostics) {
+        StringBuilder text = new StringBuilder();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() != Diagnostic.Kind.ERROR) {
+                continue;
+            }
+            String file = diagnostic.getSource() != null ? diagnostic.getSource().getName() : "";
+            text.append(file.startsWith("/") ? file.substring(1) : file)
+                    .append(':').append(diagnostic.getLineNumber())
+                    .append(": error: ").append(diagnostic.getMessage(Locale.ROOT)).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * 扫描常量池中的方法引用，判断是否调用了会终止JVM的方法或使用了反射、MethodHandle。
+     * lambda与字符串拼接的引导方法（LambdaMetafactory、StringConcatFactory）不在检查范围内
+     */
+    static boolean requiresSeparateJvm(byte[] classBytes) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(classBytes))) {
+            in.skipBytes(8);
+            int count = in.readUnsignedShort();
+            String[] utf8 = new String[count];
+            int[] classNames = new int[count];
+            int[] refClasses = new int[count];
+            int[] refNameAndTypes = new int[count];
+            int[] names = new int[count];
+            for (int i = 1; i < count; i++) {
+                int tag = in.readUnsignedByte();
+                switch (tag) {
+                    case 1 -> utf8[i] = in.readUTF();
+                    case 7 -> classNames[i] = in.readUnsignedShort();
+                    case 9, 10, 11 -> {
+                        refClasses[i] = in.readUnsignedShort();
+                        refNameAndTypes[i] = in.readUnsignedShort();
+                    }
+                    case 12 -> {
+                        names[i] = in.readUnsignedShort();
+                        in.readUnsignedShort();
+                    }
+                    case 8, 16, 19, 20 -> in.readUnsignedShort();
+                    case 15 -> in.skipBytes(3);
+                    case 3, 4, 17, 18 -> in.readInt();
+                    case 5, 6 -> {
+                        in.readLong();
+                        i++;
+                    }
+                    default -> {
+                        return true;
+                    }
+                }
+            }
+            for (int i = 1; i < count; i++) {
+                if (refClasses[i] == 0) {
+                    continue;
+                }
+                String owner = utf8[classNames[refClasses[i]]];
+                String method = utf8[names[refNameAndTypes[i]]];
+                if (("java/lang/System".equals(owner) && "exit".equals(method))
+                        || ("java/lang/Runtime".equals(owner) && ("exit".equals(method) || "halt".equals(method)))
+                        || owner.startsWith(REFLECTION_PACKAGE)
+                        || METHOD_HANDLE_CLASSES.contains(owner)
+                        || ("java/lang/Class".equals(owner) && CLASS_MEMBER_LOOKUPS.contains(method))) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (IOException | RuntimeException e) {
+            // 无法解析时按需要独立进程处理
+            return true;
+        }
+    }
+
+    private static String sourceHash(String className, String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(className.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(source.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 把System.out/System.err替换为按线程路由的输出流，未在执行代码片段的线程照常输出到控制台
+     */
+    private static synchronized void installOutputRouting() {
+        if (outputRoutingInstalled) {
+            return;
+        }
+        System.setOut(new RoutingPrintStream(System.out));
+        System.setErr(new RoutingPrintStream(System.err));
+        outputRoutingInstalled = true;
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        long compiled = compilations.get();
+        stats.put("available", isAvailable());
+        stats.put("compilations", compiled);
+        stats.put("avgCompileMs", compiled == 0 ? 0.0 : compileNanos.get() / 1_000_000.0 / compiled);
+        stats.put("cacheHits", cacheHits.get());
+        stats.put("cachedPrograms", cache.size());
+        stats.put("executions", executions.get());
+        stats.put("timeouts", timeouts.get());
+        stats.put("runawayThreads", runawayThreads.size());
+        stats.put("delegatedToProcess", delegated.get());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        cache.clear();
+        if (standardFileManager != null) {
+            try {
+                standardFileManager.close();
+            } catch (IOException e) {
+                log.debug("Failed to close compiler file manager: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 编译结果
+     */
+    private record CompiledProgram(boolean compiled, String diagnostics, String mainClass,
+                                   Map<String, byte[]> classes, boolean needsProcess) {
+    }
+
+    /**
+     * 单次执行的输出缓冲区，按UTF-8保存，超过上限或执行超时后丢弃输出
+     */
+    private static final class OutputCapture extends OutputStream {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final PrintStream stream = new PrintStream(this, true, StandardCharsets.UTF_8);
+        private final int limit;
+        private boolean truncated;
+        private boolean closed;
+
+        private OutputCapture(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int length) {
+            if (closed) {
+                return;
+            }
+            int keep = Math.min(length, limit - buffer.size());
+            if (keep > 0) {
+                buffer.write(bytes, offset, keep);
+            }
+            if (keep < length) {
+                truncated = true;
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+        }
+
+        synchronized boolean truncated() {
+            return truncated;
+        }
+
+        synchronized String text() {
+            return buffer.toString(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * 按当前线程转发到本次执行的输出缓冲区或原控制台，字符直接交给目标流编码，不受控制台编码影响
+     */
+    private static final class RoutingPrintStream extends PrintStream {
+        private final PrintStream console;
+
+        private RoutingPrintStream(PrintStream console) {
+            super(console, true);
+            this.console = console;
+        }
+
+        private PrintStream target() {
+            OutputCapture capture = CAPTURE.get();
+            return capture != null ? capture.stream : console;
+        }
+
+        @Override
+        public void write(int b) {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            target().write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() {
+            target().flush();
+        }
+
+        @Override
+        public void close() {
+            // 控制台与执行缓冲区的生命周期不由调用方控制
+        }
+
+        @Override
+        public boolean checkError() {
+            return target().checkError();
+        }
+
+        @Override
+        public void print(boolean b) {
+            target().print(b);
+        }
+
+        @Override
+        public void print(char c) {
+            target().print(c);
+        }
+
+        @Override
+        public void print(int i) {
+            target().print(i);
+        }
+
+        @Override
+        public void print(long l) {
+            target().print(l);
+        }
+
+        @Override
+        public void print(float f) {
+            target().print(f);
+        }
+
+        @Override
+        public void print(double d) {
+            target().print(d);
+        }
+
+        @Override
+        public void print(char[] s) {
+            target().print(s);
+        }
+
+        @Override
+        public void print(String s) {
+            target().print(s);
+        }
+
+        @Override
+        public void print(Object obj) {
+            target().print(obj);
+        }
+
+        @Override
+        public void println() {
+            target().println();
+        }
+
+        @Override
+        public void println(boolean x) {
+            target().println(x);
+        }
+
+        @Override
+        public void println(char x) {
+            target().println(x);
+        }
+
+        @Override
+        public void println(int x) {
+            target().println(x);
+        }
+
+        @Override
+        public void println(long x) {
+            target().println(x);
+        }
+
+        @Override
+        public void println(float x) {
+            target().println(x);
+        }
+
+        @Override
+        public void println(double x) {
+            target().println(x);
+        }
+
+        @Override
+        public void println(char[] x) {
+            target().println(x);
+        }
+
+        @Override
+        public void println(String x) {
+            target().println(x);
+        }
+
+        @Override
+        public void println(Object x) {
+            target().println(x);
+        }
+
+        @Override
+        public PrintStream printf(String format, Object... args) {
+            target().printf(format, args);
+            return this;
+        }
+
+        @Override
+        public PrintStream printf(Locale l, String format, Object... args) {
+            target().printf(l, format, args);
+            return this;
+        }
+
+        @Override
+        public PrintStream format(String format, Object... args) {
+            target().format(format, args);
+            return this;
+        }
+
+        @Override
+        public PrintStream format(Locale l, String format, Object... args) {
+            target().format(l, format, args);
+            return this;
+        }
+
+        @Override
+        public PrintStream append(CharSequence csq) {
+            target().append(csq);
+            return this;
+        }
+
+        @Override
+        public PrintStream append(CharSequence csq, int start, int end) {
+            target().append(csq, start, end);
+            return this;
+        }
+
+        @Override
+        public PrintStream append(char c) {
+            target().append(c);
+            return this;
+        }
+    }
+
+    /**
+     * 内存中的源文件
+     */
+    private static final class SourceFile extends SimpleJavaFileObject {
+        private final String source;
+
+        private SourceFile(String className, String source) {
+            super(URI.create("string:///" + className + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+
+    /**
+     * 内存中的class文件
+     */
+    private static final class ClassFile extends SimpleJavaFileObject {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private ClassFile(String className) {
+            super(URI.create("mem:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return bytes;
+        }
+    }
+
+    /**
+     * 把编译输出写入内存的文件管理器，每次编译新建
+     */
+    private static final class MemoryFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+        private final Map<String, ClassFile> outputs = new LinkedHashMap<>();
+
+        private MemoryFileManager(JavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                                   FileObject sibling) {
+            ClassFile file = new ClassFile(className);
+            outputs.put(className, file);
+            return file;
+        }
+
+        Map<String, byte[]> classes() {
+            Map<String, byte[]> classes = new HashMap<>();
+            outputs.forEach((name, file) -> classes.put(name, file.bytes.toByteArray()));
+            return Collections.unmodifiableMap(classes);
+        }
+    }
+
+    /**
+     * 一次性类加载器，只加载本次编译产生的类，父加载器为平台类加载器
+     */
+    private static final class MemoryClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+
+        private MemoryClassLoader(Map<String, byte[]> classes) {
+            super("java-snippet", ClassLoader.getPlatformClassLoader());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package cn.apmen.jsagent.example.tools;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Duration;
+
+/**
+ * 解释器进程池配置
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class InterpreterPoolConfig {
+
+    /**
+     * 常驻解释器进程数，也是同时执行的代码片段上限
+     */
+    @Builder.Default
+    private int poolSize = 2;
+
+    /**
+     * 等待空闲进程的排队上限，超过时直接拒绝
+     */
+    @Builder.Default
+    private int maxQueueSize = 16;
+
+    /**
+     * 单个进程执行多少次后回收重建，避免代码片段修改的解释器状态累积
+     */
+    @Builder.Default
+    private int maxExecutionsPerWorker = 100;
+
+    /**
+     * 单次执行保留的输出上限（字节），超出部分丢弃
+     */
+    @Builder.Default
+    private int maxOutputBytes = 1024 * 1024;
+
+    /**
+     * 进程启动并完成握手的超时时间
+     */
+    @Builder.Default
+    private Duration startupTimeout = Duration.ofSeconds(10);
+}
@@ -0,0 +1,482 @@
+package cn.apmen.jsagent.example.tools;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 常驻解释器进程池
+ * 预先启动若干python3/bash进程，代码片段通过管道协议发送给空闲进程执行，省去每次调用的
+ * 进程启动与临时文件开销。协议：请求为 "<字节数>\n<代码>"，响应为 "<退出码> <字节数>\n<输出>"，
+ * stdout与stderr合并输出。进程执行满一定次数、超时被终止或协议出错时回收，并在后台补充新进程
+ */
+@Slf4j
+public class InterpreterWorkerPool implements AutoCloseable {
+
+    /**
+     * Python进程作为zygote：协议使用复制出的原始stdin/stdout，fd 0指向/dev/null，fd 1/2指向捕获文件。
+     * 每个代码片段在fork出的子进程中执行，导入的模块、sys.path、环境变量、工作目录与线程随子进程退出，
+     * 不会泄漏到后续会话；片段调用os._exit时已写出的输出（-u无缓冲）仍保留在捕获文件中
+     */
+    private static final String PYTHON_BOOTSTRAP = """
+            import os, sys, tempfile, traceback
+            _in = os.fdopen(os.dup(0), 'rb')
+            _out = os.fdopen(os.dup(1), 'wb')
+            os.dup2(os.open(os.devnull, os.O_RDONLY), 0)
+            _cap = tempfile.TemporaryFile()
+            _fd = _cap.fileno()
+            os.dup2(_fd, 1)
+            os.dup2(_fd, 2)
+            _out.write(b'ready\\n')
+            _out.flush()
+            while True:
+                _header = _in.readline()
+                if not _header:
+                    break
+                _code = _in.read(int(_header)).decode('utf-8', 'replace')
+                _pid = os.fork()
+                if _pid == 0:
+                    _in.close()
+                    _out.close()
+                    _status = 0
+                    try:
+                        exec(compile(_code, '<code>', 'exec'), {'__name__': '__main__'})
+                    except SystemExit as e:
+                        if isinstance(e.code, int):
+                            _status = e.code
+                        elif e.code is not None:
+                            print(e.code, file=sys.stderr)
+                            _status = 1
+                    except BaseException as e:
+                        traceback.print_exception(type(e), e, e.__traceback__.tb_next)
+                        _status = 1
+                    try:
+                        sys.stdout.flush()
+                        sys.stderr.flush()
+                    finally:
+                        os._exit(_status & 0xff)
+                _, _wait = os.waitpid(_pid, 0)
+                _status = os.WEXITSTATUS(_wait) if os.WIFEXITED(_wait) else 128 + os.WTERMSIG(_wait)
+                _size = os.lseek(_fd, 0, os.SEEK_END)
+                os.lseek(_fd, 0, os.SEEK_SET)
+                _out.write(('%d %d\\n' % (_status, _size)).encode())
+                _left = _size
+                while _left > 0:
+                    _chunk = os.read(_fd, min(_left, 65536))
+                    if not _chunk:
+                        break
+                    _out.write(_chunk)
+                    _left -= len(_chunk)
+                _out.write(b'\\0' * _left)
+                _out.flush()
+                os.ftruncate(_fd, 0)
+                os.lseek(_fd, 0, os.SEEK_SET)
+            """;
+
+    /**
+     * Bash进程：按C locale逐字节读取请求，代码在子shell中执行，变量、目录等修改不影响后续执行；
+     * 子shell关闭协议使用的fd 3/4，代码片段无法读写管道协议
+     */
+    private static final String SHELL_BOOTSTRAP = """
+            exec 3>&1 4<&0 </dev/null 2>/dev/null
+            __cap=$(mktemp) || exit 1
+            trap 'rm -f "$__cap"' EXIT
+            __had_lc=${LC_ALL+x}
+            __orig_lc=${LC_ALL-}
+            LC_ALL=C
+            printf 'ready\\n' >&3
+            while IFS= read -r __len <&4; do
+              __code=
+              if [ "$__len" -gt 0 ]; then
+                IFS= read -r -N "$__len" __code <&4 || break
+              fi
+              (
+                if [ -n "$__had_lc" ]; then LC_ALL=$__orig_lc; else unset LC_ALL; fi
+                eval "$__code"
+              ) >"$__cap" 2>&1 3>&- 4>&-
+              __status=$?
+              __size=$(wc -c <"$__cap")
+              printf '%d %d\\n' "$__status" "$((__size))" >&3
+              head -c "$((__size))" "$__cap" >&3
+            done
+            """;
+
+    private static final ScheduledExecutorService WATCHDOG =
+            Executors.newSingleThreadScheduledExecutor(daemonThreads("interpreter-watchdog"));
+    private static final ExecutorService WARMUP = Executors.newCachedThreadPool(daemonThreads("interpreter-warmup"));
+
+    /**
+     * 执行结果
+     * @param exitCode 退出码
+     * @param output 合并后的stdout/stderr
+     * @param truncated 输出是否超过上限被截断
+     */
+    public record Result(int exitCode, String output, boolean truncated) {
+    }
+
+    private final String name;
+    private final List<String> command;
+    private final InterpreterPoolConfig config;
+    private final int poolSize;
+    private final Semaphore permits;
+    private final Deque<Worker> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger liveWorkers = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private volatile boolean available = true;
+    private volatile boolean closed;
+
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong executionNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong recycled = new AtomicLong();
+    private final AtomicLong coldStarts = new AtomicLong();
+
+    /**
+     * python3进程池
+     */
+    public static InterpreterWorkerPool python(InterpreterPoolConfig config) {
+        return new InterpreterWorkerPool("python", List.of("python3", "-u", "-c", PYTHON_BOOTSTRAP), config);
+    }
+
+    /**
+     * bash进程池
+     */
+    public static InterpreterWorkerPool shell(InterpreterPoolConfig config) {
+        return new InterpreterWorkerPool("shell", List.of("bash", "-c", SHELL_BOOTSTRAP, "interpreter-worker"), config);
+    }
+
+    public InterpreterWorkerPool(String name, List<String> command, InterpreterPoolConfig config) {
+        this.name = name;
+        this.command = List.copyOf(command);
+        this.config = config != null ? config : InterpreterPoolConfig.builder().build();
+        this.poolSize = Math.max(1, this.config.getPoolSize());
+        this.permits = new Semaphore(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            warmUp();
+        }
+    }
+
+    /**
+     * 进程池是否可用，解释器无法启动时不可用，调用方应退回到单次进程执行
+     */
+    public boolean isAvailable() {
+        return available && !closed;
+    }
+
+    /**
+     * 在空闲进程中执行代码，阻塞直到完成
+     * @param code 代码
+     * @param timeout 超时时间，包含排队等待
+     * @throws TimeoutException 排队或执行超时，执行中的进程被终止
+     * @throws RejectedExecutionException 排队已满
+     */
+    public Result execute(String code, Duration timeout) throws IOException, TimeoutException, InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        acquire(timeout);
+        Worker worker = null;
+        boolean reusable = false;
+        try {
+            worker = idle.pollFirst();
+            if (worker == null || !worker.isAlive()) {
+                if (worker != null) {
+                    retire(worker);
+                }
+                coldStarts.incrementAndGet();
+                worker = spawn();
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                reusable = true;
+                timeouts.incrementAndGet();
+                throw new TimeoutException(name + " execution timed out while waiting for a worker");
+            }
+
+            long start = System.nanoTime();
+            Result result = worker.execute(code, remaining, config.getMaxOutputBytes());
+            executions.incrementAndGet();
+            executionNanos.addAndGet(System.nanoTime() - start);
+            reusable = worker.executions < config.getMaxExecutionsPerWorker();
+            return result;
+        } catch (TimeoutException e) {
+            if (!reusable) {
+                timeouts.incrementAndGet();
+            }
+            throw e;
+        } finally {
+            if (worker != null) {
+                release(worker, reusable);
+            }
+            permits.release();
+        }
+    }
+
+    private void acquire(Duration timeout) throws TimeoutException, InterruptedException {
+        if (permits.tryAcquire()) {
+            return;
+        }
+        if (waiting.incrementAndGet() > config.getMaxQueueSize()) {
+            waiting.decrementAndGet();
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException(name + " interpreter pool is busy, please retry later");
+        }
+        try {
+            if (!permits.tryAcquire(timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                timeouts.incrementAndGet();
+                throw new TimeoutException(name + " execution timed out while waiting for a worker");
+            }
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * 归还进程：可复用的放回空闲队列，否则回收并在后台补充
+     */
+    private void release(Worker worker, boolean reusable) {
+        if (reusable && !closed && worker.isAlive() && liveWorkers.get() <= poolSize) {
+            idle.offerFirst(worker);
+            return;
+        }
+        retire(worker);
+        if (!closed) {
+            warmUp();
+        }
+    }
+
+    private void retire(Worker worker) {
+        liveWorkers.decrementAndGet();
+        recycled.incrementAndGet();
+        worker.destroy();
+        log.debug("Recycled {} worker after {} executions", name, worker.executions);
+    }
+
+    private void warmUp() {
+        WARMUP.execute(() -> {
+            if (closed || liveWorkers.get() >= poolSize) {
+                return;
+            }
+            try {
+                Worker worker = spawn();
+                if (closed) {
+                    retire(worker);
+                } else {
+                    idle.offerLast(worker);
+                }
+            } catch (IOException e) {
+                log.warn("Failed to warm up {} worker: {}", name, e.getMessage());
+            }
+        });
+    }
+
+    private Worker spawn() throws IOException {
+        try {
+            Worker worker = Worker.start(command, config.getStartupTimeout());
+            liveWorkers.incrementAndGet();
+            available = true;
+            return worker;
+        } catch (IOException e) {
+            available = false;
+            throw e;
+        }
+    }
+
+    /**
+     * 获取进程池统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        long count = executions.get();
+        stats.put("available", isAvailable());
+        stats.put("workers", liveWorkers.get());
+        stats.put("idle", idle.size());
+        stats.put("busy", poolSize - permits.availablePermits());
+        stats.put("queued", waiting.get());
+        stats.put("executions", count);
+        stats.put("avgExecutionMs", count == 0 ? 0.0 : executionNanos.get() / 1_000_000.0 / count);
+        stats.put("timeouts", timeouts.get());
+        stats.put("rejected", rejected.get());
+        stats.put("recycled", recycled.get());
+        stats.put("coldStarts", coldStarts.get());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Worker worker;
+        while ((worker = idle.pollFirst()) != null) {
+            retire(worker);
+        }
+        log.info("{} interpreter pool closed", name);
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @FunctionalInterface
+    private interface IoCall<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * 单个常驻解释器进程，同一时刻只被一个调用方使用
+     */
+    private static final class Worker {
+        private final Process process;
+        private final OutputStream input;
+        private final InputStream output;
+        private int executions;
+
+        private Worker(Process process) {
+            this.process = process;
+            this.input = process.getOutputStream();
+            this.output = new BufferedInputStream(process.getInputStream());
+        }
+
+        static Worker start(List<String> command, Duration startupTimeout) throws IOException {
+            ProcessBuilder builder = new ProcessBuilder(command);
+            builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+            Worker worker = new Worker(builder.start());
+            try {
+                String handshake = worker.withDeadline(startupTimeout.toNanos(), worker::readLine);
+                if (!"ready".equals(handshake)) {
+                    throw new IOException("interpreter failed to start: " + command.get(0));
+                }
+                return worker;
+            } catch (TimeoutException e) {
+                worker.destroy();
+                throw new IOException("interpreter startup timed out: " + command.get(0));
+            } catch (IOException e) {
+                worker.destroy();
+                throw e;
+            }
+        }
+
+        Result execute(String code, long timeoutNanos, int maxOutputBytes) throws IOException, TimeoutException {
+            byte[] bytes = code.getBytes(StandardCharsets.UTF_8);
+            executions++;
+            return withDeadline(timeoutNanos, () -> {
+                input.write((bytes.length + "\n").getBytes(StandardCharsets.US_ASCII));
+                input.write(bytes);
+                input.flush();
+
+                String header = readLine();
+                if (header == null) {
+                    throw new EOFException("interpreter exited unexpectedly" + exitDescription());
+                }
+                String[] parts = header.split(" ");
+                if (parts.length != 2) {
+                    throw new IOException("malformed interpreter response: " + header);
+                }
+                int exitCode = Integer.parseInt(parts[0]);
+                long length = Long.parseLong(parts[1]);
+
+                ByteArrayOutputStream result = new ByteArrayOutputStream((int) Math.min(length, maxOutputBytes));
+                byte[] buffer = new byte[8192];
+                long remaining = length;
+                while (remaining > 0) {
+                    int read = output.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new EOFException("interpreter exited unexpectedly" + exitDescription());
+                    }
+                    int keep = (int) Math.min(read, maxOutputBytes - result.size());
+                    if (keep > 0) {
+                        result.write(buffer, 0, keep);
+                    }
+                    remaining -= read;
+                }
+                return new Result(exitCode, result.toString(StandardCharsets.UTF_8), length > maxOutputBytes);
+            });
+        }
+
+        /**
+         * 在截止时间内完成管道读写，超时由看门狗终止进程，阻塞的读写随之失败
+         */
+        private <T> T withDeadline(long timeoutNanos, IoCall<T> call) throws IOException, TimeoutException {
+            AtomicBoolean expired = new AtomicBoolean();
+            ScheduledFuture<?> watchdog = WATCHDOG.schedule(() -> {
+                expired.set(true);
+                destroy();
+            }, timeoutNanos, TimeUnit.NANOSECONDS);
+            try {
+                return call.call();
+            } catch (IOException | RuntimeException e) {
+                if (expired.get()) {
+                    throw new TimeoutException("execution timed out");
+                }
+                throw e;
+            } finally {
+                watchdog.cancel(false);
+            }
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int b;
+            while ((b = output.read()) != '\n') {
+                if (b < 0) {
+                    return line.length() == 0 ? null : line.toString();
+                }
+                if (line.length() > 256) {
+                    throw new IOException("malformed interpreter response");
+                }
+                line.append((char) b);
+            }
+            return line.toString();
+        }
+
+        private String exitDescription() {
+            try {
+                return process.waitFor(100, TimeUnit.MILLISECONDS) ? " (exit code " + process.exitValue() + ")" : "";
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return "";
+            }
+        }
+
+        boolean isAlive() {
+            return process.isAlive();
+        }
+
+        void destroy() {
+            process.descendants().forEach(ProcessHandle::destroyForcibly);
+            process.destroyForcibly();
+            try {
+                input.close();
+            } catch (IOException ignored) {
+                // 进程已终止
+            }
+        }
+    }
+}
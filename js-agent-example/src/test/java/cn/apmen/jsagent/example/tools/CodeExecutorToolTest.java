@@ -0,0 +1,46 @@
+package cn.apmen.jsagent.example.tools;
+
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.openaiunified.model.request.FunctionCall;
+import cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CodeExecutorToolTest {
+
+    private final CodeExecutorTool_AgentTools.ExecuteExecutor executor =
+            new CodeExecutorTool_AgentTools.ExecuteExecutor(new CodeExecutorTool());
+
+    private static ToolCall call(String language) {
+        ToolCall toolCall = new ToolCall();
+        toolCall.setId("call");
+        toolCall.setType("function");
+        FunctionCall function = new FunctionCall();
+        function.setName("code_executor");
+        function.setArguments("{\"language\":\"" + language + "\",\"code\":\"echo hi\"}");
+        toolCall.setFunction(function);
+        return toolCall;
+    }
+
+    @Test
+    void languageIsMatchedIgnoringCase() {
+        for (String language : new String[]{"Python", "JS", "py", "Bash", "javascript"}) {
+            // 传给工具方法的仍是原值
+            assertThat(executor.bind(call(language)).language()).isEqualTo(language);
+        }
+    }
+
+    @Test
+    void unknownLanguageIsRejected() {
+        assertThatThrownBy(() -> executor.bind(call("ruby")))
+                .isInstanceOf(AgentException.class)
+                .hasMessageContaining("language");
+    }
+
+    @Test
+    void runsOnTheDeclaredExecutionMode() {
+        assertThat(executor.execute(call("SHELL"), null).block().getContent()).contains("hi");
+    }
+}
@@ -0,0 +1,89 @@
+package cn.apmen.jsagent.example.tools;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.FunctionCall;
+import cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall;
+import cn.apmen.jsagent.framework.tool.ToolExecutor;
+import cn.apmen.jsagent.framework.tool.ToolResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Java代码片段延迟：javac/java独立进程 vs 进程内编译执行 vs 命中编译缓存
+ * 运行：mvn -Pbenchmark test -pl js-agent-example -Dtest=InProcessJavaRunnerBenchmarkTest
+ */
+@Tag("benchmark")
+class InProcessJavaRunnerBenchmarkTest {
+
+    private static final int RUNS = 10;
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private static String program(int i) {
+        return "public class Snippet {\n"
+                + "    public static void main(String[] args) {\n"
+                + "        long sum = 0;\n"
+                + "        for (int i = 0; i < 1000; i++) sum += i * " + i + ";\n"
+                + "        System.out.println(sum);\n"
+                + "    }\n"
+                + "}\n";
+    }
+
+    @Test
+    void inProcessExecutionIsFasterThanSeparateJvm() throws Exception {
+        ToolExecutor process = CodeExecutorTool_AgentTools.executors(new CodeExecutorTool()).get(0);
+        try (InProcessJavaRunner runner = new InProcessJavaRunner(64, 1024 * 1024, 4)) {
+            // 预热编译器与类加载
+            runner.run("Snippet", program(-1), TIMEOUT);
+            runInProcess(runner, -2);
+            runInProcess(runner, -2);
+            runProcess(process, -1);
+
+            long processNanos = 0;
+            long compileNanos = 0;
+            long cachedNanos = 0;
+            for (int i = 0; i < RUNS; i++) {
+                processNanos += runProcess(process, i);
+                compileNanos += runInProcess(runner, i);
+                cachedNanos += runInProcess(runner, i);
+            }
+
+            double processMs = processNanos / 1_000_000.0 / RUNS;
+            double compileMs = compileNanos / 1_000_000.0 / RUNS;
+            double cachedMs = cachedNanos / 1_000_000.0 / RUNS;
+            System.out.printf("Java snippet latency over %d runs: javac+java=%.1fms, in-process compile+run=%.1fms (%.1fx), "
+                            + "in-process cached=%.2fms (%.0fx)%n",
+                    RUNS, processMs, compileMs, processMs / compileMs, cachedMs, processMs / cachedMs);
+            assertThat(compileMs).isLessThan(processMs);
+            assertThat(cachedMs).isLessThan(compileMs);
+        }
+    }
+
+    private static long runInProcess(InProcessJavaRunner runner, int i) throws Exception {
+        long start = System.nanoTime();
+        InProcessJavaRunner.Result result = runner.run("Snippet", program(i), TIMEOUT);
+        long elapsed = System.nanoTime() - start;
+        assertThat(result.output().trim()).isEqualTo(String.valueOf(499_500L * i));
+        return elapsed;
+    }
+
+    private static long runProcess(ToolExecutor executor, int i) throws Exception {
+        ToolCall toolCall = new ToolCall();
+        toolCall.setId("call");
+        toolCall.setType("function");
+        FunctionCall function = new FunctionCall();
+        function.setName("code_executor");
+        function.setArguments(new ObjectMapper().writeValueAsString(Map.of("language", "java", "code", program(i))));
+        toolCall.setFunction(function);
+
+        long start = System.nanoTime();
+        ToolResult result = executor.execute(toolCall, null).block();
+        long elapsed = System.nanoTime() - start;
+        assertThat(result.getContent()).contains(String.valueOf(499_500L * i));
+        return elapsed;
+    }
+}
@@ -0,0 +1,57 @@
+package cn.apmen.jsagent.example.tools;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InProcessJavaRunnerTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final InProcessJavaRunner runner = new InProcessJavaRunner(16, 1024 * 1024, 4);
+
+    @AfterEach
+    void close() {
+        runner.close();
+    }
+
+    private static String program(String body) {
+        return "import java.lang.invoke.*;\n"
+                + "import java.util.function.*;\n"
+                + "public class Snippet {\n"
+                + "    record Point(int x, int y) {}\n"
+                + "    public static void main(String[] args) throws Throwable {\n"
+                + body + "\n"
+                + "    }\n"
+                + "}\n";
+    }
+
+    @Test
+    void runsPlainSnippetsInProcess() throws Exception {
+        InProcessJavaRunner.Result result = runner.run("Snippet", program("""
+                Supplier<String> greeting = () -> "hello " + args.length;
+                System.out.println(greeting.get() + " " + new Point(1, 2));
+                """), TIMEOUT);
+
+        assertThat(result).isNotNull();
+        assertThat(result.output().trim()).isEqualTo("hello 0 Point[x=1, y=2]");
+    }
+
+    @Test
+    void exitReflectionAndMethodHandlesAreDelegatedToASeparateJvm() throws Exception {
+        String[] snippets = {
+                "System.exit(0);",
+                "Runtime.getRuntime().halt(0);",
+                "Class.forName(\"java.lang.System\").getMethod(\"exit\", int.class).invoke(null, 0);",
+                "MethodHandles.lookup().findStatic(System.class, \"exit\", MethodType.methodType(void.class, int.class)).invoke(0);",
+                "Runnable exit = () -> System.exit(0);",
+        };
+        for (String snippet : snippets) {
+            assertThat(runner.run("Snippet", program(snippet), TIMEOUT)).as(snippet).isNull();
+        }
+        assertThat(runner.getStatistics()).containsEntry("delegatedToProcess", (long) snippets.length);
+    }
+}
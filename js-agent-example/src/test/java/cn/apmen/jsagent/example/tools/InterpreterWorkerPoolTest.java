@@ -0,0 +1,79 @@
+package cn.apmen.jsagent.example.tools;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InterpreterWorkerPoolTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final InterpreterPoolConfig config = InterpreterPoolConfig.builder().poolSize(1).build();
+    private InterpreterWorkerPool pool;
+
+    @AfterEach
+    void close() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    private void awaitWarmUp() throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!Integer.valueOf(1).equals(pool.getStatistics().get("idle")) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void pythonStateDoesNotLeakBetweenExecutions() throws Exception {
+        pool = InterpreterWorkerPool.python(config);
+        awaitWarmUp();
+        InterpreterWorkerPool.Result first = pool.execute("""
+                import os, sys, threading, json
+                print(os.getppid())
+                sys.path.insert(0, '/leaked')
+                os.environ['LEAKED'] = '1'
+                os.chdir('/')
+                threading.Thread(target=lambda: __import__('time').sleep(60)).start()
+                """, TIMEOUT);
+
+        InterpreterWorkerPool.Result result = pool.execute("""
+                import os, sys, threading
+                print(os.getppid())
+                print('json' in sys.modules, '/leaked' in sys.path, 'LEAKED' in os.environ, threading.active_count())
+                """, TIMEOUT);
+
+        // 两次执行由同一个zygote进程fork
+        String zygote = first.output().lines().findFirst().orElseThrow();
+        assertThat(result.output().lines()).containsExactly(zygote, "False False False 1");
+    }
+
+    @Test
+    void pythonOutputIsKeptWhenSnippetCallsOsExit() throws Exception {
+        pool = InterpreterWorkerPool.python(config);
+
+        InterpreterWorkerPool.Result result = pool.execute("""
+                import os
+                print('before exit')
+                os._exit(3)
+                """, TIMEOUT);
+
+        assertThat(result.exitCode()).isEqualTo(3);
+        assertThat(result.output()).contains("before exit");
+        assertThat(pool.execute("print('still alive')", TIMEOUT).output()).contains("still alive");
+    }
+
+    @Test
+    void shellSnippetCannotReachProtocolDescriptors() throws Exception {
+        pool = InterpreterWorkerPool.shell(config);
+
+        InterpreterWorkerPool.Result result = pool.execute("echo 0 0 >&3; read line <&4; echo done", TIMEOUT);
+
+        assertThat(result.output()).contains("Bad file descriptor").contains("done");
+        assertThat(pool.execute("echo next", TIMEOUT).output().trim()).isEqualTo("next");
+    }
+}
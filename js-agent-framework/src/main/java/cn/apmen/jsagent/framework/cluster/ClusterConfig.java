@@ -0,0 +1,86 @@
+package cn.apmen.jsagent.framework.cluster;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 集群配置
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClusterConfig {
+
+    /**
+     * 本节点ID
+     */
+    private String selfId;
+
+    /**
+     * 节点间共享密钥：转发、移交和内部接口的请求都携带该密钥，接收方校验后才信任来源节点头和移交内容
+     */
+    private String sharedSecret;
+
+    /**
+     * 静态成员列表，配置了membershipFile时以文件为准
+     */
+    @Builder.Default
+    private List<ClusterNode> nodes = new ArrayList<>();
+
+    /**
+     * 成员文件，每行一个 id=url，#开头为注释；文件变化时重建哈希环并移交状态
+     */
+    private Path membershipFile;
+
+    /**
+     * 成员文件检查间隔
+     */
+    @Builder.Default
+    private Duration refreshInterval = Duration.ofSeconds(5);
+
+    /**
+     * 每个节点在哈希环上的虚拟节点数
+     */
+    @Builder.Default
+    private int virtualNodes = 128;
+
+    /**
+     * 非归属节点收到请求时的处理方式
+     */
+    @Builder.Default
+    private RoutingMode routingMode = RoutingMode.FORWARD;
+
+    /**
+     * 转发与移交请求的超时时间
+     */
+    @Builder.Default
+    private Duration requestTimeout = Duration.ofSeconds(60);
+
+    /**
+     * 每个移交请求携带的最大会话数
+     */
+    @Builder.Default
+    private int handoffBatchSize = 64;
+
+    /**
+     * 移交前等待会话上进行中的本地请求结束的最长时间，超时则本轮不移交这些会话
+     */
+    @Builder.Default
+    private Duration fenceTimeout = Duration.ofSeconds(60);
+
+    /**
+     * 路由方式
+     */
+    public enum RoutingMode {
+        FORWARD,    // 由本节点转发到归属节点
+        REDIRECT    // 返回307让客户端重定向到归属节点
+    }
+}
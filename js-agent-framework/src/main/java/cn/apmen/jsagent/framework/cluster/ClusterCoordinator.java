@@ -0,0 +1,645 @@
+package cn.apmen.jsagent.framework.cluster;
+
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.exception.ErrorCode;
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.snapshot.Snapshottable;
+import cn.apmen.jsagent.framework.storage.MessageLog;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 集群协调器
+ * 按conversationId在一致性哈希环上确定归属节点，会话状态只保存在归属节点上（各节点的存储保持本地、无锁）；
+ * 非归属节点收到的请求由调用方通过 {@link #forward} 转发，或通过 {@link #redirectUri} 让客户端重定向
+ *
+ * 成员来自静态列表或成员文件，文件变化时重建哈希环；本地持有但新环上不再归属本节点的会话，
+ * 通过 {@link Snapshottable} 读出后批量POST到新归属节点的 {@link #HANDOFF_PATH}，对方确认后删除本地副本。
+ *
+ * 经 {@link #route} 在本地处理的请求持有会话租约；移交的发送方和接收方都先对会话加栅栏：
+ * 等待进行中的租约结束、新请求排队，读出/合并状态后再放行，移交期间不会有追加丢失。
+ * 节点间请求携带 {@link #AUTH_HEADER} 共享密钥，未通过校验的请求不能调用内部接口，其来源节点头也不被信任
+ */
+@Slf4j
+public class ClusterCoordinator implements Closeable {
+
+    /**
+     * 转发请求携带的来源节点头，带有该头的请求总在本地处理，避免成员视图短暂不一致时循环转发
+     */
+    public static final String FORWARDED_HEADER = "X-JsAgent-Forwarded";
+
+    /**
+     * 接收移交状态的路径
+     */
+    public static final String HANDOFF_PATH = "/internal/cluster/handoff";
+
+    /**
+     * 节点间请求携带的共享密钥头
+     */
+    public static final String AUTH_HEADER = "X-JsAgent-Cluster-Token";
+
+    private final ClusterConfig config;
+    private final Map<String, Snapshottable<?>> sources = new LinkedHashMap<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final WebClient webClient;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile HashRing ring;
+    private long membershipFileModified = Long.MIN_VALUE;
+
+    // 会话租约：routingKey -> 本地处理中的请求数与移交栅栏
+    private final Object leaseLock = new Object();
+    private final Map<String, LeaseState> leases = new HashMap<>();
+
+    // 统计信息
+    private final AtomicLong forwardedRequests = new AtomicLong();
+    private final AtomicLong ringChanges = new AtomicLong();
+    private final AtomicLong handedOffEntries = new AtomicLong();
+    private final AtomicLong receivedEntries = new AtomicLong();
+    private final AtomicLong handoffFailures = new AtomicLong();
+
+    {
+        objectMapper.findAndRegisterModules();
+        objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    public ClusterCoordinator(ClusterConfig config, List<? extends Snapshottable<?>> snapshottables) {
+        if (config.getSelfId() == null || config.getSelfId().isBlank()) {
+            throw new AgentException(ErrorCode.CONFIG_MISSING, "Cluster self id is required");
+        }
+        if (config.getSharedSecret() == null || config.getSharedSecret().isBlank()) {
+            throw new AgentException(ErrorCode.CONFIG_MISSING, "Cluster shared secret is required");
+        }
+        this.config = config;
+        for (Snapshottable<?> snapshottable : snapshottables) {
+            sources.put(snapshottable.snapshotName(), snapshottable);
+        }
+        this.webClient = WebClient.builder()
+            .codecs(configurer -> configurer.defaultCodecs().maxInMemorySize(64 * 1024 * 1024))
+            .build();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cluster-coordinator");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        List<ClusterNode> members = config.getMembershipFile() != null ? readMembershipFile() : config.getNodes();
+        this.ring = new HashRing(members, config.getVirtualNodes());
+        if (ring.node(config.getSelfId()) == null) {
+            log.warn("Node {} is not a cluster member, all conversations will be routed elsewhere", config.getSelfId());
+        }
+        log.info("Cluster ring initialized with {} nodes: {}", ring.nodes().size(), ring.ownership());
+    }
+
+    /**
+     * 启动成员文件检查
+     */
+    public void start() {
+        Duration interval = config.getRefreshInterval();
+        if (config.getMembershipFile() != null && interval != null && !interval.isZero()) {
+            scheduler.scheduleWithFixedDelay(this::refreshQuietly,
+                interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public String selfId() {
+        return config.getSelfId();
+    }
+
+    public ClusterConfig.RoutingMode routingMode() {
+        return config.getRoutingMode();
+    }
+
+    public HashRing ring() {
+        return ring;
+    }
+
+    /**
+     * 会话的归属节点，环为空时为null（按本地处理）
+     */
+    public ClusterNode ownerOf(String conversationId) {
+        return ring.owner(conversationId);
+    }
+
+    /**
+     * 会话是否应在本节点处理
+     * @param forwardedBy 请求上的 {@link #FORWARDED_HEADER}，已被转发过的请求总在本地处理
+     */
+    public boolean isLocal(String conversationId, String forwardedBy) {
+        if (forwardedBy != null) {
+            return true;
+        }
+        ClusterNode owner = ring.owner(conversationId);
+        return owner == null || owner.getId().equals(config.getSelfId());
+    }
+
+    /**
+     * 校验节点间请求携带的共享密钥
+     */
+    public boolean authenticate(String token) {
+        return token != null && MessageDigest.isEqual(
+            token.getBytes(StandardCharsets.UTF_8), config.getSharedSecret().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 按会话归属处理请求：归属其他节点时交给remote；在本地处理时持有会话租约，
+     * 会话正在移交时排队等待，移交完成后若会话已归属其他节点则改交remote
+     * @param remote 参数为归属节点，负责转发或重定向
+     */
+    public <T> Mono<T> route(String conversationId, String forwardedBy,
+                             Function<ClusterNode, Mono<T>> remote, Supplier<Mono<T>> local) {
+        if (!isLocal(conversationId, forwardedBy)) {
+            return remote.apply(ownerOf(conversationId));
+        }
+        return acquireLease(conversationId).flatMap(lease -> {
+            if (lease.movedAway()) {
+                lease.release();
+                return remote.apply(ownerOf(conversationId));
+            }
+            return Mono.usingWhen(Mono.just(lease), held -> local.get(),
+                Lease::releaseAsync, (held, error) -> held.releaseAsync(), Lease::releaseAsync);
+        });
+    }
+
+    /**
+     * 流式请求的 {@link #route}，租约持有到流结束或取消
+     */
+    public <T> Flux<T> routeStream(String conversationId, String forwardedBy,
+                                   Function<ClusterNode, Flux<T>> remote, Supplier<Flux<T>> local) {
+        if (!isLocal(conversationId, forwardedBy)) {
+            return remote.apply(ownerOf(conversationId));
+        }
+        return acquireLease(conversationId).flatMapMany(lease -> {
+            if (lease.movedAway()) {
+                lease.release();
+                return remote.apply(ownerOf(conversationId));
+            }
+            return Flux.usingWhen(Mono.just(lease), held -> local.get(),
+                Lease::releaseAsync, (held, error) -> held.releaseAsync(), Lease::releaseAsync);
+        });
+    }
+
+    /**
+     * 把请求转发到归属节点的同一路径
+     */
+    public <T> Mono<T> forward(ClusterNode owner, String path, Object body, Class<T> responseType) {
+        forwardedRequests.incrementAndGet();
+        return webClient.post()
+            .uri(owner.getUrl() + path)
+            .header(FORWARDED_HEADER, config.getSelfId())
+            .header(AUTH_HEADER, config.getSharedSecret())
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue(body)
+            .retrieve()
+            .bodyToMono(responseType)
+            .timeout(config.getRequestTimeout())
+            .onErrorMap(error -> !(error instanceof AgentException), error -> new AgentException(ErrorCode.NETWORK_ERROR,
+                "Failed to forward " + path + " to node " + owner.getId() + ": " + error.getMessage(), error));
+    }
+
+    /**
+     * 把流式请求转发到归属节点的同一路径，逐个转发其SSE事件
+     */
+    public <T> Flux<T> forwardStream(ClusterNode owner, String path, Object body, Class<T> eventType) {
+        forwardedRequests.incrementAndGet();
+        return webClient.post()
+            .uri(owner.getUrl() + path)
+            .header(FORWARDED_HEADER, config.getSelfId())
+            .header(AUTH_HEADER, config.getSharedSecret())
+            .contentType(MediaType.APPLICATION_JSON)
+            .accept(MediaType.TEXT_EVENT_STREAM)
+            .bodyValue(body)
+            .retrieve()
+            .bodyToFlux(eventType)
+            .onErrorMap(error -> !(error instanceof AgentException), error -> new AgentException(ErrorCode.NETWORK_ERROR,
+                "Failed to forward stream " + path + " to node " + owner.getId() + ": " + error.getMessage(), error));
+    }
+
+    /**
+     * 归属节点上同一路径的地址，用于重定向
+     */
+    public URI redirectUri(ClusterNode owner, String path) {
+        return URI.create(owner.getUrl() + path);
+    }
+
+    /**
+     * 用新的成员列表重建哈希环，成员变化时把不再归属本节点的会话移交出去
+     */
+    public synchronized void updateMembership(Collection<ClusterNode> members) {
+        if (ring.sameMembers(members)) {
+            return;
+        }
+        HashRing previous = ring;
+        ring = new HashRing(members, config.getVirtualNodes());
+        ringChanges.incrementAndGet();
+        log.info("Cluster membership changed: {} -> {} nodes, ownership {}",
+            previous.nodes().size(), ring.nodes().size(), ring.ownership());
+        scheduler.execute(this::handOffQuietly);
+    }
+
+    /**
+     * 重新读取成员文件
+     */
+    public void refreshMembership() {
+        Path file = config.getMembershipFile();
+        try {
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            synchronized (this) {
+                if (modified == membershipFileModified) {
+                    return;
+                }
+            }
+            updateMembership(readMembershipFile());
+        } catch (IOException e) {
+            log.warn("Failed to check cluster membership file {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * 把本地持有但不归属本节点的会话移交给各自的归属节点
+     * @return 移交成功的键数
+     */
+    public int handOff() {
+        HashRing current = ring;
+        int handedOff = 0;
+        for (Snapshottable<?> source : sources.values()) {
+            Map<ClusterNode, List<String>> byOwner = new HashMap<>();
+            for (String key : source.snapshotKeys()) {
+                ClusterNode owner = current.owner(source.routingKey(key));
+                if (owner != null && !owner.getId().equals(config.getSelfId())) {
+                    byOwner.computeIfAbsent(owner, k -> new ArrayList<>()).add(key);
+                }
+            }
+            for (Map.Entry<ClusterNode, List<String>> target : byOwner.entrySet()) {
+                List<String> keys = target.getValue();
+                for (int from = 0; from < keys.size(); from += config.getHandoffBatchSize()) {
+                    List<String> batch = keys.subList(from, Math.min(keys.size(), from + config.getHandoffBatchSize()));
+                    Set<String> fenced = routingKeys(source, batch);
+                    if (!fence(fenced)) {
+                        // 保留本地副本，下次成员变化或手动移交时重试
+                        handoffFailures.incrementAndGet();
+                        log.warn("Skipped handing off {} {} entries to node {}: requests still in flight after {}",
+                            batch.size(), source.snapshotName(), target.getKey().getId(), config.getFenceTimeout());
+                        continue;
+                    }
+                    try {
+                        handedOff += sendBatch(source, target.getKey(), batch);
+                    } finally {
+                        unfence(fenced);
+                    }
+                }
+            }
+        }
+        return handedOff;
+    }
+
+    /**
+     * 接收其他节点移交的会话状态
+     * 本地已有的消息（移交完成前就被路由到本节点的请求写入）接在移交的消息之后；
+     * 合并期间对这些会话加栅栏，本地请求的追加不会被合并结果覆盖
+     * @return 接收的键数
+     */
+    public Mono<Integer> acceptHandoff(HandoffBatch batch) {
+        return Mono.fromCallable(() -> {
+            Snapshottable<?> source = sources.get(batch.getSource());
+            if (source == null) {
+                throw new AgentException(ErrorCode.CONFIG_INVALID, "Unknown handoff source: " + batch.getSource());
+            }
+            List<HandoffBatch.Entry> entries = batch.getEntries() != null ? batch.getEntries() : List.of();
+            Set<String> fenced = new HashSet<>();
+            for (HandoffBatch.Entry entry : entries) {
+                fenced.add(source.routingKey(entry.getKey()));
+            }
+            if (!fence(fenced)) {
+                throw new AgentException(ErrorCode.RESOURCE_EXHAUSTED,
+                    "Requests still in flight on handed-off conversations after " + config.getFenceTimeout());
+            }
+            try {
+                for (HandoffBatch.Entry entry : entries) {
+                    restore(source, entry);
+                }
+            } finally {
+                unfence(fenced);
+            }
+            receivedEntries.addAndGet(entries.size());
+            log.info("Accepted {} {} entries from node {}", entries.size(), batch.getSource(), batch.getFromNode());
+            return entries.size();
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * 获取集群统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        HashRing current = ring;
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("selfId", config.getSelfId());
+        stats.put("nodes", current.nodes());
+        stats.put("ownership", current.ownership());
+        stats.put("virtualNodes", current.virtualNodes());
+        stats.put("routingMode", config.getRoutingMode());
+        stats.put("forwardedRequests", forwardedRequests.get());
+        stats.put("ringChanges", ringChanges.get());
+        stats.put("handedOffEntries", handedOffEntries.get());
+        stats.put("receivedEntries", receivedEntries.get());
+        stats.put("handoffFailures", handoffFailures.get());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private int sendBatch(Snapshottable<?> source, ClusterNode target, List<String> keys) {
+        List<HandoffBatch.Entry> entries = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            MessageLog messageLog = source.snapshotLog(key);
+            Object metadata = source.snapshotMetadata(key);
+            entries.add(HandoffBatch.Entry.builder()
+                .key(key)
+                .messages(messageLog != null ? new ArrayList<>(messageLog.snapshot()) : null)
+                .metadata(metadata != null ? objectMapper.valueToTree(metadata) : null)
+                .build());
+        }
+        HandoffBatch batch = HandoffBatch.builder()
+            .source(source.snapshotName())
+            .fromNode(config.getSelfId())
+            .entries(entries)
+            .build();
+
+        try {
+            webClient.post()
+                .uri(target.getUrl() + HANDOFF_PATH)
+                .header(FORWARDED_HEADER, config.getSelfId())
+                .header(AUTH_HEADER, config.getSharedSecret())
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(batch)
+                .retrieve()
+                .toBodilessEntity()
+                .block(config.getRequestTimeout());
+        } catch (RuntimeException e) {
+            // 保留本地副本，下次成员变化或手动移交时重试
+            handoffFailures.incrementAndGet();
+            log.warn("Failed to hand off {} {} entries to node {}: {}",
+                keys.size(), source.snapshotName(), target.getId(), e.getMessage());
+            return 0;
+        }
+
+        for (String key : keys) {
+            source.removeSnapshotEntry(key);
+        }
+        handedOffEntries.addAndGet(keys.size());
+        log.info("Handed off {} {} entries to node {}", keys.size(), source.snapshotName(), target.getId());
+        return keys.size();
+    }
+
+    private <M> void restore(Snapshottable<M> source, HandoffBatch.Entry entry) throws IOException {
+        M metadata = null;
+        JsonNode metadataNode = entry.getMetadata();
+        if (metadataNode != null && !metadataNode.isNull()) {
+            metadata = objectMapper.treeToValue(metadataNode, source.metadataType());
+        }
+
+        List<Message> messages = entry.getMessages();
+        MessageLog local = source.snapshotLog(entry.getKey());
+        if (local != null && !local.isEmpty()) {
+            List<Message> merged = new ArrayList<>(messages != null ? messages : List.of());
+            merged.addAll(local.snapshot());
+            messages = merged;
+        }
+        if (metadata == null) {
+            metadata = source.snapshotMetadata(entry.getKey());
+        }
+        source.restoreSnapshot(entry.getKey(), messages, metadata);
+    }
+
+    // ==================== 会话租约与栅栏 ====================
+
+    /**
+     * 获取会话租约；会话被加栅栏时挂起直到栅栏解除，取消时退出等待队列
+     */
+    private Mono<Lease> acquireLease(String key) {
+        return Mono.<Lease>create(sink -> {
+                synchronized (leaseLock) {
+                    LeaseState state = leases.computeIfAbsent(key, k -> new LeaseState());
+                    if (state.fences > 0) {
+                        state.waiters.addLast(sink);
+                        sink.onCancel(() -> {
+                            synchronized (leaseLock) {
+                                state.waiters.remove(sink);
+                                removeIfIdle(key, state);
+                            }
+                        });
+                        return;
+                    }
+                    state.active++;
+                }
+                sink.success(new Lease(key, false));
+            })
+            // 租约发放与取消并发时，未被接收的租约在丢弃时归还
+            .doOnDiscard(Lease.class, Lease::release);
+    }
+
+    private void releaseLease(String key) {
+        synchronized (leaseLock) {
+            LeaseState state = leases.get(key);
+            if (state == null) {
+                return;
+            }
+            state.active--;
+            if (state.active == 0) {
+                if (state.fences > 0) {
+                    leaseLock.notifyAll();
+                } else {
+                    removeIfIdle(key, state);
+                }
+            }
+        }
+    }
+
+    /**
+     * 对会话加栅栏：新的租约排队，等待已发放的租约全部归还
+     * @return 超时（或被中断）时撤销栅栏并返回false
+     */
+    private boolean fence(Set<String> keys) {
+        synchronized (leaseLock) {
+            for (String key : keys) {
+                leases.computeIfAbsent(key, k -> new LeaseState()).fences++;
+            }
+            long deadline = System.nanoTime() + config.getFenceTimeout().toNanos();
+            try {
+                while (hasActiveLease(keys)) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(leaseLock, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (!hasActiveLease(keys)) {
+                return true;
+            }
+        }
+        unfence(keys);
+        return false;
+    }
+
+    /**
+     * 撤销栅栏，放行排队的租约
+     */
+    private void unfence(Set<String> keys) {
+        List<Map.Entry<String, MonoSink<Lease>>> granted = new ArrayList<>();
+        synchronized (leaseLock) {
+            for (String key : keys) {
+                LeaseState state = leases.get(key);
+                if (state == null || --state.fences > 0) {
+                    continue;
+                }
+                MonoSink<Lease> waiter;
+                while ((waiter = state.waiters.pollFirst()) != null) {
+                    state.active++;
+                    granted.add(Map.entry(key, waiter));
+                }
+                removeIfIdle(key, state);
+            }
+        }
+        for (Map.Entry<String, MonoSink<Lease>> waiter : granted) {
+            waiter.getValue().success(new Lease(waiter.getKey(), true));
+        }
+    }
+
+    private boolean hasActiveLease(Set<String> keys) {
+        for (String key : keys) {
+            LeaseState state = leases.get(key);
+            if (state != null && state.active > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void removeIfIdle(String key, LeaseState state) {
+        if (state.active == 0 && state.fences == 0 && state.waiters.isEmpty() && leases.get(key) == state) {
+            leases.remove(key);
+        }
+    }
+
+    private static Set<String> routingKeys(Snapshottable<?> source, List<String> keys) {
+        Set<String> routingKeys = new HashSet<>();
+        for (String key : keys) {
+            routingKeys.add(source.routingKey(key));
+        }
+        return routingKeys;
+    }
+
+    private void handOffQuietly() {
+        try {
+            handOff();
+        } catch (Exception e) {
+            handoffFailures.incrementAndGet();
+            log.warn("Cluster handoff failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private void refreshQuietly() {
+        try {
+            refreshMembership();
+        } catch (Exception e) {
+            log.warn("Failed to refresh cluster membership: {}", e.getMessage());
+        }
+    }
+
+    private synchronized List<ClusterNode> readMembershipFile() {
+        Path file = config.getMembershipFile();
+        try {
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            List<ClusterNode> members = new ArrayList<>();
+            for (String line : Files.readAllLines(file)) {
+                String trimmed = line.trim();
+                if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                    members.add(ClusterNode.parse(trimmed));
+                }
+            }
+            membershipFileModified = modified;
+            return members;
+        } catch (IOException e) {
+            throw new AgentException(ErrorCode.CONFIG_INVALID, "Failed to read cluster membership file " + file, e);
+        }
+    }
+
+    private static final class LeaseState {
+        private int active;
+        private int fences;
+        private final Deque<MonoSink<Lease>> waiters = new ArrayDeque<>();
+    }
+
+    /**
+     * 一次性会话租约，重复释放无效
+     */
+    private final class Lease {
+        private final String key;
+        private final boolean waited;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(String key, boolean waited) {
+            this.key = key;
+            this.waited = waited;
+        }
+
+        /**
+         * 排队期间会话被移交到其他节点
+         */
+        private boolean movedAway() {
+            return waited && !isLocal(key, null);
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                releaseLease(key);
+            }
+        }
+
+        private Mono<Void> releaseAsync() {
+            return Mono.fromRunnable(this::release);
+        }
+    }
+}
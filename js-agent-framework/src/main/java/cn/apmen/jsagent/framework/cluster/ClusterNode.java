@@ -0,0 +1,40 @@
+package cn.apmen.jsagent.framework.cluster;
+
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.exception.ErrorCode;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 集群节点
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClusterNode {
+
+    /**
+     * 节点ID，在集群内唯一，也是哈希环上虚拟节点的哈希来源
+     */
+    private String id;
+
+    /**
+     * 节点HTTP地址，例如 http://localhost:8081
+     */
+    private String url;
+
+    /**
+     * 解析 "id=url" 格式的节点描述
+     */
+    public static ClusterNode parse(String spec) {
+        int split = spec.indexOf('=');
+        if (split <= 0 || split == spec.length() - 1) {
+            throw new AgentException(ErrorCode.CONFIG_INVALID, "Invalid cluster node, expected id=url: " + spec);
+        }
+        String url = spec.substring(split + 1).trim();
+        return new ClusterNode(spec.substring(0, split).trim(), url.endsWith("/") ? url.substring(0, url.length() - 1) : url);
+    }
+}
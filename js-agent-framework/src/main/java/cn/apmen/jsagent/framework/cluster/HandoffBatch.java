@@ -0,0 +1,48 @@
+package cn.apmen.jsagent.framework.cluster;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 节点间移交的一批会话状态
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class HandoffBatch {
+
+    /**
+     * 状态来源（Snapshottable.snapshotName）
+     */
+    private String source;
+
+    /**
+     * 移交方节点ID
+     */
+    private String fromNode;
+
+    private List<Entry> entries;
+
+    /**
+     * 单个键的状态
+     */
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Entry {
+        private String key;
+        /**
+         * 消息列表，为null表示该键没有消息日志
+         */
+        private List<Message> messages;
+        private JsonNode metadata;
+    }
+}
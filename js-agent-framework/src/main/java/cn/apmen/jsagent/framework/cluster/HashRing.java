@@ -0,0 +1,137 @@
+package cn.apmen.jsagent.framework.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 一致性哈希环（不可变）
+ * 每个节点在环上放置virtualNodes个虚拟节点，键顺时针归属第一个虚拟节点对应的节点；
+ * 节点加入或离开时只有相邻区间的键改变归属
+ */
+public final class HashRing {
+
+    private final Map<String, ClusterNode> nodes;
+    private final int virtualNodes;
+    // 按哈希值升序排列的虚拟节点
+    private final long[] points;
+    private final ClusterNode[] owners;
+
+    public HashRing(Collection<ClusterNode> members, int virtualNodes) {
+        this.virtualNodes = Math.max(1, virtualNodes);
+        Map<String, ClusterNode> byId = new LinkedHashMap<>();
+        for (ClusterNode node : members) {
+            byId.put(node.getId(), node);
+        }
+        this.nodes = Collections.unmodifiableMap(byId);
+
+        int count = byId.size() * this.virtualNodes;
+        long[] hashes = new long[count];
+        ClusterNode[] pointOwners = new ClusterNode[count];
+        int i = 0;
+        for (ClusterNode node : byId.values()) {
+            for (int v = 0; v < this.virtualNodes; v++) {
+                hashes[i] = hash(node.getId() + "#" + v);
+                pointOwners[i] = node;
+                i++;
+            }
+        }
+        Integer[] order = new Integer[count];
+        for (int j = 0; j < count; j++) {
+            order[j] = j;
+        }
+        // 哈希相同时按节点ID排序，保证各节点构建出相同的环
+        Arrays.sort(order, Comparator.<Integer>comparingLong(j -> hashes[j]).thenComparing(j -> pointOwners[j].getId()));
+        this.points = new long[count];
+        this.owners = new ClusterNode[count];
+        for (int j = 0; j < count; j++) {
+            points[j] = hashes[order[j]];
+            owners[j] = pointOwners[order[j]];
+        }
+    }
+
+    /**
+     * 键的归属节点，环为空时返回null
+     */
+    public ClusterNode owner(String key) {
+        if (points.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    public Collection<ClusterNode> nodes() {
+        return nodes.values();
+    }
+
+    public ClusterNode node(String id) {
+        return nodes.get(id);
+    }
+
+    public boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    /**
+     * 成员相同（ID与地址）时两个环的归属完全一致
+     */
+    public boolean sameMembers(Collection<ClusterNode> members) {
+        if (members.size() != nodes.size()) {
+            return false;
+        }
+        for (ClusterNode member : members) {
+            if (!member.equals(nodes.get(member.getId()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 各节点占有的哈希空间比例
+     */
+    public Map<String, Double> ownership() {
+        Map<String, Double> shares = new HashMap<>();
+        for (int i = 0; i < points.length; i++) {
+            long previous = points[i == 0 ? points.length - 1 : i - 1];
+            // 无符号区间长度，单节点时整环归属该节点
+            double span = points.length == 1 ? Math.pow(2, 64) : unsigned(points[i] - previous);
+            shares.merge(owners[i].getId(), span / Math.pow(2, 64), Double::sum);
+        }
+        return shares;
+    }
+
+    public int virtualNodes() {
+        return virtualNodes;
+    }
+
+    /**
+     * 64位FNV-1a哈希，再经murmur3的fmix64打散，使相近的字符串均匀分布在环上
+     */
+    static long hash(String value) {
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static double unsigned(long value) {
+        return value >= 0 ? value : value + Math.pow(2, 64);
+    }
+}
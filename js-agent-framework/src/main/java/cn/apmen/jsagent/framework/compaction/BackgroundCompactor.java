@@ -0,0 +1,294 @@
+package cn.apmen.jsagent.framework.compaction;
+
+import cn.apmen.jsagent.framework.openaiunified.OpenAIUnifiedChatClient;
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.storage.MessageLog;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 后台摘要压缩器
+ * 会话token总数超过阈值时，异步把较早的消息摘要为一条system消息并原子替换，
+ * 最近的消息原样保留。压缩在请求路径之外执行，任务凑批处理，并发受限
+ *
+ * 切分点不会落在工具调用与其工具结果之间：保留区不以tool消息开头
+ */
+@Slf4j
+public class BackgroundCompactor implements Closeable {
+
+    private final ConversationSummarizer summarizer;
+    private final CompactionConfig config;
+
+    // 同一MessageLog同时最多一个压缩任务
+    private final Set<MessageLog> inFlight = ConcurrentHashMap.newKeySet();
+
+    // 后台任务与显式压缩共享的并发许可，许可不足时排队等待而不占用线程
+    private final Object permitLock = new Object();
+    private int availablePermits;
+    private final Deque<MonoSink<Permit>> permitWaiters = new ArrayDeque<>();
+
+    // 上次判定无可压缩内容时的位置，代数和窗口起点不变前不再排队
+    private final Map<MessageLog, NothingToCompact> nothingToCompact = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final Sinks.Many<CompactionTask> queue = Sinks.many().unicast().onBackpressureBuffer();
+    private final Disposable pipeline;
+
+    // 统计信息
+    private final AtomicLong scheduled = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();
+    private final AtomicLong summarizedMessages = new AtomicLong();
+    private final AtomicLong savedTokens = new AtomicLong();
+    private final AtomicLong totalLatencyMillis = new AtomicLong();
+
+    public BackgroundCompactor(OpenAIUnifiedChatClient client, CompactionConfig config) {
+        this(new ConversationSummarizer(client, config), config);
+    }
+
+    public BackgroundCompactor(ConversationSummarizer summarizer, CompactionConfig config) {
+        this.summarizer = summarizer;
+        this.config = config;
+        this.availablePermits = Math.max(1, config.getMaxConcurrency());
+        this.pipeline = queue.asFlux()
+            .bufferTimeout(config.getBatchSize(), config.getBatchWindow())
+            .publishOn(Schedulers.boundedElastic())
+            .concatMap(batch -> Flux.fromIterable(batch)
+                .flatMap(task -> run(task.conversationId, task.messageLog, -1), config.getMaxConcurrency())
+                .then())
+            .subscribe(
+                ignored -> { },
+                error -> log.error("Compaction pipeline terminated unexpectedly", error));
+    }
+
+    /**
+     * 追加消息后调用：超过阈值时排队进行后台压缩，不阻塞调用方
+     */
+    public void maybeCompact(String conversationId, MessageLog messageLog) {
+        if (messageLog.totalTokens() < config.getTriggerTokens()) {
+            return;
+        }
+        // 保留区之前的消息不足时无需排队：切分点只会因工具调用而前移，不会超过窗口起点
+        int windowStart = messageLog.windowStart(config.getRetainRecentTokens());
+        if (windowStart < config.getMinMessagesToSummarize()) {
+            deferred.incrementAndGet();
+            return;
+        }
+        NothingToCompact marker = nothingToCompact.get(messageLog);
+        if (marker != null && marker.generation == messageLog.generation() && marker.windowStart == windowStart) {
+            deferred.incrementAndGet();
+            return;
+        }
+        if (!inFlight.add(messageLog)) {
+            return;
+        }
+        scheduled.incrementAndGet();
+        Sinks.EmitResult result;
+        synchronized (queue) {
+            result = queue.tryEmitNext(new CompactionTask(conversationId, messageLog));
+        }
+        if (result.isFailure()) {
+            inFlight.remove(messageLog);
+            log.warn("Failed to enqueue compaction for conversation {}: {}", conversationId, result);
+        }
+    }
+
+    /**
+     * 显式压缩：摘要除最近keepRecentCount条以外的消息
+     * @return 压缩结果，只有FAILED表示摘要失败
+     */
+    public Mono<CompactionResult> compact(String conversationId, MessageLog messageLog, int keepRecentCount) {
+        return Mono.defer(() -> {
+            if (!inFlight.add(messageLog)) {
+                return Mono.just(CompactionResult.SKIPPED_IN_FLIGHT);
+            }
+            return run(conversationId, messageLog, keepRecentCount);
+        });
+    }
+
+    /**
+     * 执行一次压缩，keepRecentCount小于0时按retainRecentTokens切分
+     */
+    private Mono<CompactionResult> run(String conversationId, MessageLog messageLog, int keepRecentCount) {
+        // 先读代数再读快照，保证替换时能发现期间的其他压缩
+        long generation = messageLog.generation();
+        List<Message> snapshot = messageLog.snapshot();
+        long tokensBefore = messageLog.totalTokens();
+
+        int split = keepRecentCount >= 0
+            ? Math.max(0, snapshot.size() - keepRecentCount)
+            : Math.min(snapshot.size(), messageLog.windowStart(config.getRetainRecentTokens()));
+        split = adjustForToolCalls(snapshot, split);
+
+        if (split < config.getMinMessagesToSummarize()) {
+            if (keepRecentCount < 0) {
+                nothingToCompact.put(messageLog, new NothingToCompact(generation,
+                    messageLog.windowStart(config.getRetainRecentTokens())));
+            }
+            skipped.incrementAndGet();
+            inFlight.remove(messageLog);
+            return Mono.just(CompactionResult.NOTHING_TO_DO);
+        }
+
+        List<Message> older = snapshot.subList(0, split);
+        int summarizedCount = split;
+        long start = System.currentTimeMillis();
+
+        return Mono.usingWhen(acquirePermit(),
+                permit -> summarizer.summarize(older),
+                Permit::releaseAsync,
+                (permit, error) -> permit.releaseAsync(),
+                Permit::releaseAsync)
+            .map(summary -> {
+                Message summaryMessage = new Message("system", ConversationSummarizer.SUMMARY_PREFIX + summary);
+                if (!messageLog.replacePrefix(generation, summarizedCount, List.of(summaryMessage))) {
+                    conflicts.incrementAndGet();
+                    log.debug("Compaction of conversation {} discarded, history changed concurrently", conversationId);
+                    return CompactionResult.CONFLICT;
+                }
+                nothingToCompact.remove(messageLog);
+                completed.incrementAndGet();
+                summarizedMessages.addAndGet(summarizedCount);
+                savedTokens.addAndGet(Math.max(0, tokensBefore - messageLog.totalTokens()));
+                totalLatencyMillis.addAndGet(System.currentTimeMillis() - start);
+                log.info("Compacted conversation {}: {} messages summarized, {} -> {} tokens",
+                    conversationId, summarizedCount, tokensBefore, messageLog.totalTokens());
+                return CompactionResult.SUMMARIZED;
+            })
+            .onErrorResume(error -> {
+                failed.incrementAndGet();
+                log.warn("Compaction of conversation {} failed: {}", conversationId, error.getMessage());
+                return Mono.just(CompactionResult.FAILED);
+            })
+            .doFinally(signal -> inFlight.remove(messageLog));
+    }
+
+    /**
+     * 获取一个并发许可；没有空闲许可时挂起直到其他压缩释放，取消时退出等待队列
+     */
+    private Mono<Permit> acquirePermit() {
+        return Mono.<Permit>create(sink -> {
+                synchronized (permitLock) {
+                    if (availablePermits == 0) {
+                        permitWaiters.addLast(sink);
+                        sink.onCancel(() -> {
+                            synchronized (permitLock) {
+                                permitWaiters.remove(sink);
+                            }
+                        });
+                        return;
+                    }
+                    availablePermits--;
+                }
+                sink.success(new Permit());
+            })
+            // 许可发放与取消并发时，未被接收的许可在丢弃时归还
+            .doOnDiscard(Permit.class, Permit::release);
+    }
+
+    /**
+     * 归还许可：优先交给排队最久的等待者
+     */
+    private void releasePermit() {
+        MonoSink<Permit> next;
+        synchronized (permitLock) {
+            next = permitWaiters.pollFirst();
+            if (next == null) {
+                availablePermits++;
+                return;
+            }
+        }
+        next.success(new Permit());
+    }
+
+    /**
+     * 保留区不能以tool消息开头，否则工具结果会与发起调用的assistant消息分离
+     */
+    private static int adjustForToolCalls(List<Message> messages, int split) {
+        while (split > 0 && split < messages.size() && "tool".equals(messages.get(split).getRole())) {
+            split--;
+        }
+        return split;
+    }
+
+    /**
+     * 获取压缩统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("scheduled", scheduled.get());
+        stats.put("completed", completed.get());
+        stats.put("failed", failed.get());
+        stats.put("conflicts", conflicts.get());
+        stats.put("skipped", skipped.get());
+        stats.put("deferred", deferred.get());
+        stats.put("inFlight", inFlight.size());
+        stats.put("summarizedMessages", summarizedMessages.get());
+        stats.put("savedTokens", savedTokens.get());
+        stats.put("averageLatencyMillis", completed.get() > 0 ? (double) totalLatencyMillis.get() / completed.get() : 0.0);
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        queue.tryEmitComplete();
+        pipeline.dispose();
+    }
+
+    /**
+     * 一次性许可，重复释放无效
+     */
+    private final class Permit {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                releasePermit();
+            }
+        }
+
+        private Mono<Void> releaseAsync() {
+            return Mono.fromRunnable(this::release);
+        }
+    }
+
+    private static final class NothingToCompact {
+        private final long generation;
+        private final int windowStart;
+
+        private NothingToCompact(long generation, int windowStart) {
+            this.generation = generation;
+            this.windowStart = windowStart;
+        }
+    }
+
+    private static final class CompactionTask {
+        private final String conversationId;
+        private final MessageLog messageLog;
+
+        private CompactionTask(String conversationId, MessageLog messageLog) {
+            this.conversationId = conversationId;
+            this.messageLog = messageLog;
+        }
+    }
+}
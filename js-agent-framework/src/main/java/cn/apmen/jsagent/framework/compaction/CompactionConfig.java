@@ -0,0 +1,78 @@
+package cn.apmen.jsagent.framework.compaction;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Duration;
+
+/**
+ * 后台摘要压缩配置
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CompactionConfig {
+
+    /**
+     * 会话token总数超过该值时触发后台压缩
+     */
+    @Builder.Default
+    private long triggerTokens = 8000;
+
+    /**
+     * 压缩时原样保留的最近消息token预算，更早的消息被摘要替换
+     */
+    @Builder.Default
+    private long retainRecentTokens = 2000;
+
+    /**
+     * 少于该条数的旧消息不值得摘要
+     */
+    @Builder.Default
+    private int minMessagesToSummarize = 4;
+
+    /**
+     * 用于摘要的模型（建议使用低成本模型）
+     */
+    @Builder.Default
+    private String model = "gpt-4o-mini";
+
+    /**
+     * 摘要最大输出token数
+     */
+    @Builder.Default
+    private int summaryMaxTokens = 800;
+
+    /**
+     * 单条消息写入摘要提示词时的最大字符数，超长的工具输出会被截断
+     */
+    @Builder.Default
+    private int maxCharsPerMessage = 2000;
+
+    /**
+     * 同时进行的摘要请求数上限
+     */
+    @Builder.Default
+    private int maxConcurrency = 2;
+
+    /**
+     * 每批合并处理的压缩任务数
+     */
+    @Builder.Default
+    private int batchSize = 8;
+
+    /**
+     * 凑批等待时间
+     */
+    @Builder.Default
+    private Duration batchWindow = Duration.ofMillis(500);
+
+    /**
+     * 单次摘要请求超时
+     */
+    @Builder.Default
+    private Duration timeout = Duration.ofSeconds(60);
+}
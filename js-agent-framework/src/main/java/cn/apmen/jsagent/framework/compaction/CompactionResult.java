@@ -0,0 +1,33 @@
+package cn.apmen.jsagent.framework.compaction;
+
+/**
+ * 一次压缩的结果
+ * 只有FAILED表示摘要本身失败，调用方可以退化为截断；其余结果都不应删除历史
+ */
+public enum CompactionResult {
+
+    /**
+     * 已用摘要替换较早的消息
+     */
+    SUMMARIZED,
+
+    /**
+     * 同一会话已有压缩任务在执行，本次未执行
+     */
+    SKIPPED_IN_FLIGHT,
+
+    /**
+     * 可摘要的消息不足（含因工具调用回退切分点的情况）
+     */
+    NOTHING_TO_DO,
+
+    /**
+     * 摘要期间历史被并发修改，摘要结果已丢弃
+     */
+    CONFLICT,
+
+    /**
+     * 摘要调用失败
+     */
+    FAILED
+}
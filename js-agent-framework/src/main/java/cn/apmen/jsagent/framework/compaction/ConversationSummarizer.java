@@ -0,0 +1,96 @@
+package cn.apmen.jsagent.framework.compaction;
+
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.exception.ErrorCode;
+import cn.apmen.jsagent.framework.openaiunified.OpenAIUnifiedChatClient;
+import cn.apmen.jsagent.framework.openaiunified.model.request.ChatCompletionRequest;
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * 使用LLM把一段对话压缩为摘要
+ */
+public class ConversationSummarizer {
+
+    /**
+     * 摘要消息的内容前缀，已有摘要会作为下一轮压缩的输入继续滚动合并
+     */
+    public static final String SUMMARY_PREFIX = "Previous conversation summary: ";
+
+    private static final String SYSTEM_PROMPT = "你负责压缩对话历史。请把下面的对话总结为简洁的摘要，供后续对话作为上下文使用。"
+        + "必须保留：用户的目标与偏好、已确认的事实和数字、做出的决定、工具调用得到的关键结果、尚未完成的事项。"
+        + "省略寒暄和重复内容。使用对话中的主要语言，只输出摘要本身。";
+
+    private final OpenAIUnifiedChatClient client;
+    private final CompactionConfig config;
+
+    public ConversationSummarizer(OpenAIUnifiedChatClient client, CompactionConfig config) {
+        this.client = client;
+        this.config = config;
+    }
+
+    /**
+     * 摘要给定的消息片段
+     */
+    public Mono<String> summarize(List<Message> messages) {
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setModel(config.getModel());
+        request.setTemperature(0.2);
+        request.setMaxTokens(config.getSummaryMaxTokens());
+        request.setMessages(List.of(
+            new Message("system", SYSTEM_PROMPT),
+            new Message("user", renderTranscript(messages))));
+
+        return client.createChatCompletion(request)
+            .timeout(config.getTimeout())
+            .map(response -> {
+                if (response.getChoices() == null || response.getChoices().isEmpty()
+                    || response.getChoices().get(0).getMessage() == null
+                    || response.getChoices().get(0).getMessage().getContent() == null
+                    || response.getChoices().get(0).getMessage().getContent().isBlank()) {
+                    throw new AgentException(ErrorCode.LLM_INVALID_RESPONSE, "Empty summary returned by " + config.getModel());
+                }
+                return response.getChoices().get(0).getMessage().getContent().trim();
+            });
+    }
+
+    /**
+     * 把消息渲染为纯文本对话记录，工具调用与工具结果按出现顺序保留
+     */
+    private String renderTranscript(List<Message> messages) {
+        StringBuilder transcript = new StringBuilder();
+        for (Message message : messages) {
+            String content = message.getContent();
+            if (content != null && content.startsWith(SUMMARY_PREFIX)) {
+                transcript.append("[earlier summary] ").append(content.substring(SUMMARY_PREFIX.length())).append('\n');
+                continue;
+            }
+
+            transcript.append('[').append(message.getRole()).append("] ");
+            if (content != null) {
+                transcript.append(truncate(content));
+            }
+            if (message.getToolCalls() != null) {
+                for (ToolCall toolCall : message.getToolCalls()) {
+                    if (toolCall.getFunction() != null) {
+                        transcript.append(" <call ").append(toolCall.getFunction().getName())
+                            .append('(').append(truncate(toolCall.getFunction().getArguments())).append(")>");
+                    }
+                }
+            }
+            transcript.append('\n');
+        }
+        return transcript.toString();
+    }
+
+    private String truncate(String text) {
+        if (text == null) {
+            return "";
+        }
+        int limit = config.getMaxCharsPerMessage();
+        return text.length() <= limit ? text : text.substring(0, limit) + "…(truncated)";
+    }
+}
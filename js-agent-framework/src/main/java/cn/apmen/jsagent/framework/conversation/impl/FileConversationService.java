@@ -0,0 +1,305 @@
+package cn.apmen.jsagent.framework.conversation.impl;
+
+import cn.apmen.jsagent.framework.conversation.ConversationMetadata;
+import cn.apmen.jsagent.framework.conversation.ConversationService;
+import cn.apmen.jsagent.framework.conversation.ConversationStats;
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.exception.ErrorCode;
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.storage.MessageCodec;
+import cn.apmen.jsagent.framework.storage.SegmentStore;
+import cn.apmen.jsagent.framework.storage.SegmentStoreConfig;
+import cn.apmen.jsagent.framework.token.TokenCounter;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * 基于本地段文件的ConversationService实现
+ * 消息以二进制编码追加到内存映射段文件，元数据以JSON记录保存，重启后通过段扫描恢复
+ */
+@Slf4j
+public class FileConversationService implements ConversationService, Closeable {
+
+    private final SegmentStore store;
+
+    private final TokenCounter tokenCounter;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // 用户会话映射 userId -> Set<conversationId>，启动时由元数据重建
+    private final Map<String, Set<String>> userConversations = new ConcurrentHashMap<>();
+
+    {
+        objectMapper.findAndRegisterModules();
+        objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    public FileConversationService(Path directory) {
+        this(directory, TokenCounter.heuristic());
+    }
+
+    public FileConversationService(Path directory, TokenCounter tokenCounter) {
+        this(new SegmentStore(SegmentStoreConfig.builder().directory(directory).build()), tokenCounter);
+    }
+
+    public FileConversationService(SegmentStore store) {
+        this(store, TokenCounter.heuristic());
+    }
+
+    public FileConversationService(SegmentStore store, TokenCounter tokenCounter) {
+        this.store = store;
+        this.tokenCounter = tokenCounter;
+        store.forEachMetadata((conversationId, payload) -> {
+            ConversationMetadata metadata = decodeMetadata(conversationId, payload);
+            if (metadata.getUserId() != null) {
+                userConversations.computeIfAbsent(metadata.getUserId(), k ->
+                    Collections.synchronizedSet(new HashSet<>())).add(conversationId);
+            }
+        });
+    }
+
+    @Override
+    public Mono<Void> addMessage(String conversationId, Message message) {
+        return Mono.defer(() -> awaitWrite(store.append(conversationId, MessageCodec.encode(message))))
+            .doOnSuccess(v -> log.debug("Added message to conversation {}: {}", conversationId, message.getRole()));
+    }
+
+    @Override
+    public Mono<Void> addMessages(String conversationId, List<Message> messages) {
+        if (messages == null || messages.isEmpty()) {
+            return Mono.empty();
+        }
+        return Mono.defer(() -> awaitWrite(store.appendAll(conversationId,
+            messages.stream().map(MessageCodec::encode).collect(Collectors.toList()))));
+    }
+
+    @Override
+    public Mono<List<Message>> getConversationHistory(String conversationId) {
+        return Mono.fromCallable(() -> decode(store.read(conversationId)));
+    }
+
+    @Override
+    public Mono<List<Message>> getRecentMessages(String conversationId, int limit) {
+        return Mono.fromCallable(() -> decode(store.readRecent(conversationId, limit)));
+    }
+
+    @Override
+    public Mono<List<Message>> getContextWindowMessages(String conversationId, int maxTokens, String systemPrompt) {
+        return Mono.fromCallable(() -> {
+            List<ByteBuffer> payloads = store.read(conversationId);
+            int systemPromptTokens = systemPrompt != null ? tokenCounter.countTokens(systemPrompt) : 0;
+            int availableTokens = maxTokens - systemPromptTokens - 100; // 预留100个token
+
+            int currentTokens = 0;
+            List<Message> window = new ArrayList<>();
+            // 从最新消息开始，向前解码并添加消息直到达到token限制
+            for (int i = payloads.size() - 1; i >= 0; i--) {
+                Message message = MessageCodec.decode(payloads.get(i));
+                int messageTokens = tokenCounter.countMessageTokens(message);
+                if (currentTokens + messageTokens > availableTokens) {
+                    break;
+                }
+                currentTokens += messageTokens;
+                window.add(message);
+            }
+            Collections.reverse(window);
+            return window;
+        });
+    }
+
+    @Override
+    public Flux<Message> streamConversationHistory(String conversationId) {
+        return getConversationHistory(conversationId).flatMapMany(Flux::fromIterable);
+    }
+
+    @Override
+    public Mono<Void> clearConversation(String conversationId) {
+        return Mono.defer(() -> awaitWrite(store.clear(conversationId)))
+            .doOnSuccess(v -> log.info("Cleared conversation history: {}", conversationId));
+    }
+
+    @Override
+    public Mono<Void> deleteConversation(String conversationId) {
+        return Mono.defer(() -> {
+            ConversationMetadata metadata = readMetadata(conversationId);
+            if (metadata != null && metadata.getUserId() != null) {
+                Set<String> userConvs = userConversations.get(metadata.getUserId());
+                if (userConvs != null) {
+                    userConvs.remove(conversationId);
+                }
+            }
+            return awaitWrite(store.delete(conversationId));
+        }).doOnSuccess(v -> log.info("Deleted conversation: {}", conversationId));
+    }
+
+    @Override
+    public Mono<ConversationStats> getConversationStats(String conversationId) {
+        return Mono.fromCallable(() -> {
+            List<Message> messages = decode(store.read(conversationId));
+            ConversationMetadata metadata = readMetadata(conversationId);
+
+            Map<String, Long> roleCounts = messages.stream()
+                .collect(Collectors.groupingBy(Message::getRole, Collectors.counting()));
+            int totalTokens = messages.stream()
+                .mapToInt(tokenCounter::countMessageTokens)
+                .sum();
+
+            ConversationStats.ConversationStatsBuilder builder = ConversationStats.builder()
+                .conversationId(conversationId)
+                .totalMessages(messages.size())
+                .userMessages(roleCounts.getOrDefault("user", 0L).intValue())
+                .assistantMessages(roleCounts.getOrDefault("assistant", 0L).intValue())
+                .systemMessages(roleCounts.getOrDefault("system", 0L).intValue())
+                .toolMessages(roleCounts.getOrDefault("tool", 0L).intValue())
+                .totalTokens(totalTokens);
+
+            if (metadata != null) {
+                builder.createdAt(metadata.getCreatedAt())
+                       .lastUpdatedAt(metadata.getLastActiveAt());
+                if (metadata.getCreatedAt() != null && metadata.getLastActiveAt() != null) {
+                    builder.durationMinutes(java.time.Duration.between(metadata.getCreatedAt(), metadata.getLastActiveAt()).toMinutes());
+                }
+            }
+            return builder.build();
+        });
+    }
+
+    @Override
+    public Mono<List<String>> getUserConversations(String userId) {
+        return Mono.fromCallable(() -> {
+            Set<String> conversations = userConversations.get(userId);
+            return conversations != null ? new ArrayList<>(conversations) : new ArrayList<>();
+        });
+    }
+
+    @Override
+    public Mono<Void> compressHistory(String conversationId, int keepRecentCount) {
+        // 读取与替换在存储写锁内完成，压缩期间追加的消息不会丢失
+        return Mono.defer(() -> awaitWrite(store.rewrite(conversationId, payloads -> {
+            List<Message> messages = decode(payloads);
+            if (messages.size() <= keepRecentCount) {
+                return null;
+            }
+            List<Message> oldMessages = messages.subList(0, messages.size() - keepRecentCount);
+
+            // 摘要 + 最近消息整体替换，旧记录由后台段压缩回收
+            List<byte[]> rewritten = new ArrayList<>(keepRecentCount + 1);
+            rewritten.add(MessageCodec.encode(new Message("system", "Previous conversation summary: " + createConversationSummary(oldMessages))));
+            for (ByteBuffer payload : payloads.subList(messages.size() - keepRecentCount, messages.size())) {
+                byte[] bytes = new byte[payload.remaining()];
+                payload.get(bytes);
+                rewritten.add(bytes);
+            }
+
+            log.info("Compressed conversation {}: {} messages -> {} messages",
+                conversationId, messages.size(), rewritten.size());
+            return rewritten;
+        })));
+    }
+
+    @Override
+    public Mono<Boolean> conversationExists(String conversationId) {
+        return Mono.fromCallable(() -> store.count(conversationId) > 0);
+    }
+
+    @Override
+    public Mono<Void> setConversationMetadata(String conversationId, ConversationMetadata metadata) {
+        return Mono.defer(() -> {
+            if (metadata.getUserId() != null) {
+                userConversations.computeIfAbsent(metadata.getUserId(), k ->
+                    Collections.synchronizedSet(new HashSet<>())).add(conversationId);
+            }
+            return awaitWrite(store.putMetadata(conversationId, encodeMetadata(metadata)));
+        });
+    }
+
+    @Override
+    public Mono<ConversationMetadata> getConversationMetadata(String conversationId) {
+        return Mono.fromCallable(() -> readMetadata(conversationId));
+    }
+
+    /**
+     * 获取底层存储统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        return store.getStatistics();
+    }
+
+    @Override
+    public void close() {
+        store.close();
+    }
+
+    /**
+     * 等待写入确认；组提交模式下future在刷盘线程上完成，下游切回弹性线程池，避免阻塞刷盘线程
+     */
+    private static Mono<Void> awaitWrite(CompletableFuture<Void> future) {
+        return Mono.fromFuture(future).publishOn(Schedulers.boundedElastic());
+    }
+
+    private static List<Message> decode(List<ByteBuffer> payloads) {
+        List<Message> messages = new ArrayList<>(payloads.size());
+        for (ByteBuffer payload : payloads) {
+            messages.add(MessageCodec.decode(payload));
+        }
+        return messages;
+    }
+
+    private ConversationMetadata readMetadata(String conversationId) {
+        ByteBuffer payload = store.readMetadata(conversationId);
+        return payload != null ? decodeMetadata(conversationId, payload) : null;
+    }
+
+    private ConversationMetadata decodeMetadata(String conversationId, ByteBuffer payload) {
+        try {
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            return objectMapper.readValue(bytes, ConversationMetadata.class);
+        } catch (IOException e) {
+            throw new AgentException(ErrorCode.STORAGE_CORRUPTED, "Invalid conversation metadata for " + conversationId, e);
+        }
+    }
+
+    private byte[] encodeMetadata(ConversationMetadata metadata) {
+        try {
+            return objectMapper.writeValueAsBytes(metadata);
+        } catch (IOException e) {
+            throw new AgentException(ErrorCode.STORAGE_IO_FAILED, "Failed to encode conversation metadata", e);
+        }
+    }
+
+    /**
+     * 创建对话摘要
+     */
+    private static String createConversationSummary(List<Message> messages) {
+        StringBuilder summary = new StringBuilder();
+        summary.append("Conversation included ").append(messages.size()).append(" messages. ");
+        Map<String, Long> roleCounts = messages.stream()
+            .collect(Collectors.groupingBy(Message::getRole, Collectors.counting()));
+        roleCounts.forEach((role, count) ->
+            summary.append(count).append(" ").append(role).append(" messages, "));
+        return summary.toString();
+    }
+
+
+}
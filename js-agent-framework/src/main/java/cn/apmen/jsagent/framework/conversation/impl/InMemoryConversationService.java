@@ -1,9 +1,16 @@
 package cn.apmen.jsagent.framework.conversation.impl;
 
+import cn.apmen.jsagent.framework.compaction.BackgroundCompactor;
+import cn.apmen.jsagent.framework.compaction.CompactionResult;
+import cn.apmen.jsagent.framework.compaction.ConversationSummarizer;
 import cn.apmen.jsagent.framework.conversation.ConversationMetadata;
 import cn.apmen.jsagent.framework.conversation.ConversationService;
 import cn.apmen.jsagent.framework.conversation.ConversationStats;
 import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.snapshot.ChangeTracker;
+import cn.apmen.jsagent.framework.snapshot.Snapshottable;
+import cn.apmen.jsagent.framework.storage.MessageLog;
+import cn.apmen.jsagent.framework.token.TokenCounter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
@@ -17,18 +24,21 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
  * 基于内存的ConversationService实现
  * 适用于开发和测试环境，生产环境建议使用持久化实现
+ * 查询返回的消息列表均为只读视图
+ * 可由 {@link cn.apmen.jsagent.framework.snapshot.StateSnapshotter} 定期快照，重启后恢复
  */
 @Slf4j
 @Service
-public class InMemoryConversationService implements ConversationService {
+public class InMemoryConversationService implements ConversationService, Snapshottable<ConversationMetadata> {
     
-    // 会话消息存储 conversationId -> List<Message>
-    private final Map<String, List<Message>> conversationMessages = new ConcurrentHashMap<>();
+    // 会话消息存储 conversationId -> MessageLog
+    private final Map<String, MessageLog> conversationMessages = new ConcurrentHashMap<>();
     
     // 会话元数据存储 conversationId -> ConversationMetadata
     private final Map<String, ConversationMetadata> conversationMetadata = new ConcurrentHashMap<>();
@@ -36,17 +46,39 @@ public class InMemoryConversationService implements ConversationService {
     // 用户会话映射 userId -> Set<conversationId>
     private final Map<String, Set<String>> userConversations = new ConcurrentHashMap<>();
     
-    // Token估算器（简单实现）
-    private final TokenEstimator tokenEstimator = new TokenEstimator();
+    // 单独修改过元数据的会话，供增量快照使用
+    private final ChangeTracker metadataChanges = new ChangeTracker();
+    
+    // Token计数器
+    private final TokenCounter tokenCounter;
+
+    // 后台摘要压缩器，为空时compressHistory只生成统计型摘要
+    private final BackgroundCompactor compactor;
+
+    public InMemoryConversationService() {
+        this(TokenCounter.heuristic());
+    }
+
+    public InMemoryConversationService(TokenCounter tokenCounter) {
+        this(tokenCounter, null);
+    }
+
+    public InMemoryConversationService(TokenCounter tokenCounter, BackgroundCompactor compactor) {
+        this.tokenCounter = tokenCounter;
+        this.compactor = compactor;
+    }
     
     @Override
     public Mono<Void> addMessage(String conversationId, Message message) {
         return Mono.fromRunnable(() -> {
-            conversationMessages.computeIfAbsent(conversationId, k -> 
-                Collections.synchronizedList(new ArrayList<>())).add(message);
+            MessageLog messageLog = conversationMessages.computeIfAbsent(conversationId, k -> new MessageLog(tokenCounter));
+            messageLog.append(message);
             
             // 更新元数据的最后活跃时间
             updateLastActiveTime(conversationId);
+            if (compactor != null) {
+                compactor.maybeCompact(conversationId, messageLog);
+            }
             
             log.debug("Added message to conversation {}: {}", conversationId, message.getRole());
         });
@@ -55,11 +87,13 @@ public class InMemoryConversationService implements ConversationService {
     @Override
     public Mono<Void> addMessages(String conversationId, List<Message> messages) {
         return Mono.fromRunnable(() -> {
-            List<Message> conversationHistory = conversationMessages.computeIfAbsent(conversationId, k -> 
-                Collections.synchronizedList(new ArrayList<>()));
-            conversationHistory.addAll(messages);
+            MessageLog messageLog = conversationMessages.computeIfAbsent(conversationId, k -> new MessageLog(tokenCounter));
+            messageLog.appendAll(messages);
             
             updateLastActiveTime(conversationId);
+            if (compactor != null) {
+                compactor.maybeCompact(conversationId, messageLog);
+            }
             
             log.debug("Added {} messages to conversation {}", messages.size(), conversationId);
         });
@@ -68,55 +102,36 @@ public class InMemoryConversationService implements ConversationService {
     @Override
     public Mono<List<Message>> getConversationHistory(String conversationId) {
         return Mono.fromCallable(() -> {
-            List<Message> messages = conversationMessages.get(conversationId);
-            return messages != null ? new ArrayList<>(messages) : new ArrayList<>();
+            MessageLog messageLog = conversationMessages.get(conversationId);
+            return messageLog != null ? messageLog.snapshot() : List.of();
         });
     }
     
     @Override
     public Mono<List<Message>> getRecentMessages(String conversationId, int limit) {
         return Mono.fromCallable(() -> {
-            List<Message> messages = conversationMessages.get(conversationId);
-            if (messages == null || messages.isEmpty()) {
-                return new ArrayList<>();
-            }
-            
-            int size = messages.size();
-            int fromIndex = Math.max(0, size - limit);
-            return new ArrayList<>(messages.subList(fromIndex, size));
+            MessageLog messageLog = conversationMessages.get(conversationId);
+            return messageLog != null ? messageLog.recent(limit) : List.of();
         });
     }
     
     @Override
     public Mono<List<Message>> getContextWindowMessages(String conversationId, int maxTokens, String systemPrompt) {
         return Mono.fromCallable(() -> {
-            List<Message> messages = conversationMessages.get(conversationId);
-            if (messages == null || messages.isEmpty()) {
-                return new ArrayList<>();
+            MessageLog messageLog = conversationMessages.get(conversationId);
+            if (messageLog == null) {
+                return List.of();
             }
             
             // 系统提示词的token数
-            int systemPromptTokens = systemPrompt != null ? tokenEstimator.estimateTokens(systemPrompt) : 0;
+            int systemPromptTokens = systemPrompt != null ? tokenCounter.countTokens(systemPrompt) : 0;
             int availableTokens = maxTokens - systemPromptTokens - 100; // 预留100个token
             
-            List<Message> result = new ArrayList<>();
-            int currentTokens = 0;
+            // 按前缀和二分定位窗口起点，返回零拷贝视图
+            List<Message> result = messageLog.contextWindow(availableTokens);
             
-            // 从最新消息开始，向前添加消息直到达到token限制
-            for (int i = messages.size() - 1; i >= 0; i--) {
-                Message message = messages.get(i);
-                int messageTokens = tokenEstimator.estimateMessageTokens(message);
-                
-                if (currentTokens + messageTokens > availableTokens) {
-                    break;
-                }
-                
-                result.add(0, message); // 添加到开头保持顺序
-                currentTokens += messageTokens;
-            }
-            
-            log.debug("Selected {} messages ({} tokens) for context window from conversation {}", 
-                result.size(), currentTokens, conversationId);
+            log.debug("Selected {} messages for context window from conversation {}", 
+                result.size(), conversationId);
             
             return result;
         });
@@ -124,7 +139,10 @@ public class InMemoryConversationService implements ConversationService {
     
     @Override
     public Flux<Message> streamConversationHistory(String conversationId) {
-        return Flux.fromIterable(conversationMessages.getOrDefault(conversationId, Collections.emptyList()));
+        return Mono.fromCallable(() -> {
+            MessageLog messageLog = conversationMessages.get(conversationId);
+            return messageLog != null ? messageLog.snapshot() : List.<Message>of();
+        }).flatMapMany(Flux::fromIterable);
     }
     
     @Override
@@ -139,17 +157,7 @@ public class InMemoryConversationService implements ConversationService {
     @Override
     public Mono<Void> deleteConversation(String conversationId) {
         return Mono.fromRunnable(() -> {
-            conversationMessages.remove(conversationId);
-            ConversationMetadata metadata = conversationMetadata.remove(conversationId);
-            
-            // 从用户会话映射中移除
-            if (metadata != null && metadata.getUserId() != null) {
-                Set<String> userConvs = userConversations.get(metadata.getUserId());
-                if (userConvs != null) {
-                    userConvs.remove(conversationId);
-                }
-            }
-            
+            removeConversation(conversationId);
             log.info("Deleted conversation: {}", conversationId);
         });
     }
@@ -157,10 +165,10 @@ public class InMemoryConversationService implements ConversationService {
     @Override
     public Mono<ConversationStats> getConversationStats(String conversationId) {
         return Mono.fromCallable(() -> {
-            List<Message> messages = conversationMessages.get(conversationId);
+            MessageLog messageLog = conversationMessages.get(conversationId);
             ConversationMetadata metadata = conversationMetadata.get(conversationId);
             
-            if (messages == null) {
+            if (messageLog == null) {
                 return ConversationStats.builder()
                     .conversationId(conversationId)
                     .totalMessages(0)
@@ -168,12 +176,11 @@ public class InMemoryConversationService implements ConversationService {
             }
             
             // 统计各类型消息数量
+            List<Message> messages = messageLog.snapshot();
             Map<String, Long> roleCounts = messages.stream()
                 .collect(Collectors.groupingBy(Message::getRole, Collectors.counting()));
             
-            int totalTokens = messages.stream()
-                .mapToInt(tokenEstimator::estimateMessageTokens)
-                .sum();
+            int totalTokens = (int) messageLog.totalTokens();
             
             ConversationStats.ConversationStatsBuilder builder = ConversationStats.builder()
                 .conversationId(conversationId)
@@ -208,29 +215,25 @@ public class InMemoryConversationService implements ConversationService {
     
     @Override
     public Mono<Void> compressHistory(String conversationId, int keepRecentCount) {
-        return Mono.fromRunnable(() -> {
-            List<Message> messages = conversationMessages.get(conversationId);
-            if (messages == null || messages.size() <= keepRecentCount) {
-                return;
+        return Mono.defer(() -> {
+            MessageLog messageLog = conversationMessages.get(conversationId);
+            if (messageLog == null || messageLog.size() <= keepRecentCount) {
+                return Mono.<Void>empty();
+            }
+            if (compactor == null) {
+                replaceWithStatisticalSummary(conversationId, messageLog, keepRecentCount);
+                return Mono.<Void>empty();
             }
             
-            // 保留最近的消息，压缩旧消息为摘要
-            List<Message> recentMessages = messages.subList(messages.size() - keepRecentCount, messages.size());
-            List<Message> oldMessages = messages.subList(0, messages.size() - keepRecentCount);
-            
-            // 创建压缩摘要
-            String summary = createConversationSummary(oldMessages);
-            Message summaryMessage = new Message("system", "Previous conversation summary: " + summary);
-            
-            // 更新消息列表
-            List<Message> compressedMessages = Collections.synchronizedList(new ArrayList<>());
-            compressedMessages.add(summaryMessage);
-            compressedMessages.addAll(recentMessages);
-            
-            conversationMessages.put(conversationId, compressedMessages);
-            
-            log.info("Compressed conversation {}: {} messages -> {} messages", 
-                conversationId, messages.size(), compressedMessages.size());
+            // 使用LLM摘要旧消息，只有摘要调用失败时才退化为统计型摘要；
+            // 已有压缩在执行、无可摘要内容或并发冲突时保留原历史
+            return compactor.compact(conversationId, messageLog, keepRecentCount)
+                .doOnNext(result -> {
+                    if (result == CompactionResult.FAILED) {
+                        replaceWithStatisticalSummary(conversationId, messageLog, keepRecentCount);
+                    }
+                })
+                .then();
         });
     }
     
@@ -243,12 +246,8 @@ public class InMemoryConversationService implements ConversationService {
     public Mono<Void> setConversationMetadata(String conversationId, ConversationMetadata metadata) {
         return Mono.fromRunnable(() -> {
             conversationMetadata.put(conversationId, metadata);
-            
-            // 更新用户会话映射
-            if (metadata.getUserId() != null) {
-                userConversations.computeIfAbsent(metadata.getUserId(), k -> 
-                    Collections.synchronizedSet(new HashSet<>())).add(conversationId);
-            }
+            metadataChanges.mark(conversationId);
+            indexUserConversation(conversationId, metadata);
             
             log.debug("Set metadata for conversation {}", conversationId);
         });
@@ -259,6 +258,80 @@ public class InMemoryConversationService implements ConversationService {
         return Mono.fromCallable(() -> conversationMetadata.get(conversationId));
     }
     
+    @Override
+    public String snapshotName() {
+        return "conversations";
+    }
+    
+    @Override
+    public Class<ConversationMetadata> metadataType() {
+        return ConversationMetadata.class;
+    }
+    
+    @Override
+    public Set<String> snapshotKeys() {
+        Set<String> keys = new HashSet<>(conversationMessages.keySet());
+        keys.addAll(conversationMetadata.keySet());
+        return keys;
+    }
+    
+    @Override
+    public MessageLog snapshotLog(String key) {
+        return conversationMessages.get(key);
+    }
+    
+    @Override
+    public ConversationMetadata snapshotMetadata(String key) {
+        return conversationMetadata.get(key);
+    }
+    
+    @Override
+    public void drainMetadataChanges(Consumer<String> consumer) {
+        metadataChanges.drain(consumer);
+    }
+    
+    @Override
+    public void restoreSnapshot(String key, List<Message> messages, ConversationMetadata metadata) {
+        if (messages != null) {
+            MessageLog messageLog = new MessageLog(tokenCounter);
+            messageLog.appendAll(messages);
+            conversationMessages.put(key, messageLog);
+        }
+        if (metadata != null) {
+            conversationMetadata.put(key, metadata);
+            indexUserConversation(key, metadata);
+        }
+    }
+    
+    @Override
+    public void removeSnapshotEntry(String key) {
+        removeConversation(key);
+    }
+    
+    /**
+     * 删除会话的消息与元数据，并从用户会话映射中移除
+     */
+    private void removeConversation(String conversationId) {
+        conversationMessages.remove(conversationId);
+        ConversationMetadata metadata = conversationMetadata.remove(conversationId);
+        if (metadata != null && metadata.getUserId() != null) {
+            Set<String> userConvs = userConversations.get(metadata.getUserId());
+            if (userConvs != null) {
+                userConvs.remove(conversationId);
+            }
+        }
+    }
+    
+    /**
+     * 更新用户会话映射
+     */
+    private void indexUserConversation(String conversationId, ConversationMetadata metadata) {
+        if (metadata.getUserId() != null) {
+            userConversations.computeIfAbsent(metadata.getUserId(), k -> 
+                Collections.synchronizedSet(new HashSet<>())).add(conversationId);
+        }
+    }
+    
     /**
      * 更新会话的最后活跃时间
      */
@@ -269,6 +342,28 @@ public class InMemoryConversationService implements ConversationService {
         });
     }
     
+    /**
+     * 保留最近的消息，把旧消息替换为统计型摘要
+     */
+    private void replaceWithStatisticalSummary(String conversationId, MessageLog messageLog, int keepRecentCount) {
+        // 先读代数再读快照，期间被其他压缩改动时放弃
+        long generation = messageLog.generation();
+        List<Message> messages = messageLog.snapshot();
+        if (messages.size() <= keepRecentCount) {
+            return;
+        }
+        int split = messages.size() - keepRecentCount;
+        
+        // 创建压缩摘要
+        String summary = createConversationSummary(messages.subList(0, split));
+        Message summaryMessage = new Message("system", ConversationSummarizer.SUMMARY_PREFIX + summary);
+        
+        if (messageLog.replacePrefix(generation, split, List.of(summaryMessage))) {
+            log.info("Compressed conversation {}: {} messages -> {} messages", 
+                conversationId, messages.size(), keepRecentCount + 1);
+        }
+    }
+    
     /**
      * 创建对话摘要
      */
@@ -289,43 +384,4 @@ public class InMemoryConversationService implements ConversationService {
         
         return summary.toString();
     }
-    
-    /**
-     * Token估算器
-     */
-    private static class TokenEstimator {
-        
-        /**
-         * 估算文本的token数量（简单实现）
-         */
-        public int estimateTokens(String text) {
-            if (text == null || text.isEmpty()) {
-                return 0;
-            }
-            // 简单估算：平均4个字符 = 1个token
-            return (int) Math.ceil(text.length() / 4.0);
-        }
-        
-        /**
-         * 估算消息的token数量
-         */
-        public int estimateMessageTokens(Message message) {
-            int tokens = 0;
-            
-            if (message.getContent() != null) {
-                tokens += estimateTokens(message.getContent());
-            }
-            
-            if (message.getRole() != null) {
-                tokens += estimateTokens(message.getRole());
-            }
-            
-            // 工具调用的额外token
-            if (message.getToolCalls() != null) {
-                tokens += message.getToolCalls().size() * 10; // 每个工具调用估算10个token
-            }
-            
-            return tokens + 4; // 消息结构的额外token
-        }
-    }
-}
\ No newline at end of file
+}
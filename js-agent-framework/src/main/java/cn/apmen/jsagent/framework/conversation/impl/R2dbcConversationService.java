@@ -0,0 +1,537 @@
+package cn.apmen.jsagent.framework.conversation.impl;
+
+import cn.apmen.jsagent.framework.conversation.ConversationMetadata;
+import cn.apmen.jsagent.framework.conversation.ConversationService;
+import cn.apmen.jsagent.framework.conversation.ConversationStats;
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.exception.ErrorCode;
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall;
+import cn.apmen.jsagent.framework.token.TokenCounter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Readable;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于R2DBC的ConversationService实现
+ * 全部读写为非阻塞调用，表结构见 classpath:schema/r2dbc-conversation.sql
+ *
+ * - addMessages 按批次拼接多行INSERT
+ * - getRecentMessages / getContextWindowMessages / streamConversationHistory 使用 (conversation_id, id) 键集分页
+ * - getUserConversations 使用 (user_id, last_active_at) 二级索引
+ * - compressHistory / deleteConversation 的多条语句在同一事务内执行
+ */
+@Slf4j
+public class R2dbcConversationService implements ConversationService {
+
+    public static final String SCHEMA_LOCATION = "schema/r2dbc-conversation.sql";
+
+    private static final int INSERT_BATCH_SIZE = 100;
+    private static final int PAGE_SIZE = 100;
+
+    private static final String MESSAGE_COLUMNS = "id, role, content, tool_call_id, tool_calls, token_count";
+
+    private final DatabaseClient databaseClient;
+
+    private final TransactionalOperator transactionalOperator;
+
+    private final TokenCounter tokenCounter;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    {
+        objectMapper.findAndRegisterModules();
+        objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    public R2dbcConversationService(ConnectionFactory connectionFactory) {
+        this(connectionFactory, TokenCounter.heuristic());
+    }
+
+    public R2dbcConversationService(ConnectionFactory connectionFactory, TokenCounter tokenCounter) {
+        this(DatabaseClient.create(connectionFactory), tokenCounter);
+    }
+
+    public R2dbcConversationService(DatabaseClient databaseClient) {
+        this(databaseClient, TokenCounter.heuristic());
+    }
+
+    /**
+     * @param tokenCounter 写入时计算消息token数并持久化到token_count列
+     */
+    public R2dbcConversationService(DatabaseClient databaseClient, TokenCounter tokenCounter) {
+        this.databaseClient = databaseClient;
+        this.tokenCounter = tokenCounter;
+        this.transactionalOperator = TransactionalOperator.create(
+            new R2dbcTransactionManager(databaseClient.getConnectionFactory()));
+    }
+
+    /**
+     * 执行内置建表脚本（幂等）
+     */
+    public Mono<Void> initializeSchema() {
+        return Mono.fromCallable(() -> {
+                try (InputStream in = getClass().getClassLoader().getResourceAsStream(SCHEMA_LOCATION)) {
+                    if (in == null) {
+                        throw new AgentException(ErrorCode.CONFIG_MISSING, "Schema resource not found: " + SCHEMA_LOCATION);
+                    }
+                    return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                }
+            })
+            .flatMapMany(script -> Flux.fromArray(script.replaceAll("(?m)^--.*$", "").split(";")))
+            .map(String::trim)
+            .filter(statement -> !statement.isEmpty())
+            .concatMap(statement -> databaseClient.sql(statement).then())
+            .then()
+            .doOnSuccess(v -> log.info("R2DBC conversation schema initialized"));
+    }
+
+    @Override
+    public Mono<Void> addMessage(String conversationId, Message message) {
+        return addMessages(conversationId, List.of(message));
+    }
+
+    @Override
+    public Mono<Void> addMessages(String conversationId, List<Message> messages) {
+        if (messages == null || messages.isEmpty()) {
+            return Mono.empty();
+        }
+        LocalDateTime now = LocalDateTime.now();
+        List<List<Message>> batches = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i += INSERT_BATCH_SIZE) {
+            batches.add(messages.subList(i, Math.min(messages.size(), i + INSERT_BATCH_SIZE)));
+        }
+        return Flux.fromIterable(batches)
+            .concatMap(batch -> insertBatch(conversationId, batch, now))
+            .then(updateLastActiveTime(conversationId, now))
+            .doOnSuccess(v -> log.debug("Added {} messages to conversation {}", messages.size(), conversationId));
+    }
+
+    @Override
+    public Mono<List<Message>> getConversationHistory(String conversationId) {
+        return streamConversationHistory(conversationId).collectList();
+    }
+
+    @Override
+    public Mono<List<Message>> getRecentMessages(String conversationId, int limit) {
+        return fetchPageBefore(conversationId, Long.MAX_VALUE, limit)
+            .map(rows -> {
+                List<Message> messages = new ArrayList<>(rows.size());
+                for (int i = rows.size() - 1; i >= 0; i--) {
+                    messages.add(rows.get(i).message);
+                }
+                return messages;
+            });
+    }
+
+    @Override
+    public Mono<List<Message>> getContextWindowMessages(String conversationId, int maxTokens, String systemPrompt) {
+        int systemPromptTokens = systemPrompt != null ? tokenCounter.countTokens(systemPrompt) : 0;
+        int availableTokens = maxTokens - systemPromptTokens - 100; // 预留100个token
+
+        // 从最新消息开始按页向前读取，token预算用完即取消后续分页
+        return Mono.defer(() -> {
+            AtomicInteger usedTokens = new AtomicInteger();
+            return fetchPageBefore(conversationId, Long.MAX_VALUE, PAGE_SIZE)
+                .expand(page -> page.size() < PAGE_SIZE
+                    ? Mono.empty()
+                    : fetchPageBefore(conversationId, page.get(page.size() - 1).id, PAGE_SIZE))
+                .flatMapIterable(page -> page)
+                .takeWhile(row -> usedTokens.addAndGet(row.tokenCount) <= availableTokens)
+                .map(row -> row.message)
+                .collectList()
+                .map(messages -> {
+                    Collections.reverse(messages);
+                    return messages;
+                });
+        });
+    }
+
+    @Override
+    public Flux<Message> streamConversationHistory(String conversationId) {
+        // 按页键集读取，下游消费完当前页后才会请求下一页
+        return fetchPageAfter(conversationId, 0L)
+            .expand(page -> page.size() < PAGE_SIZE
+                ? Mono.empty()
+                : fetchPageAfter(conversationId, page.get(page.size() - 1).id))
+            .concatMapIterable(page -> page, 1)
+            .map(row -> row.message);
+    }
+
+    @Override
+    public Mono<Void> clearConversation(String conversationId) {
+        return databaseClient.sql("DELETE FROM agent_conversation_message WHERE conversation_id = :cid")
+            .bind("cid", conversationId)
+            .then()
+            .then(updateLastActiveTime(conversationId, LocalDateTime.now()))
+            .doOnSuccess(v -> log.info("Cleared conversation history: {}", conversationId));
+    }
+
+    @Override
+    public Mono<Void> deleteConversation(String conversationId) {
+        return databaseClient.sql("DELETE FROM agent_conversation_message WHERE conversation_id = :cid")
+            .bind("cid", conversationId)
+            .then()
+            .then(databaseClient.sql("DELETE FROM agent_conversation WHERE conversation_id = :cid")
+                .bind("cid", conversationId)
+                .then())
+            .as(transactionalOperator::transactional)
+            .doOnSuccess(v -> log.info("Deleted conversation: {}", conversationId));
+    }
+
+    @Override
+    public Mono<ConversationStats> getConversationStats(String conversationId) {
+        Mono<Map<String, long[]>> roleStats = databaseClient.sql(
+                "SELECT role, COUNT(*) AS message_count, SUM(token_count) AS token_sum " +
+                "FROM agent_conversation_message WHERE conversation_id = :cid GROUP BY role")
+            .bind("cid", conversationId)
+            .map(row -> Map.entry(row.get("role", String.class), new long[]{
+                toLong(row.get("message_count", Long.class)), toLong(row.get("token_sum", Long.class))}))
+            .all()
+            .collectMap(Map.Entry::getKey, Map.Entry::getValue);
+
+        return Mono.zip(roleStats, getConversationMetadata(conversationId).map(Optional::of).defaultIfEmpty(Optional.empty()))
+            .map(tuple -> {
+                Map<String, long[]> stats = tuple.getT1();
+                int total = (int) stats.values().stream().mapToLong(values -> values[0]).sum();
+                int tokens = (int) stats.values().stream().mapToLong(values -> values[1]).sum();
+
+                ConversationStats.ConversationStatsBuilder builder = ConversationStats.builder()
+                    .conversationId(conversationId)
+                    .totalMessages(total)
+                    .userMessages(roleCount(stats, "user"))
+                    .assistantMessages(roleCount(stats, "assistant"))
+                    .systemMessages(roleCount(stats, "system"))
+                    .toolMessages(roleCount(stats, "tool"))
+                    .totalTokens(tokens);
+
+                tuple.getT2().ifPresent(metadata -> {
+                    builder.createdAt(metadata.getCreatedAt())
+                           .lastUpdatedAt(metadata.getLastActiveAt());
+                    if (metadata.getCreatedAt() != null && metadata.getLastActiveAt() != null) {
+                        builder.durationMinutes(java.time.Duration.between(metadata.getCreatedAt(), metadata.getLastActiveAt()).toMinutes());
+                    }
+                });
+                return builder.build();
+            });
+    }
+
+    @Override
+    public Mono<List<String>> getUserConversations(String userId) {
+        return databaseClient.sql(
+                "SELECT conversation_id FROM agent_conversation WHERE user_id = :uid ORDER BY last_active_at DESC")
+            .bind("uid", userId)
+            .map(row -> row.get("conversation_id", String.class))
+            .all()
+            .collectList();
+    }
+
+    @Override
+    public Mono<Void> compressHistory(String conversationId, int keepRecentCount) {
+        // 找到需要压缩的最新一条消息，删除它及更早的消息，并以其ID写入摘要，使摘要排在保留消息之前；
+        // 删除与写入摘要在同一事务内，任一步失败时历史保持不变
+        return databaseClient.sql(
+                "SELECT id FROM agent_conversation_message WHERE conversation_id = :cid " +
+                "ORDER BY id DESC LIMIT 1 OFFSET :keep")
+            .bind("cid", conversationId)
+            .bind("keep", keepRecentCount)
+            .map(row -> row.get("id", Long.class))
+            .one()
+            .flatMap(boundary -> databaseClient.sql(
+                    "SELECT role, COUNT(*) AS message_count FROM agent_conversation_message " +
+                    "WHERE conversation_id = :cid AND id <= :boundary GROUP BY role")
+                .bind("cid", conversationId)
+                .bind("boundary", boundary)
+                .map(row -> Map.entry(row.get("role", String.class), toLong(row.get("message_count", Long.class))))
+                .all()
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                .flatMap(roleCounts -> databaseClient.sql(
+                        "DELETE FROM agent_conversation_message WHERE conversation_id = :cid AND id <= :boundary")
+                    .bind("cid", conversationId)
+                    .bind("boundary", boundary)
+                    .fetch()
+                    .rowsUpdated()
+                    .flatMap(deleted -> insertSummary(conversationId, boundary, createConversationSummary(roleCounts))
+                        .doOnSuccess(v -> log.info("Compressed conversation {}: {} old messages -> summary",
+                            conversationId, deleted)))))
+            .as(transactionalOperator::transactional);
+    }
+
+    @Override
+    public Mono<Boolean> conversationExists(String conversationId) {
+        return databaseClient.sql("SELECT id FROM agent_conversation_message WHERE conversation_id = :cid LIMIT 1")
+            .bind("cid", conversationId)
+            .map(row -> row.get("id", Long.class))
+            .first()
+            .hasElement();
+    }
+
+    @Override
+    public Mono<Void> setConversationMetadata(String conversationId, ConversationMetadata metadata) {
+        String update = "UPDATE agent_conversation SET user_id = :userId, title = :title, description = :description, " +
+            "agent_id = :agentId, status = :status, priority = :priority, pinned = :pinned, attributes = :attributes, " +
+            "created_at = :createdAt, last_active_at = :lastActiveAt WHERE conversation_id = :cid";
+        String insert = "INSERT INTO agent_conversation (conversation_id, user_id, title, description, agent_id, status, " +
+            "priority, pinned, attributes, created_at, last_active_at) VALUES (:cid, :userId, :title, :description, " +
+            ":agentId, :status, :priority, :pinned, :attributes, :createdAt, :lastActiveAt)";
+
+        return bindMetadata(databaseClient.sql(update), conversationId, metadata)
+            .fetch()
+            .rowsUpdated()
+            .flatMap(updated -> updated > 0
+                ? Mono.<Void>empty()
+                : bindMetadata(databaseClient.sql(insert), conversationId, metadata).then())
+            .doOnSuccess(v -> log.debug("Set metadata for conversation {}", conversationId));
+    }
+
+    @Override
+    public Mono<ConversationMetadata> getConversationMetadata(String conversationId) {
+        return databaseClient.sql("SELECT * FROM agent_conversation WHERE conversation_id = :cid")
+            .bind("cid", conversationId)
+            .map(this::toMetadata)
+            .one();
+    }
+
+    // ==================== SQL ====================
+
+    private Mono<Void> insertBatch(String conversationId, List<Message> batch, LocalDateTime now) {
+        StringBuilder sql = new StringBuilder(
+            "INSERT INTO agent_conversation_message " +
+            "(conversation_id, role, content, tool_call_id, tool_calls, token_count, created_at) VALUES ");
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append("(:cid, :role").append(i).append(", :content").append(i).append(", :toolCallId").append(i)
+               .append(", :toolCalls").append(i).append(", :tokens").append(i).append(", :now)");
+        }
+
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sql.toString())
+            .bind("cid", conversationId)
+            .bind("now", now);
+        for (int i = 0; i < batch.size(); i++) {
+            Message message = batch.get(i);
+            spec = spec.bind("role" + i, message.getRole());
+            spec = bindNullable(spec, "content" + i, message.getContent());
+            spec = bindNullable(spec, "toolCallId" + i, message.getToolCallId());
+            spec = bindNullable(spec, "toolCalls" + i, writeJson(message.getToolCalls()));
+            spec = spec.bind("tokens" + i, tokenCounter.countMessageTokens(message));
+        }
+        return spec.then();
+    }
+
+    private Mono<Void> insertSummary(String conversationId, long id, String summary) {
+        String content = "Previous conversation summary: " + summary;
+        return databaseClient.sql(
+                "INSERT INTO agent_conversation_message " +
+                "(id, conversation_id, role, content, token_count, created_at) " +
+                "VALUES (:id, :cid, 'system', :content, :tokens, :now)")
+            .bind("id", id)
+            .bind("cid", conversationId)
+            .bind("content", content)
+            .bind("tokens", tokenCounter.countMessageTokens(new Message("system", content)))
+            .bind("now", LocalDateTime.now())
+            .then();
+    }
+
+    private Mono<Void> updateLastActiveTime(String conversationId, LocalDateTime now) {
+        return databaseClient.sql("UPDATE agent_conversation SET last_active_at = :now WHERE conversation_id = :cid")
+            .bind("now", now)
+            .bind("cid", conversationId)
+            .then();
+    }
+
+    /**
+     * 读取id小于before的一页消息（按id降序）
+     */
+    private Mono<List<MessageRow>> fetchPageBefore(String conversationId, long before, int limit) {
+        return databaseClient.sql("SELECT " + MESSAGE_COLUMNS + " FROM agent_conversation_message " +
+                "WHERE conversation_id = :cid AND id < :before ORDER BY id DESC LIMIT :limit")
+            .bind("cid", conversationId)
+            .bind("before", before)
+            .bind("limit", limit)
+            .map(this::toMessageRow)
+            .all()
+            .collectList();
+    }
+
+    /**
+     * 读取id大于after的一页消息（按id升序）
+     */
+    private Mono<List<MessageRow>> fetchPageAfter(String conversationId, long after) {
+        return databaseClient.sql("SELECT " + MESSAGE_COLUMNS + " FROM agent_conversation_message " +
+                "WHERE conversation_id = :cid AND id > :after ORDER BY id ASC LIMIT :limit")
+            .bind("cid", conversationId)
+            .bind("after", after)
+            .bind("limit", PAGE_SIZE)
+            .map(this::toMessageRow)
+            .all()
+            .collectList();
+    }
+
+    private DatabaseClient.GenericExecuteSpec bindMetadata(DatabaseClient.GenericExecuteSpec spec,
+                                                            String conversationId, ConversationMetadata metadata) {
+        Map<String, Object> attributes = new HashMap<>();
+        if (metadata.getTags() != null) {
+            attributes.put("tags", metadata.getTags());
+        }
+        if (metadata.getCustomProperties() != null) {
+            attributes.put("customProperties", metadata.getCustomProperties());
+        }
+
+        spec = spec.bind("cid", conversationId);
+        spec = bindNullable(spec, "userId", metadata.getUserId());
+        spec = bindNullable(spec, "title", metadata.getTitle());
+        spec = bindNullable(spec, "description", metadata.getDescription());
+        spec = bindNullable(spec, "agentId", metadata.getAgentId());
+        spec = bindNullable(spec, "status", metadata.getStatus() != null ? metadata.getStatus().name() : null);
+        spec = bindNullable(spec, "priority", metadata.getPriority() != null ? metadata.getPriority().name() : null);
+        spec = spec.bind("pinned", metadata.isPinned());
+        spec = bindNullable(spec, "attributes", attributes.isEmpty() ? null : writeJson(attributes));
+        spec = bindNullable(spec, "createdAt", metadata.getCreatedAt(), LocalDateTime.class);
+        spec = bindNullable(spec, "lastActiveAt", metadata.getLastActiveAt(), LocalDateTime.class);
+        return spec;
+    }
+
+    private static DatabaseClient.GenericExecuteSpec bindNullable(DatabaseClient.GenericExecuteSpec spec, String name, String value) {
+        return bindNullable(spec, name, value, String.class);
+    }
+
+    private static DatabaseClient.GenericExecuteSpec bindNullable(DatabaseClient.GenericExecuteSpec spec, String name,
+                                                                   Object value, Class<?> type) {
+        return value != null ? spec.bind(name, value) : spec.bindNull(name, type);
+    }
+
+    // ==================== 行映射 ====================
+
+    private MessageRow toMessageRow(Readable row) {
+        Message message = new Message(row.get("role", String.class), row.get("content", String.class),
+            row.get("tool_call_id", String.class));
+        String toolCalls = row.get("tool_calls", String.class);
+        if (toolCalls != null) {
+            message.setToolCalls(readJson(toolCalls, new TypeReference<List<ToolCall>>() {}));
+        }
+        Integer tokens = row.get("token_count", Integer.class);
+        return new MessageRow(row.get("id", Long.class), message, tokens != null ? tokens : 0);
+    }
+
+    private ConversationMetadata toMetadata(Readable row) {
+        ConversationMetadata.ConversationMetadataBuilder builder = ConversationMetadata.builder()
+            .conversationId(row.get("conversation_id", String.class))
+            .userId(row.get("user_id", String.class))
+            .title(row.get("title", String.class))
+            .description(row.get("description", String.class))
+            .agentId(row.get("agent_id", String.class))
+            .pinned(Boolean.TRUE.equals(row.get("pinned", Boolean.class)))
+            .createdAt(row.get("created_at", LocalDateTime.class))
+            .lastActiveAt(row.get("last_active_at", LocalDateTime.class));
+
+        String status = row.get("status", String.class);
+        if (status != null) {
+            builder.status(ConversationMetadata.ConversationStatus.valueOf(status));
+        }
+        String priority = row.get("priority", String.class);
+        if (priority != null) {
+            builder.priority(ConversationMetadata.ConversationPriority.valueOf(priority));
+        }
+        String attributes = row.get("attributes", String.class);
+        if (attributes != null) {
+            Map<String, Object> values = readJson(attributes, new TypeReference<Map<String, Object>>() {});
+            Object tags = values.get("tags");
+            if (tags instanceof List<?> list) {
+                builder.tags(Set.copyOf(list.stream().map(String::valueOf).toList()));
+            }
+            Object customProperties = values.get("customProperties");
+            if (customProperties instanceof Map<?, ?> map) {
+                Map<String, Object> properties = new HashMap<>();
+                map.forEach((key, value) -> properties.put(String.valueOf(key), value));
+                builder.customProperties(properties);
+            }
+        }
+        return builder.build();
+    }
+
+    private String writeJson(Object value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new AgentException(ErrorCode.STORAGE_IO_FAILED, "Failed to encode JSON column", e);
+        }
+    }
+
+    private <T> T readJson(String json, TypeReference<T> type) {
+        try {
+            return objectMapper.readValue(json, type);
+        } catch (IOException e) {
+            throw new AgentException(ErrorCode.STORAGE_CORRUPTED, "Invalid JSON column value", e);
+        }
+    }
+
+    private static long toLong(Number number) {
+        return number != null ? number.longValue() : 0L;
+    }
+
+    private static int roleCount(Map<String, long[]> stats, String role) {
+        long[] values = stats.get(role);
+        return values != null ? (int) values[0] : 0;
+    }
+
+    /**
+     * 创建对话摘要
+     */
+    private static String createConversationSummary(Map<String, Long> roleCounts) {
+        long total = roleCounts.values().stream().mapToLong(Long::longValue).sum();
+        StringBuilder summary = new StringBuilder();
+        summary.append("Conversation included ").append(total).append(" messages. ");
+        roleCounts.forEach((role, count) ->
+            summary.append(count).append(" ").append(role).append(" messages, "));
+        return summary.toString();
+    }
+
+
+
+    /**
+     * 消息行
+     */
+    private static final class MessageRow {
+
+        final long id;
+
+        final Message message;
+
+        final int tokenCount;
+
+        MessageRow(long id, Message message, int tokenCount) {
+            this.id = id;
+            this.message = message;
+            this.tokenCount = tokenCount;
+        }
+    }
+}
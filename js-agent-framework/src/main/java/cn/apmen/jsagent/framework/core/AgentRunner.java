@@ -7,8 +7,12 @@ import cn.apmen.jsagent.framework.core.ContextInformation.EnvironmentInformation
 import cn.apmen.jsagent.framework.core.ContextInformation.UserInformation;
 import cn.apmen.jsagent.framework.exception.AgentException;
 import cn.apmen.jsagent.framework.exception.ErrorCode;
+import cn.apmen.jsagent.framework.journal.ConversationJournal;
+import cn.apmen.jsagent.framework.journal.JournalConversationService;
+import cn.apmen.jsagent.framework.journal.JournalMemoryService;
 import cn.apmen.jsagent.framework.memory.MemoryService;
 import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.openaiunified.model.request.Tool;
 import cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall;
 import cn.apmen.jsagent.framework.protocol.UserChatRequest;
 import cn.apmen.jsagent.framework.stream.StreamBuffer;
@@ -17,6 +21,7 @@ import cn.apmen.jsagent.framework.tool.AgentToolResponse;
 import cn.apmen.jsagent.framework.tool.ToolContext;
 import cn.apmen.jsagent.framework.tool.ToolExecutor;
 import cn.apmen.jsagent.framework.tool.ToolResult;
+import cn.apmen.jsagent.framework.tool.ToolSelectionContext;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
@@ -46,6 +51,7 @@ public class AgentRunner {
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final ConversationService conversationService;
     private final MemoryService memoryService;
+    private final ConversationJournal journal;
     private final Mustache.Compiler mustacheCompiler = Mustache.compiler();
 
     // 默认系统提示词模板
@@ -84,10 +90,27 @@ public class AgentRunner {
 
     public AgentRunner(CoreAgent agent, AgentConfig agentConfig,
                        ConversationService conversationService, MemoryService memoryService) {
+        this(agent, agentConfig, conversationService, memoryService, null);
+    }
+
+    /**
+     * 使用会话事件日志作为唯一数据来源，记忆和对话服务为日志的投影
+     */
+    public AgentRunner(CoreAgent agent, AgentConfig agentConfig, ConversationJournal journal) {
+        this(agent, agentConfig, new JournalConversationService(journal), new JournalMemoryService(journal), journal);
+    }
+
+    /**
+     * 使用会话事件日志，并指定基于同一日志的投影服务（便于在应用中共享投影实例）
+     */
+    public AgentRunner(CoreAgent agent, AgentConfig agentConfig,
+                       ConversationService conversationService, MemoryService memoryService,
+                       ConversationJournal journal) {
         this.agent = agent;
         this.agentConfig = agentConfig;
         this.conversationService = conversationService;
         this.memoryService = memoryService;
+        this.journal = journal;
     }
 
     /**
@@ -156,17 +179,17 @@ public class AgentRunner {
                     .loadTime(LocalDateTime.now())
                     .build();
         })
-        .flatMap(this::enrichContextInformation);
+        .flatMap(contextInfo -> enrichContextInformation(contextInfo, request));
     }
 
     /**
      * 丰富上下文信息
      */
-    private Mono<ContextInformation> enrichContextInformation(ContextInformation contextInfo) {
+    private Mono<ContextInformation> enrichContextInformation(ContextInformation contextInfo, UserChatRequest request) {
         return Mono.zip(
                 loadUserInformation(contextInfo.getUserId()),
                 loadConversationInformation(contextInfo.getConversationId()),
-                loadEnvironmentInformation()
+                loadEnvironmentInformation(request)
         ).map(tuple -> {
             UserInformation userInfo = tuple.getT1();
             ConversationInformation conversationInfo = tuple.getT2();
@@ -241,7 +264,7 @@ public class AgentRunner {
     /**
      * 加载环境信息
      */
-    private Mono<EnvironmentInformation> loadEnvironmentInformation() {
+    private Mono<EnvironmentInformation> loadEnvironmentInformation(UserChatRequest request) {
         return Mono.fromCallable(() -> {
             // TODO: 实际实现中可以加载系统状态、配置信息等
             log.debug("Loading environment information");
@@ -249,28 +272,47 @@ public class AgentRunner {
             return EnvironmentInformation.builder()
                     .currentTime(LocalDateTime.now())
                     .systemVersion("1.0.0")
-                    .availableTools(agent.getToolRegistry() != null ?
-                        agent.getToolRegistry().getRegisteredToolNames() : List.of())
                     .systemLoad("normal")
                     .build();
         });
     }
 
+    /**
+     * 按本次请求选择一次工具，系统提示词中列出的工具与每轮发送给模型的工具共用这份结果
+     * 查询与最近使用的工具取自上下文窗口中的历史消息加上本次用户消息，与CoreAgent的选择口径一致
+     */
+    private Mono<List<Tool>> selectRequestTools(UserChatRequest request, RunnerContext context) {
+        if (agent.getToolSelector() == null) {
+            return agent.selectTools(null);
+        }
+        return Mono.fromCallable(() -> {
+            List<Message> messages = context.getCompleteMessageList();
+            if (request.getMessage() != null && request.getMessage().getMessage() != null) {
+                messages.add(new Message("user", request.getMessage().getMessage()));
+            }
+            return ToolSelectionContext.fromMessages(messages);
+        }).flatMap(agent::selectTools);
+    }
+
+    private static List<String> toolNames(List<Tool> tools) {
+        return tools.stream()
+                .filter(tool -> tool.getFunction() != null)
+                .map(tool -> tool.getFunction().getName())
+                .collect(Collectors.toList());
+    }
+
     /**
      * 使用上下文信息构建RunnerContext
      */
     private Mono<RunnerContext> buildRunnerContextWithInfo(UserChatRequest request, ContextInformation contextInfo) {
         return Mono.fromCallable(() -> {
             try {
-                // 构建系统提示词
-                String systemPrompt = buildSystemPromptWithContext(contextInfo);
-
                 RunnerContext.RunnerContextBuilder builder = RunnerContext.builder()
                         .memoryService(memoryService) // 设置MemoryService
                         .conversationService(conversationService) // 设置ConversationService
+                        .journal(journal) // 设置会话事件日志（可选）
                         .userId(request.getUserId())
-                        .conversationId(request.getConversationId())
-                        .systemPrompt(systemPrompt);
+                        .conversationId(request.getConversationId());
 
                 // 设置上下文token限制
                 if (agentConfig != null && agentConfig.getMaxContextTokens() != null) {
@@ -296,7 +338,6 @@ public class AgentRunner {
                     initializeConversationMetadata(context, contextInfo);
                 }
 
-                log.debug("Built RunnerContext for user: {}, conversation: {}", request.getUserId(), request.getConversationId());
                 return context;
 
             } catch (AgentException e) {
@@ -306,7 +347,16 @@ public class AgentRunner {
                     ErrorCode.CONTEXT_BUILD_FAILED,
                     "Failed to build runner context for user: " + request.getUserId(), e);
             }
-        });
+        }).flatMap(context -> selectRequestTools(request, context).map(tools -> {
+            // 构建系统提示词，列出的工具即本次请求发送给模型的工具
+            context.setSelectedTools(tools);
+            if (contextInfo.getEnvironmentInformation() != null) {
+                contextInfo.getEnvironmentInformation().setAvailableTools(toolNames(tools));
+            }
+            context.setSystemPrompt(buildSystemPromptWithContext(contextInfo));
+            log.debug("Built RunnerContext for user: {}, conversation: {}", request.getUserId(), request.getConversationId());
+            return context;
+        }));
     }
 
     /**
@@ -657,17 +707,10 @@ public class AgentRunner {
         // 情况2：多个Tool或单个非directOutput Tool，并行执行所有工具调用
         log.debug("Executing {} tools in parallel", toolCalls.size());
 
-        // 创建所有工具执行的Mono
-        List<Mono<ToolResult>> toolExecutions = toolCalls.stream()
-                .map(toolCall -> agent.getToolRegistry().execute(toolCall, toolContext)
-                    .onErrorMap(error -> new AgentException(
-                        ErrorCode.TOOL_EXECUTION_FAILED,
-                        "Tool execution failed: " + toolCall.getFunction().getName(), error)))
-                .collect(Collectors.toList());
-
-        // 使用 Flux.merge 确保真正的并行执行
-        return Flux.merge(toolExecutions)
-                .collectList()
+        // 并行执行，结果与toolCalls顺序一致；各工具受舱壁限制，超过本轮截止时间的调用以超时结果代替
+        return agent.getToolRegistry().executeAll(toolCalls, toolContext)
+                .onErrorMap(error -> !(error instanceof AgentException), error -> new AgentException(
+                    ErrorCode.TOOL_EXECUTION_FAILED, "Tool execution failed", error))
                 .flatMapMany(results -> {
                     // 创建TOOL_RESULT事件列表
                     List<AgentResponse> toolResultEvents = new ArrayList<>();
@@ -794,9 +837,16 @@ public class AgentRunner {
 
     /**
      * 记录完整的助手回复到ConversationService
-     * 从MemoryService中获取最新的assistant消息并合并为完整回复
+     * 配置了会话日志时直接由日志合并尾部assistant条目并追加最终回复，否则从MemoryService回读
      */
     private void recordCompleteResponseToConversation(RunnerContext context) {
+        if (context.getJournal() != null && context.getConversationId() != null) {
+            context.getJournal()
+                .appendFinalResponse(context.getConversationId())
+                .subscribe(entry -> log.debug("Recorded final response to journal: seq={}", entry.getSequence()),
+                    error -> log.warn("Failed to record final response to journal", error));
+            return;
+        }
         if (context.getMemoryService() != null && context.getConversationId() != null) {
             // 从MemoryService获取最近的消息，查找最新的assistant消息
             context.getMemoryService()
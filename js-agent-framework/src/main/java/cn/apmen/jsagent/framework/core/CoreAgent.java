@@ -14,6 +14,8 @@ import cn.apmen.jsagent.framework.openaiunified.model.response.stream.StreamChoi
 import cn.apmen.jsagent.framework.stream.SSEParser;
 import cn.apmen.jsagent.framework.stream.StreamAccumulator;
 import cn.apmen.jsagent.framework.tool.ToolRegistry;
+import cn.apmen.jsagent.framework.tool.ToolSelectionContext;
+import cn.apmen.jsagent.framework.tool.ToolSelector;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.Builder;
 import lombok.Data;
@@ -38,8 +40,16 @@ public class CoreAgent {
 
     private LlmConfig llmConfig;
     private List<Tool> tools;
+    /**
+     * 每次请求从ToolRegistry读取全部工具（代替固定的tools），运行期注册或移除的工具立即生效
+     */
+    private boolean useRegistryTools;
     private OpenAIUnifiedChatClient openAIUnifiedChatClient;
     private ToolRegistry toolRegistry;
+    /**
+     * 工具选择器，配置后每轮只发送与当前对话相关的工具子集，为null时发送全部工具
+     */
+    private ToolSelector toolSelector;
 
     @Builder.Default
     private final ObjectMapper objectMapper = new ObjectMapper();
@@ -50,123 +60,144 @@ public class CoreAgent {
      * 流式运行Agent - 单次调用
      */
     public Flux<AgentResponse> runStream(RunnerContext runnerContext) {
-        try {
-            // 构建ChatCompletionRequest
-            ChatCompletionRequest request = buildChatRequest(runnerContext);
-            request.setStream(true); // 设置流式参数
-
-            // 记录请求信息，但避免序列化整个request对象
-            log.info("Starting stream request {}", objectMapper.writeValueAsString(request));
-
-            // 调用OpenAI流式API，使用SSE解析器
-            return openAIUnifiedChatClient.createChatCompletionStream(request)
-                    .doOnSubscribe(subscription -> log.debug("Starting stream subscription for agent: {}", name))
-                    .doOnNext(rawData -> log.trace("Raw stream data received: {}", rawData))
-                    .doOnError(error -> log.error("Stream error in OpenAI client: {}", error.getMessage(), error))
-                    .doOnComplete(() -> log.debug("OpenAI stream completed for agent: {}", name))
-                    .transform(sseParser::parseSSEStream)
-                    .doOnNext(streamResponse -> log.trace("Parsed stream response: {}", streamResponse))
-                    .scan(new StreamAccumulator(), (accumulator, streamResponse) -> {
-                        // 使用scan操作符来维护累积器状态
-                        if (streamResponse.getChoices() != null && !streamResponse.getChoices().isEmpty()) {
-                            StreamChoice choice = streamResponse.getChoices().get(0);
-                            log.trace("Processing stream choice: finishReason={}, hasContent={}, hasToolCalls={}",
-                                choice.getFinishReason(),
-                                choice.getDelta() != null && choice.getDelta().getContent() != null,
-                                choice.getDelta() != null && choice.getDelta().getToolCalls() != null);
-                            accumulator.accumulate(choice);
-                        }
-                        return accumulator;
-                    })
-                    .doOnNext(accumulator -> log.trace("Accumulator state: hasNewContent={}, isComplete={}",
-                        accumulator.hasNewContent(), accumulator.isComplete()))
-                    .flatMap(accumulator -> {
-                        // 处理内容片段
-                        if (accumulator.hasNewContent()) {
-                            String newContent = accumulator.getNewContent();
-                            return Flux.just(AgentResponse.text(newContent, false));
-                        }
-
-                        // 处理完成事件
-                        if (accumulator.isComplete()) {
-                            Message completeMessage = accumulator.buildMessage();
-                            // 添加完整消息到上下文
-                            runnerContext.addMessage(completeMessage);
-
-                            AgentResponse completeResponse = AgentResponse.text("", true);
-
-                            // 检查是否有工具调用
-                            if (completeMessage.getToolCalls() != null && !completeMessage.getToolCalls().isEmpty()) {
-                                completeResponse.setToolCalls(completeMessage.getToolCalls());
+        return buildChatRequest(runnerContext).flatMapMany(request -> {
+            try {
+                request.setStream(true); // 设置流式参数
+
+                // 记录请求信息，但避免序列化整个request对象
+                log.info("Starting stream request {}", objectMapper.writeValueAsString(request));
+
+                // 调用OpenAI流式API，使用SSE解析器
+                return openAIUnifiedChatClient.createChatCompletionStream(request)
+                        .doOnSubscribe(subscription -> log.debug("Starting stream subscription for agent: {}", name))
+                        .doOnNext(rawData -> log.trace("Raw stream data received: {}", rawData))
+                        .doOnError(error -> log.error("Stream error in OpenAI client: {}", error.getMessage(), error))
+                        .doOnComplete(() -> log.debug("OpenAI stream completed for agent: {}", name))
+                        .transform(sseParser::parseSSEStream)
+                        .doOnNext(streamResponse -> log.trace("Parsed stream response: {}", streamResponse))
+                        .scan(new StreamAccumulator(), (accumulator, streamResponse) -> {
+                            // 使用scan操作符来维护累积器状态
+                            if (streamResponse.getChoices() != null && !streamResponse.getChoices().isEmpty()) {
+                                StreamChoice choice = streamResponse.getChoices().get(0);
+                                log.trace("Processing stream choice: finishReason={}, hasContent={}, hasToolCalls={}",
+                                    choice.getFinishReason(),
+                                    choice.getDelta() != null && choice.getDelta().getContent() != null,
+                                    choice.getDelta() != null && choice.getDelta().getToolCalls() != null);
+                                accumulator.accumulate(choice);
+                            }
+                            return accumulator;
+                        })
+                        .doOnNext(accumulator -> log.trace("Accumulator state: hasNewContent={}, isComplete={}",
+                            accumulator.hasNewContent(), accumulator.isComplete()))
+                        .flatMap(accumulator -> {
+                            // 处理内容片段
+                            if (accumulator.hasNewContent()) {
+                                String newContent = accumulator.getNewContent();
+                                return Flux.just(AgentResponse.text(newContent, false));
                             }
 
-                            return Flux.just(completeResponse);
-                        }
+                            // 处理完成事件
+                            if (accumulator.isComplete()) {
+                                Message completeMessage = accumulator.buildMessage();
+                                // 添加完整消息到上下文
+                                runnerContext.addMessage(completeMessage);
 
-                        return Flux.empty();
-                    })
-                    .doOnNext(response -> log.debug("Agent response generated: type={}, final={}",
-                        response.getType(), response.isFinalResponse()))
-                    .onErrorMap(this::mapToAgentException);
+                                AgentResponse completeResponse = AgentResponse.text("", true);
 
-        } catch (Exception e) {
-            log.error("Error in agent stream execution", e);
-            throw new AgentException(ErrorCode.AGENT_EXECUTION_FAILED,
-                "Stream execution failed for agent: " + name, e);
-        }
+                                // 检查是否有工具调用
+                                if (completeMessage.getToolCalls() != null && !completeMessage.getToolCalls().isEmpty()) {
+                                    completeResponse.setToolCalls(completeMessage.getToolCalls());
+                                }
+
+                                return Flux.just(completeResponse);
+                            }
+
+                            return Flux.empty();
+                        })
+                        .doOnNext(response -> log.debug("Agent response generated: type={}, final={}",
+                            response.getType(), response.isFinalResponse()))
+                        .onErrorMap(this::mapToAgentException);
+
+            } catch (Exception e) {
+                log.error("Error in agent stream execution", e);
+                throw new AgentException(ErrorCode.AGENT_EXECUTION_FAILED,
+                    "Stream execution failed for agent: " + name, e);
+            }
+        });
     }
 
     /**
      * 非流式运行Agent - 单次调用
      */
     public Mono<AgentResponse> run(RunnerContext runnerContext) {
-        try {
-            // 构建ChatCompletionRequest
-            ChatCompletionRequest request = buildChatRequest(runnerContext);
-
-            log.info("request: {}", objectMapper.writeValueAsString(request));
-
-            // 调用OpenAI API
-            return openAIUnifiedChatClient.createChatCompletion(request)
-                    .map(response -> parseResponse(response, runnerContext))
-                    .onErrorMap(this::mapToAgentException);
-
-        } catch (Exception e) {
-            log.error("Error in agent execution", e);
-            throw new AgentException(ErrorCode.AGENT_EXECUTION_FAILED,
-                "Execution failed for agent: " + name, e);
-        }
+        return buildChatRequest(runnerContext).flatMap(request -> {
+            try {
+                log.info("request: {}", objectMapper.writeValueAsString(request));
+
+                // 调用OpenAI API
+                return openAIUnifiedChatClient.createChatCompletion(request)
+                        .map(response -> parseResponse(response, runnerContext))
+                        .onErrorMap(this::mapToAgentException);
+
+            } catch (Exception e) {
+                log.error("Error in agent execution", e);
+                throw new AgentException(ErrorCode.AGENT_EXECUTION_FAILED,
+                    "Execution failed for agent: " + name, e);
+            }
+        });
     }
 
     /**
      * 构建ChatCompletionRequest
      */
-    private ChatCompletionRequest buildChatRequest(RunnerContext runnerContext) {
-        ChatCompletionRequest request = new ChatCompletionRequest();
-
-        // 设置模型
-        String model = (llmConfig != null && llmConfig.getModel() != null)
-                ? llmConfig.getModel()
-                : "anthropic.claude-sonnet-4";
-        request.setModel(model);
-
-        // 设置消息
-        List<Message> messages = runnerContext.getCompleteMessageList();
-        request.setMessages(messages);
-
-        // 设置工具
-        if (tools != null && !tools.isEmpty()) {
-            request.setTools(tools);
-            request.setToolChoice("auto");
-        }
+    private Mono<ChatCompletionRequest> buildChatRequest(RunnerContext runnerContext) {
+        return Mono.defer(() -> {
+            ChatCompletionRequest request = new ChatCompletionRequest();
+
+            // 设置模型
+            String model = (llmConfig != null && llmConfig.getModel() != null)
+                    ? llmConfig.getModel()
+                    : "anthropic.claude-sonnet-4";
+            request.setModel(model);
+
+            // 设置消息
+            List<Message> messages = runnerContext.getCompleteMessageList();
+            request.setMessages(messages);
+
+            // 设置工具：AgentRunner已按本次请求选定时直接复用，否则按消息列表选择
+            Mono<List<Tool>> tools = runnerContext.getSelectedTools() != null
+                    ? Mono.just(runnerContext.getSelectedTools())
+                    : selectTools(toolSelector != null ? ToolSelectionContext.fromMessages(messages) : null);
+            return tools.map(selected -> {
+                if (!selected.isEmpty()) {
+                    request.setTools(selected);
+                    request.setToolChoice("auto");
+                }
+
+                // 设置其他参数
+                if (llmConfig != null) {
+                    request.setTemperature(llmConfig.getTemperature());
+                    request.setMaxTokens(llmConfig.getMaxTokens());
+                }
+
+                return request;
+            });
+        });
+    }
 
-        // 设置其他参数
-        if (llmConfig != null) {
-            request.setTemperature(llmConfig.getTemperature());
-            request.setMaxTokens(llmConfig.getMaxTokens());
+    /**
+     * 获取本轮发送给模型的工具，配置了ToolSelector时按上下文选择子集
+     * 选择可能含阻塞的向量化计算，由选择器决定执行的调度器
+     */
+    public Mono<List<Tool>> selectTools(ToolSelectionContext context) {
+        List<Tool> candidates = useRegistryTools && toolRegistry != null ? toolRegistry.getAllTools() : this.tools;
+        if (candidates == null || candidates.isEmpty()) {
+            return Mono.just(List.of());
         }
-
-        return request;
+        if (toolSelector == null) {
+            return Mono.just(candidates);
+        }
+        return toolSelector.selectAsync(candidates, context);
     }
 
     /**
@@ -1,8 +1,10 @@
 package cn.apmen.jsagent.framework.core;
 
 import cn.apmen.jsagent.framework.conversation.ConversationService;
+import cn.apmen.jsagent.framework.journal.ConversationJournal;
 import cn.apmen.jsagent.framework.memory.MemoryService;
 import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.openaiunified.model.request.Tool;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -22,6 +24,7 @@ import java.util.concurrent.atomic.AtomicInteger;
  * 分离MemoryService和ConversationService的职责：
  * - MemoryService: 记录Agent运行中的所有事件和消息（assistant/tool/system等）
  * - ConversationService: 只记录用户可见的对话内容（user/TEXT_RESPONSE）
+ * 配置了ConversationJournal时，消息只追加一次到日志，两个服务作为日志的投影视图读取
  */
 @Data
 @Builder
@@ -42,6 +45,11 @@ public class RunnerContext {
      */
     private ConversationService conversationService;
 
+    /**
+     * 会话事件日志 - 可选，设置后作为唯一写入目标
+     */
+    private ConversationJournal journal;
+
     private String userId;
 
     private String conversationId;
@@ -51,6 +59,12 @@ public class RunnerContext {
      */
     private String systemPrompt;
 
+    /**
+     * 本次请求选定的工具，系统提示词中列出的工具与每轮发送给模型的工具共用这一份；
+     * 为null时由CoreAgent每轮按消息列表选择
+     */
+    private List<Tool> selectedTools;
+
     /**
      * 当前轮次 - 使用原子操作
      */
@@ -86,6 +100,16 @@ public class RunnerContext {
      * 所有消息都会记录到MemoryService，只有用户消息会记录到ConversationService
      */
     public void addMessage(Message message) {
+        // 单次追加到会话日志，由可见性标记同时投影到记忆视图和对话视图
+        if (journal != null && conversationId != null) {
+            journal.append(conversationId, message, true, "user".equals(message.getRole()))
+                .doOnSuccess(entry -> log.debug("Message appended to journal: seq={}, role={}",
+                    entry.getSequence(), message.getRole()))
+                .doOnError(error -> log.warn("Failed to append message to journal", error))
+                .subscribe();
+            return;
+        }
+
         // 异步记录到MemoryService（所有消息）
         if (memoryService != null && conversationId != null) {
             memoryService.addMessage(conversationId, message)
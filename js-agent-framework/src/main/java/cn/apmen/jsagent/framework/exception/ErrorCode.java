@@ -41,6 +41,11 @@ public enum ErrorCode {
     CONFIG_INVALID("6001", "配置无效", ErrorLevel.ERROR, false, true),
     CONFIG_MISSING("6002", "配置缺失", ErrorLevel.ERROR, false, true),
     
+    // 存储相关错误 (7000-7999)
+    STORAGE_IO_FAILED("7001", "存储读写失败", ErrorLevel.ERROR, true, false),
+    STORAGE_CORRUPTED("7002", "存储数据损坏", ErrorLevel.ERROR, false, false),
+    STORAGE_RECORD_TOO_LARGE("7003", "存储记录过大", ErrorLevel.ERROR, false, true),
+    
     // 系统相关错误 (9000-9999)
     SYSTEM_ERROR("9001", "系统内部错误", ErrorLevel.ERROR, false, false),
     RESOURCE_EXHAUSTED("9002", "资源耗尽", ErrorLevel.ERROR, true, false),
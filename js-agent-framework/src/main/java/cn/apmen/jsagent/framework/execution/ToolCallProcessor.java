@@ -11,11 +11,9 @@ import cn.apmen.jsagent.framework.tool.ToolRegistry;
 import cn.apmen.jsagent.framework.tool.ToolResult;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * 工具调用处理器
@@ -75,17 +73,10 @@ public class ToolCallProcessor {
                 .currentRound(context.getCurrentRound())
                 .build();
 
-        // 执行所有工具调用
-        List<Mono<ToolResult>> toolExecutions = toolCalls.stream()
-                .map(toolCall -> toolRegistry.execute(toolCall, toolContext)
-                    .onErrorMap(error -> new AgentException(
-                        ErrorCode.TOOL_EXECUTION_FAILED,
-                        "Tool execution failed: " + toolCall.getFunction().getName(), error)))
-                .collect(Collectors.toList());
-
-        return Flux.fromIterable(toolExecutions)
-                .flatMap(mono -> mono)
-                .collectList()
+        // 并行执行所有工具调用，各工具受舱壁限制，超过本轮截止时间的调用以超时结果代替
+        return toolRegistry.executeAll(toolCalls, toolContext)
+                .onErrorMap(error -> !(error instanceof AgentException), error -> new AgentException(
+                    ErrorCode.TOOL_EXECUTION_FAILED, "Tool execution failed", error))
                 .flatMap(results -> processToolResults(results, context));
     }
     /**
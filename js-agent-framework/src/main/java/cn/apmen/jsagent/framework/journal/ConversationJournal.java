@@ -0,0 +1,91 @@
+package cn.apmen.jsagent.framework.journal;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 会话事件日志接口
+ * 每个会话一条只追加的日志，作为Agent记忆和用户对话的唯一数据来源：
+ * - JournalMemoryService: 记忆视图（memoryVisible的条目）
+ * - JournalConversationService: 对话视图（userVisible的条目）
+ * 一条消息只写入一次，由条目上的可见性标记决定其出现在哪些视图中
+ */
+public interface ConversationJournal {
+
+    /**
+     * 追加一条消息
+     * @param conversationId 会话ID
+     * @param message 消息
+     * @param memoryVisible 是否出现在记忆视图
+     * @param userVisible 是否出现在对话视图
+     * @return 追加后的条目
+     */
+    Mono<JournalEntry> append(String conversationId, Message message, boolean memoryVisible, boolean userVisible);
+
+    /**
+     * 批量追加消息
+     * @param conversationId 会话ID
+     * @param messages 消息列表
+     * @param memoryVisible 是否出现在记忆视图
+     * @param userVisible 是否出现在对话视图
+     * @return 追加结果
+     */
+    Mono<Void> appendAll(String conversationId, List<Message> messages, boolean memoryVisible, boolean userVisible);
+
+    /**
+     * 追加最终回复
+     * 合并上一条非assistant记忆消息之后的连续assistant消息，作为用户可见的FINAL_RESPONSE条目写入
+     * @param conversationId 会话ID
+     * @return 最终回复条目，没有可合并的assistant消息时为空
+     */
+    Mono<JournalEntry> appendFinalResponse(String conversationId);
+
+    /**
+     * 读取指定序号之后的条目
+     * @param conversationId 会话ID
+     * @param afterSequence 起始序号（不包含），0表示从头读取
+     * @return 条目列表（按序号升序）
+     */
+    Mono<List<JournalEntry>> readAfter(String conversationId, long afterSequence);
+
+    /**
+     * 获取会话最后一条条目的序号
+     * @param conversationId 会话ID
+     * @return 最后序号，会话不存在时为0
+     */
+    Mono<Long> getLastSequence(String conversationId);
+
+    /**
+     * 获取会话日志的代次
+     * 日志每次新建（包括被淘汰或删除后重新写入）都会分配新的代次，序号在新代次中从1重新开始；
+     * 投影视图用代次判断自己记录的视图起点是否仍属于当前日志
+     * @param conversationId 会话ID
+     * @return 当前代次，会话不存在时为0
+     */
+    Mono<Long> getEpoch(String conversationId);
+
+    /**
+     * 检查会话日志是否存在
+     * @param conversationId 会话ID
+     * @return 是否存在
+     */
+    Mono<Boolean> exists(String conversationId);
+
+    /**
+     * 删除会话日志
+     * @param conversationId 会话ID
+     * @return 删除结果
+     */
+    Mono<Void> delete(String conversationId);
+
+    /**
+     * 注册会话日志移除监听器，日志被淘汰或删除时回调会话ID
+     * 投影视图借此清理各自保存的视图状态
+     * @param listener 监听器
+     */
+    default void addRemovalListener(Consumer<String> listener) {
+    }
+}
@@ -0,0 +1,261 @@
+package cn.apmen.jsagent.framework.journal;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 基于内存的会话事件日志实现
+ * 适用于开发和测试环境。会话数超过上限时移除最久未访问的会话日志；
+ * 单个会话的条目超过上限时丢弃最早的条目（序号保持连续递增，视图从仍保留的第一条开始读取）
+ * 被淘汰的会话再次写入时新建日志流并分配新代次，同时通知移除监听器
+ */
+@Slf4j
+public class InMemoryConversationJournal implements ConversationJournal {
+
+    public static final int DEFAULT_MAX_CONVERSATIONS = 10_000;
+    public static final int DEFAULT_MAX_ENTRIES_PER_CONVERSATION = 2_000;
+
+    private final int maxEntriesPerConversation;
+
+    private final AtomicLong evictedConversations = new AtomicLong();
+    private final AtomicLong trimmedEntries = new AtomicLong();
+
+    // 代次生成器，每新建一条日志流加一
+    private final AtomicLong epochs = new AtomicLong();
+
+    private final List<Consumer<String>> removalListeners = new CopyOnWriteArrayList<>();
+
+    // 日志存储：conversationId -> stream，按访问顺序排列
+    private final Map<String, JournalStream> streams;
+
+    public InMemoryConversationJournal() {
+        this(DEFAULT_MAX_CONVERSATIONS, DEFAULT_MAX_ENTRIES_PER_CONVERSATION);
+    }
+
+    /**
+     * @param maxConversations 保留的会话数上限
+     * @param maxEntriesPerConversation 单个会话保留的条目数上限
+     */
+    public InMemoryConversationJournal(int maxConversations, int maxEntriesPerConversation) {
+        int conversationLimit = Math.max(1, maxConversations);
+        this.maxEntriesPerConversation = Math.max(1, maxEntriesPerConversation);
+        this.streams = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, JournalStream> eldest) {
+                if (size() <= conversationLimit) {
+                    return false;
+                }
+                evictedConversations.incrementAndGet();
+                log.debug("Evicted journal of least recently used conversation: {}", eldest.getKey());
+                notifyRemoved(eldest.getKey());
+                return true;
+            }
+        });
+    }
+
+    @Override
+    public Mono<JournalEntry> append(String conversationId, Message message, boolean memoryVisible, boolean userVisible) {
+        return Mono.fromCallable(() -> {
+            JournalEntry entry = stream(conversationId)
+                .append(JournalEntry.EntryType.MESSAGE, message, memoryVisible, userVisible);
+            log.debug("Appended journal entry: conversation={}, seq={}, role={}",
+                conversationId, entry.getSequence(), message.getRole());
+            return entry;
+        });
+    }
+
+    @Override
+    public Mono<Void> appendAll(String conversationId, List<Message> messages, boolean memoryVisible, boolean userVisible) {
+        return Mono.fromRunnable(() -> {
+            if (messages == null || messages.isEmpty()) {
+                return;
+            }
+            JournalStream stream = stream(conversationId);
+            synchronized (stream) {
+                for (Message message : messages) {
+                    stream.append(JournalEntry.EntryType.MESSAGE, message, memoryVisible, userVisible);
+                }
+            }
+            log.debug("Appended {} journal entries: conversation={}", messages.size(), conversationId);
+        });
+    }
+
+    @Override
+    public Mono<JournalEntry> appendFinalResponse(String conversationId) {
+        return Mono.fromCallable(() -> {
+            JournalStream stream = streams.get(conversationId);
+            return stream != null ? stream.appendFinalResponse() : null;
+        });
+    }
+
+    @Override
+    public Mono<List<JournalEntry>> readAfter(String conversationId, long afterSequence) {
+        return Mono.fromCallable(() -> {
+            JournalStream stream = streams.get(conversationId);
+            return stream != null ? stream.readAfter(afterSequence) : new ArrayList<>();
+        });
+    }
+
+    @Override
+    public Mono<Long> getLastSequence(String conversationId) {
+        return Mono.fromCallable(() -> {
+            JournalStream stream = streams.get(conversationId);
+            return stream != null ? stream.lastSequence() : 0L;
+        });
+    }
+
+    @Override
+    public Mono<Long> getEpoch(String conversationId) {
+        return Mono.fromCallable(() -> {
+            JournalStream stream = streams.get(conversationId);
+            return stream != null ? stream.epoch : 0L;
+        });
+    }
+
+    @Override
+    public Mono<Boolean> exists(String conversationId) {
+        return Mono.fromCallable(() -> streams.containsKey(conversationId));
+    }
+
+    @Override
+    public Mono<Void> delete(String conversationId) {
+        return Mono.fromRunnable(() -> {
+            if (streams.remove(conversationId) != null) {
+                notifyRemoved(conversationId);
+            }
+            log.debug("Deleted journal for conversation: {}", conversationId);
+        });
+    }
+
+    @Override
+    public void addRemovalListener(Consumer<String> listener) {
+        removalListeners.add(listener);
+    }
+
+    /**
+     * 获取日志统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        long entries = 0;
+        synchronized (streams) {
+            stats.put("conversations", streams.size());
+            for (JournalStream stream : streams.values()) {
+                entries += stream.size();
+            }
+        }
+        stats.put("entries", entries);
+        stats.put("evictedConversations", evictedConversations.get());
+        stats.put("trimmedEntries", trimmedEntries.get());
+        return stats;
+    }
+
+    private JournalStream stream(String conversationId) {
+        return streams.computeIfAbsent(conversationId, JournalStream::new);
+    }
+
+    private void notifyRemoved(String conversationId) {
+        for (Consumer<String> listener : removalListeners) {
+            try {
+                listener.accept(conversationId);
+            } catch (RuntimeException e) {
+                log.warn("Journal removal listener failed for conversation: {}", conversationId, e);
+            }
+        }
+    }
+
+    /**
+     * 单个会话的日志流
+     * 序号从1连续递增，条目下标 = 序号 - 1 - trimmed（trimmed为已丢弃的最早条目数）
+     */
+    private final class JournalStream {
+
+        private final String conversationId;
+
+        private final long epoch = epochs.incrementAndGet();
+
+        private final List<JournalEntry> entries = new ArrayList<>();
+
+        private long trimmed;
+
+        JournalStream(String conversationId) {
+            this.conversationId = conversationId;
+        }
+
+        synchronized JournalEntry append(JournalEntry.EntryType type, Message message,
+                                         boolean memoryVisible, boolean userVisible) {
+            JournalEntry entry = JournalEntry.builder()
+                .sequence(trimmed + entries.size() + 1L)
+                .conversationId(conversationId)
+                .type(type)
+                .message(message)
+                .memoryVisible(memoryVisible)
+                .userVisible(userVisible)
+                .timestamp(LocalDateTime.now())
+                .build();
+            entries.add(entry);
+            if (entries.size() > maxEntriesPerConversation) {
+                // 一次丢弃四分之一，摊销列表移动的开销
+                int drop = Math.max(1, maxEntriesPerConversation / 4);
+                entries.subList(0, drop).clear();
+                trimmed += drop;
+                trimmedEntries.addAndGet(drop);
+            }
+            return entry;
+        }
+
+        /**
+         * 从尾部向前收集连续的assistant记忆消息，遇到其他角色或上一条最终回复时停止
+         */
+        synchronized JournalEntry appendFinalResponse() {
+            StringBuilder completeResponse = new StringBuilder();
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                JournalEntry entry = entries.get(i);
+                if (entry.getType() == JournalEntry.EntryType.FINAL_RESPONSE) {
+                    break;
+                }
+                if (!entry.isMemoryVisible()) {
+                    continue;
+                }
+                Message message = entry.getMessage();
+                if (!"assistant".equals(message.getRole())) {
+                    break;
+                }
+                if (message.getContent() != null) {
+                    completeResponse.insert(0, message.getContent());
+                }
+            }
+
+            String finalResponse = completeResponse.toString().trim();
+            if (finalResponse.isEmpty()) {
+                return null;
+            }
+            return append(JournalEntry.EntryType.FINAL_RESPONSE, new Message("assistant", finalResponse), false, true);
+        }
+
+        synchronized List<JournalEntry> readAfter(long afterSequence) {
+            int from = (int) Math.max(0, Math.min(afterSequence - trimmed, entries.size()));
+            return new ArrayList<>(entries.subList(from, entries.size()));
+        }
+
+        synchronized long lastSequence() {
+            return trimmed + entries.size();
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package cn.apmen.jsagent.framework.journal;
+
+import cn.apmen.jsagent.framework.conversation.ConversationMetadata;
+import cn.apmen.jsagent.framework.conversation.ConversationService;
+import cn.apmen.jsagent.framework.conversation.ConversationStats;
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.token.TokenCounter;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * 基于会话日志的对话服务（对话视图投影）
+ * 只读取userVisible的条目，即用户消息和FINAL_RESPONSE最终回复
+ * 视图起点和摘要按日志代次记录，日志被淘汰或删除时清理对应的视图状态
+ */
+@Slf4j
+public class JournalConversationService implements ConversationService {
+
+    private final ConversationJournal journal;
+
+    private final TokenCounter tokenCounter;
+
+    // 视图起点：conversationId -> 日志代次和起始序号（不包含）
+    private final Map<String, JournalView> viewStart = new ConcurrentHashMap<>();
+
+    // 压缩摘要：conversationId -> 摘要消息（位于视图最前面）
+    private final Map<String, Message> summaries = new ConcurrentHashMap<>();
+
+    // 会话元数据存储 conversationId -> ConversationMetadata
+    private final Map<String, ConversationMetadata> conversationMetadata = new ConcurrentHashMap<>();
+
+    // 用户会话映射 userId -> Set<conversationId>
+    private final Map<String, Set<String>> userConversations = new ConcurrentHashMap<>();
+
+    public JournalConversationService(ConversationJournal journal) {
+        this(journal, TokenCounter.heuristic());
+    }
+
+    public JournalConversationService(ConversationJournal journal, TokenCounter tokenCounter) {
+        this.journal = journal;
+        this.tokenCounter = tokenCounter;
+        journal.addRemovalListener(this::onJournalRemoved);
+    }
+
+    @Override
+    public Mono<Void> addMessage(String conversationId, Message message) {
+        return journal.append(conversationId, message, false, true)
+            .doOnSuccess(entry -> updateLastActiveTime(conversationId))
+            .then();
+    }
+
+    @Override
+    public Mono<Void> addMessages(String conversationId, List<Message> messages) {
+        return journal.appendAll(conversationId, messages, false, true)
+            .doOnSuccess(v -> updateLastActiveTime(conversationId));
+    }
+
+    @Override
+    public Mono<List<Message>> getConversationHistory(String conversationId) {
+        return readEntries(conversationId).map(view -> {
+            List<JournalEntry> entries = view.getT2();
+            List<Message> messages = new ArrayList<>(entries.size() + 1);
+            Message summary = isViewMoved(conversationId, view.getT1()) ? summaries.get(conversationId) : null;
+            if (summary != null) {
+                messages.add(summary);
+            }
+            for (JournalEntry entry : entries) {
+                messages.add(entry.getMessage());
+            }
+            return messages;
+        });
+    }
+
+    @Override
+    public Mono<List<Message>> getRecentMessages(String conversationId, int limit) {
+        return getConversationHistory(conversationId).map(messages -> {
+            int fromIndex = Math.max(0, messages.size() - limit);
+            return new ArrayList<>(messages.subList(fromIndex, messages.size()));
+        });
+    }
+
+    @Override
+    public Mono<List<Message>> getContextWindowMessages(String conversationId, int maxTokens, String systemPrompt) {
+        return getConversationHistory(conversationId).map(messages -> {
+            int systemPromptTokens = systemPrompt != null ? tokenCounter.countTokens(systemPrompt) : 0;
+            int availableTokens = maxTokens - systemPromptTokens - 100; // 预留100个token
+
+            List<Message> result = new ArrayList<>();
+            int currentTokens = 0;
+
+            // 从最新消息开始，向前添加消息直到达到token限制
+            for (int i = messages.size() - 1; i >= 0; i--) {
+                int messageTokens = tokenCounter.countMessageTokens(messages.get(i));
+                if (currentTokens + messageTokens > availableTokens) {
+                    break;
+                }
+                result.add(messages.get(i));
+                currentTokens += messageTokens;
+            }
+            Collections.reverse(result);
+            return result;
+        });
+    }
+
+    @Override
+    public Flux<Message> streamConversationHistory(String conversationId) {
+        return getConversationHistory(conversationId).flatMapMany(Flux::fromIterable);
+    }
+
+    @Override
+    public Mono<Void> clearConversation(String conversationId) {
+        return Mono.zip(journal.getEpoch(conversationId), journal.getLastSequence(conversationId))
+            .doOnNext(tuple -> {
+                viewStart.put(conversationId, new JournalView(tuple.getT1(), tuple.getT2()));
+                summaries.remove(conversationId);
+                updateLastActiveTime(conversationId);
+                log.info("Cleared conversation view: {} (journal seq {})", conversationId, tuple.getT2());
+            })
+            .then();
+    }
+
+    @Override
+    public Mono<Void> deleteConversation(String conversationId) {
+        return journal.delete(conversationId)
+            .doOnSuccess(v -> {
+                onJournalRemoved(conversationId);
+                log.info("Deleted conversation: {}", conversationId);
+            });
+    }
+
+    @Override
+    public Mono<ConversationStats> getConversationStats(String conversationId) {
+        return getConversationHistory(conversationId).map(messages -> {
+            ConversationMetadata metadata = conversationMetadata.get(conversationId);
+
+            Map<String, Long> roleCounts = messages.stream()
+                .collect(Collectors.groupingBy(Message::getRole, Collectors.counting()));
+
+            int totalTokens = messages.stream()
+                .mapToInt(tokenCounter::countMessageTokens)
+                .sum();
+
+            ConversationStats.ConversationStatsBuilder builder = ConversationStats.builder()
+                .conversationId(conversationId)
+                .totalMessages(messages.size())
+                .userMessages(roleCounts.getOrDefault("user", 0L).intValue())
+                .assistantMessages(roleCounts.getOrDefault("assistant", 0L).intValue())
+                .systemMessages(roleCounts.getOrDefault("system", 0L).intValue())
+                .toolMessages(roleCounts.getOrDefault("tool", 0L).intValue())
+                .totalTokens(totalTokens)
+                .compressed(summaries.containsKey(conversationId));
+
+            if (metadata != null) {
+                builder.createdAt(metadata.getCreatedAt())
+                       .lastUpdatedAt(metadata.getLastActiveAt());
+                if (metadata.getCreatedAt() != null && metadata.getLastActiveAt() != null) {
+                    builder.durationMinutes(java.time.Duration.between(metadata.getCreatedAt(), metadata.getLastActiveAt()).toMinutes());
+                }
+            }
+            return builder.build();
+        });
+    }
+
+    @Override
+    public Mono<List<String>> getUserConversations(String userId) {
+        return Mono.fromCallable(() -> {
+            Set<String> conversations = userConversations.get(userId);
+            return conversations != null ? new ArrayList<>(conversations) : new ArrayList<>();
+        });
+    }
+
+    @Override
+    public Mono<Void> compressHistory(String conversationId, int keepRecentCount) {
+        return readEntries(conversationId)
+            .doOnNext(view -> {
+                List<JournalEntry> entries = view.getT2();
+                if (entries.size() <= keepRecentCount) {
+                    return;
+                }
+                List<JournalEntry> oldEntries = entries.subList(0, entries.size() - keepRecentCount);
+                JournalEntry firstKept = entries.get(entries.size() - keepRecentCount);
+
+                summaries.put(conversationId,
+                    new Message("system", "Previous conversation summary: " + createConversationSummary(oldEntries)));
+                viewStart.put(conversationId, new JournalView(view.getT1(), firstKept.getSequence() - 1));
+
+                log.info("Compressed conversation view {}: {} messages -> {} messages",
+                    conversationId, entries.size(), keepRecentCount + 1);
+            })
+            .then();
+    }
+
+    @Override
+    public Mono<Boolean> conversationExists(String conversationId) {
+        return journal.exists(conversationId);
+    }
+
+    @Override
+    public Mono<Void> setConversationMetadata(String conversationId, ConversationMetadata metadata) {
+        return Mono.fromRunnable(() -> {
+            conversationMetadata.put(conversationId, metadata);
+            if (metadata.getUserId() != null) {
+                userConversations.computeIfAbsent(metadata.getUserId(), k ->
+                    Collections.synchronizedSet(new HashSet<>())).add(conversationId);
+            }
+        });
+    }
+
+    @Override
+    public Mono<ConversationMetadata> getConversationMetadata(String conversationId) {
+        return Mono.fromCallable(() -> conversationMetadata.get(conversationId));
+    }
+
+    /**
+     * 读取对话视图内的日志条目
+     * 视图起点属于旧代次时（日志已被淘汰后重建）从头读取，旧摘要也不再生效
+     * @return 当前日志代次和视图内的条目
+     */
+    private Mono<Tuple2<Long, List<JournalEntry>>> readEntries(String conversationId) {
+        return journal.getEpoch(conversationId).flatMap(epoch -> {
+            JournalView view = viewStart.get(conversationId);
+            long start = view != null ? view.startFor(epoch) : 0L;
+            return journal.readAfter(conversationId, start)
+                .map(entries -> Tuples.of(epoch, entries.stream()
+                    .filter(JournalEntry::isUserVisible)
+                    .collect(Collectors.toList())));
+        });
+    }
+
+    private boolean isViewMoved(String conversationId, long epoch) {
+        JournalView view = viewStart.get(conversationId);
+        return view != null && view.getEpoch() == epoch;
+    }
+
+    /**
+     * 日志被淘汰或删除时清理视图状态和会话元数据
+     */
+    private void onJournalRemoved(String conversationId) {
+        viewStart.remove(conversationId);
+        summaries.remove(conversationId);
+        ConversationMetadata metadata = conversationMetadata.remove(conversationId);
+        if (metadata != null && metadata.getUserId() != null) {
+            Set<String> userConvs = userConversations.get(metadata.getUserId());
+            if (userConvs != null) {
+                userConvs.remove(conversationId);
+            }
+        }
+    }
+
+    /**
+     * 更新会话的最后活跃时间
+     */
+    private void updateLastActiveTime(String conversationId) {
+        conversationMetadata.computeIfPresent(conversationId, (id, metadata) -> {
+            metadata.setLastActiveAt(LocalDateTime.now());
+            return metadata;
+        });
+    }
+
+    /**
+     * 创建对话摘要
+     */
+    private static String createConversationSummary(List<JournalEntry> entries) {
+        StringBuilder summary = new StringBuilder();
+        summary.append("Conversation included ").append(entries.size()).append(" messages. ");
+        Map<String, Long> roleCounts = entries.stream()
+            .collect(Collectors.groupingBy(entry -> entry.getMessage().getRole(), Collectors.counting()));
+        roleCounts.forEach((role, count) ->
+            summary.append(count).append(" ").append(role).append(" messages, "));
+        return summary.toString();
+    }
+
+
+}
@@ -0,0 +1,70 @@
+package cn.apmen.jsagent.framework.journal;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 会话日志条目
+ * 日志只追加不修改，每条记录在会话内有单调递增的序号
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class JournalEntry {
+
+    /**
+     * 会话内序号（从1开始）
+     */
+    private long sequence;
+
+    /**
+     * 会话ID
+     */
+    private String conversationId;
+
+    /**
+     * 条目类型
+     */
+    private EntryType type;
+
+    /**
+     * 消息内容
+     */
+    private Message message;
+
+    /**
+     * 是否属于Agent记忆视图（assistant/tool/system等所有运行消息）
+     */
+    private boolean memoryVisible;
+
+    /**
+     * 是否属于用户可见的对话视图（user消息和最终回复）
+     */
+    private boolean userVisible;
+
+    /**
+     * 写入时间
+     */
+    private LocalDateTime timestamp;
+
+    /**
+     * 条目类型枚举
+     */
+    public enum EntryType {
+        /**
+         * 运行过程中产生的消息
+         */
+        MESSAGE,
+
+        /**
+         * 本轮最终回复，由其之前连续的assistant消息合并而成
+         */
+        FINAL_RESPONSE
+    }
+}
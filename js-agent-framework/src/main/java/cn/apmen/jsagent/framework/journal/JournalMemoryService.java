@@ -0,0 +1,268 @@
+package cn.apmen.jsagent.framework.journal;
+
+import cn.apmen.jsagent.framework.memory.MemoryMetadata;
+import cn.apmen.jsagent.framework.memory.MemoryService;
+import cn.apmen.jsagent.framework.memory.MemoryStats;
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.search.Bm25Index;
+import cn.apmen.jsagent.framework.token.TokenCounter;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * 基于会话日志的记忆服务（记忆视图投影）
+ * 只读取memoryVisible的条目；清空和压缩通过移动视图起点实现，不修改日志本身
+ * 视图起点按日志代次记录，日志被淘汰或删除时清理对应的视图状态
+ */
+@Slf4j
+public class JournalMemoryService implements MemoryService {
+
+    private final ConversationJournal journal;
+
+    private final TokenCounter tokenCounter;
+
+    // 视图起点：conversationId -> 日志代次和起始序号（不包含）
+    private final Map<String, JournalView> viewStart = new ConcurrentHashMap<>();
+
+    // 元数据存储：conversationId -> metadata
+    private final Map<String, MemoryMetadata> metadataStore = new ConcurrentHashMap<>();
+
+    // 检索索引：conversationId -> 记忆视图的BM25索引
+    private final Map<String, ViewIndex> searchIndexes = new ConcurrentHashMap<>();
+
+    public JournalMemoryService(ConversationJournal journal) {
+        this(journal, TokenCounter.heuristic());
+    }
+
+    public JournalMemoryService(ConversationJournal journal, TokenCounter tokenCounter) {
+        this.journal = journal;
+        this.tokenCounter = tokenCounter;
+        journal.addRemovalListener(this::onJournalRemoved);
+    }
+
+    @Override
+    public Mono<Void> addMessage(String conversationId, Message message) {
+        return journal.append(conversationId, message, true, false)
+            .doOnSuccess(entry -> updateMetadata(conversationId))
+            .then();
+    }
+
+    @Override
+    public Mono<Void> addMessages(String conversationId, List<Message> messages) {
+        return journal.appendAll(conversationId, messages, true, false)
+            .doOnSuccess(v -> updateMetadata(conversationId));
+    }
+
+    @Override
+    public Mono<List<Message>> getMemoryHistory(String conversationId) {
+        return readEntries(conversationId).map(view -> toMessages(view.getT2()));
+    }
+
+    @Override
+    public Mono<List<Message>> getRecentMemory(String conversationId, int limit) {
+        return getMemoryHistory(conversationId).map(messages -> {
+            int startIndex = Math.max(0, messages.size() - limit);
+            return new ArrayList<>(messages.subList(startIndex, messages.size()));
+        });
+    }
+
+    @Override
+    public Mono<List<Message>> getContextMemory(String conversationId, int maxTokens, String systemPrompt) {
+        return getMemoryHistory(conversationId).map(messages -> {
+            int systemPromptTokens = systemPrompt != null ? tokenCounter.countTokens(systemPrompt) : 0;
+            int availableTokens = maxTokens - systemPromptTokens;
+
+            // 从最新消息开始向前累加，直到达到token限制（至少保留最新一条）
+            int fromIndex = messages.size();
+            int usedTokens = 0;
+            while (fromIndex > 0) {
+                usedTokens += tokenCounter.countMessageTokens(messages.get(fromIndex - 1));
+                if (usedTokens > availableTokens && fromIndex < messages.size()) {
+                    break;
+                }
+                fromIndex--;
+            }
+            return new ArrayList<>(messages.subList(fromIndex, messages.size()));
+        });
+    }
+
+    @Override
+    public Flux<Message> streamMemoryHistory(String conversationId) {
+        return getMemoryHistory(conversationId).flatMapMany(Flux::fromIterable);
+    }
+
+    @Override
+    public Mono<Void> clearMemory(String conversationId) {
+        return Mono.zip(journal.getEpoch(conversationId), journal.getLastSequence(conversationId))
+            .doOnNext(tuple -> {
+                viewStart.put(conversationId, new JournalView(tuple.getT1(), tuple.getT2()));
+                metadataStore.remove(conversationId);
+                searchIndexes.remove(conversationId);
+                log.debug("Cleared memory view for conversation: {} (journal seq {})", conversationId, tuple.getT2());
+            })
+            .then();
+    }
+
+    @Override
+    public Mono<MemoryStats> getMemoryStats(String conversationId) {
+        return readEntries(conversationId).map(view -> {
+            List<JournalEntry> entries = view.getT2();
+            if (entries.isEmpty()) {
+                return MemoryStats.builder()
+                    .totalMessages(0)
+                    .build();
+            }
+
+            Map<String, Long> roleCount = entries.stream()
+                .collect(Collectors.groupingBy(entry -> entry.getMessage().getRole(), Collectors.counting()));
+
+            LocalDateTime firstTime = entries.get(0).getTimestamp();
+            LocalDateTime lastTime = entries.get(entries.size() - 1).getTimestamp();
+
+            return MemoryStats.builder()
+                .totalMessages(entries.size())
+                .userMessages(roleCount.getOrDefault("user", 0L).intValue())
+                .assistantMessages(roleCount.getOrDefault("assistant", 0L).intValue())
+                .toolMessages(roleCount.getOrDefault("tool", 0L).intValue())
+                .systemMessages(roleCount.getOrDefault("system", 0L).intValue())
+                .estimatedTokens(entries.stream().mapToInt(entry -> tokenCounter.countMessageTokens(entry.getMessage())).sum())
+                .firstMessageTime(firstTime)
+                .lastMessageTime(lastTime)
+                .sessionDurationMinutes(ChronoUnit.MINUTES.between(firstTime, lastTime))
+                .compressed(isViewMoved(conversationId, view.getT1()))
+                .build();
+        });
+    }
+
+    @Override
+    public Mono<Void> compressMemory(String conversationId, int keepRecentCount) {
+        return readEntries(conversationId)
+            .doOnNext(view -> {
+                List<JournalEntry> entries = view.getT2();
+                if (entries.size() <= keepRecentCount) {
+                    return;
+                }
+                // 只保留最近的消息：视图起点移到第一条保留条目之前
+                JournalEntry firstKept = entries.get(entries.size() - keepRecentCount);
+                viewStart.put(conversationId, new JournalView(view.getT1(), firstKept.getSequence() - 1));
+
+                MemoryMetadata metadata = metadataStore.get(conversationId);
+                if (metadata != null) {
+                    metadata.setUpdatedAt(LocalDateTime.now());
+                }
+                log.debug("Compressed memory view for conversation: {}, kept {} recent messages",
+                    conversationId, keepRecentCount);
+            })
+            .then();
+    }
+
+    @Override
+    public Mono<Boolean> memoryExists(String conversationId) {
+        return readEntries(conversationId).map(view -> !view.getT2().isEmpty());
+    }
+
+    @Override
+    public Mono<Void> setMemoryMetadata(String conversationId, MemoryMetadata metadata) {
+        return Mono.fromRunnable(() -> metadataStore.put(conversationId, metadata));
+    }
+
+    @Override
+    public Mono<MemoryMetadata> getMemoryMetadata(String conversationId) {
+        return Mono.fromCallable(() -> metadataStore.get(conversationId));
+    }
+
+    @Override
+    public Mono<List<Message>> searchMemory(String conversationId, String query, int limit) {
+        if (query == null || query.trim().isEmpty()) {
+            return Mono.just(new ArrayList<>());
+        }
+        return readEntries(conversationId).map(view ->
+            searchIndexes.computeIfAbsent(conversationId, k -> new ViewIndex())
+                .search(view.getT1(), view.getT2(), query, limit));
+    }
+
+    /**
+     * 读取记忆视图内的日志条目
+     * 视图起点属于旧代次时（日志已被淘汰后重建）从头读取
+     * @return 当前日志代次和视图内的条目
+     */
+    private Mono<Tuple2<Long, List<JournalEntry>>> readEntries(String conversationId) {
+        return journal.getEpoch(conversationId).flatMap(epoch -> {
+            JournalView view = viewStart.get(conversationId);
+            long start = view != null ? view.startFor(epoch) : 0L;
+            return journal.readAfter(conversationId, start)
+                .map(entries -> Tuples.of(epoch, entries.stream()
+                    .filter(JournalEntry::isMemoryVisible)
+                    .collect(Collectors.toList())));
+        });
+    }
+
+    private boolean isViewMoved(String conversationId, long epoch) {
+        JournalView view = viewStart.get(conversationId);
+        return view != null && view.getEpoch() == epoch;
+    }
+
+    /**
+     * 日志被淘汰或删除时清理视图状态
+     */
+    private void onJournalRemoved(String conversationId) {
+        viewStart.remove(conversationId);
+        metadataStore.remove(conversationId);
+        searchIndexes.remove(conversationId);
+    }
+
+    private static List<Message> toMessages(List<JournalEntry> entries) {
+        List<Message> messages = new ArrayList<>(entries.size());
+        for (JournalEntry entry : entries) {
+            messages.add(entry.getMessage());
+        }
+        return messages;
+    }
+
+    /**
+     * 更新元数据
+     */
+    private void updateMetadata(String conversationId) {
+        MemoryMetadata metadata = metadataStore.computeIfAbsent(conversationId, k -> MemoryMetadata.builder()
+                                              .createdAt(LocalDateTime.now())
+                                              .build());
+        metadata.setUpdatedAt(LocalDateTime.now());
+    }
+
+    /**
+     * 记忆视图的检索索引
+     * 视图只追加时增量索引新条目；日志代次或视图第一条条目变化（清空、压缩、日志丢弃最早条目）时索引重建
+     */
+    private static final class ViewIndex {
+
+        private final Bm25Index index = new Bm25Index();
+
+        private long epoch = -1;
+
+        private long firstSequence = -1;
+
+        private long generation;
+
+        synchronized List<Message> search(long currentEpoch, List<JournalEntry> entries, String query, int limit) {
+            long first = entries.isEmpty() ? -1 : entries.get(0).getSequence();
+            if (currentEpoch != epoch || first != firstSequence) {
+                epoch = currentEpoch;
+                firstSequence = first;
+                generation++;
+            }
+            index.sync(generation, toMessages(entries));
+            return index.search(query, limit);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package cn.apmen.jsagent.framework.journal;
+
+/**
+ * 投影视图起点
+ * 起始序号只在记录它的日志代次内有效，日志重建后视图从头读取
+ */
+final class JournalView {
+
+    private final long epoch;
+
+    private final long startSequence;
+
+    JournalView(long epoch, long startSequence) {
+        this.epoch = epoch;
+        this.startSequence = startSequence;
+    }
+
+    long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * 获取在指定代次下的起始序号（不包含），代次不一致时返回0
+     */
+    long startFor(long currentEpoch) {
+        return epoch == currentEpoch ? startSequence : 0L;
+    }
+}
@@ -0,0 +1,308 @@
+package cn.apmen.jsagent.framework.mcp;
+
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.exception.ErrorCode;
+import cn.apmen.jsagent.framework.tool.AbstractToolExecutor;
+import cn.apmen.jsagent.framework.tool.StreamingToolExecutor;
+import cn.apmen.jsagent.framework.tool.ToolBulkheadPolicy;
+import cn.apmen.jsagent.framework.tool.ToolCachePolicy;
+import cn.apmen.jsagent.framework.tool.ToolCircuitBreakerPolicy;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.modelcontextprotocol.spec.McpSchema;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * MCP工具基类 - 多工具模式下的参数定义、参数解析、结果提取与错误映射
+ * 同步（MCPTool）与异步（AsyncMCPTool）实现只负责实际的MCP调用方式
+ */
+@Slf4j
+public abstract class AbstractMCPTool extends AbstractToolExecutor implements StreamingToolExecutor {
+
+    protected final ObjectMapper objectMapper = new ObjectMapper();
+
+    // 工具名称
+    protected final String toolName;
+    // 工具描述
+    private final String description;
+    // 参数定义
+    private final Map<String, Object> parametersDefinition;
+    // 必需参数
+    private final String[] requiredParameters;
+    // 结果缓存策略，为空时不缓存
+    private volatile ToolCachePolicy cachePolicy;
+    // 舱壁策略，为空时使用ToolRegistry的默认策略
+    private volatile ToolBulkheadPolicy bulkheadPolicy;
+    // 熔断策略，为空时使用ToolRegistry的默认策略
+    private volatile ToolCircuitBreakerPolicy circuitBreakerPolicy;
+
+    // 配置ObjectMapper支持Java 8时间类型
+    {
+        objectMapper.registerModule(new JavaTimeModule());
+        objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    }
+
+    /**
+     * 多工具模式：通过tool_name与arguments调用服务器中的任意工具
+     */
+    protected AbstractMCPTool(String toolName, String description) {
+        this.toolName = toolName;
+        this.description = description;
+
+        // 创建通用的参数定义，支持动态工具调用
+        this.parametersDefinition = createDynamicParametersDefinition();
+        this.requiredParameters = new String[]{"tool_name", "arguments"};
+    }
+
+    /**
+     * 单工具模式：使用服务器声明的输入参数结构
+     */
+    protected AbstractMCPTool(String toolName, String description,
+                              Map<String, Object> parametersDefinition, String[] requiredParameters) {
+        this.toolName = toolName;
+        this.description = description;
+        this.parametersDefinition = parametersDefinition;
+        this.requiredParameters = requiredParameters;
+    }
+
+    /**
+     * 创建动态参数定义，支持调用MCP服务器中的任意工具
+     */
+    private Map<String, Object> createDynamicParametersDefinition() {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("type", "object");
+
+        Map<String, Object> properties = new HashMap<>();
+
+        // tool_name参数 - 指定要调用的具体工具
+        Map<String, Object> toolNameParam = new HashMap<>();
+        toolNameParam.put("type", "string");
+        toolNameParam.put("description", "要调用的具体工具名称，例如：bing_search, maps_geo, datetime_current_time等");
+        properties.put("tool_name", toolNameParam);
+
+        // arguments参数 - 工具的具体参数
+        Map<String, Object> argumentsParam = new HashMap<>();
+        argumentsParam.put("type", "object");
+        argumentsParam.put("description", "工具的具体参数对象，例如：{\"query\": \"搜索关键词\", \"top_k\": 3}");
+        argumentsParam.put("additionalProperties", true);
+        // 添加示例
+        Map<String, Object> example = new HashMap<>();
+        example.put("query", "搜索关键词");
+        example.put("top_k", 3);
+        argumentsParam.put("example", example);
+        properties.put("arguments", argumentsParam);
+
+        parameters.put("properties", properties);
+        parameters.put("required", new String[]{"tool_name"});  // arguments不是必需的，可以为空对象
+
+        return parameters;
+    }
+
+    @Override
+    public String getToolName() {
+        return toolName;
+    }
+
+    @Override
+    public String getDescription() {
+        return description;
+    }
+
+    @Override
+    public Map<String, Object> getParametersDefinition() {
+        return new HashMap<>(parametersDefinition);
+    }
+
+    @Override
+    public String[] getRequiredParameters() {
+        return requiredParameters.clone();
+    }
+
+    @Override
+    public ToolCachePolicy getCachePolicy() {
+        return cachePolicy;
+    }
+
+    /**
+     * 设置结果缓存策略，适用于查询类MCP服务（天气、地理编码、搜索等）
+     * 缓存键字段可使用 "tool_name"、"arguments.xxx" 形式
+     * @param cachePolicy 缓存策略，为null时关闭缓存
+     * @return 当前实例
+     */
+    public AbstractMCPTool withCachePolicy(ToolCachePolicy cachePolicy) {
+        this.cachePolicy = cachePolicy;
+        return this;
+    }
+
+    @Override
+    public ToolBulkheadPolicy getBulkheadPolicy() {
+        return bulkheadPolicy;
+    }
+
+    /**
+     * 设置舱壁策略，同一MCP服务的工具可使用相同的bulkheadKey共享并发限制
+     * @param bulkheadPolicy 舱壁策略，为null时使用ToolRegistry的默认策略
+     * @return 当前实例
+     */
+    public AbstractMCPTool withBulkheadPolicy(ToolBulkheadPolicy bulkheadPolicy) {
+        this.bulkheadPolicy = bulkheadPolicy;
+        return this;
+    }
+
+    @Override
+    public ToolCircuitBreakerPolicy getCircuitBreakerPolicy() {
+        return circuitBreakerPolicy;
+    }
+
+    /**
+     * 设置熔断策略，MCP服务不可用时调用直接失败，不再经历重试与超时等待
+     * @param circuitBreakerPolicy 熔断策略，为null时使用ToolRegistry的默认策略
+     * @return 当前实例
+     */
+    public AbstractMCPTool withCircuitBreakerPolicy(ToolCircuitBreakerPolicy circuitBreakerPolicy) {
+        this.circuitBreakerPolicy = circuitBreakerPolicy;
+        return this;
+    }
+
+    /**
+     * 从CallToolResult中提取内容
+     */
+    protected String extractContent(McpSchema.CallToolResult result) {
+        if (result.content() == null || result.content().isEmpty()) {
+            return "";
+        }
+
+        StringBuilder contentBuilder = new StringBuilder();
+        for (McpSchema.Content content : result.content()) {
+            if (content instanceof McpSchema.TextContent textContent) {
+                contentBuilder.append(textContent.text());
+            } else if (content instanceof McpSchema.ImageContent imageContent) {
+                contentBuilder.append("[Image: ").append(imageContent.data()).append("]");
+            } else {
+                contentBuilder.append(content.toString());
+            }
+            contentBuilder.append("\n");
+        }
+
+        return contentBuilder.toString().trim();
+    }
+
+    /**
+     * 从CallToolResult中提取错误信息
+     */
+    protected String extractErrorMessage(McpSchema.CallToolResult result) {
+        return extractContent(result);
+    }
+
+    /**
+     * 将异常映射为AgentException
+     */
+    protected Throwable mapToAgentException(Throwable throwable) {
+        if (throwable instanceof AgentException) {
+            return throwable;
+        }
+
+        // 根据异常类型映射到具体的错误码
+        if (throwable instanceof java.util.concurrent.TimeoutException) {
+            return new AgentException(
+                ErrorCode.TOOL_TIMEOUT,
+                "MCP tool execution timeout", throwable);
+        }
+
+        if (throwable instanceof SecurityException) {
+            return new AgentException(
+                ErrorCode.TOOL_PERMISSION_DENIED,
+                "Permission denied for MCP tool", throwable);
+        }
+
+        // 默认映射为工具执行失败
+        return new AgentException(
+            ErrorCode.TOOL_EXECUTION_FAILED,
+            "MCP tool execution failed", throwable);
+    }
+
+    /**
+     * 失败结果的错误码，用于区分参数错误与服务端/传输故障
+     */
+    protected ErrorCode errorCodeOf(Throwable error) {
+        return error instanceof AgentException agentException ? agentException.getErrorCode() : ErrorCode.TOOL_EXECUTION_FAILED;
+    }
+
+    /**
+     * 解析arguments参数，支持字符串和Map两种格式
+     */
+    protected Map<String, Object> parseArgumentsParameter(Object argumentsObj) {
+        if (argumentsObj == null) {
+            return new HashMap<>();
+        }
+
+        if (argumentsObj instanceof Map) {
+            // 如果已经是Map，直接返回
+            return (Map<String, Object>) argumentsObj;
+        }
+
+        if (argumentsObj instanceof String) {
+            // 如果是字符串，尝试解析为JSON
+            String argumentsStr = (String) argumentsObj;
+            if (argumentsStr.trim().isEmpty()) {
+                return new HashMap<>();
+            }
+
+            try {
+                return objectMapper.readValue(argumentsStr, Map.class);
+            } catch (Exception e) {
+                log.warn("Failed to parse arguments string as JSON: {}, error: {}", argumentsStr, e.getMessage());
+                // 如果解析失败，返回空Map
+                return new HashMap<>();
+            }
+        }
+
+        log.warn("Unsupported arguments type: {}, returning empty map", argumentsObj.getClass());
+        return new HashMap<>();
+    }
+
+    /**
+     * 创建用户友好的错误消息
+     */
+    protected String createFriendlyErrorMessage(String toolName, Throwable error) {
+        if (error instanceof AgentException) {
+            // 通用错误消息
+            return String.format("%s服务暂时不可用，请稍后重试。", toolName);
+        }
+
+        // 非AgentException的通用处理
+        return String.format("%s服务出现技术问题，请稍后重试。", toolName);
+    }
+
+    /**
+     * 检查是否是连接相关的错误
+     */
+    protected boolean isConnectionError(Throwable error) {
+        if (error == null) {
+            return false;
+        }
+
+        String errorMessage = error.getMessage();
+        if (errorMessage == null) {
+            errorMessage = "";
+        }
+
+        // 检查常见的连接错误模式
+        return errorMessage.contains("Connection refused") ||
+               errorMessage.contains("Connection reset") ||
+               errorMessage.contains("Connection timed out") ||
+               errorMessage.contains("No route to host") ||
+               errorMessage.contains("Network is unreachable") ||
+               errorMessage.contains("400") ||  // HTTP 400 错误
+               errorMessage.contains("500") ||  // HTTP 500 错误
+               errorMessage.contains("502") ||  // HTTP 502 错误
+               errorMessage.contains("503") ||  // HTTP 503 错误
+               error instanceof java.net.ConnectException ||
+               error instanceof java.net.SocketTimeoutException ||
+               error instanceof java.io.IOException;
+    }
+}
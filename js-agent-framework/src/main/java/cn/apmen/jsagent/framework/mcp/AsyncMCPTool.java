@@ -0,0 +1,171 @@
+package cn.apmen.jsagent.framework.mcp;
+
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.exception.ErrorCode;
+import cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall;
+import cn.apmen.jsagent.framework.tool.BaseToolResponse;
+import cn.apmen.jsagent.framework.tool.ToolContext;
+import cn.apmen.jsagent.framework.tool.ToolResult;
+import io.modelcontextprotocol.client.McpAsyncClient;
+import io.modelcontextprotocol.spec.McpSchema;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * 异步MCP工具 - 基于McpAsyncClient的非阻塞实现
+ * 调用全程不占用工作线程：重试使用retryWhen退避（带抖动）代替Thread.sleep，
+ * 超时通过取消订阅终止挂起的MCP请求，慢服务不会耗尽boundedElastic线程池
+ */
+@Slf4j
+public class AsyncMCPTool extends AbstractMCPTool {
+
+    // MCP异步客户端（需已完成initialize），使用连接池时为null
+    private final McpAsyncClient mcpClient;
+    private final MCPClientPool clientPool;
+    private final Function<McpSchema.CallToolRequest, Mono<McpSchema.CallToolResult>> caller;
+    private final MCPCallConfig callConfig;
+
+    public AsyncMCPTool(McpAsyncClient mcpClient, String toolName, String description) {
+        this(mcpClient, toolName, description, MCPCallConfig.builder().build());
+    }
+
+    public AsyncMCPTool(McpAsyncClient mcpClient, String toolName, String description, MCPCallConfig callConfig) {
+        super(toolName, description);
+        this.mcpClient = mcpClient;
+        this.clientPool = null;
+        this.caller = mcpClient::callTool;
+        this.callConfig = callConfig;
+    }
+
+    /**
+     * 基于客户端池创建，调用分散到池中未完成请求最少的健康客户端
+     */
+    public AsyncMCPTool(MCPClientPool clientPool, String toolName, String description) {
+        this(clientPool, toolName, description, MCPCallConfig.builder().build());
+    }
+
+    public AsyncMCPTool(MCPClientPool clientPool, String toolName, String description, MCPCallConfig callConfig) {
+        super(toolName, description);
+        this.mcpClient = null;
+        this.clientPool = clientPool;
+        this.caller = clientPool::callTool;
+        this.callConfig = callConfig;
+    }
+
+    /**
+     * 单工具模式，由子类提供参数结构与请求构造
+     */
+    protected AsyncMCPTool(Function<McpSchema.CallToolRequest, Mono<McpSchema.CallToolResult>> caller,
+                           String toolName, String description, Map<String, Object> parametersDefinition,
+                           String[] requiredParameters, MCPCallConfig callConfig) {
+        super(toolName, description, parametersDefinition, requiredParameters);
+        this.mcpClient = null;
+        this.clientPool = null;
+        this.caller = caller;
+        this.callConfig = callConfig;
+    }
+
+    @Override
+    protected Mono<ToolResult> doExecute(ToolCall toolCall, ToolContext context, Map<String, Object> arguments) {
+        log.debug("Executing async MCP tool {} with arguments: {}", toolName, arguments);
+        return callTool(arguments)
+                .map(result -> success(toolCall.getId(), extractContent(result)))
+                .onErrorResume(error -> {
+                    log.error("MCP工具调用最终失败: {}, 错误: {}", toolName, error.getMessage());
+                    return Mono.just(ToolResult.error(toolCall.getId(), errorCodeOf(error), createFriendlyErrorMessage(toolName, error)));
+                });
+    }
+
+    /**
+     * 流式MCP工具调用，MCP目前不支持流式返回，先输出判定片段再输出完整结果
+     */
+    @Override
+    public Flux<BaseToolResponse> executeStream(ToolCall toolCall, ToolContext toolContext) {
+        Map<String, Object> arguments = parseArguments(toolCall);
+        if (!validateParameters(arguments)) {
+            return Flux.just(MCPToolResponse.error(toolCall.getId(), "Invalid parameters"));
+        }
+
+        Mono<MCPToolResponse> content = callTool(arguments)
+                .map(result -> MCPToolResponse.streamContent(toolCall.getId(), extractContent(result)))
+                .onErrorResume(error -> Mono.just(MCPToolResponse.error(toolCall.getId(),
+                        createFriendlyErrorMessage(toolName, error))));
+
+        return Flux.concat(Mono.just(MCPToolResponse.createDecisionFragment(toolCall.getId())), content)
+                .cast(BaseToolResponse.class);
+    }
+
+    /**
+     * 调用MCP工具：单次尝试超时后取消请求，连接类错误与超时按退避重试，整体超时覆盖全部重试
+     */
+    private Mono<McpSchema.CallToolResult> callTool(Map<String, Object> args) {
+        McpSchema.CallToolRequest request = toRequest(args);
+        if (request == null) {
+            return Mono.error(new AgentException(ErrorCode.TOOL_INVALID_ARGUMENTS,
+                    "tool_name parameter is required for MCP tool call"));
+        }
+        String name = request.name();
+
+        return Mono.defer(() -> caller.apply(request))
+                .timeout(callConfig.getAttemptTimeout())
+                .doOnError(e -> log.warn("MCP工具调用失败: {}/{}, 错误类型: {}, 错误详情: {}",
+                        toolName, name, e.getClass().getSimpleName(), e.getMessage()))
+                .retryWhen(Retry.backoff(Math.max(0, callConfig.getMaxAttempts() - 1), callConfig.getInitialBackoff())
+                        .maxBackoff(callConfig.getMaxBackoff())
+                        .jitter(callConfig.getJitter())
+                        .filter(this::isRetryable)
+                        .doBeforeRetry(signal -> log.info("MCP工具 {}/{} 第{}次重试", toolName, name, signal.totalRetries() + 1))
+                        .onRetryExhaustedThrow((spec, signal) -> signal.failure()))
+                .timeout(callConfig.getOverallTimeout())
+                .flatMap(result -> {
+                    if (Boolean.TRUE.equals(result.isError())) {
+                        String errorMsg = extractErrorMessage(result);
+                        log.error("MCP工具调用返回错误: {}", errorMsg);
+                        return Mono.error(new AgentException(ErrorCode.TOOL_EXECUTION_FAILED,
+                                "MCP tool call failed: " + errorMsg));
+                    }
+                    return Mono.just(result);
+                })
+                .onErrorMap(error -> {
+                    if (error instanceof TimeoutException) {
+                        return new AgentException(ErrorCode.TOOL_TIMEOUT,
+                                "MCP tool call timeout: " + toolName + "/" + name, error);
+                    }
+                    return mapToAgentException(error);
+                });
+    }
+
+    /**
+     * 将工具参数转换为MCP请求，多工具模式从tool_name与arguments中提取，缺少tool_name时返回null
+     */
+    protected McpSchema.CallToolRequest toRequest(Map<String, Object> args) {
+        if (!(args.get("tool_name") instanceof String name)) {
+            return null;
+        }
+        return new McpSchema.CallToolRequest(name, parseArgumentsParameter(args.get("arguments")));
+    }
+
+    private boolean isRetryable(Throwable error) {
+        return error instanceof TimeoutException || isConnectionError(error);
+    }
+
+    /**
+     * 获取MCP异步客户端，使用连接池时为null
+     */
+    public McpAsyncClient getMcpClient() {
+        return mcpClient;
+    }
+
+    /**
+     * 获取MCP客户端池，直接使用客户端时为null
+     */
+    public MCPClientPool getClientPool() {
+        return clientPool;
+    }
+}
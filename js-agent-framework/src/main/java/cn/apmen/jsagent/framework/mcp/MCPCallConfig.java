@@ -0,0 +1,54 @@
+package cn.apmen.jsagent.framework.mcp;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Duration;
+
+/**
+ * 异步MCP调用配置：单次尝试超时、整体超时与带抖动的指数退避重试
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MCPCallConfig {
+
+    /**
+     * 最大尝试次数（含首次调用）
+     */
+    @Builder.Default
+    private int maxAttempts = 3;
+
+    /**
+     * 首次重试前的退避时间，之后按指数增长
+     */
+    @Builder.Default
+    private Duration initialBackoff = Duration.ofSeconds(1);
+
+    /**
+     * 退避时间上限
+     */
+    @Builder.Default
+    private Duration maxBackoff = Duration.ofSeconds(10);
+
+    /**
+     * 退避抖动比例（0~1），避免多个调用同时重试
+     */
+    @Builder.Default
+    private double jitter = 0.5;
+
+    /**
+     * 单次尝试超时，超时即取消该次请求
+     */
+    @Builder.Default
+    private Duration attemptTimeout = Duration.ofSeconds(60);
+
+    /**
+     * 含全部重试在内的整体超时
+     */
+    @Builder.Default
+    private Duration overallTimeout = Duration.ofSeconds(180);
+}
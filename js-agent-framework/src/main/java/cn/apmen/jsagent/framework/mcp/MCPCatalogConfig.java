@@ -0,0 +1,80 @@
+package cn.apmen.jsagent.framework.mcp;
+
+import cn.apmen.jsagent.framework.tool.ToolBulkheadPolicy;
+import cn.apmen.jsagent.framework.tool.ToolCachePolicy;
+import cn.apmen.jsagent.framework.tool.ToolCircuitBreakerPolicy;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * MCP工具目录配置
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MCPCatalogConfig {
+
+    /**
+     * 工具目录的磁盘缓存目录，为空时不缓存（启动时必须等待listTools）
+     */
+    private Path cacheDirectory;
+
+    /**
+     * 注册名称前缀，多个服务存在同名工具时用于区分
+     */
+    @Builder.Default
+    private String namePrefix = "";
+
+    /**
+     * 只注册这些工具，为空时注册全部
+     */
+    private Set<String> includedTools;
+
+    /**
+     * 后台定期刷新间隔，作为tools/list_changed通知之外的兜底，0表示不定期刷新
+     */
+    @Builder.Default
+    private Duration refreshInterval = Duration.ofMinutes(10);
+
+    /**
+     * listTools超时
+     */
+    @Builder.Default
+    private Duration listTimeout = Duration.ofSeconds(30);
+
+    /**
+     * 工具调用的超时与重试配置
+     */
+    @Builder.Default
+    private MCPCallConfig callConfig = MCPCallConfig.builder().build();
+
+    /**
+     * 该服务全部工具的默认结果缓存策略，为空时不缓存
+     */
+    private ToolCachePolicy cachePolicy;
+
+    /**
+     * 按MCP工具名称覆盖的结果缓存策略
+     */
+    @Builder.Default
+    private Map<String, ToolCachePolicy> cachePolicies = new HashMap<>();
+
+    /**
+     * 该服务全部工具的舱壁策略，未设置bulkheadKey时以 "mcp:服务名" 为键由全部工具共享，为空时使用ToolRegistry的默认策略
+     */
+    private ToolBulkheadPolicy bulkheadPolicy;
+
+    /**
+     * 该服务全部工具的熔断策略，未设置breakerKey时以 "mcp:服务名" 为键由全部工具共享，为空时使用ToolRegistry的默认策略
+     */
+    private ToolCircuitBreakerPolicy circuitBreakerPolicy;
+}
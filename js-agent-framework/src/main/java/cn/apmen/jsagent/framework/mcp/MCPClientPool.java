@@ -0,0 +1,398 @@
+package cn.apmen.jsagent.framework.mcp;
+
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.exception.ErrorCode;
+import io.modelcontextprotocol.client.McpAsyncClient;
+import io.modelcontextprotocol.spec.McpSchema;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 单个MCP服务的客户端池
+ * 每个客户端是一个独立的MCP会话，会话内请求可以并发（多路复用）；调用选择未完成请求最少的健康客户端。
+ * 定期ping探测健康状态，探测失败或调用出现连接错误时关闭该客户端并按指数退避重建，期间流量由其他客户端承担
+ */
+@Slf4j
+public class MCPClientPool implements Closeable {
+
+    private final String serverName;
+    private final Supplier<McpAsyncClient> clientFactory;
+    private final MCPPoolConfig config;
+    private final Slot[] slots;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private volatile boolean closed;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    private final LongAdder probeFailures = new LongAdder();
+    private final AtomicInteger peakOutstanding = new AtomicInteger();
+
+    /**
+     * @param serverName 服务名称，用于日志与统计
+     * @param clientFactory 创建未初始化客户端的工厂，每次调用须返回使用独立传输的新客户端
+     * @param config 池配置
+     */
+    public MCPClientPool(String serverName, Supplier<McpAsyncClient> clientFactory, MCPPoolConfig config) {
+        if (config.getPoolSize() <= 0) {
+            throw new AgentException(ErrorCode.CONFIG_INVALID, "MCP pool size must be positive: " + config.getPoolSize());
+        }
+        this.serverName = serverName;
+        this.clientFactory = clientFactory;
+        this.config = config;
+        this.slots = new Slot[config.getPoolSize()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot(i);
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mcp-pool-" + serverName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 初始化全部客户端并启动健康探测
+     * 至少一个客户端初始化成功才返回，失败的客户端在后台按退避重连
+     */
+    public void start() {
+        List<Mono<Boolean>> connects = new ArrayList<>(slots.length);
+        for (Slot slot : slots) {
+            connects.add(connect(slot).map(client -> true).onErrorResume(error -> {
+                log.warn("MCP client {}#{} failed to initialize: {}", serverName, slot.index, error.getMessage());
+                scheduleReconnect(slot);
+                return Mono.just(false);
+            }));
+        }
+        Boolean anyConnected = Mono.zip(connects, results -> {
+            for (Object result : results) {
+                if (Boolean.TRUE.equals(result)) {
+                    return true;
+                }
+            }
+            return false;
+        }).block();
+        if (!Boolean.TRUE.equals(anyConnected)) {
+            close();
+            throw new AgentException(ErrorCode.NETWORK_ERROR, "No MCP client for " + serverName + " could be initialized");
+        }
+
+        long interval = config.getHealthCheckInterval().toMillis();
+        if (interval > 0) {
+            scheduler.scheduleWithFixedDelay(this::probe, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        log.info("MCP client pool {} started with {}/{} healthy clients", serverName, healthyCount(), slots.length);
+    }
+
+    /**
+     * 在未完成请求最少的健康客户端上调用工具
+     * 没有健康客户端或全部客户端饱和时返回错误
+     */
+    public Mono<McpSchema.CallToolResult> callTool(McpSchema.CallToolRequest request) {
+        return Mono.defer(() -> {
+            Slot slot = select();
+            if (slot == null) {
+                rejected.increment();
+                return Mono.error(healthyCount() == 0
+                        ? new AgentException(ErrorCode.NETWORK_ERROR, "No healthy MCP client for " + serverName)
+                        : new AgentException(ErrorCode.RESOURCE_EXHAUSTED, "MCP clients for " + serverName + " are saturated"));
+            }
+            McpAsyncClient client = slot.client;
+            if (client == null) {
+                // 选择后客户端被关闭
+                slot.outstanding.decrementAndGet();
+                return Mono.error(new AgentException(ErrorCode.NETWORK_ERROR, "MCP client for " + serverName + " is closed"));
+            }
+            calls.increment();
+            peakOutstanding.accumulateAndGet(totalOutstanding(), Math::max);
+            return client.callTool(request)
+                    .doOnError(error -> {
+                        failures.increment();
+                        if (isConnectionFailure(error)) {
+                            markFailed(slot, client, error);
+                        }
+                    })
+                    .doFinally(signal -> slot.outstanding.decrementAndGet());
+        });
+    }
+
+    /**
+     * 在任一健康客户端上分页获取服务器的全部工具
+     */
+    public Mono<List<McpSchema.Tool>> listTools() {
+        return Mono.defer(() -> {
+            Slot slot = select();
+            McpAsyncClient client = slot != null ? slot.client : null;
+            if (client == null) {
+                if (slot != null) {
+                    slot.outstanding.decrementAndGet();
+                }
+                return Mono.error(new AgentException(ErrorCode.NETWORK_ERROR, "No healthy MCP client for " + serverName));
+            }
+            List<McpSchema.Tool> tools = new ArrayList<>();
+            return client.listTools(null)
+                    .expand(page -> page.nextCursor() != null ? client.listTools(page.nextCursor()) : Mono.empty())
+                    .doOnNext(page -> {
+                        if (page.tools() != null) {
+                            tools.addAll(page.tools());
+                        }
+                    })
+                    .then(Mono.fromSupplier(() -> tools))
+                    .doFinally(signal -> slot.outstanding.decrementAndGet());
+        });
+    }
+
+    public String getServerName() {
+        return serverName;
+    }
+
+    /**
+     * 获取连接池统计信息：健康客户端数、未完成请求、饱和度（未完成请求/可用容量）与各客户端状态
+     */
+    public Map<String, Object> getStatistics() {
+        int healthy = healthyCount();
+        int outstanding = totalOutstanding();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("server", serverName);
+        stats.put("poolSize", slots.length);
+        stats.put("healthyClients", healthy);
+        stats.put("outstanding", outstanding);
+        stats.put("peakOutstanding", peakOutstanding.get());
+        if (config.getMaxOutstandingPerClient() > 0) {
+            stats.put("saturation", healthy == 0 ? 1.0 : (double) outstanding / (healthy * config.getMaxOutstandingPerClient()));
+        }
+        stats.put("calls", calls.sum());
+        stats.put("failures", failures.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("reconnects", reconnects.sum());
+        stats.put("probeFailures", probeFailures.sum());
+        List<Map<String, Object>> clients = new ArrayList<>(slots.length);
+        for (Slot slot : slots) {
+            Map<String, Object> client = new HashMap<>();
+            client.put("index", slot.index);
+            client.put("healthy", slot.healthy);
+            client.put("outstanding", slot.outstanding.get());
+            client.put("reconnectAttempts", slot.reconnectAttempts);
+            clients.add(client);
+        }
+        stats.put("clients", clients);
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+        for (Slot slot : slots) {
+            McpAsyncClient client;
+            synchronized (slot) {
+                client = slot.client;
+                slot.client = null;
+                slot.healthy = false;
+            }
+            closeQuietly(client);
+        }
+    }
+
+    /**
+     * 最少未完成请求选择，从轮转起点开始比较，使空闲时的请求均匀分布
+     */
+    private Slot select() {
+        int limit = config.getMaxOutstandingPerClient();
+        int start = Math.floorMod(nextSlot.getAndIncrement(), slots.length);
+        while (true) {
+            Slot best = null;
+            int bestOutstanding = Integer.MAX_VALUE;
+            for (int i = 0; i < slots.length; i++) {
+                Slot slot = slots[(start + i) % slots.length];
+                int outstanding = slot.outstanding.get();
+                if (slot.healthy && outstanding < bestOutstanding && (limit <= 0 || outstanding < limit)) {
+                    best = slot;
+                    bestOutstanding = outstanding;
+                }
+            }
+            if (best == null) {
+                return null;
+            }
+            // 并发选择同一客户端时重新比较，保证不超过上限
+            if (best.outstanding.compareAndSet(bestOutstanding, bestOutstanding + 1)) {
+                if (best.healthy && best.client != null) {
+                    return best;
+                }
+                best.outstanding.decrementAndGet();
+            }
+        }
+    }
+
+    private Mono<McpAsyncClient> connect(Slot slot) {
+        return Mono.defer(() -> {
+            McpAsyncClient client = clientFactory.get();
+            return client.initialize()
+                    .timeout(config.getInitializationTimeout())
+                    .doOnError(error -> closeQuietly(client))
+                    .map(result -> {
+                        McpAsyncClient previous;
+                        synchronized (slot) {
+                            if (closed) {
+                                closeQuietly(client);
+                                throw new AgentException(ErrorCode.NETWORK_ERROR, "MCP client pool " + serverName + " is closed");
+                            }
+                            previous = slot.client;
+                            slot.client = client;
+                            slot.healthy = true;
+                            slot.reconnecting = false;
+                            slot.reconnectAttempts = 0;
+                        }
+                        closeQuietly(previous);
+                        return client;
+                    });
+        });
+    }
+
+    /**
+     * 标记客户端失效并开始重连；同一客户端只触发一次
+     */
+    private void markFailed(Slot slot, McpAsyncClient client, Throwable cause) {
+        synchronized (slot) {
+            if (slot.client != client || slot.reconnecting || closed) {
+                return;
+            }
+            slot.healthy = false;
+            slot.reconnecting = true;
+        }
+        log.warn("MCP client {}#{} marked unhealthy: {}", serverName, slot.index, cause.getMessage());
+        scheduleReconnect(slot);
+    }
+
+    private void scheduleReconnect(Slot slot) {
+        if (closed) {
+            return;
+        }
+        long delay;
+        synchronized (slot) {
+            slot.reconnecting = true;
+            delay = backoffMillis(slot.reconnectAttempts++);
+        }
+        try {
+            scheduler.schedule(() -> reconnect(slot), delay, TimeUnit.MILLISECONDS);
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            // 已关闭
+        }
+    }
+
+    private void reconnect(Slot slot) {
+        reconnects.increment();
+        connect(slot).subscribe(
+                client -> log.info("MCP client {}#{} reconnected", serverName, slot.index),
+                error -> {
+                    log.warn("MCP client {}#{} reconnect failed: {}", serverName, slot.index, error.getMessage());
+                    scheduleReconnect(slot);
+                });
+    }
+
+    private void probe() {
+        for (Slot slot : slots) {
+            McpAsyncClient client = slot.client;
+            if (!slot.healthy || client == null) {
+                continue;
+            }
+            client.ping()
+                    .timeout(config.getPingTimeout())
+                    .subscribe(
+                            pong -> { },
+                            error -> {
+                                probeFailures.increment();
+                                markFailed(slot, client, error);
+                            });
+        }
+    }
+
+    private long backoffMillis(int attempt) {
+        long initial = Math.max(1, config.getReconnectInitialBackoff().toMillis());
+        long max = Math.max(initial, config.getReconnectMaxBackoff().toMillis());
+        long delay = Math.min(max, initial << Math.min(attempt, 20));
+        // ±25%抖动，避免多个客户端同时重连
+        return delay * (75 + ThreadLocalRandom.current().nextInt(51)) / 100;
+    }
+
+    private int healthyCount() {
+        int healthy = 0;
+        for (Slot slot : slots) {
+            if (slot.healthy) {
+                healthy++;
+            }
+        }
+        return healthy;
+    }
+
+    private int totalOutstanding() {
+        int outstanding = 0;
+        for (Slot slot : slots) {
+            outstanding += slot.outstanding.get();
+        }
+        return outstanding;
+    }
+
+    /**
+     * 连接类错误（连接拒绝、重置、IO异常）说明会话已不可用；业务错误与单次请求超时不影响客户端健康，
+     * 会话挂死由ping探测发现
+     */
+    private static boolean isConnectionFailure(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof java.io.IOException) {
+                return true;
+            }
+            String message = cause.getMessage();
+            if (message != null && (message.contains("Connection refused") || message.contains("Connection reset")
+                    || message.contains("Connection closed") || message.contains("closed session"))) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    private void closeQuietly(McpAsyncClient client) {
+        if (client == null) {
+            return;
+        }
+        try {
+            client.closeGracefully()
+                    .timeout(Duration.ofSeconds(5))
+                    .subscribe(v -> { }, error -> client.close());
+        } catch (Exception e) {
+            log.debug("Error closing MCP client {}: {}", serverName, e.getMessage());
+        }
+    }
+
+    private static final class Slot {
+        private final int index;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile McpAsyncClient client;
+        private volatile boolean healthy;
+        private volatile boolean reconnecting;
+        private volatile int reconnectAttempts;
+
+        private Slot(int index) {
+            this.index = index;
+        }
+    }
+}
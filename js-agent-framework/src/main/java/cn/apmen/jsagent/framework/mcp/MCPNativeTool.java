@@ -0,0 +1,95 @@
+package cn.apmen.jsagent.framework.mcp;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall;
+import com.fasterxml.jackson.core.type.TypeReference;
+import io.modelcontextprotocol.spec.McpSchema;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * MCP原生工具 - 服务器中的单个工具注册为独立的ToolDefinition
+ * 参数结构直接使用服务器listTools返回的inputSchema，模型无需猜测tool_name与参数格式；
+ * 参数按原始JSON类型透传给服务器
+ */
+@Slf4j
+public class MCPNativeTool extends AsyncMCPTool {
+
+    private static final TypeReference<Map<String, Object>> ARGUMENTS_TYPE = new TypeReference<>() {};
+
+    private final String serverName;
+    private final MCPToolSpec spec;
+
+    /**
+     * @param serverName MCP服务名称
+     * @param toolName 注册到ToolRegistry的名称
+     * @param spec 服务器声明的工具
+     * @param caller 实际发起MCP调用的函数（异步客户端、客户端池或同步客户端的包装）
+     * @param callConfig 超时与重试配置
+     */
+    public MCPNativeTool(String serverName, String toolName, MCPToolSpec spec,
+                         Function<McpSchema.CallToolRequest, Mono<McpSchema.CallToolResult>> caller,
+                         MCPCallConfig callConfig) {
+        super(caller, toolName, spec.getDescription() != null ? spec.getDescription() : spec.getName(),
+                parametersDefinition(spec), requiredParameters(spec), callConfig);
+        this.serverName = serverName;
+        this.spec = spec;
+    }
+
+    public String getServerName() {
+        return serverName;
+    }
+
+    public MCPToolSpec getSpec() {
+        return spec;
+    }
+
+    /**
+     * 保留参数的原始JSON类型（数字、布尔、嵌套对象），不做字符串化
+     */
+    @Override
+    protected Map<String, Object> parseArguments(ToolCall toolCall) {
+        if (toolCall.getFunction() == null || toolCall.getFunction().getArguments() == null
+                || toolCall.getFunction().getArguments().isBlank()) {
+            return new HashMap<>();
+        }
+        try {
+            return objectMapper.readValue(toolCall.getFunction().getArguments(), ARGUMENTS_TYPE);
+        } catch (Exception e) {
+            log.error("Failed to parse arguments for MCP tool {}: {}", getToolName(), e.getMessage());
+            return new HashMap<>();
+        }
+    }
+
+    @Override
+    protected McpSchema.CallToolRequest toRequest(Map<String, Object> args) {
+        return new McpSchema.CallToolRequest(spec.getName(), args);
+    }
+
+    private static Map<String, Object> parametersDefinition(MCPToolSpec spec) {
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        if (spec.getInputSchema() != null) {
+            parameters.putAll(spec.getInputSchema());
+        }
+        // 函数调用要求顶层为object且带properties
+        parameters.put("type", "object");
+        parameters.putIfAbsent("properties", new LinkedHashMap<>());
+        return parameters;
+    }
+
+    private static String[] requiredParameters(MCPToolSpec spec) {
+        Object required = spec.getInputSchema() != null ? spec.getInputSchema().get("required") : null;
+        if (required instanceof Collection<?> names) {
+            return names.stream().map(String::valueOf).toArray(String[]::new);
+        }
+        if (required instanceof String[] names) {
+            return names.clone();
+        }
+        return new String[0];
+    }
+}
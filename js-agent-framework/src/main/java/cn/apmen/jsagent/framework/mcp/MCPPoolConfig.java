@@ -0,0 +1,60 @@
+package cn.apmen.jsagent.framework.mcp;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Duration;
+
+/**
+ * MCP客户端池配置
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MCPPoolConfig {
+
+    /**
+     * 每个MCP服务的客户端（会话）数量
+     */
+    @Builder.Default
+    private int poolSize = 4;
+
+    /**
+     * 单个客户端允许的最大未完成请求数，全部客户端达到上限时拒绝调用，0表示不限制
+     */
+    @Builder.Default
+    private int maxOutstandingPerClient = 64;
+
+    /**
+     * 客户端初始化超时
+     */
+    @Builder.Default
+    private Duration initializationTimeout = Duration.ofSeconds(30);
+
+    /**
+     * 健康探测（ping）间隔
+     */
+    @Builder.Default
+    private Duration healthCheckInterval = Duration.ofSeconds(15);
+
+    /**
+     * 健康探测超时
+     */
+    @Builder.Default
+    private Duration pingTimeout = Duration.ofSeconds(5);
+
+    /**
+     * 首次重连前的退避时间，之后按指数增长
+     */
+    @Builder.Default
+    private Duration reconnectInitialBackoff = Duration.ofSeconds(1);
+
+    /**
+     * 重连退避时间上限
+     */
+    @Builder.Default
+    private Duration reconnectMaxBackoff = Duration.ofSeconds(30);
+}
@@ -3,20 +3,15 @@ package cn.apmen.jsagent.framework.mcp;
 import cn.apmen.jsagent.framework.exception.AgentException;
 import cn.apmen.jsagent.framework.exception.ErrorCode;
 import cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall;
-import cn.apmen.jsagent.framework.tool.AbstractToolExecutor;
 import cn.apmen.jsagent.framework.tool.BaseToolResponse;
-import cn.apmen.jsagent.framework.tool.StreamingToolExecutor;
 import cn.apmen.jsagent.framework.tool.ToolContext;
+import cn.apmen.jsagent.framework.tool.ToolExecutionMode;
 import cn.apmen.jsagent.framework.tool.ToolResult;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import io.modelcontextprotocol.client.McpSyncClient;
 import io.modelcontextprotocol.spec.McpSchema;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 
 import java.time.Duration;
 import java.util.HashMap;
@@ -24,32 +19,17 @@ import java.util.Map;
 
 /**
  * MCP工具 - 将MCP服务包装为工具
- * 继承AbstractToolExecutor，符合新的工具设计规范
+ * 继承AbstractMCPTool，符合新的工具设计规范
  * 同时实现StreamingToolExecutor以支持流式执行
  *
  * 支持多工具模式：一个MCPTool实例可以调用MCP服务器中的任意工具
+ * 基于McpSyncClient的阻塞调用，非阻塞版本见AsyncMCPTool
  */
 @Slf4j
-public class MCPTool extends AbstractToolExecutor implements StreamingToolExecutor {
-
-    private final ObjectMapper objectMapper = new ObjectMapper();
+public class MCPTool extends AbstractMCPTool {
 
     // MCP客户端 - 实际执行功能的客户端
     private final McpSyncClient mcpClient;
-    // 工具名称
-    private final String toolName;
-    // 工具描述
-    private final String description;
-    // 参数定义
-    private final Map<String, Object> parametersDefinition;
-    // 必需参数
-    private final String[] requiredParameters;
-
-    // 配置ObjectMapper支持Java 8时间类型
-    {
-        objectMapper.registerModule(new JavaTimeModule());
-        objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
-    }
 
     /**
      * 构造函数 - 多工具模式，支持调用MCP服务器中的任意工具
@@ -58,66 +38,16 @@ public class MCPTool extends AbstractToolExecutor implements StreamingToolExecut
      * @param description 工具描述
      */
     public MCPTool(McpSyncClient mcpClient, String toolName, String description) {
+        super(toolName, description);
         this.mcpClient = mcpClient;
-        this.toolName = toolName;
-        this.description = description;
-
-        // 创建通用的参数定义，支持动态工具调用
-        this.parametersDefinition = createDynamicParametersDefinition();
-        this.requiredParameters = new String[]{"tool_name", "arguments"};
     }
 
     /**
-     * 创建动态参数定义，支持调用MCP服务器中的任意工具
+     * McpSyncClient.callTool为阻塞调用，重试间隔使用Thread.sleep，适合在虚拟线程上执行
      */
-    private Map<String, Object> createDynamicParametersDefinition() {
-        Map<String, Object> parameters = new HashMap<>();
-        parameters.put("type", "object");
-
-        Map<String, Object> properties = new HashMap<>();
-
-        // tool_name参数 - 指定要调用的具体工具
-        Map<String, Object> toolNameParam = new HashMap<>();
-        toolNameParam.put("type", "string");
-        toolNameParam.put("description", "要调用的具体工具名称，例如：bing_search, maps_geo, datetime_current_time等");
-        properties.put("tool_name", toolNameParam);
-
-        // arguments参数 - 工具的具体参数
-        Map<String, Object> argumentsParam = new HashMap<>();
-        argumentsParam.put("type", "object");
-        argumentsParam.put("description", "工具的具体参数对象，例如：{\"query\": \"搜索关键词\", \"top_k\": 3}");
-        argumentsParam.put("additionalProperties", true);
-        // 添加示例
-        Map<String, Object> example = new HashMap<>();
-        example.put("query", "搜索关键词");
-        example.put("top_k", 3);
-        argumentsParam.put("example", example);
-        properties.put("arguments", argumentsParam);
-
-        parameters.put("properties", properties);
-        parameters.put("required", new String[]{"tool_name"});  // arguments不是必需的，可以为空对象
-
-        return parameters;
-    }
-
     @Override
-    public String getToolName() {
-        return toolName;
-    }
-
-    @Override
-    public String getDescription() {
-        return description;
-    }
-
-    @Override
-    public Map<String, Object> getParametersDefinition() {
-        return new HashMap<>(parametersDefinition);
-    }
-
-    @Override
-    public String[] getRequiredParameters() {
-        return requiredParameters.clone();
+    protected ToolExecutionMode getExecutionMode() {
+        return ToolExecutionMode.VIRTUAL_THREAD;
     }
 
     @Override
@@ -194,7 +124,7 @@ public class MCPTool extends AbstractToolExecutor implements StreamingToolExecut
                     "MCP tool call failed: " + e.getMessage(), e);
             }
         })
-        .subscribeOn(Schedulers.boundedElastic()) // 在IO线程池执行
+        .subscribeOn(getExecutionScheduler()) // 在IO线程池（或虚拟线程）执行
         .timeout(Duration.ofSeconds(180)) // 增加超时时间到3分钟
         .onErrorMap(error -> {
             if (error instanceof java.util.concurrent.TimeoutException) {
@@ -212,7 +142,7 @@ public class MCPTool extends AbstractToolExecutor implements StreamingToolExecut
         .onErrorResume(error -> {
             log.error("MCP工具调用最终失败: {}, 返回错误结果", toolName);
             String friendlyErrorMessage = createFriendlyErrorMessage(toolName, error);
-            return Mono.just(ToolResult.error(toolCallId, friendlyErrorMessage));
+            return Mono.just(ToolResult.error(toolCallId, errorCodeOf(error), friendlyErrorMessage));
         });
     }
 
@@ -284,98 +214,9 @@ public class MCPTool extends AbstractToolExecutor implements StreamingToolExecut
                 sink.error(e);
             }
         })
-        .subscribeOn(Schedulers.boundedElastic());
+        .subscribeOn(getExecutionScheduler());
     }
 
-    /**
-     * 从CallToolResult中提取内容
-     */
-    private String extractContent(McpSchema.CallToolResult result) {
-        if (result.content() == null || result.content().isEmpty()) {
-            return "";
-        }
-
-        StringBuilder contentBuilder = new StringBuilder();
-        for (McpSchema.Content content : result.content()) {
-            if (content instanceof McpSchema.TextContent textContent) {
-                contentBuilder.append(textContent.text());
-            } else if (content instanceof McpSchema.ImageContent imageContent) {
-                contentBuilder.append("[Image: ").append(imageContent.data()).append("]");
-            } else {
-                contentBuilder.append(content.toString());
-            }
-            contentBuilder.append("\n");
-        }
-
-        return contentBuilder.toString().trim();
-    }
-
-    /**
-     * 从CallToolResult中提取错误信息
-     */
-    private String extractErrorMessage(McpSchema.CallToolResult result) {
-        return extractContent(result);
-    }
-
-    /**
-     * 将异常映射为AgentException
-     */
-    private Throwable mapToAgentException(Throwable throwable) {
-        if (throwable instanceof AgentException) {
-            return throwable;
-        }
-
-        // 根据异常类型映射到具体的错误码
-        if (throwable instanceof java.util.concurrent.TimeoutException) {
-            return new AgentException(
-                ErrorCode.TOOL_TIMEOUT,
-                "MCP tool execution timeout", throwable);
-        }
-
-        if (throwable instanceof SecurityException) {
-            return new AgentException(
-                ErrorCode.TOOL_PERMISSION_DENIED,
-                "Permission denied for MCP tool", throwable);
-        }
-
-        // 默认映射为工具执行失败
-        return new AgentException(
-            ErrorCode.TOOL_EXECUTION_FAILED,
-            "MCP tool execution failed", throwable);
-    }
-
-    /**
-     * 解析arguments参数，支持字符串和Map两种格式
-     */
-    private Map<String, Object> parseArgumentsParameter(Object argumentsObj) {
-        if (argumentsObj == null) {
-            return new HashMap<>();
-        }
-
-        if (argumentsObj instanceof Map) {
-            // 如果已经是Map，直接返回
-            return (Map<String, Object>) argumentsObj;
-        }
-
-        if (argumentsObj instanceof String) {
-            // 如果是字符串，尝试解析为JSON
-            String argumentsStr = (String) argumentsObj;
-            if (argumentsStr.trim().isEmpty()) {
-                return new HashMap<>();
-            }
-
-            try {
-                return objectMapper.readValue(argumentsStr, Map.class);
-            } catch (Exception e) {
-                log.warn("Failed to parse arguments string as JSON: {}, error: {}", argumentsStr, e.getMessage());
-                // 如果解析失败，返回空Map
-                return new HashMap<>();
-            }
-        }
-
-        log.warn("Unsupported arguments type: {}, returning empty map", argumentsObj.getClass());
-        return new HashMap<>();
-    }
 
     /**
      * 带重试机制的MCP工具调用
@@ -438,47 +279,6 @@ public class MCPTool extends AbstractToolExecutor implements StreamingToolExecut
         }
     }
 
-    /**
-     * 创建用户友好的错误消息
-     */
-    private String createFriendlyErrorMessage(String toolName, Throwable error) {
-        if (error instanceof AgentException) {
-            // 通用错误消息
-            return String.format("%s服务暂时不可用，请稍后重试。", toolName);
-        }
-
-        // 非AgentException的通用处理
-        return String.format("%s服务出现技术问题，请稍后重试。", toolName);
-    }
-
-    /**
-     * 检查是否是连接相关的错误
-     */
-    private boolean isConnectionError(Throwable error) {
-        if (error == null) {
-            return false;
-        }
-
-        String errorMessage = error.getMessage();
-        if (errorMessage == null) {
-            errorMessage = "";
-        }
-
-        // 检查常见的连接错误模式
-        return errorMessage.contains("Connection refused") ||
-               errorMessage.contains("Connection reset") ||
-               errorMessage.contains("Connection timed out") ||
-               errorMessage.contains("No route to host") ||
-               errorMessage.contains("Network is unreachable") ||
-               errorMessage.contains("400") ||  // HTTP 400 错误
-               errorMessage.contains("500") ||  // HTTP 500 错误
-               errorMessage.contains("502") ||  // HTTP 502 错误
-               errorMessage.contains("503") ||  // HTTP 503 错误
-               error instanceof java.net.ConnectException ||
-               error instanceof java.net.SocketTimeoutException ||
-               error instanceof java.io.IOException;
-    }
-
     /**
      * 获取MCP客户端
      */
@@ -0,0 +1,370 @@
+package cn.apmen.jsagent.framework.mcp;
+
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.exception.ErrorCode;
+import cn.apmen.jsagent.framework.tool.ToolBulkheadPolicy;
+import cn.apmen.jsagent.framework.tool.ToolCachePolicy;
+import cn.apmen.jsagent.framework.tool.ToolCircuitBreakerPolicy;
+import cn.apmen.jsagent.framework.tool.ToolExecutionMode;
+import cn.apmen.jsagent.framework.tool.ToolRegistry;
+import cn.apmen.jsagent.framework.tool.ToolSchedulers;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.modelcontextprotocol.client.McpAsyncClient;
+import io.modelcontextprotocol.client.McpSyncClient;
+import io.modelcontextprotocol.spec.McpSchema;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * MCP工具目录
+ * 把MCP服务器listTools返回的每个工具注册为独立的MCPNativeTool，参数结构即服务器声明的inputSchema。
+ * 目录缓存在磁盘上，启动时先按缓存注册（不等待网络），随后在后台刷新；
+ * 收到tools/list_changed通知或定期刷新时按差异增删工具
+ */
+@Slf4j
+public class MCPToolCatalog implements Closeable {
+
+    private static final TypeReference<List<MCPToolSpec>> SPECS_TYPE = new TypeReference<>() {};
+
+    private final String serverName;
+    private final ToolRegistry toolRegistry;
+    private final Function<McpSchema.CallToolRequest, Mono<McpSchema.CallToolResult>> caller;
+    private final Supplier<Mono<List<McpSchema.Tool>>> lister;
+    private final MCPCatalogConfig config;
+    private final ScheduledExecutorService scheduler;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // MCP工具名 -> 当前注册的声明，按注册顺序
+    private final Map<String, MCPToolSpec> specs = new LinkedHashMap<>();
+    // MCP工具名 -> 注册名
+    private final Map<String, String> registeredNames = new HashMap<>();
+
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder refreshFailures = new LongAdder();
+    private final LongAdder changeNotifications = new LongAdder();
+    private volatile boolean loadedFromCache;
+    private volatile long lastRefreshMillis;
+
+    /**
+     * @param serverName MCP服务名称，也是磁盘缓存文件名
+     * @param toolRegistry 注册目标
+     * @param caller 调用工具的函数
+     * @param lister 获取服务器全部工具的函数（含分页）
+     * @param config 目录配置
+     */
+    public MCPToolCatalog(String serverName, ToolRegistry toolRegistry,
+                          Function<McpSchema.CallToolRequest, Mono<McpSchema.CallToolResult>> caller,
+                          Supplier<Mono<List<McpSchema.Tool>>> lister, MCPCatalogConfig config) {
+        this.serverName = serverName;
+        this.toolRegistry = toolRegistry;
+        this.caller = caller;
+        this.lister = lister;
+        this.config = config;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mcp-catalog-" + serverName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        objectMapper.findAndRegisterModules();
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    /**
+     * 基于客户端池创建目录
+     */
+    public static MCPToolCatalog forClientPool(String serverName, MCPClientPool pool,
+                                               ToolRegistry toolRegistry, MCPCatalogConfig config) {
+        return new MCPToolCatalog(serverName, toolRegistry, pool::callTool, pool::listTools, config);
+    }
+
+    /**
+     * 基于异步客户端创建目录
+     */
+    public static MCPToolCatalog forAsyncClient(String serverName, McpAsyncClient client,
+                                                ToolRegistry toolRegistry, MCPCatalogConfig config) {
+        Supplier<Mono<List<McpSchema.Tool>>> lister = () -> {
+            List<McpSchema.Tool> tools = new ArrayList<>();
+            return client.listTools(null)
+                    .expand(page -> page.nextCursor() != null ? client.listTools(page.nextCursor()) : Mono.empty())
+                    .doOnNext(page -> {
+                        if (page.tools() != null) {
+                            tools.addAll(page.tools());
+                        }
+                    })
+                    .then(Mono.fromSupplier(() -> tools));
+        };
+        return new MCPToolCatalog(serverName, toolRegistry, client::callTool, lister, config);
+    }
+
+    /**
+     * 基于同步客户端创建目录，阻塞调用在虚拟线程（不可用时为boundedElastic）上执行
+     */
+    public static MCPToolCatalog forSyncClient(String serverName, McpSyncClient client,
+                                               ToolRegistry toolRegistry, MCPCatalogConfig config) {
+        Function<McpSchema.CallToolRequest, Mono<McpSchema.CallToolResult>> caller = request ->
+                Mono.fromCallable(() -> client.callTool(request))
+                        .subscribeOn(ToolSchedulers.forMode(ToolExecutionMode.VIRTUAL_THREAD));
+        Supplier<Mono<List<McpSchema.Tool>>> lister = () -> Mono.fromCallable(() -> {
+            List<McpSchema.Tool> tools = new ArrayList<>();
+            String cursor = null;
+            do {
+                McpSchema.ListToolsResult page = client.listTools(cursor);
+                if (page.tools() != null) {
+                    tools.addAll(page.tools());
+                }
+                cursor = page.nextCursor();
+            } while (cursor != null);
+            return tools;
+        }).subscribeOn(ToolSchedulers.forMode(ToolExecutionMode.VIRTUAL_THREAD));
+        return new MCPToolCatalog(serverName, toolRegistry, caller, lister, config);
+    }
+
+    /**
+     * 启动目录：有磁盘缓存时立即按缓存注册并在后台刷新，否则同步等待一次listTools
+     */
+    public void start() {
+        List<MCPToolSpec> cached = readCache();
+        if (cached != null) {
+            loadedFromCache = true;
+            apply(cached, false);
+            log.info("MCP catalog {} loaded {} tools from cache, refreshing in background", serverName, cached.size());
+            submit(this::refreshQuietly);
+        } else {
+            refresh();
+        }
+        long interval = config.getRefreshInterval() != null ? config.getRefreshInterval().toMillis() : 0;
+        if (interval > 0) {
+            scheduler.scheduleWithFixedDelay(this::refreshQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 从服务器重新获取工具列表并应用差异
+     */
+    public void refresh() {
+        refreshes.increment();
+        try {
+            List<McpSchema.Tool> tools = lister.get().block(config.getListTimeout());
+            apply(toSpecs(tools), true);
+            lastRefreshMillis = System.currentTimeMillis();
+        } catch (Exception e) {
+            refreshFailures.increment();
+            throw e instanceof AgentException agentException ? agentException
+                    : new AgentException(ErrorCode.NETWORK_ERROR, "Failed to list tools of MCP server " + serverName, e);
+        }
+    }
+
+    /**
+     * tools/list_changed通知回调，可直接用作客户端的toolsChangeConsumer
+     */
+    public void onToolsChanged(List<McpSchema.Tool> tools) {
+        changeNotifications.increment();
+        submit(() -> {
+            apply(toSpecs(tools), true);
+            lastRefreshMillis = System.currentTimeMillis();
+        });
+    }
+
+    /**
+     * 当前注册的工具名称
+     */
+    public synchronized List<String> getRegisteredToolNames() {
+        return new ArrayList<>(registeredNames.values());
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("server", serverName);
+        stats.put("tools", getRegisteredToolNames());
+        stats.put("loadedFromCache", loadedFromCache);
+        stats.put("refreshes", refreshes.sum());
+        stats.put("refreshFailures", refreshFailures.sum());
+        stats.put("changeNotifications", changeNotifications.sum());
+        stats.put("lastRefreshMillis", lastRefreshMillis);
+        return stats;
+    }
+
+    /**
+     * 停止后台刷新，已注册的工具保留在ToolRegistry中
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 按差异注册：新增与声明变化的工具重新注册，消失的工具移除
+     */
+    private synchronized void apply(List<MCPToolSpec> latest, boolean persist) {
+        Map<String, MCPToolSpec> incoming = new LinkedHashMap<>();
+        for (MCPToolSpec spec : latest) {
+            if (spec.getName() != null && isIncluded(spec.getName())) {
+                incoming.put(spec.getName(), spec);
+            }
+        }
+
+        int removed = 0;
+        for (String name : new ArrayList<>(specs.keySet())) {
+            if (!incoming.containsKey(name)) {
+                specs.remove(name);
+                toolRegistry.removeExecutor(registeredNames.remove(name));
+                removed++;
+            }
+        }
+        int added = 0;
+        int updated = 0;
+        ToolBulkheadPolicy bulkheadPolicy = sharedBulkheadPolicy();
+        ToolCircuitBreakerPolicy circuitBreakerPolicy = sharedCircuitBreakerPolicy();
+        for (MCPToolSpec spec : incoming.values()) {
+            MCPToolSpec previous = specs.get(spec.getName());
+            if (spec.equals(previous)) {
+                continue;
+            }
+            String registeredName = registeredNames.getOrDefault(spec.getName(), registeredName(spec.getName()));
+            if (previous == null && toolRegistry.hasExecutor(registeredName)) {
+                log.warn("MCP tool {} of {} conflicts with an existing tool, set a name prefix to register it",
+                        registeredName, serverName);
+                continue;
+            }
+            MCPNativeTool tool = new MCPNativeTool(serverName, registeredName, spec, caller, config.getCallConfig());
+            ToolCachePolicy cachePolicy = config.getCachePolicies() != null
+                    ? config.getCachePolicies().getOrDefault(spec.getName(), config.getCachePolicy())
+                    : config.getCachePolicy();
+            tool.withCachePolicy(cachePolicy);
+            tool.withBulkheadPolicy(bulkheadPolicy);
+            tool.withCircuitBreakerPolicy(circuitBreakerPolicy);
+            toolRegistry.registerExecutor(tool);
+            specs.put(spec.getName(), spec);
+            registeredNames.put(spec.getName(), registeredName);
+            if (previous == null) {
+                added++;
+            } else {
+                updated++;
+            }
+        }
+
+        if (added + updated + removed > 0) {
+            log.info("MCP catalog {} updated: {} added, {} changed, {} removed", serverName, added, updated, removed);
+            if (persist) {
+                writeCache(new ArrayList<>(specs.values()));
+            }
+        }
+    }
+
+    private boolean isIncluded(String name) {
+        return config.getIncludedTools() == null || config.getIncludedTools().isEmpty()
+                || config.getIncludedTools().contains(name);
+    }
+
+    /**
+     * 服务级舱壁策略，未指定分组键时由该服务的全部工具共享
+     */
+    private ToolBulkheadPolicy sharedBulkheadPolicy() {
+        ToolBulkheadPolicy policy = config.getBulkheadPolicy();
+        if (policy == null || policy.getBulkheadKey() != null) {
+            return policy;
+        }
+        return policy.toBuilder().bulkheadKey("mcp:" + serverName).build();
+    }
+
+    /**
+     * 服务级熔断策略，未指定分组键时由该服务的全部工具共享，服务宕机时所有工具一起快速失败
+     */
+    private ToolCircuitBreakerPolicy sharedCircuitBreakerPolicy() {
+        ToolCircuitBreakerPolicy policy = config.getCircuitBreakerPolicy();
+        if (policy == null || policy.getBreakerKey() != null) {
+            return policy;
+        }
+        return policy.toBuilder().breakerKey("mcp:" + serverName).build();
+    }
+
+    /**
+     * 注册名只保留函数名允许的字符，最长64个字符
+     */
+    private String registeredName(String mcpToolName) {
+        String prefix = config.getNamePrefix() != null ? config.getNamePrefix() : "";
+        String name = (prefix + mcpToolName).replaceAll("[^a-zA-Z0-9_-]", "_");
+        return name.length() > 64 ? name.substring(0, 64) : name;
+    }
+
+    private static List<MCPToolSpec> toSpecs(List<McpSchema.Tool> tools) {
+        List<MCPToolSpec> result = new ArrayList<>();
+        if (tools != null) {
+            for (McpSchema.Tool tool : tools) {
+                result.add(MCPToolSpec.from(tool));
+            }
+        }
+        return result;
+    }
+
+    private Path cacheFile() {
+        if (config.getCacheDirectory() == null) {
+            return null;
+        }
+        return config.getCacheDirectory().resolve(serverName.replaceAll("[^a-zA-Z0-9_.-]", "_") + ".json");
+    }
+
+    private List<MCPToolSpec> readCache() {
+        Path file = cacheFile();
+        if (file == null || !Files.exists(file)) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(file.toFile(), SPECS_TYPE);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable MCP catalog cache {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeCache(List<MCPToolSpec> latest) {
+        Path file = cacheFile();
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(tmp.toFile(), latest);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed to write MCP catalog cache {}: {}", file, e.getMessage());
+        }
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            log.warn("MCP catalog {} refresh failed, keeping {} known tools: {}", serverName, specs.size(), e.getMessage());
+        }
+    }
+
+    private void submit(Runnable task) {
+        try {
+            scheduler.execute(task);
+        } catch (RejectedExecutionException e) {
+            // 已关闭
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package cn.apmen.jsagent.framework.mcp;
+
+import io.modelcontextprotocol.spec.McpSchema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * MCP服务器声明的单个工具（listTools结果），与SDK类型解耦，用于磁盘缓存
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MCPToolSpec {
+
+    /**
+     * 服务器中的工具名称
+     */
+    private String name;
+
+    /**
+     * 工具描述
+     */
+    private String description;
+
+    /**
+     * 输入参数的JSON Schema
+     */
+    private Map<String, Object> inputSchema;
+
+    public static MCPToolSpec from(McpSchema.Tool tool) {
+        Map<String, Object> schema = new LinkedHashMap<>();
+        McpSchema.JsonSchema input = tool.inputSchema();
+        if (input != null) {
+            putIfPresent(schema, "type", input.type());
+            putIfPresent(schema, "properties", input.properties());
+            putIfPresent(schema, "required", input.required());
+            putIfPresent(schema, "additionalProperties", input.additionalProperties());
+            putIfPresent(schema, "$defs", input.defs());
+            putIfPresent(schema, "definitions", input.definitions());
+        }
+        return MCPToolSpec.builder()
+                .name(tool.name())
+                .description(tool.description())
+                .inputSchema(schema)
+                .build();
+    }
+
+    private static void putIfPresent(Map<String, Object> schema, String key, Object value) {
+        if (value != null) {
+            schema.put(key, value);
+        }
+    }
+}
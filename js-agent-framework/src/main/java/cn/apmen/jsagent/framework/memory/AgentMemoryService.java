@@ -134,5 +134,18 @@ public interface AgentMemoryService {
      * @return 匹配的消息
      */
     Mono<List<Message>> searchMemory(String agentId, String sessionId, String query, int limit);
+
+    /**
+     * 获取与查询最相关的长期记忆
+     * 用于在有限的上下文窗口之外补充较早的相关内容；默认退化为关键词搜索
+     * @param agentId Agent ID
+     * @param sessionId 会话ID，为null时在该Agent的全部会话中检索
+     * @param query 查询文本
+     * @param k 结果数量
+     * @return 按相关度排序的消息
+     */
+    default Mono<List<Message>> getRelevantMemory(String agentId, String sessionId, String query, int k) {
+        return searchMemory(agentId, sessionId, query, k);
+    }
 }
 
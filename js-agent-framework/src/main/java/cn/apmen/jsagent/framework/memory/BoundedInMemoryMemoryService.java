@@ -0,0 +1,919 @@
+package cn.apmen.jsagent.framework.memory;
+
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.exception.ErrorCode;
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.search.Bm25Index;
+import cn.apmen.jsagent.framework.storage.MessageCodec;
+import cn.apmen.jsagent.framework.storage.MessageLog;
+import cn.apmen.jsagent.framework.storage.OffHeapSlabStore;
+import cn.apmen.jsagent.framework.token.TokenCounter;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 有界的内存记忆服务实现（基于conversationId）
+ * 按会话估算消息占用的堆内存，超过高水位时由后台线程按LRU把空闲会话换出到低水位（写入不等待换出），
+ * 空闲超时的会话也会被定期换出；换出的会话在下次访问时透明加载回内存。
+ * 磁盘上的换出会话数与内存中的元数据条数都有上限，超出时丢弃最早的
+ *
+ * 分三层：热层为堆内MessageLog；温层（可选）为堆外slab，会话整体编码为一个块，按完整会话ID索引；
+ * 冷层为本地换出文件。
+ * 热层淘汰先降级到温层，温层空间不足时把与所需块同一尺寸等级（或释放后能腾出整页）的温层会话中
+ * 最久降级的换出到磁盘（换出的文件写入不持有温层锁），任一层被访问时提升回热层
+ *
+ * 分层的粒度是整个空闲会话：常驻会话中MessageLog热区之外的消息仍在堆内，以合并压缩的紧凑块保存。
+ * 常驻会话的读取是无锁视图，旧视图可能在任意时刻读取冷区槽位，堆外块无法安全回收，因此冷区不放到堆外
+ */
+@Slf4j
+public class BoundedInMemoryMemoryService implements MemoryService, Closeable {
+
+    private static final String SPILL_SUFFIX = ".spill";
+
+    // 单次降级最多为腾出空间换出的温层会话数，超过后直接换出到磁盘
+    private static final int MAX_WARM_SPILLS_PER_DEMOTION = 16;
+
+    private final BoundedMemoryConfig config;
+
+    private final TokenCounter tokenCounter;
+
+    // 常驻会话：conversationId -> entry
+    private final Map<String, ConversationEntry> residentStore = new ConcurrentHashMap<>();
+
+    // 常驻会话的访问顺序（最久未访问在前），淘汰时从头部遍历；由自身的锁保护
+    private final LinkedHashMap<String, ConversationEntry> accessOrder = new LinkedHashMap<>(16, 0.75f, true);
+
+    // 已换出到磁盘的会话，按换出顺序排列；由自身的锁保护
+    private final LinkedHashMap<String, Boolean> spilledConversations = new LinkedHashMap<>();
+
+    // 温层：未启用时warmStore为null。warmEntries按完整会话ID索引，读取无锁、修改持有warmLock；
+    // warmOrder按尺寸等级分组、按降级顺序排列（最久在前），由warmLock保护
+    private final OffHeapSlabStore warmStore;
+    private final Map<String, WarmEntry> warmEntries = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, WarmEntry>[] warmOrder;
+    private final Object warmLock = new Object();
+
+    // 元数据常驻内存（体积小），按访问顺序保留最近的maxMetadataEntries条
+    private final Map<String, MemoryMetadata> metadataStore;
+
+    private final AtomicLong residentBytes = new AtomicLong();
+
+    // 执行空闲换出与超出水位后的淘汰，单线程，淘汰之间天然互斥
+    private final ScheduledExecutorService sweeper;
+
+    private final AtomicBoolean evictionScheduled = new AtomicBoolean();
+
+    // 统计信息
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong idleEvictions = new AtomicLong();
+    private final AtomicLong spillFailures = new AtomicLong();
+    private final AtomicLong spillNanos = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong reloadNanos = new AtomicLong();
+    private final AtomicLong maxReloadNanos = new AtomicLong();
+    private final AtomicLong warmDemotions = new AtomicLong();
+    private final AtomicLong warmPromotions = new AtomicLong();
+    private final AtomicLong warmSpills = new AtomicLong();
+    private final AtomicLong expiredSpills = new AtomicLong();
+
+    public BoundedInMemoryMemoryService() {
+        this(BoundedMemoryConfig.builder().build());
+    }
+
+    public BoundedInMemoryMemoryService(BoundedMemoryConfig config) {
+        this(config, TokenCounter.heuristic());
+    }
+
+    public BoundedInMemoryMemoryService(BoundedMemoryConfig config, TokenCounter tokenCounter) {
+        this.config = config;
+        this.tokenCounter = tokenCounter;
+        this.warmStore = config.getMaxOffHeapBytes() > 0
+            ? new OffHeapSlabStore(config.getMaxOffHeapBytes(), config.getOffHeapSlabSize())
+            : null;
+        this.warmOrder = newWarmOrder(warmStore != null ? warmStore.sizeClassCount() : 0);
+        int maxMetadataEntries = Math.max(1, config.getMaxMetadataEntries());
+        this.metadataStore = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MemoryMetadata> eldest) {
+                return size() > maxMetadataEntries;
+            }
+        });
+        try {
+            Files.createDirectories(config.getSpillDirectory());
+            // 上次运行遗留的换出文件仍然可以按需加载
+            try (var files = Files.list(config.getSpillDirectory())) {
+                files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SPILL_SUFFIX))
+                    .map(name -> decodeFileName(name.substring(0, name.length() - SPILL_SUFFIX.length())))
+                    .forEach(id -> dropExpiredSpills(markSpilled(id)));
+            }
+        } catch (IOException e) {
+            throw new AgentException(ErrorCode.STORAGE_IO_FAILED, "Failed to prepare spill directory " + config.getSpillDirectory(), e);
+        }
+
+        long sweepMillis = config.getSweepInterval().toMillis();
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "memory-spill-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::evictIdleQuietly, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Mono<Void> addMessage(String conversationId, Message message) {
+        return Mono.fromRunnable(() -> {
+            withEntry(conversationId, true, entry -> {
+                entry.messages.append(message);
+                entry.index.sync(entry.messages);
+                entry.refreshBytes();
+                return null;
+            });
+            updateMetadata(conversationId);
+            requestEviction();
+            log.debug("Added message to memory: conversation={}, role={}", conversationId, message.getRole());
+        });
+    }
+
+    @Override
+    public Mono<Void> addMessages(String conversationId, List<Message> messages) {
+        return Mono.fromRunnable(() -> {
+            if (messages == null || messages.isEmpty()) {
+                return;
+            }
+            withEntry(conversationId, true, entry -> {
+                entry.messages.appendAll(messages);
+                entry.index.sync(entry.messages);
+                entry.refreshBytes();
+                return null;
+            });
+            updateMetadata(conversationId);
+            requestEviction();
+            log.debug("Added {} messages to memory: conversation={}", messages.size(), conversationId);
+        });
+    }
+
+    @Override
+    public Mono<List<Message>> getMemoryHistory(String conversationId) {
+        return Mono.fromCallable(() -> snapshot(conversationId));
+    }
+
+    @Override
+    public Mono<List<Message>> getRecentMemory(String conversationId, int limit) {
+        return Mono.fromCallable(() -> {
+            List<Message> result = withEntry(conversationId, false, entry -> {
+                return entry.messages.recent(limit);
+            });
+            return result != null ? result : List.of();
+        });
+    }
+
+    @Override
+    public Mono<List<Message>> getContextMemory(String conversationId, int maxTokens, String systemPrompt) {
+        return Mono.fromCallable(() -> {
+            int systemPromptTokens = systemPrompt != null ? tokenCounter.countTokens(systemPrompt) : 0;
+            int availableTokens = maxTokens - systemPromptTokens;
+
+            // 按前缀和二分定位窗口起点（至少保留最新一条）
+            List<Message> result = withEntry(conversationId, false, entry -> {
+                List<Message> window = entry.messages.contextWindow(availableTokens);
+                return window.isEmpty() ? entry.messages.recent(1) : window;
+            });
+            return result != null ? result : List.of();
+        });
+    }
+
+    @Override
+    public Flux<Message> streamMemoryHistory(String conversationId) {
+        return getMemoryHistory(conversationId).flatMapMany(Flux::fromIterable);
+    }
+
+    @Override
+    public Mono<Void> clearMemory(String conversationId) {
+        return Mono.fromRunnable(() -> {
+            ConversationEntry entry = residentStore.remove(conversationId);
+            if (entry != null) {
+                synchronized (entry) {
+                    entry.evicted = true;
+                    residentBytes.addAndGet(-entry.bytes);
+                }
+                untrack(conversationId, entry);
+            }
+            takeWarm(conversationId);
+            if (unmarkSpilled(conversationId)) {
+                deleteSpillFile(conversationId);
+            }
+            metadataStore.remove(conversationId);
+            log.debug("Cleared memory for conversation: {}", conversationId);
+        });
+    }
+
+    @Override
+    public Mono<MemoryStats> getMemoryStats(String conversationId) {
+        return Mono.fromCallable(() -> {
+            List<Message> messages = snapshot(conversationId);
+            if (messages.isEmpty()) {
+                return MemoryStats.builder()
+                    .totalMessages(0)
+                    .build();
+            }
+
+            Map<String, Long> roleCount = messages.stream()
+                .collect(Collectors.groupingBy(Message::getRole, Collectors.counting()));
+
+            MemoryMetadata metadata = metadataStore.get(conversationId);
+            LocalDateTime firstTime = metadata != null && metadata.getCreatedAt() != null ? metadata.getCreatedAt() : LocalDateTime.now();
+            LocalDateTime lastTime = metadata != null && metadata.getUpdatedAt() != null ? metadata.getUpdatedAt() : firstTime;
+
+            return MemoryStats.builder()
+                .totalMessages(messages.size())
+                .userMessages(roleCount.getOrDefault("user", 0L).intValue())
+                .assistantMessages(roleCount.getOrDefault("assistant", 0L).intValue())
+                .toolMessages(roleCount.getOrDefault("tool", 0L).intValue())
+                .systemMessages(roleCount.getOrDefault("system", 0L).intValue())
+                .estimatedTokens(messages.stream().mapToInt(tokenCounter::countMessageTokens).sum())
+                .firstMessageTime(firstTime)
+                .lastMessageTime(lastTime)
+                .sessionDurationMinutes(ChronoUnit.MINUTES.between(firstTime, lastTime))
+                .compressed(false)
+                .build();
+        });
+    }
+
+    @Override
+    public Mono<Void> compressMemory(String conversationId, int keepRecentCount) {
+        return Mono.fromRunnable(() -> {
+            withEntry(conversationId, false, entry -> {
+                if (entry.messages.size() <= keepRecentCount) {
+                    return null;
+                }
+                entry.messages.retainRecent(keepRecentCount);
+                entry.index.sync(entry.messages);
+                entry.refreshBytes();
+                return null;
+            });
+
+            MemoryMetadata metadata = metadataStore.get(conversationId);
+            if (metadata != null) {
+                metadata.setUpdatedAt(LocalDateTime.now());
+            }
+            log.debug("Compressed memory for conversation: {}, kept {} recent messages", conversationId, keepRecentCount);
+        });
+    }
+
+    @Override
+    public Mono<Boolean> memoryExists(String conversationId) {
+        return Mono.fromCallable(() -> residentStore.containsKey(conversationId) || isDemoted(conversationId));
+    }
+
+    @Override
+    public Mono<Void> setMemoryMetadata(String conversationId, MemoryMetadata metadata) {
+        return Mono.fromRunnable(() -> metadataStore.put(conversationId, metadata));
+    }
+
+    @Override
+    public Mono<MemoryMetadata> getMemoryMetadata(String conversationId) {
+        return Mono.fromCallable(() -> metadataStore.get(conversationId));
+    }
+
+    @Override
+    public Mono<List<Message>> searchMemory(String conversationId, String query, int limit) {
+        return Mono.fromCallable(() -> {
+            if (query == null || query.trim().isEmpty()) {
+                return List.of();
+            }
+            // 索引随追加增量更新；从温层或磁盘加载回来的会话在首次检索时构建，按BM25排序取前limit条
+            List<Message> result = withEntry(conversationId, false, entry -> {
+                entry.index.sync(entry.messages);
+                return entry.index.search(query, limit);
+            });
+            return result != null ? result : List.of();
+        });
+    }
+
+    /**
+     * 获取内存与换出统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("residentConversations", residentStore.size());
+        stats.put("residentBytes", residentBytes.get());
+        stats.put("maxResidentBytes", config.getMaxResidentBytes());
+        synchronized (spilledConversations) {
+            stats.put("spilledConversations", spilledConversations.size());
+        }
+        stats.put("expiredSpills", expiredSpills.get());
+        stats.put("metadataEntries", metadataStore.size());
+        stats.put("evictions", evictions.get());
+        stats.put("idleEvictions", idleEvictions.get());
+        stats.put("spillFailures", spillFailures.get());
+        stats.put("averageSpillMillis", evictions.get() > 0 ? spillNanos.get() / 1_000_000.0 / evictions.get() : 0.0);
+        stats.put("reloads", reloads.get());
+        stats.put("averageReloadMillis", reloads.get() > 0 ? reloadNanos.get() / 1_000_000.0 / reloads.get() : 0.0);
+        stats.put("maxReloadMillis", maxReloadNanos.get() / 1_000_000.0);
+        stats.put("warmConversations", warmEntries.size());
+        stats.put("offHeapUsedBytes", warmStore != null ? warmStore.usedBytes() : 0L);
+        stats.put("offHeapReservedBytes", warmStore != null ? warmStore.reservedBytes() : 0L);
+        stats.put("maxOffHeapBytes", config.getMaxOffHeapBytes());
+        stats.put("warmDemotions", warmDemotions.get());
+        stats.put("warmPromotions", warmPromotions.get());
+        stats.put("warmSpills", warmSpills.get());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+
+    // ==================== 常驻与换出 ====================
+
+    /**
+     * 在会话锁内访问常驻entry，必要时先从温层或换出文件加载
+     * 加载在entry锁内完成而不是在residentStore的computeIfAbsent内，磁盘读取不会阻塞同一哈希桶上的其他会话；
+     * entry被并发换出时重新获取
+     */
+    private <T> T withEntry(String conversationId, boolean create, Function<ConversationEntry, T> action) {
+        while (true) {
+            ConversationEntry entry = residentStore.get(conversationId);
+            if (entry == null) {
+                if (!create && !isDemoted(conversationId)) {
+                    return null;
+                }
+                entry = residentStore.computeIfAbsent(conversationId, k -> new ConversationEntry());
+            }
+            synchronized (entry) {
+                if (entry.evicted) {
+                    continue;
+                }
+                if (!entry.loaded) {
+                    load(conversationId, entry);
+                }
+                entry.lastAccessNanos = System.nanoTime();
+                touch(conversationId, entry);
+                return action.apply(entry);
+            }
+        }
+    }
+
+    private List<Message> snapshot(String conversationId) {
+        List<Message> result = withEntry(conversationId, false, entry -> entry.messages.snapshot());
+        return result != null ? result : List.of();
+    }
+
+    /**
+     * 从温层或换出文件填充新建的entry，调用方持有entry锁
+     */
+    private void load(String conversationId, ConversationEntry entry) {
+        List<Message> warm = takeWarm(conversationId);
+        if (warm != null) {
+            entry.messages.appendAll(warm);
+            warmPromotions.incrementAndGet();
+            log.debug("Promoted conversation {} ({} messages) from off-heap tier", conversationId, warm.size());
+        } else if (isSpilled(conversationId)) {
+            long start = System.nanoTime();
+            List<Message> messages;
+            try {
+                messages = readSpillFile(conversationId);
+            } catch (AgentException e) {
+                if (isSpilled(conversationId)) {
+                    throw e;
+                }
+                // 读取期间因超出换出上限被删除
+                messages = List.of();
+            }
+            entry.messages.appendAll(messages);
+            unmarkSpilled(conversationId);
+            deleteSpillFile(conversationId);
+
+            long elapsed = System.nanoTime() - start;
+            reloads.incrementAndGet();
+            reloadNanos.addAndGet(elapsed);
+            maxReloadNanos.accumulateAndGet(elapsed, Math::max);
+            log.debug("Reloaded spilled conversation {} ({} messages) in {}ms",
+                conversationId, messages.size(), elapsed / 1_000_000.0);
+        }
+        entry.refreshBytes();
+        entry.loaded = true;
+    }
+
+    private void touch(String conversationId, ConversationEntry entry) {
+        synchronized (accessOrder) {
+            if (accessOrder.get(conversationId) != entry) {
+                accessOrder.put(conversationId, entry);
+            }
+        }
+    }
+
+    private void untrack(String conversationId, ConversationEntry entry) {
+        synchronized (accessOrder) {
+            accessOrder.remove(conversationId, entry);
+        }
+    }
+
+    /**
+     * 常驻字节数超过高水位时安排一次后台淘汰，已安排或正在执行时不重复安排
+     */
+    private void requestEviction() {
+        long highWatermark = (long) (config.getMaxResidentBytes() * config.getEvictionHighWatermark());
+        if (residentBytes.get() > highWatermark && evictionScheduled.compareAndSet(false, true)) {
+            try {
+                sweeper.execute(this::evictOverBudgetQuietly);
+            } catch (RejectedExecutionException e) {
+                // 服务已关闭
+                evictionScheduled.set(false);
+            }
+        }
+    }
+
+    private void evictOverBudgetQuietly() {
+        boolean progressed = false;
+        try {
+            progressed = evictOverBudget();
+        } catch (Exception e) {
+            log.warn("Resident memory eviction failed", e);
+        } finally {
+            evictionScheduled.set(false);
+        }
+        // 淘汰期间的新写入又超过了高水位；没有可淘汰的会话时等下一次写入再安排
+        if (progressed) {
+            requestEviction();
+        }
+    }
+
+    /**
+     * 按访问顺序从最久未访问的会话开始淘汰，直到回落到低水位，只在后台线程上执行
+     * 只在访问顺序锁内挑选候选（遇到未达到最小空闲时间的会话即停止），换出在锁外进行
+     * @return 是否淘汰了会话
+     */
+    private boolean evictOverBudget() {
+        long target = (long) (config.getMaxResidentBytes() * config.getEvictionLowWatermark());
+        long minIdleNanos = config.getMinIdleBeforeEviction().toNanos();
+        long now = System.nanoTime();
+
+        List<Map.Entry<String, ConversationEntry>> candidates = new ArrayList<>();
+        long toFree = residentBytes.get() - target;
+        synchronized (accessOrder) {
+            for (Map.Entry<String, ConversationEntry> candidate : accessOrder.entrySet()) {
+                if (toFree <= 0 || now - candidate.getValue().lastAccessNanos < minIdleNanos) {
+                    break;
+                }
+                candidates.add(Map.entry(candidate.getKey(), candidate.getValue()));
+                toFree -= candidate.getValue().bytes;
+            }
+        }
+
+        boolean evicted = false;
+        for (Map.Entry<String, ConversationEntry> candidate : candidates) {
+            if (residentBytes.get() <= target) {
+                break;
+            }
+            evicted |= evict(candidate.getKey(), candidate.getValue());
+        }
+        if (residentBytes.get() > config.getMaxResidentBytes()) {
+            log.warn("Resident memory {} bytes still above limit {} bytes, all remaining conversations are active",
+                residentBytes.get(), config.getMaxResidentBytes());
+        }
+        return evicted;
+    }
+
+    /**
+     * 等待已安排的淘汰执行完毕（测试用）
+     */
+    void awaitEvictions() {
+        try {
+            // 单线程执行器：空任务执行时之前安排的淘汰已完成，淘汰结束时可能又安排了下一次
+            do {
+                sweeper.submit(() -> { }).get();
+            } while (evictionScheduled.get());
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to wait for evictions", e);
+        }
+    }
+
+    private void evictIdleQuietly() {
+        try {
+            long idleNanos = config.getIdleTimeout().toNanos();
+            long now = System.nanoTime();
+            List<Map.Entry<String, ConversationEntry>> idle = new ArrayList<>();
+            synchronized (accessOrder) {
+                for (Map.Entry<String, ConversationEntry> candidate : accessOrder.entrySet()) {
+                    if (now - candidate.getValue().lastAccessNanos < idleNanos) {
+                        break;
+                    }
+                    idle.add(Map.entry(candidate.getKey(), candidate.getValue()));
+                }
+            }
+            for (Map.Entry<String, ConversationEntry> candidate : idle) {
+                if (evict(candidate.getKey(), candidate.getValue())) {
+                    idleEvictions.incrementAndGet();
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Idle conversation eviction failed", e);
+        }
+    }
+
+    private boolean evict(String conversationId, ConversationEntry entry) {
+        synchronized (entry) {
+            if (entry.evicted || !entry.loaded) {
+                return false;
+            }
+            long start = System.nanoTime();
+            if (demoteToWarm(conversationId, entry.messages.snapshot())) {
+                warmDemotions.incrementAndGet();
+            } else {
+                try {
+                    writeSpillFile(conversationId, entry.messages.snapshot());
+                } catch (IOException e) {
+                    spillFailures.incrementAndGet();
+                    log.warn("Failed to spill conversation {}, keeping it resident: {}", conversationId, e.getMessage());
+                    return false;
+                }
+                dropExpiredSpills(markSpilled(conversationId));
+            }
+            entry.evicted = true;
+            residentStore.remove(conversationId, entry);
+            residentBytes.addAndGet(-entry.bytes);
+            untrack(conversationId, entry);
+
+            evictions.incrementAndGet();
+            spillNanos.addAndGet(System.nanoTime() - start);
+            log.debug("Evicted conversation {} ({} messages, {} bytes)", conversationId, entry.messages.size(), entry.bytes);
+            return true;
+        }
+    }
+
+    // ==================== 堆外温层 ====================
+
+    /**
+     * 先查温层再查换出文件：温层会话换出到磁盘时先登记换出再移出温层，按此顺序读取不会两处都查不到
+     */
+    private boolean isDemoted(String conversationId) {
+        return warmEntries.containsKey(conversationId) || isSpilled(conversationId);
+    }
+
+    /**
+     * 把会话编码进一个堆外块：count(4) [length(4) MessageCodec编码]...
+     * 温层空间不足时先把同一尺寸等级中最久降级的温层会话换出到磁盘，换出的文件读写在warmLock之外进行；
+     * 超出单块上限或腾不出空间时返回false，由调用方直接换出到磁盘
+     */
+    private boolean demoteToWarm(String conversationId, List<Message> messages) {
+        if (warmStore == null) {
+            return false;
+        }
+        List<byte[]> encoded = new ArrayList<>(messages.size());
+        long length = 4L;
+        for (Message message : messages) {
+            byte[] bytes = MessageCodec.encode(message);
+            encoded.add(bytes);
+            length += 4 + bytes.length;
+        }
+        if (length > warmStore.maxLength()) {
+            return false;
+        }
+        int sizeClass = warmStore.sizeClassFor((int) length);
+
+        for (int attempt = 0; ; attempt++) {
+            WarmEntry victim;
+            synchronized (warmLock) {
+                if (warmEntries.containsKey(conversationId)) {
+                    return false;
+                }
+                long handle = warmStore.allocate((int) length);
+                if (handle >= 0) {
+                    ByteBuffer block = warmStore.buffer(handle);
+                    block.putInt(encoded.size());
+                    for (byte[] bytes : encoded) {
+                        block.putInt(bytes.length).put(bytes);
+                    }
+                    WarmEntry entry = new WarmEntry(conversationId, handle, warmStore.sizeClassOf(handle));
+                    warmEntries.put(conversationId, entry);
+                    warmOrder[entry.sizeClass].put(conversationId, entry);
+                    return true;
+                }
+                if (attempt >= MAX_WARM_SPILLS_PER_DEMOTION) {
+                    return false;
+                }
+                victim = pickWarmVictim(sizeClass);
+                if (victim == null) {
+                    return false;
+                }
+                // 换出期间仍留在warmEntries中，读者照常从块中读取
+                warmOrder[victim.sizeClass].remove(victim.conversationId);
+                victim.references++;
+            }
+            if (!spillWarm(victim)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 为sizeClass等级的分配挑选换出的温层会话：同一等级中最久降级的会话；
+     * 该等级没有温层会话时，在其他各等级最久降级的会话中挑选释放后能腾出整页的最久者。
+     * 每个等级的温层会话按降级顺序排列，只查看各等级的队首，调用方持有warmLock
+     */
+    private WarmEntry pickWarmVictim(int sizeClass) {
+        WarmEntry same = firstWarm(sizeClass);
+        if (same != null) {
+            return same;
+        }
+        WarmEntry best = null;
+        for (int c = 0; c < warmOrder.length; c++) {
+            WarmEntry candidate = firstWarm(c);
+            if (candidate != null && warmStore.isLastInSlab(candidate.handle)
+                    && (best == null || candidate.demotedNanos - best.demotedNanos < 0)) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private WarmEntry firstWarm(int sizeClass) {
+        Iterator<WarmEntry> iterator = warmOrder[sizeClass].values().iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    /**
+     * 把已标记为换出中的温层会话写入磁盘，不持有warmLock
+     * 写入期间会话被读取（取出）时删除刚写的文件；写入失败时放回温层
+     * @return 是否让出了块
+     */
+    private boolean spillWarm(WarmEntry victim) {
+        boolean written;
+        try {
+            writeSpillFile(victim.conversationId, readWarmMessages(warmStore.buffer(victim.handle)));
+            written = true;
+        } catch (IOException e) {
+            spillFailures.incrementAndGet();
+            log.warn("Failed to spill off-heap conversation {}: {}", victim.conversationId, e.getMessage());
+            written = false;
+        }
+
+        boolean taken;
+        List<String> expired = List.of();
+        synchronized (warmLock) {
+            taken = warmEntries.get(victim.conversationId) != victim;
+            if (!taken && written) {
+                expired = markSpilled(victim.conversationId);
+                warmEntries.remove(victim.conversationId);
+                // 温层索引持有的引用
+                releaseWarm(victim);
+            } else if (!taken) {
+                warmOrder[victim.sizeClass].put(victim.conversationId, victim);
+            }
+            // 换出方持有的引用
+            releaseWarm(victim);
+        }
+        dropExpiredSpills(expired);
+        if (taken && written) {
+            deleteSpillFile(victim.conversationId);
+        } else if (written) {
+            warmSpills.incrementAndGet();
+            log.debug("Spilled off-heap conversation {} to disk", victim.conversationId);
+        }
+        return taken || written;
+    }
+
+    /**
+     * 从温层取出会话并释放其块，会话不在温层时返回null
+     * 取出后块归读取方所有，解码在warmLock之外进行；块正在被换出时由最后一个使用方释放
+     */
+    private List<Message> takeWarm(String conversationId) {
+        if (warmStore == null) {
+            return null;
+        }
+        WarmEntry entry;
+        synchronized (warmLock) {
+            entry = warmEntries.remove(conversationId);
+            if (entry == null) {
+                return null;
+            }
+            warmOrder[entry.sizeClass].remove(conversationId);
+        }
+        try {
+            return readWarmMessages(warmStore.buffer(entry.handle));
+        } finally {
+            synchronized (warmLock) {
+                releaseWarm(entry);
+            }
+        }
+    }
+
+    /**
+     * 释放一个引用，最后一个引用释放时归还块，调用方持有warmLock
+     */
+    private void releaseWarm(WarmEntry entry) {
+        if (--entry.references == 0) {
+            warmStore.free(entry.handle);
+        }
+    }
+
+    private static List<Message> readWarmMessages(ByteBuffer block) {
+        int count = block.getInt();
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = block.getInt();
+            ByteBuffer record = block.slice();
+            record.limit(length);
+            messages.add(MessageCodec.decode(record));
+            block.position(block.position() + length);
+        }
+        return messages;
+    }
+
+    // ==================== 换出记录 ====================
+
+    private boolean isSpilled(String conversationId) {
+        synchronized (spilledConversations) {
+            return spilledConversations.containsKey(conversationId);
+        }
+    }
+
+    private boolean unmarkSpilled(String conversationId) {
+        synchronized (spilledConversations) {
+            return spilledConversations.remove(conversationId) != null;
+        }
+    }
+
+    /**
+     * 登记换出的会话，超出上限时移除最早换出的会话
+     * @return 被移除的会话，由调用方在锁外调用 {@link #dropExpiredSpills} 删除
+     */
+    private List<String> markSpilled(String conversationId) {
+        List<String> expired = new ArrayList<>();
+        synchronized (spilledConversations) {
+            spilledConversations.put(conversationId, Boolean.TRUE);
+            Iterator<String> eldest = spilledConversations.keySet().iterator();
+            while (spilledConversations.size() > config.getMaxSpilledConversations() && eldest.hasNext()) {
+                expired.add(eldest.next());
+                eldest.remove();
+            }
+        }
+        return expired;
+    }
+
+    private void dropExpiredSpills(List<String> expired) {
+        for (String id : expired) {
+            deleteSpillFile(id);
+            metadataStore.remove(id);
+            expiredSpills.incrementAndGet();
+            log.debug("Dropped spilled conversation {}, spill limit {} reached", id, config.getMaxSpilledConversations());
+        }
+    }
+
+    // ==================== 换出文件 ====================
+
+    /**
+     * 换出文件格式：count(4) [length(4) MessageCodec编码]...，先写临时文件再原子替换
+     */
+    private void writeSpillFile(String conversationId, List<Message> messages) throws IOException {
+        Path target = spillPath(conversationId);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(messages.size());
+            for (Message message : messages) {
+                byte[] bytes = MessageCodec.encode(message);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private List<Message> readSpillFile(String conversationId) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillPath(conversationId))))) {
+            int count = in.readInt();
+            List<Message> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                messages.add(MessageCodec.decode(bytes));
+            }
+            return messages;
+        } catch (IOException e) {
+            throw new AgentException(ErrorCode.STORAGE_IO_FAILED, "Failed to reload spilled conversation " + conversationId, e);
+        }
+    }
+
+    private void deleteSpillFile(String conversationId) {
+        try {
+            Files.deleteIfExists(spillPath(conversationId));
+        } catch (IOException e) {
+            log.warn("Failed to delete spill file for conversation {}: {}", conversationId, e.getMessage());
+        }
+    }
+
+    private Path spillPath(String conversationId) {
+        return config.getSpillDirectory().resolve(
+            Base64.getUrlEncoder().withoutPadding().encodeToString(conversationId.getBytes(StandardCharsets.UTF_8)) + SPILL_SUFFIX);
+    }
+
+    private static String decodeFileName(String name) {
+        return new String(Base64.getUrlDecoder().decode(name), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 更新元数据
+     */
+    private void updateMetadata(String conversationId) {
+        MemoryMetadata metadata = metadataStore.computeIfAbsent(conversationId, k -> MemoryMetadata.builder()
+                                              .createdAt(LocalDateTime.now())
+                                              .build());
+        metadata.setUpdatedAt(LocalDateTime.now());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static LinkedHashMap<String, WarmEntry>[] newWarmOrder(int sizeClasses) {
+        LinkedHashMap<String, WarmEntry>[] order = new LinkedHashMap[sizeClasses];
+        for (int i = 0; i < sizeClasses; i++) {
+            order[i] = new LinkedHashMap<>();
+        }
+        return order;
+    }
+
+    /**
+     * 温层会话，除final字段外由warmLock保护
+     */
+    private static final class WarmEntry {
+
+        final String conversationId;
+
+        final long handle;
+
+        final int sizeClass;
+
+        final long demotedNanos = System.nanoTime();
+
+        // 块的使用方数：温层索引持有一个，换出方和取出方各持有一个，归零时释放块
+        int references = 1;
+
+        WarmEntry(String conversationId, long handle, int sizeClass) {
+            this.conversationId = conversationId;
+            this.handle = handle;
+            this.sizeClass = sizeClass;
+        }
+    }
+
+    /**
+     * 常驻会话，消息列表与字节数由entry自身的锁保护
+     */
+    private final class ConversationEntry {
+
+        final MessageLog messages = new MessageLog(tokenCounter);
+
+        // 检索索引不计入字节数，会话换出时随entry一起丢弃
+        final Bm25Index index = new Bm25Index();
+
+        volatile long bytes;
+
+        volatile long lastAccessNanos = System.nanoTime();
+
+        boolean evicted;
+
+        // 是否已从温层或换出文件完成加载
+        boolean loaded;
+
+        /**
+         * 按消息日志的估算占用（冷区为紧凑编码）同步字节数
+         */
+        void refreshBytes() {
+            long delta = messages.retainedBytes() - bytes;
+            bytes += delta;
+            residentBytes.addAndGet(delta);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package cn.apmen.jsagent.framework.memory;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * 有界内存记忆服务配置
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BoundedMemoryConfig {
+
+    /**
+     * 常驻内存的消息估算字节上限，超出时按LRU淘汰空闲会话
+     */
+    @Builder.Default
+    private long maxResidentBytes = 256L * 1024 * 1024;
+
+    /**
+     * 触发后台淘汰的高水位（占上限的比例），写入超过该水位时安排一次后台淘汰，写入本身不等待
+     */
+    @Builder.Default
+    private double evictionHighWatermark = 0.95;
+
+    /**
+     * 淘汰后回落到的水位（占上限的比例）
+     */
+    @Builder.Default
+    private double evictionLowWatermark = 0.9;
+
+    /**
+     * 会话空闲超过该时长即被换出到磁盘
+     */
+    @Builder.Default
+    private Duration idleTimeout = Duration.ofMinutes(30);
+
+    /**
+     * 超出上限时，最近在该时长内访问过的会话不会被淘汰
+     */
+    @Builder.Default
+    private Duration minIdleBeforeEviction = Duration.ofSeconds(5);
+
+    /**
+     * 空闲检查间隔
+     */
+    @Builder.Default
+    private Duration sweepInterval = Duration.ofMinutes(1);
+
+    /**
+     * 堆外温层容量，0表示不启用；启用后被淘汰的会话先降级到堆外，
+     * 温层满时换出与所需块同一尺寸等级的温层会话中最久未访问的一个到磁盘
+     */
+    @Builder.Default
+    private long maxOffHeapBytes = 0;
+
+    /**
+     * 堆外slab页大小（2的幂），也是单个会话在温层中的最大编码长度
+     */
+    @Builder.Default
+    private int offHeapSlabSize = 4 * 1024 * 1024;
+
+    /**
+     * 磁盘上保留的换出会话数上限，超出时删除最早换出的会话（连同其元数据）
+     */
+    @Builder.Default
+    private int maxSpilledConversations = 100_000;
+
+    /**
+     * 内存中保留的会话元数据条数上限，超出时丢弃最久未访问的元数据
+     */
+    @Builder.Default
+    private int maxMetadataEntries = 100_000;
+
+    /**
+     * 换出文件目录
+     */
+    @Builder.Default
+    private Path spillDirectory = Path.of(System.getProperty("java.io.tmpdir"), "js-agent-memory-spill");
+}
@@ -0,0 +1,263 @@
+package cn.apmen.jsagent.framework.memory;
+
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.exception.ErrorCode;
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.storage.MessageCodec;
+import cn.apmen.jsagent.framework.storage.SegmentStore;
+import cn.apmen.jsagent.framework.storage.SegmentStoreConfig;
+import cn.apmen.jsagent.framework.token.TokenCounter;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * 基于本地段文件的记忆服务实现（基于conversationId）
+ * 消息以二进制编码追加到内存映射段文件，重启后通过段扫描恢复
+ */
+@Slf4j
+public class FileMemoryService implements MemoryService, Closeable {
+
+    private final SegmentStore store;
+
+    private final TokenCounter tokenCounter;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    {
+        objectMapper.findAndRegisterModules();
+        objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    public FileMemoryService(Path directory) {
+        this(directory, TokenCounter.heuristic());
+    }
+
+    public FileMemoryService(Path directory, TokenCounter tokenCounter) {
+        this(new SegmentStore(SegmentStoreConfig.builder().directory(directory).build()), tokenCounter);
+    }
+
+    public FileMemoryService(SegmentStore store) {
+        this(store, TokenCounter.heuristic());
+    }
+
+    public FileMemoryService(SegmentStore store, TokenCounter tokenCounter) {
+        this.store = store;
+        this.tokenCounter = tokenCounter;
+    }
+
+    @Override
+    public Mono<Void> addMessage(String conversationId, Message message) {
+        return Mono.defer(() -> {
+            CompletableFuture<Void> created = ensureMetadata(conversationId);
+            return awaitWrite(CompletableFuture.allOf(created, store.append(conversationId, MessageCodec.encode(message))));
+        }).doOnSuccess(v -> log.debug("Added message to file memory: conversation={}, role={}",
+            conversationId, message.getRole()));
+    }
+
+    @Override
+    public Mono<Void> addMessages(String conversationId, List<Message> messages) {
+        if (messages == null || messages.isEmpty()) {
+            return Mono.empty();
+        }
+        return Mono.defer(() -> {
+            CompletableFuture<Void> created = ensureMetadata(conversationId);
+            List<byte[]> payloads = messages.stream().map(MessageCodec::encode).collect(Collectors.toList());
+            return awaitWrite(CompletableFuture.allOf(created, store.appendAll(conversationId, payloads)));
+        });
+    }
+
+    @Override
+    public Mono<List<Message>> getMemoryHistory(String conversationId) {
+        return Mono.fromCallable(() -> decode(store.read(conversationId)));
+    }
+
+    @Override
+    public Mono<List<Message>> getRecentMemory(String conversationId, int limit) {
+        return Mono.fromCallable(() -> decode(store.readRecent(conversationId, limit)));
+    }
+
+    @Override
+    public Mono<List<Message>> getContextMemory(String conversationId, int maxTokens, String systemPrompt) {
+        return Mono.fromCallable(() -> {
+            List<ByteBuffer> payloads = store.read(conversationId);
+            int systemPromptTokens = systemPrompt != null ? tokenCounter.countTokens(systemPrompt) : 0;
+            int availableTokens = maxTokens - systemPromptTokens;
+
+            // 从最新消息开始向前解码，直到达到token限制（至少保留最新一条）
+            List<Message> window = new ArrayList<>();
+            int usedTokens = 0;
+            for (int i = payloads.size() - 1; i >= 0; i--) {
+                Message message = MessageCodec.decode(payloads.get(i));
+                usedTokens += tokenCounter.countMessageTokens(message);
+                if (usedTokens > availableTokens && !window.isEmpty()) {
+                    break;
+                }
+                window.add(message);
+            }
+            Collections.reverse(window);
+            return window;
+        });
+    }
+
+    @Override
+    public Flux<Message> streamMemoryHistory(String conversationId) {
+        return getMemoryHistory(conversationId).flatMapMany(Flux::fromIterable);
+    }
+
+    @Override
+    public Mono<Void> clearMemory(String conversationId) {
+        return Mono.defer(() -> awaitWrite(store.delete(conversationId)))
+            .doOnSuccess(v -> log.debug("Cleared file memory for conversation: {}", conversationId));
+    }
+
+    @Override
+    public Mono<MemoryStats> getMemoryStats(String conversationId) {
+        return Mono.fromCallable(() -> {
+            List<Message> messages = decode(store.read(conversationId));
+            if (messages.isEmpty()) {
+                return MemoryStats.builder()
+                    .totalMessages(0)
+                    .build();
+            }
+
+            Map<String, Long> roleCount = messages.stream()
+                .collect(Collectors.groupingBy(Message::getRole, Collectors.counting()));
+
+            MemoryMetadata metadata = readMetadata(conversationId);
+            LocalDateTime firstTime = metadata != null && metadata.getCreatedAt() != null ? metadata.getCreatedAt() : LocalDateTime.now();
+            LocalDateTime lastTime = metadata != null && metadata.getUpdatedAt() != null ? metadata.getUpdatedAt() : firstTime;
+
+            return MemoryStats.builder()
+                .totalMessages(messages.size())
+                .userMessages(roleCount.getOrDefault("user", 0L).intValue())
+                .assistantMessages(roleCount.getOrDefault("assistant", 0L).intValue())
+                .toolMessages(roleCount.getOrDefault("tool", 0L).intValue())
+                .systemMessages(roleCount.getOrDefault("system", 0L).intValue())
+                .estimatedTokens(messages.stream().mapToInt(tokenCounter::countMessageTokens).sum())
+                .firstMessageTime(firstTime)
+                .lastMessageTime(lastTime)
+                .sessionDurationMinutes(ChronoUnit.MINUTES.between(firstTime, lastTime))
+                .compressed(false)
+                .build();
+        });
+    }
+
+    @Override
+    public Mono<Void> compressMemory(String conversationId, int keepRecentCount) {
+        // 截断记录只移动链头，被截断的消息由后台段压缩回收
+        return Mono.defer(() -> awaitWrite(store.truncate(conversationId, keepRecentCount)))
+            .doOnSuccess(v -> log.debug("Compressed file memory for conversation: {}, kept {} recent messages",
+                conversationId, keepRecentCount));
+    }
+
+    @Override
+    public Mono<Boolean> memoryExists(String conversationId) {
+        return Mono.fromCallable(() -> store.count(conversationId) > 0);
+    }
+
+    @Override
+    public Mono<Void> setMemoryMetadata(String conversationId, MemoryMetadata metadata) {
+        return Mono.defer(() -> awaitWrite(store.putMetadata(conversationId, writeMetadata(metadata))));
+    }
+
+    @Override
+    public Mono<MemoryMetadata> getMemoryMetadata(String conversationId) {
+        return Mono.fromCallable(() -> readMetadata(conversationId));
+    }
+
+    @Override
+    public Mono<List<Message>> searchMemory(String conversationId, String query, int limit) {
+        return Mono.fromCallable(() -> {
+            if (query == null || query.trim().isEmpty()) {
+                return new ArrayList<>();
+            }
+            String lowerQuery = query.toLowerCase();
+            return decode(store.read(conversationId)).stream()
+                .filter(message -> message.getContent() != null &&
+                                 message.getContent().toLowerCase().contains(lowerQuery))
+                .limit(limit)
+                .collect(Collectors.toList());
+        });
+    }
+
+    /**
+     * 获取底层存储统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        return store.getStatistics();
+    }
+
+    @Override
+    public void close() {
+        store.close();
+    }
+
+    private static List<Message> decode(List<ByteBuffer> payloads) {
+        List<Message> messages = new ArrayList<>(payloads.size());
+        for (ByteBuffer payload : payloads) {
+            messages.add(MessageCodec.decode(payload));
+        }
+        return messages;
+    }
+
+    /**
+     * 首次写入时创建元数据，之后不随每条消息重写，避免写放大
+     */
+    private CompletableFuture<Void> ensureMetadata(String conversationId) {
+        return store.putMetadataIfAbsent(conversationId, () -> {
+            LocalDateTime now = LocalDateTime.now();
+            return writeMetadata(MemoryMetadata.builder()
+                .createdAt(now)
+                .updatedAt(now)
+                .build());
+        });
+    }
+
+    /**
+     * 等待写入确认；组提交模式下future在刷盘线程上完成，下游切回弹性线程池，避免阻塞刷盘线程
+     */
+    private static Mono<Void> awaitWrite(CompletableFuture<Void> future) {
+        return Mono.fromFuture(future).publishOn(Schedulers.boundedElastic());
+    }
+
+    private MemoryMetadata readMetadata(String conversationId) {
+        ByteBuffer payload = store.readMetadata(conversationId);
+        if (payload == null) {
+            return null;
+        }
+        try {
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            return objectMapper.readValue(bytes, MemoryMetadata.class);
+        } catch (IOException e) {
+            throw new AgentException(ErrorCode.STORAGE_CORRUPTED, "Invalid memory metadata for " + conversationId, e);
+        }
+    }
+
+    private byte[] writeMetadata(MemoryMetadata metadata) {
+        try {
+            return objectMapper.writeValueAsBytes(metadata);
+        } catch (IOException e) {
+            throw new AgentException(ErrorCode.STORAGE_IO_FAILED, "Failed to encode memory metadata", e);
+        }
+    }
+}
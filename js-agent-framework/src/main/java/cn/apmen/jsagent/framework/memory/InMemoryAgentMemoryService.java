@@ -1,83 +1,124 @@
 package cn.apmen.jsagent.framework.memory;
 
 import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.search.Bm25Index;
+import cn.apmen.jsagent.framework.snapshot.ChangeTracker;
+import cn.apmen.jsagent.framework.snapshot.Snapshottable;
+import cn.apmen.jsagent.framework.storage.MessageLog;
+import cn.apmen.jsagent.framework.token.TokenCounter;
+import cn.apmen.jsagent.framework.vector.Embedder;
+import cn.apmen.jsagent.framework.vector.VectorMemoryConfig;
+import cn.apmen.jsagent.framework.vector.VectorMemoryStore;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Base64;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
  * 基于内存的记忆服务实现
  * 适用于开发和测试环境
+ *
+ * 配置向量化器后启用向量长期记忆：user/assistant消息同时写入按agentId划分的HNSW索引，
+ * 会话压缩不影响该层，getRelevantMemory按语义相似度召回
+ *
+ * 会话记忆可由 {@link cn.apmen.jsagent.framework.snapshot.StateSnapshotter} 定期快照，快照键为 agentId + '\0' + sessionId；
+ * 向量长期记忆有自己的持久化（VectorMemoryConfig.directory），不进入快照
  */
 @Slf4j
-public class InMemoryAgentMemoryService implements AgentMemoryService {
+public class InMemoryAgentMemoryService implements AgentMemoryService, Closeable, Snapshottable<MemoryMetadata> {
 
     // 存储结构：agentId -> sessionId -> messages
-    private final Map<String, Map<String, List<Message>>> memoryStore = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, SessionMemory>> memoryStore = new ConcurrentHashMap<>();
 
     // 元数据存储：agentId -> sessionId -> metadata
     private final Map<String, Map<String, MemoryMetadata>> metadataStore = new ConcurrentHashMap<>();
 
+    // 单独修改过元数据的会话（快照键），供增量快照使用
+    private final ChangeTracker metadataChanges = new ChangeTracker();
+
+    private static final char SNAPSHOT_KEY_SEPARATOR = '\0';
+
     // 默认配置
     private static final int DEFAULT_SHORT_TERM_LIMIT = 20;
     private static final int DEFAULT_CONTEXT_TOKEN_LIMIT = 4000;
-    private static final int ESTIMATED_TOKENS_PER_MESSAGE = 50; // 粗略估算
+
+    // Token计数器
+    private final TokenCounter tokenCounter;
+
+    // 向量长期记忆：agentId -> store，未配置向量化器时为空
+    // 打开存储（回放文件）在boundedElastic上执行，map里只放缓存的Mono，不在computeIfAbsent内做IO
+    private final Embedder embedder;
+    private final VectorMemoryConfig vectorConfig;
+    private final Map<String, Mono<VectorMemoryStore>> vectorStores = new ConcurrentHashMap<>();
+    private final Map<String, VectorMemoryStore> openVectorStores = new ConcurrentHashMap<>();
+
+    public InMemoryAgentMemoryService() {
+        this(TokenCounter.heuristic());
+    }
+
+    public InMemoryAgentMemoryService(TokenCounter tokenCounter) {
+        this(tokenCounter, null, null);
+    }
+
+    public InMemoryAgentMemoryService(TokenCounter tokenCounter, Embedder embedder, VectorMemoryConfig vectorConfig) {
+        this.tokenCounter = tokenCounter;
+        this.embedder = embedder;
+        this.vectorConfig = vectorConfig != null ? vectorConfig : new VectorMemoryConfig();
+    }
 
     @Override
     public Mono<Void> addMessage(String agentId, String sessionId, Message message) {
         return Mono.fromRunnable(() -> {
-            memoryStore.computeIfAbsent(agentId, k -> new ConcurrentHashMap<>())
-                      .computeIfAbsent(sessionId, k -> Collections.synchronizedList(new ArrayList<>()))
-                      .add(message);
+            SessionMemory session = getOrCreateSession(agentId, sessionId);
+            session.messages.append(message);
+            session.index.sync(session.messages);
 
             // 更新元数据
             updateMetadata(agentId, sessionId);
 
             log.debug("Added message to memory: agent={}, session={}, role={}",
                      agentId, sessionId, message.getRole());
-        });
+        }).then(addToVectorMemory(agentId, sessionId, List.of(message)));
     }
 
     @Override
     public Mono<Void> addMessages(String agentId, String sessionId, List<Message> messages) {
+        if (messages == null || messages.isEmpty()) {
+            return Mono.empty();
+        }
         return Mono.fromRunnable(() -> {
-            if (messages == null || messages.isEmpty()) {
-                return;
-            }
-
-            memoryStore.computeIfAbsent(agentId, k -> new ConcurrentHashMap<>())
-                      .computeIfAbsent(sessionId, k -> Collections.synchronizedList(new ArrayList<>()))
-                      .addAll(messages);
+            SessionMemory session = getOrCreateSession(agentId, sessionId);
+            session.messages.appendAll(messages);
+            session.index.sync(session.messages);
 
             // 更新元数据
             updateMetadata(agentId, sessionId);
 
             log.debug("Added {} messages to memory: agent={}, session={}",
                      messages.size(), agentId, sessionId);
-        });
+        }).then(addToVectorMemory(agentId, sessionId, messages));
     }
 
     @Override
     public Mono<List<Message>> getShortTermMemory(String agentId, String sessionId, int limit) {
         return Mono.fromCallable(() -> {
-            List<Message> messages = getMessagesForSession(agentId, sessionId);
-            if (messages.isEmpty()) {
-                return new ArrayList<>();
-            }
-
-            int actualLimit = Math.min(limit, messages.size());
-            int startIndex = Math.max(0, messages.size() - actualLimit);
-
-            return new ArrayList<>(messages.subList(startIndex, messages.size()));
+            SessionMemory session = getSession(agentId, sessionId);
+            return session != null ? new ArrayList<>(session.messages.recent(limit)) : new ArrayList<>();
         });
     }
 
@@ -89,23 +130,17 @@ public class InMemoryAgentMemoryService implements AgentMemoryService {
     @Override
     public Mono<List<Message>> getContextMemory(String agentId, String sessionId, int maxTokens, String systemPrompt) {
         return Mono.fromCallable(() -> {
-            List<Message> messages = getMessagesForSession(agentId, sessionId);
-            if (messages.isEmpty()) {
+            SessionMemory session = getSession(agentId, sessionId);
+            if (session == null || session.messages.isEmpty()) {
                 return new ArrayList<>();
             }
 
-            // 简单的token估算策略
-            int systemPromptTokens = systemPrompt != null ? systemPrompt.length() / 4 : 0;
+            int systemPromptTokens = systemPrompt != null ? tokenCounter.countTokens(systemPrompt) : 0;
             int availableTokens = maxTokens - systemPromptTokens;
-            int maxMessages = Math.max(1, availableTokens / ESTIMATED_TOKENS_PER_MESSAGE);
-
-            if (messages.size() <= maxMessages) {
-                return new ArrayList<>(messages);
-            }
 
-            // 保留最近的消息
-            int startIndex = messages.size() - maxMessages;
-            return new ArrayList<>(messages.subList(startIndex, messages.size()));
+            // 按前缀和定位窗口起点（至少保留最新一条）
+            List<Message> window = session.messages.contextWindow(availableTokens);
+            return new ArrayList<>(window.isEmpty() ? session.messages.recent(1) : window);
         });
     }
 
@@ -117,7 +152,7 @@ public class InMemoryAgentMemoryService implements AgentMemoryService {
     @Override
     public Mono<Void> clearSessionMemory(String agentId, String sessionId) {
         return Mono.fromRunnable(() -> {
-            Map<String, List<Message>> agentMemory = memoryStore.get(agentId);
+            Map<String, SessionMemory> agentMemory = memoryStore.get(agentId);
             if (agentMemory != null) {
                 agentMemory.remove(sessionId);
             }
@@ -128,7 +163,7 @@ public class InMemoryAgentMemoryService implements AgentMemoryService {
             }
 
             log.debug("Cleared session memory: agent={}, session={}", agentId, sessionId);
-        });
+        }).then(embedder == null ? Mono.empty() : withVectorStore(agentId, store -> store.removeSession(sessionId)));
     }
 
     @Override
@@ -137,7 +172,12 @@ public class InMemoryAgentMemoryService implements AgentMemoryService {
             memoryStore.remove(agentId);
             metadataStore.remove(agentId);
             log.debug("Cleared all memory for agent: {}", agentId);
-        });
+        }).then(embedder == null ? Mono.empty() : withVectorStore(agentId, store -> {
+            // 本进程未打开过的持久化存储也要删除其文件，因此先打开再删除
+            vectorStores.remove(agentId);
+            openVectorStores.remove(agentId, store);
+            store.delete();
+        }));
     }
 
     @Override
@@ -163,7 +203,7 @@ public class InMemoryAgentMemoryService implements AgentMemoryService {
                 .assistantMessages(roleCount.getOrDefault("assistant", 0L).intValue())
                 .toolMessages(roleCount.getOrDefault("tool", 0L).intValue())
                 .systemMessages(roleCount.getOrDefault("system", 0L).intValue())
-                .estimatedTokens(messages.size() * ESTIMATED_TOKENS_PER_MESSAGE)
+                .estimatedTokens(messages.stream().mapToInt(tokenCounter::countMessageTokens).sum())
                 .firstMessageTime(firstTime)
                 .lastMessageTime(lastTime)
                 .sessionDurationMinutes(ChronoUnit.MINUTES.between(firstTime, lastTime))
@@ -175,10 +215,11 @@ public class InMemoryAgentMemoryService implements AgentMemoryService {
     @Override
     public Mono<Void> compressMemory(String agentId, String sessionId, int keepRecentCount) {
         return Mono.fromRunnable(() -> {
-            List<Message> messages = getMessagesForSession(agentId, sessionId);
-            if (messages.size() <= keepRecentCount) {
+            SessionMemory session = getSession(agentId, sessionId);
+            if (session == null || session.messages.size() <= keepRecentCount) {
                 return;
             }
+            List<Message> messages = session.messages.snapshot();
 
             // 简单压缩：只保留最近的消息
             List<Message> recentMessages = messages.subList(
@@ -189,12 +230,12 @@ public class InMemoryAgentMemoryService implements AgentMemoryService {
                 String.format("[COMPRESSED] Removed %d older messages, kept recent %d messages",
                     messages.size() - keepRecentCount, keepRecentCount));
 
-            // 更新存储
-            List<Message> newMessages = Collections.synchronizedList(new ArrayList<>());
+            // 更新存储（索引在下次访问时随generation变化重建）
+            List<Message> newMessages = new ArrayList<>(recentMessages.size() + 1);
             newMessages.add(compressionSummary);
             newMessages.addAll(recentMessages);
 
-            memoryStore.get(agentId).put(sessionId, newMessages);
+            session.messages.replace(newMessages);
 
             log.debug("Compressed memory: agent={}, session={}, kept={}, removed={}",
                      agentId, sessionId, keepRecentCount, messages.size() - keepRecentCount);
@@ -204,9 +245,8 @@ public class InMemoryAgentMemoryService implements AgentMemoryService {
     @Override
     public Mono<Boolean> hasSessionMemory(String agentId, String sessionId) {
         return Mono.fromCallable(() -> {
-            Map<String, List<Message>> agentMemory = memoryStore.get(agentId);
-            return agentMemory != null && agentMemory.containsKey(sessionId)
-                   && !agentMemory.get(sessionId).isEmpty();
+            SessionMemory session = getSession(agentId, sessionId);
+            return session != null && !session.messages.isEmpty();
         });
     }
 
@@ -215,6 +255,7 @@ public class InMemoryAgentMemoryService implements AgentMemoryService {
         return Mono.fromRunnable(() -> {
             metadataStore.computeIfAbsent(agentId, k -> new ConcurrentHashMap<>())
                         .put(sessionId, metadata);
+            metadataChanges.mark(snapshotKey(agentId, sessionId));
             log.debug("Set memory metadata: agent={}, session={}", agentId, sessionId);
         });
     }
@@ -233,31 +274,199 @@ public class InMemoryAgentMemoryService implements AgentMemoryService {
     @Override
     public Mono<List<Message>> searchMemory(String agentId, String sessionId, String query, int limit) {
         return Mono.fromCallable(() -> {
-            List<Message> messages = getMessagesForSession(agentId, sessionId);
-            if (messages.isEmpty() || query == null || query.trim().isEmpty()) {
+            SessionMemory session = getSession(agentId, sessionId);
+            if (session == null || query == null || query.trim().isEmpty()) {
                 return new ArrayList<>();
             }
 
-            String lowerQuery = query.toLowerCase();
-            return messages.stream()
-                .filter(message -> message.getContent() != null &&
-                                 message.getContent().toLowerCase().contains(lowerQuery))
-                .limit(limit)
-                .collect(Collectors.toList());
+            // 先补齐索引（压缩后会重建），再按BM25排序取前limit条
+            session.index.sync(session.messages);
+            return new ArrayList<>(session.index.search(query, limit));
+        });
+    }
+
+    @Override
+    public Mono<List<Message>> getRelevantMemory(String agentId, String sessionId, String query, int k) {
+        if (embedder == null) {
+            return searchMemory(agentId, sessionId, query, k);
+        }
+        if (query == null || query.trim().isEmpty() || k <= 0) {
+            return Mono.just(new ArrayList<>());
+        }
+        // 向量化与图搜索都是CPU密集的同步调用，放到boundedElastic上执行
+        return vectorStore(agentId)
+            .publishOn(Schedulers.boundedElastic())
+            .map(store -> new ArrayList<>(store.search(embedder.embed(query), k, sessionId)));
+    }
+
+    /**
+     * 获取向量长期记忆统计信息
+     */
+    public Map<String, Object> getVectorStatistics(String agentId) {
+        VectorMemoryStore store = openVectorStores.get(agentId);
+        return store != null ? store.getStatistics() : Map.of();
+    }
+
+    @Override
+    public String snapshotName() {
+        return "agent-memory";
+    }
+
+    @Override
+    public Class<MemoryMetadata> metadataType() {
+        return MemoryMetadata.class;
+    }
+
+    @Override
+    public Set<String> snapshotKeys() {
+        Set<String> keys = new HashSet<>();
+        memoryStore.forEach((agentId, sessions) -> sessions.keySet()
+            .forEach(sessionId -> keys.add(snapshotKey(agentId, sessionId))));
+        metadataStore.forEach((agentId, sessions) -> sessions.keySet()
+            .forEach(sessionId -> keys.add(snapshotKey(agentId, sessionId))));
+        return keys;
+    }
+
+    @Override
+    public MessageLog snapshotLog(String key) {
+        int split = key.indexOf(SNAPSHOT_KEY_SEPARATOR);
+        SessionMemory session = getSession(key.substring(0, split), key.substring(split + 1));
+        return session != null ? session.messages : null;
+    }
+
+    @Override
+    public MemoryMetadata snapshotMetadata(String key) {
+        int split = key.indexOf(SNAPSHOT_KEY_SEPARATOR);
+        Map<String, MemoryMetadata> agentMetadata = metadataStore.get(key.substring(0, split));
+        return agentMetadata != null ? agentMetadata.get(key.substring(split + 1)) : null;
+    }
+
+    @Override
+    public void drainMetadataChanges(Consumer<String> consumer) {
+        metadataChanges.drain(consumer);
+    }
+
+    @Override
+    public void restoreSnapshot(String key, List<Message> messages, MemoryMetadata metadata) {
+        int split = key.indexOf(SNAPSHOT_KEY_SEPARATOR);
+        String agentId = key.substring(0, split);
+        String sessionId = key.substring(split + 1);
+        if (messages != null) {
+            // 检索索引在首次检索或追加时补齐
+            MessageLog messageLog = new MessageLog(tokenCounter);
+            messageLog.appendAll(messages);
+            memoryStore.computeIfAbsent(agentId, k -> new ConcurrentHashMap<>())
+                       .put(sessionId, new SessionMemory(messageLog));
+        }
+        if (metadata != null) {
+            metadataStore.computeIfAbsent(agentId, k -> new ConcurrentHashMap<>())
+                         .put(sessionId, metadata);
+        }
+    }
+
+    /**
+     * 只删除会话记忆，向量长期记忆按Agent保存在本节点，不随会话移交
+     */
+    @Override
+    public void removeSnapshotEntry(String key) {
+        int split = key.indexOf(SNAPSHOT_KEY_SEPARATOR);
+        String agentId = key.substring(0, split);
+        String sessionId = key.substring(split + 1);
+        Map<String, SessionMemory> agentMemory = memoryStore.get(agentId);
+        if (agentMemory != null) {
+            agentMemory.remove(sessionId);
+        }
+        Map<String, MemoryMetadata> agentMetadata = metadataStore.get(agentId);
+        if (agentMetadata != null) {
+            agentMetadata.remove(sessionId);
+        }
+    }
+
+    @Override
+    public String routingKey(String key) {
+        return key.substring(key.indexOf(SNAPSHOT_KEY_SEPARATOR) + 1);
+    }
+
+    /**
+     * 关闭向量存储，写出图快照
+     */
+    @Override
+    public void close() {
+        vectorStores.clear();
+        openVectorStores.values().forEach(VectorMemoryStore::close);
+        openVectorStores.clear();
+    }
+
+    /**
+     * 只有带正文的user/assistant消息进入向量记忆，工具结果与system消息不参与召回
+     */
+    private Mono<Void> addToVectorMemory(String agentId, String sessionId, List<Message> messages) {
+        if (embedder == null) {
+            return Mono.empty();
+        }
+        List<Message> recallable = messages.stream()
+            .filter(message -> message.getContent() != null && !message.getContent().isBlank()
+                && ("user".equals(message.getRole()) || "assistant".equals(message.getRole())))
+            .collect(Collectors.toList());
+        if (recallable.isEmpty()) {
+            return Mono.empty();
+        }
+        return withVectorStore(agentId, store -> {
+            for (Message message : recallable) {
+                store.add(sessionId, message, embedder.embed(message.getContent()));
+            }
         });
     }
 
+    /**
+     * 在boundedElastic上对Agent的向量存储执行同步操作（向量化、写文件）
+     */
+    private Mono<Void> withVectorStore(String agentId, Consumer<VectorMemoryStore> action) {
+        return vectorStore(agentId)
+            .publishOn(Schedulers.boundedElastic())
+            .doOnNext(action)
+            .then();
+    }
+
+    /**
+     * 获取（必要时打开）Agent的向量存储，配置了目录时从文件恢复
+     * 打开只执行一次，并发调用方共享同一个结果；打开失败时不缓存，下次调用重试
+     */
+    private Mono<VectorMemoryStore> vectorStore(String agentId) {
+        return vectorStores.computeIfAbsent(agentId, id -> Mono.fromCallable(() -> openVectorStore(id))
+            .subscribeOn(Schedulers.boundedElastic())
+            .doOnNext(store -> openVectorStores.put(id, store))
+            // 成功结果永久缓存，失败不缓存
+            .cache(store -> Duration.ofMillis(Long.MAX_VALUE), error -> Duration.ZERO, () -> Duration.ZERO));
+    }
+
+    private VectorMemoryStore openVectorStore(String agentId) {
+        return vectorConfig.getDirectory() == null
+            ? new VectorMemoryStore(embedder.dimension(), vectorConfig)
+            : new VectorMemoryStore(embedder.dimension(), vectorConfig,
+                Base64.getUrlEncoder().withoutPadding().encodeToString(agentId.getBytes(StandardCharsets.UTF_8)));
+    }
+
     /**
      * 获取指定会话的消息列表
      */
     private List<Message> getMessagesForSession(String agentId, String sessionId) {
-        Map<String, List<Message>> agentMemory = memoryStore.get(agentId);
-        if (agentMemory == null) {
-            return new ArrayList<>();
-        }
+        SessionMemory session = getSession(agentId, sessionId);
+        return session != null ? session.messages.snapshot() : new ArrayList<>();
+    }
+
+    private SessionMemory getSession(String agentId, String sessionId) {
+        Map<String, SessionMemory> agentMemory = memoryStore.get(agentId);
+        return agentMemory != null ? agentMemory.get(sessionId) : null;
+    }
+
+    private SessionMemory getOrCreateSession(String agentId, String sessionId) {
+        return memoryStore.computeIfAbsent(agentId, k -> new ConcurrentHashMap<>())
+                          .computeIfAbsent(sessionId, k -> new SessionMemory(new MessageLog(tokenCounter)));
+    }
 
-        List<Message> messages = agentMemory.get(sessionId);
-        return messages != null ? messages : new ArrayList<>();
+    private static String snapshotKey(String agentId, String sessionId) {
+        return agentId + SNAPSHOT_KEY_SEPARATOR + sessionId;
     }
 
     /**
@@ -271,5 +480,16 @@ public class InMemoryAgentMemoryService implements AgentMemoryService {
 
         metadata.setUpdatedAt(LocalDateTime.now());
     }
-}
 
+    /**
+     * 单个会话的消息与检索索引
+     */
+    private static final class SessionMemory {
+        private final MessageLog messages;
+        private final Bm25Index index = new Bm25Index();
+
+        private SessionMemory(MessageLog messages) {
+            this.messages = messages;
+        }
+    }
+}
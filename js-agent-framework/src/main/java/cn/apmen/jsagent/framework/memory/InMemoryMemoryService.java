@@ -1,45 +1,83 @@
 package cn.apmen.jsagent.framework.memory;
 
+import cn.apmen.jsagent.framework.compaction.BackgroundCompactor;
+import cn.apmen.jsagent.framework.compaction.CompactionResult;
 import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.search.Bm25Index;
+import cn.apmen.jsagent.framework.snapshot.ChangeTracker;
+import cn.apmen.jsagent.framework.snapshot.Snapshottable;
+import cn.apmen.jsagent.framework.storage.MessageLog;
+import cn.apmen.jsagent.framework.token.TokenCounter;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
  * 基于内存的记忆服务实现（基于conversationId）
  * 适用于开发和测试环境
+ * 查询返回的消息列表均为只读视图
+ * 可由 {@link cn.apmen.jsagent.framework.snapshot.StateSnapshotter} 定期快照，重启后恢复
  */
 @Slf4j
-public class InMemoryMemoryService implements MemoryService {
+public class InMemoryMemoryService implements MemoryService, Snapshottable<MemoryMetadata> {
 
     // 存储结构：conversationId -> messages
-    private final Map<String, List<Message>> memoryStore = new ConcurrentHashMap<>();
+    private final Map<String, MessageLog> memoryStore = new ConcurrentHashMap<>();
+
+    // 检索索引：conversationId -> BM25倒排索引
+    private final Map<String, Bm25Index> searchIndexes = new ConcurrentHashMap<>();
 
     // 元数据存储：conversationId -> metadata
     private final Map<String, MemoryMetadata> metadataStore = new ConcurrentHashMap<>();
 
+    // 单独修改过元数据的会话，供增量快照使用
+    private final ChangeTracker metadataChanges = new ChangeTracker();
+
     // 默认配置
     private static final int DEFAULT_RECENT_LIMIT = 20;
     private static final int DEFAULT_CONTEXT_TOKEN_LIMIT = 4000;
-    private static final int ESTIMATED_TOKENS_PER_MESSAGE = 50; // 粗略估算
+
+    // Token计数器
+    private final TokenCounter tokenCounter;
+
+    // 后台摘要压缩器，为空时compressMemory退化为只保留最近消息
+    private final BackgroundCompactor compactor;
+
+    public InMemoryMemoryService() {
+        this(TokenCounter.heuristic());
+    }
+
+    public InMemoryMemoryService(TokenCounter tokenCounter) {
+        this(tokenCounter, null);
+    }
+
+    public InMemoryMemoryService(TokenCounter tokenCounter, BackgroundCompactor compactor) {
+        this.tokenCounter = tokenCounter;
+        this.compactor = compactor;
+    }
 
     @Override
     public Mono<Void> addMessage(String conversationId, Message message) {
         return Mono.fromRunnable(() -> {
-            memoryStore.computeIfAbsent(conversationId, k -> Collections.synchronizedList(new ArrayList<>()))
-                      .add(message);
+            MessageLog messageLog = memoryStore.computeIfAbsent(conversationId, k -> new MessageLog(tokenCounter));
+            messageLog.append(message);
+            searchIndexes.computeIfAbsent(conversationId, k -> new Bm25Index()).sync(messageLog);
 
             // 更新元数据
             updateMetadata(conversationId);
+            if (compactor != null) {
+                compactor.maybeCompact(conversationId, messageLog);
+            }
 
             log.debug("Added message to memory: conversation={}, role={}",
                      conversationId, message.getRole());
@@ -53,11 +91,15 @@ public class InMemoryMemoryService implements MemoryService {
                 return;
             }
 
-            memoryStore.computeIfAbsent(conversationId, k -> Collections.synchronizedList(new ArrayList<>()))
-                      .addAll(messages);
+            MessageLog messageLog = memoryStore.computeIfAbsent(conversationId, k -> new MessageLog(tokenCounter));
+            messageLog.appendAll(messages);
+            searchIndexes.computeIfAbsent(conversationId, k -> new Bm25Index()).sync(messageLog);
 
             // 更新元数据
             updateMetadata(conversationId);
+            if (compactor != null) {
+                compactor.maybeCompact(conversationId, messageLog);
+            }
 
             log.debug("Added {} messages to memory: conversation={}",
                      messages.size(), conversationId);
@@ -66,44 +108,31 @@ public class InMemoryMemoryService implements MemoryService {
 
     @Override
     public Mono<List<Message>> getMemoryHistory(String conversationId) {
-        return Mono.fromCallable(() -> new ArrayList<>(getMessagesForConversation(conversationId)));
+        return Mono.fromCallable(() -> getMessagesForConversation(conversationId));
     }
 
     @Override
     public Mono<List<Message>> getRecentMemory(String conversationId, int limit) {
         return Mono.fromCallable(() -> {
-            List<Message> messages = getMessagesForConversation(conversationId);
-            if (messages.isEmpty()) {
-                return new ArrayList<>();
-            }
-
-            int actualLimit = Math.min(limit, messages.size());
-            int startIndex = Math.max(0, messages.size() - actualLimit);
-
-            return new ArrayList<>(messages.subList(startIndex, messages.size()));
+            MessageLog messageLog = memoryStore.get(conversationId);
+            return messageLog != null ? messageLog.recent(limit) : List.of();
         });
     }
 
     @Override
     public Mono<List<Message>> getContextMemory(String conversationId, int maxTokens, String systemPrompt) {
         return Mono.fromCallable(() -> {
-            List<Message> messages = getMessagesForConversation(conversationId);
-            if (messages.isEmpty()) {
-                return new ArrayList<>();
+            MessageLog messageLog = memoryStore.get(conversationId);
+            if (messageLog == null) {
+                return List.of();
             }
 
-            // 简单的token估算策略
-            int systemPromptTokens = systemPrompt != null ? systemPrompt.length() / 4 : 0;
+            int systemPromptTokens = systemPrompt != null ? tokenCounter.countTokens(systemPrompt) : 0;
             int availableTokens = maxTokens - systemPromptTokens;
-            int maxMessages = Math.max(1, availableTokens / ESTIMATED_TOKENS_PER_MESSAGE);
 
-            if (messages.size() <= maxMessages) {
-                return new ArrayList<>(messages);
-            }
-
-            // 保留最近的消息
-            int startIndex = messages.size() - maxMessages;
-            return new ArrayList<>(messages.subList(startIndex, messages.size()));
+            // 按前缀和二分定位窗口起点（至少保留最新一条）
+            List<Message> window = messageLog.contextWindow(availableTokens);
+            return window.isEmpty() ? messageLog.recent(1) : window;
         });
     }
 
@@ -116,6 +145,7 @@ public class InMemoryMemoryService implements MemoryService {
     public Mono<Void> clearMemory(String conversationId) {
         return Mono.fromRunnable(() -> {
             memoryStore.remove(conversationId);
+            searchIndexes.remove(conversationId);
             metadataStore.remove(conversationId);
             log.debug("Cleared memory for conversation: {}", conversationId);
         });
@@ -124,7 +154,8 @@ public class InMemoryMemoryService implements MemoryService {
     @Override
     public Mono<MemoryStats> getMemoryStats(String conversationId) {
         return Mono.fromCallable(() -> {
-            List<Message> messages = getMessagesForConversation(conversationId);
+            MessageLog messageLog = memoryStore.get(conversationId);
+            List<Message> messages = messageLog != null ? messageLog.snapshot() : List.of();
             if (messages.isEmpty()) {
                 return MemoryStats.builder()
                     .totalMessages(0)
@@ -144,7 +175,7 @@ public class InMemoryMemoryService implements MemoryService {
                 .assistantMessages(roleCount.getOrDefault("assistant", 0L).intValue())
                 .toolMessages(roleCount.getOrDefault("tool", 0L).intValue())
                 .systemMessages(roleCount.getOrDefault("system", 0L).intValue())
-                .estimatedTokens(messages.size() * ESTIMATED_TOKENS_PER_MESSAGE)
+                .estimatedTokens((int) messageLog.totalTokens())
                 .firstMessageTime(firstTime)
                 .lastMessageTime(lastTime)
                 .sessionDurationMinutes(ChronoUnit.MINUTES.between(firstTime, lastTime))
@@ -155,26 +186,30 @@ public class InMemoryMemoryService implements MemoryService {
 
     @Override
     public Mono<Void> compressMemory(String conversationId, int keepRecentCount) {
-        return Mono.fromRunnable(() -> {
-            List<Message> messages = getMessagesForConversation(conversationId);
-            if (messages.size() <= keepRecentCount) {
-                return;
+        return Mono.defer(() -> {
+            MessageLog messageLog = memoryStore.get(conversationId);
+            if (messageLog == null || messageLog.size() <= keepRecentCount) {
+                return Mono.<Void>empty();
             }
-
-            // 简单的压缩策略：只保留最近的消息
-            List<Message> recentMessages = messages.subList(
-                messages.size() - keepRecentCount, messages.size());
-
-            memoryStore.put(conversationId, Collections.synchronizedList(new ArrayList<>(recentMessages)));
-
-            // 更新元数据
-            MemoryMetadata metadata = metadataStore.get(conversationId);
-            if (metadata != null) {
-                metadata.setUpdatedAt(LocalDateTime.now());
+            if (compactor == null) {
+                // 简单的压缩策略：只保留最近的消息
+                messageLog.retainRecent(keepRecentCount);
+                onCompressed(conversationId, keepRecentCount);
+                return Mono.<Void>empty();
             }
 
-            log.debug("Compressed memory for conversation: {}, kept {} recent messages",
-                     conversationId, keepRecentCount);
+            // 摘要较早的消息，只有摘要调用失败时才退化为只保留最近的消息；
+            // 已有压缩在执行、无可摘要内容或并发冲突时保留原历史
+            return compactor.compact(conversationId, messageLog, keepRecentCount)
+                .doOnNext(result -> {
+                    if (result == CompactionResult.FAILED) {
+                        messageLog.retainRecent(keepRecentCount);
+                    }
+                    if (result == CompactionResult.SUMMARIZED || result == CompactionResult.FAILED) {
+                        onCompressed(conversationId, keepRecentCount);
+                    }
+                })
+                .then();
         });
     }
 
@@ -187,6 +222,7 @@ public class InMemoryMemoryService implements MemoryService {
     public Mono<Void> setMemoryMetadata(String conversationId, MemoryMetadata metadata) {
         return Mono.fromRunnable(() -> {
             metadataStore.put(conversationId, metadata);
+            metadataChanges.mark(conversationId);
             log.debug("Set memory metadata for conversation: {}", conversationId);
         });
     }
@@ -199,26 +235,96 @@ public class InMemoryMemoryService implements MemoryService {
     @Override
     public Mono<List<Message>> searchMemory(String conversationId, String query, int limit) {
         return Mono.fromCallable(() -> {
-            List<Message> messages = getMessagesForConversation(conversationId);
-            if (messages.isEmpty() || query == null || query.trim().isEmpty()) {
-                return new ArrayList<>();
+            MessageLog messageLog = memoryStore.get(conversationId);
+            if (messageLog == null || query == null || query.trim().isEmpty()) {
+                return List.of();
             }
 
-            String lowerQuery = query.toLowerCase();
-            return messages.stream()
-                .filter(message -> message.getContent() != null &&
-                                 message.getContent().toLowerCase().contains(lowerQuery))
-                .limit(limit)
-                .collect(Collectors.toList());
+            // 先补齐索引（压缩后会重建），再按BM25排序取前limit条
+            Bm25Index index = searchIndexes.computeIfAbsent(conversationId, k -> new Bm25Index());
+            index.sync(messageLog);
+            return index.search(query, limit);
         });
     }
 
+    @Override
+    public String snapshotName() {
+        return "memory";
+    }
+
+    @Override
+    public Class<MemoryMetadata> metadataType() {
+        return MemoryMetadata.class;
+    }
+
+    @Override
+    public Set<String> snapshotKeys() {
+        Set<String> keys = new HashSet<>(memoryStore.keySet());
+        keys.addAll(metadataStore.keySet());
+        return keys;
+    }
+
+    @Override
+    public MessageLog snapshotLog(String key) {
+        return memoryStore.get(key);
+    }
+
+    @Override
+    public MemoryMetadata snapshotMetadata(String key) {
+        return metadataStore.get(key);
+    }
+
+    @Override
+    public void drainMetadataChanges(Consumer<String> consumer) {
+        metadataChanges.drain(consumer);
+    }
+
+    @Override
+    public void restoreSnapshot(String key, List<Message> messages, MemoryMetadata metadata) {
+        if (messages != null) {
+            // 检索索引在首次检索或追加时重建
+            MessageLog messageLog = new MessageLog(tokenCounter);
+            messageLog.appendAll(messages);
+            memoryStore.put(key, messageLog);
+        }
+        if (metadata != null) {
+            metadataStore.put(key, metadata);
+        }
+    }
+
+    @Override
+    public void removeSnapshotEntry(String key) {
+        memoryStore.remove(key);
+        searchIndexes.remove(key);
+        metadataStore.remove(key);
+    }
+
     /**
      * 获取指定会话的消息列表
      */
     private List<Message> getMessagesForConversation(String conversationId) {
-        List<Message> messages = memoryStore.get(conversationId);
-        return messages != null ? messages : new ArrayList<>();
+        MessageLog messageLog = memoryStore.get(conversationId);
+        return messageLog != null ? messageLog.snapshot() : List.of();
+    }
+
+    /**
+     * 压缩完成后更新元数据
+     */
+    private void onCompressed(String conversationId, int keepRecentCount) {
+        // 提前在后台开始重建检索索引
+        MessageLog messageLog = memoryStore.get(conversationId);
+        Bm25Index index = searchIndexes.get(conversationId);
+        if (messageLog != null && index != null) {
+            index.sync(messageLog);
+        }
+
+        MemoryMetadata metadata = metadataStore.get(conversationId);
+        if (metadata != null) {
+            metadata.setUpdatedAt(LocalDateTime.now());
+        }
+
+        log.debug("Compressed memory for conversation: {}, kept {} recent messages",
+                 conversationId, keepRecentCount);
     }
 
     /**
@@ -18,6 +18,9 @@ public class Message {
     @JsonProperty("tool_call_id")
     private String toolCallId;
 
+    // token计数缓存，内容变更时失效（不参与序列化）
+    private transient volatile CachedTokenCount cachedTokenCount;
+
     public Message() {
     }
 
@@ -38,6 +41,7 @@ public class Message {
 
     public void setRole(String role) {
         this.role = role;
+        this.cachedTokenCount = null;
     }
 
     public String getContent() {
@@ -46,6 +50,7 @@ public class Message {
 
     public void setContent(String content) {
         this.content = content;
+        this.cachedTokenCount = null;
     }
 
     public List<ToolCall> getToolCalls() {
@@ -54,6 +59,7 @@ public class Message {
 
     public void setToolCalls(List<ToolCall> toolCalls) {
         this.toolCalls = toolCalls;
+        this.cachedTokenCount = null;
     }
 
     public String getToolCallId() {
@@ -62,5 +68,32 @@ public class Message {
 
     public void setToolCallId(String toolCallId) {
         this.toolCallId = toolCallId;
+        this.cachedTokenCount = null;
+    }
+
+    /**
+     * 获取指定计数器缓存的token数，未缓存时返回-1
+     * 注意：直接修改toolCalls列表元素不会使缓存失效
+     */
+    public int getCachedTokenCount(Object counter) {
+        CachedTokenCount cached = this.cachedTokenCount;
+        return cached != null && cached.counter == counter ? cached.tokens : -1;
+    }
+
+    /**
+     * 缓存指定计数器计算出的token数
+     */
+    public void cacheTokenCount(Object counter, int tokens) {
+        this.cachedTokenCount = new CachedTokenCount(counter, tokens);
+    }
+
+    private static final class CachedTokenCount {
+        private final Object counter;
+        private final int tokens;
+
+        private CachedTokenCount(Object counter, int tokens) {
+            this.counter = counter;
+            this.tokens = tokens;
+        }
     }
 }
\ No newline at end of file
@@ -133,6 +133,18 @@ public abstract class BaseAgent implements Agent {
         return Mono.just(new ArrayList<>());
     }
 
+    /**
+     * 获取与查询相关的长期记忆
+     */
+    protected Mono<List<Message>> getRelevantMemory(String query, int k) {
+        if (memoryService != null && sessionId != null) {
+            return memoryService.getRelevantMemory(id, sessionId, query, k)
+                .doOnError(error -> log.warn("Failed to get relevant memory: {}", error.getMessage()))
+                .onErrorReturn(new ArrayList<>());
+        }
+        return Mono.just(new ArrayList<>());
+    }
+
     /**
      * 增强的运行方法，集成内存管理
      */
@@ -15,13 +15,17 @@ import cn.apmen.jsagent.framework.openaiunified.model.response.Choice;
 import cn.apmen.jsagent.framework.tool.ToolContext;
 import cn.apmen.jsagent.framework.tool.ToolRegistry;
 import cn.apmen.jsagent.framework.tool.ToolResult;
+import cn.apmen.jsagent.framework.tool.ToolSelectionContext;
+import cn.apmen.jsagent.framework.tool.ToolSelector;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -41,10 +45,18 @@ public class ToolCallAgent extends ReactAgent {
     private final Double temperature = 0.7;
     private final Integer maxTokens = 2000;
     private final Integer maxContextTokens = 4000;
+    private static final Set<String> PINNED_TOOLS = Set.of("terminate");
+
+    // 上下文窗口之外补充的相关长期记忆条数，默认0不补充；开启后每轮与历史读取并行做一次向量召回
+    private int relevantMemoryLimit = 0;
+    private static final int RELEVANT_MEMORY_MAX_CHARS = 500;
 
     // 工具列表（从ToolRegistry动态获取）
     private List<Tool> availableTools;
 
+    // 工具选择器，配置后每轮只发送相关的工具子集，terminate始终保留
+    private ToolSelector toolSelector;
+
     /**
      * 构造函数
      */
@@ -69,10 +81,11 @@ public class ToolCallAgent extends ReactAgent {
      */
     @Override
     public Flux<AgentResponse> think(AgentRequest agentRequest) {
-        return Mono.fromCallable(() -> {
+        return Mono.defer(() -> {
             log.debug("ToolCallAgent {} starting think phase", name);
             return buildChatCompletionRequest(agentRequest);
         })
+        .flatMap(this::selectTools)
         .flatMap(request -> {
             log.debug("Sending request to LLM with {} tools available", availableTools.size());
             return llmClient.createChatCompletion(request);
@@ -140,52 +153,120 @@ public class ToolCallAgent extends ReactAgent {
     /**
      * 构建聊天请求
      */
-    private ChatCompletionRequest buildChatCompletionRequest(AgentRequest agentRequest) {
-        ChatCompletionRequest request = new ChatCompletionRequest();
-        request.setModel(model);
-        request.setTemperature(temperature);
-        request.setMaxTokens(maxTokens);
-
-        // 构建消息列表
-        List<Message> messages = buildMessageList(agentRequest);
-        request.setMessages(messages);
-
-        // 设置可用工具
-        if (availableTools != null && !availableTools.isEmpty()) {
-            request.setTools(availableTools);
-            request.setToolChoice("auto");
-        }
+    private Mono<ChatCompletionRequest> buildChatCompletionRequest(AgentRequest agentRequest) {
+        return buildMessageList(agentRequest).map(messages -> {
+            ChatCompletionRequest request = new ChatCompletionRequest();
+            request.setModel(model);
+            request.setTemperature(temperature);
+            request.setMaxTokens(maxTokens);
+            request.setMessages(messages);
+
+            // 设置可用工具，配置了选择器时由selectTools缩减
+            if (availableTools != null && !availableTools.isEmpty()) {
+                request.setTools(availableTools);
+                request.setToolChoice("auto");
+            }
+            return request;
+        });
+    }
 
-        return request;
+    /**
+     * 按本轮消息选择相关的工具子集，选择器决定执行的调度器（向量化不在请求线程上阻塞）
+     */
+    private Mono<ChatCompletionRequest> selectTools(ChatCompletionRequest request) {
+        if (toolSelector == null || request.getTools() == null) {
+            return Mono.just(request);
+        }
+        ToolSelectionContext context = ToolSelectionContext.fromMessages(request.getMessages()).toBuilder()
+            .pinnedTools(PINNED_TOOLS)
+            .build();
+        return toolSelector.selectAsync(request.getTools(), context)
+            .map(tools -> {
+                request.setTools(tools);
+                return request;
+            });
     }
 
     /**
      * 构建消息列表
+     * 上下文窗口与相关长期记忆并行读取，不阻塞调用线程
      */
-    private List<Message> buildMessageList(AgentRequest agentRequest) {
-        List<Message> messages = new ArrayList<>();
+    private Mono<List<Message>> buildMessageList(AgentRequest agentRequest) {
+        Mono<List<Message>> history = getContextWindowMessages(maxContextTokens)
+            .defaultIfEmpty(new ArrayList<>());
+        return Mono.zip(history, recallRelevantMemory(agentRequest.getUserMessage()))
+            .map(loaded -> {
+                List<Message> historyMessages = loaded.getT1();
+                List<Message> messages = new ArrayList<>();
+
+                // 1. 添加系统提示词
+                if (systemPrompt != null && !systemPrompt.trim().isEmpty()) {
+                    messages.add(new Message("system", systemPrompt));
+                }
+
+                // 2. 补充窗口之外的相关长期记忆，合并为一条system消息，避免拆散工具调用与结果
+                Message relevantMemory = buildRelevantMemoryMessage(loaded.getT2(), historyMessages);
+                if (relevantMemory != null) {
+                    messages.add(relevantMemory);
+                }
+
+                // 3. 历史消息（已按上下文窗口限制截取）
+                messages.addAll(historyMessages);
+
+                // 4. 添加当前用户消息（如果有）
+                if (agentRequest.getUserMessage() != null && !agentRequest.getUserMessage().trim().isEmpty()) {
+                    Message userMessage = new Message("user", agentRequest.getUserMessage());
+                    messages.add(userMessage);
+                    // 保存用户消息到内存
+                    addMessageToMemory(userMessage).subscribe();
+                }
+
+                log.debug("Built message list with {} messages for LLM request", messages.size());
+                return messages;
+            });
+    }
 
-        // 1. 添加系统提示词
-        if (systemPrompt != null && !systemPrompt.trim().isEmpty()) {
-            messages.add(new Message("system", systemPrompt));
+    /**
+     * 检索与用户消息相关的长期记忆，未开启时返回空列表
+     */
+    private Mono<List<Message>> recallRelevantMemory(String userMessage) {
+        if (relevantMemoryLimit <= 0 || userMessage == null || userMessage.trim().isEmpty()) {
+            return Mono.just(new ArrayList<>());
         }
+        return getRelevantMemory(userMessage, relevantMemoryLimit)
+            .defaultIfEmpty(new ArrayList<>());
+    }
 
-        // 2. 获取历史消息（考虑上下文窗口限制）
-        List<Message> historyMessages = getContextWindowMessages(maxContextTokens)
-            .blockOptional()
-            .orElse(new ArrayList<>());
-        messages.addAll(historyMessages);
-
-        // 3. 添加当前用户消息（如果有）
-        if (agentRequest.getUserMessage() != null && !agentRequest.getUserMessage().trim().isEmpty()) {
-            Message userMessage = new Message("user", agentRequest.getUserMessage());
-            messages.add(userMessage);
-            // 保存用户消息到内存
-            addMessageToMemory(userMessage).subscribe();
+    /**
+     * 挑出不在当前上下文窗口中的相关记忆
+     */
+    private Message buildRelevantMemoryMessage(List<Message> relevant, List<Message> historyMessages) {
+        if (relevant.isEmpty()) {
+            return null;
+        }
+        // 冷区消息每次读取都会解码出新实例，按正文去重
+        Set<String> inWindow = new HashSet<>();
+        for (Message message : historyMessages) {
+            if (message.getContent() != null) {
+                inWindow.add(message.getContent());
+            }
         }
 
-        log.debug("Built message list with {} messages for LLM request", messages.size());
-        return messages;
+        StringBuilder content = new StringBuilder("Relevant earlier conversation:");
+        int added = 0;
+        for (Message message : relevant) {
+            if (message.getContent() == null || message.getContent().isBlank() || inWindow.contains(message.getContent())) {
+                continue;
+            }
+            String text = message.getContent();
+            if (text.length() > RELEVANT_MEMORY_MAX_CHARS) {
+                text = text.substring(0, RELEVANT_MEMORY_MAX_CHARS) + "...";
+            }
+            content.append("\n[").append(message.getRole()).append("] ").append(text);
+            added++;
+        }
+        log.debug("Recalled {} relevant memories outside the context window", added);
+        return added > 0 ? new Message("system", content.toString()) : null;
     }
 
     /**
@@ -341,6 +422,20 @@ public class ToolCallAgent extends ReactAgent {
         log.debug("Refreshed tools for ToolCallAgent {}, now has {} tools", name, availableTools.size());
     }
 
+    /**
+     * 设置每次请求补充的相关长期记忆条数，0表示不补充
+     */
+    public void setRelevantMemoryLimit(int relevantMemoryLimit) {
+        this.relevantMemoryLimit = relevantMemoryLimit;
+    }
+
+    /**
+     * 设置工具选择器，为null时每轮发送全部可用工具
+     */
+    public void setToolSelector(ToolSelector toolSelector) {
+        this.toolSelector = toolSelector;
+    }
+
     /**
      * 获取可用工具数量
      */
@@ -0,0 +1,253 @@
+package cn.apmen.jsagent.framework.search;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.storage.MessageLog;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * 单个会话的增量倒排索引，按BM25打分
+ * 索引跟随消息列表增量追加，追加时只切分新消息；列表前缀被改动（generation变化，如压缩）时需要重建：
+ * 已有索引时重建在后台调度器上进行，完成前查询继续使用旧索引（旧索引引用的是改动前的只读视图，命中的消息仍然有效），
+ * 索引为空时直接在调用线程构建
+ * 查询只遍历查询词的倒排列表，不扫描全部消息
+ * 索引本身不持有消息，命中的docId通过最近一次同步时的消息视图取回
+ */
+@Slf4j
+public final class Bm25Index {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final Scheduler rebuildScheduler;
+
+    // 当前使用的索引段，由this锁保护
+    private Segment current = new Segment(-1);
+
+    // 是否有后台重建在进行
+    private boolean rebuilding;
+
+    private long rebuilds;
+
+    public Bm25Index() {
+        this(Schedulers.boundedElastic());
+    }
+
+    /**
+     * @param rebuildScheduler 执行重建的调度器
+     */
+    public Bm25Index(Scheduler rebuildScheduler) {
+        this.rebuildScheduler = rebuildScheduler;
+    }
+
+    /**
+     * 把MessageLog中尚未索引的消息追加到索引，日志被压缩过时重建
+     */
+    public void sync(MessageLog messageLog) {
+        // 先读代数再读快照，快照一定不早于该代数
+        long generation = messageLog.generation();
+        sync(generation, messageLog.snapshot());
+    }
+
+    /**
+     * 把消息列表中尚未索引的消息追加到索引
+     * @param generation 列表代数，列表已有前缀被改动时必须变化（只追加时保持不变）
+     * @param snapshot 只读消息列表，docId即列表下标
+     */
+    public synchronized void sync(long generation, List<Message> snapshot) {
+        if (generation == current.generation && snapshot.size() >= current.documentCount) {
+            current.appendFrom(snapshot);
+            return;
+        }
+        if (current.documentCount > 0) {
+            if (!rebuilding) {
+                rebuilding = true;
+                rebuildScheduler.schedule(() -> rebuild(generation, snapshot));
+            }
+            return;
+        }
+        Segment rebuilt = new Segment(generation);
+        rebuilt.appendFrom(snapshot);
+        current = rebuilt;
+    }
+
+    /**
+     * 按BM25相关度返回前limit条消息
+     */
+    public synchronized List<Message> search(String query, int limit) {
+        return current.search(query, limit);
+    }
+
+    public synchronized int documentCount() {
+        return current.documentCount;
+    }
+
+    public synchronized int termCount() {
+        return current.postings.size();
+    }
+
+    /**
+     * 已完成的后台重建次数
+     */
+    public synchronized long rebuilds() {
+        return rebuilds;
+    }
+
+    private void rebuild(long generation, List<Message> snapshot) {
+        Segment rebuilt = new Segment(generation);
+        try {
+            rebuilt.appendFrom(snapshot);
+        } catch (RuntimeException e) {
+            log.warn("Failed to rebuild search index: {}", e.getMessage());
+            rebuilt = null;
+        } finally {
+            synchronized (this) {
+                if (rebuilt != null) {
+                    current = rebuilt;
+                    rebuilds++;
+                }
+                rebuilding = false;
+            }
+        }
+    }
+
+    /**
+     * 一个代数下的倒排索引
+     */
+    private static final class Segment {
+
+        private final long generation;
+
+        private final Map<String, Postings> postings = new HashMap<>();
+
+        // docId即消息在列表中的下标
+        private List<Message> documents = List.of();
+        private int[] documentLengths = new int[16];
+        private int documentCount;
+        private long totalLength;
+
+        // 查询时复用的打分缓冲区
+        private double[] scores = new double[16];
+        private int[] touched = new int[16];
+
+        private Segment(long generation) {
+            this.generation = generation;
+        }
+
+        private void appendFrom(List<Message> snapshot) {
+            for (int docId = documentCount; docId < snapshot.size(); docId++) {
+                addDocument(snapshot.get(docId));
+            }
+            documents = snapshot;
+        }
+
+        private List<Message> search(String query, int limit) {
+            if (documentCount == 0 || limit <= 0) {
+                return List.of();
+            }
+
+            Set<String> terms = new LinkedHashSet<>();
+            TextTokenizer.tokenize(query, terms::add);
+            if (terms.isEmpty()) {
+                return List.of();
+            }
+
+            double averageLength = Math.max(1.0, (double) totalLength / documentCount);
+            int touchedCount = 0;
+            for (String term : terms) {
+                Postings list = postings.get(term);
+                if (list == null) {
+                    continue;
+                }
+                double idf = Math.log(1 + (documentCount - list.size + 0.5) / (list.size + 0.5));
+                for (int i = 0; i < list.size; i++) {
+                    int docId = list.docIds[i];
+                    int tf = list.frequencies[i];
+                    double norm = K1 * (1 - B + B * documentLengths[docId] / averageLength);
+                    if (scores[docId] == 0) {
+                        touched[touchedCount++] = docId;
+                    }
+                    scores[docId] += idf * (tf * (K1 + 1)) / (tf + norm);
+                }
+            }
+
+            // 小顶堆取前limit，分数相同时较新的消息优先
+            PriorityQueue<int[]> heap = new PriorityQueue<>(limit + 1, (x, y) -> {
+                int compare = Double.compare(scores[x[0]], scores[y[0]]);
+                return compare != 0 ? compare : Integer.compare(x[0], y[0]);
+            });
+            for (int i = 0; i < touchedCount; i++) {
+                heap.offer(new int[]{touched[i]});
+                if (heap.size() > limit) {
+                    heap.poll();
+                }
+            }
+
+            Message[] ranked = new Message[heap.size()];
+            for (int i = ranked.length - 1; i >= 0; i--) {
+                ranked[i] = documents.get(heap.poll()[0]);
+            }
+            for (int i = 0; i < touchedCount; i++) {
+                scores[touched[i]] = 0;
+            }
+            return Arrays.asList(ranked);
+        }
+
+        private void addDocument(Message message) {
+            int docId = documentCount;
+            ensureCapacity(docId + 1);
+
+            Map<String, Integer> frequencies = new HashMap<>();
+            if (message.getContent() != null) {
+                TextTokenizer.tokenize(message.getContent(), term -> frequencies.merge(term, 1, Integer::sum));
+            }
+
+            int length = 0;
+            for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                postings.computeIfAbsent(entry.getKey(), k -> new Postings()).add(docId, entry.getValue());
+                length += entry.getValue();
+            }
+
+            documentLengths[docId] = length;
+            totalLength += length;
+            documentCount++;
+        }
+
+        private void ensureCapacity(int required) {
+            if (required > documentLengths.length) {
+                int capacity = Math.max(required, documentLengths.length * 2);
+                documentLengths = Arrays.copyOf(documentLengths, capacity);
+                scores = Arrays.copyOf(scores, capacity);
+                touched = Arrays.copyOf(touched, capacity);
+            }
+        }
+    }
+
+    /**
+     * 倒排列表，docId递增追加
+     */
+    private static final class Postings {
+        int[] docIds = new int[4];
+        int[] frequencies = new int[4];
+        int size;
+
+        void add(int docId, int frequency) {
+            if (size == docIds.length) {
+                docIds = Arrays.copyOf(docIds, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            docIds[size] = docId;
+            frequencies[size] = frequency;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package cn.apmen.jsagent.framework.search;
+
+import java.util.function.Consumer;
+
+/**
+ * 面向检索的文本切词
+ * 拉丁字母与数字按连续片段切分并转小写；CJK字符同时输出一元词和重叠二元组，
+ * 单字查询可以命中多字片段，多字查询的二元组使相邻匹配得分更高
+ */
+public final class TextTokenizer {
+
+    private TextTokenizer() {
+    }
+
+    /**
+     * 切分文本，依次回调每个词项
+     */
+    public static void tokenize(String text, Consumer<String> consumer) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+
+        StringBuilder word = new StringBuilder();
+        int previousCjk = -1;
+
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+
+            if (isCjk(codePoint)) {
+                flushWord(word, consumer);
+                consumer.accept(new String(Character.toChars(codePoint)));
+                if (previousCjk >= 0) {
+                    consumer.accept(new StringBuilder(4).appendCodePoint(previousCjk).appendCodePoint(codePoint).toString());
+                }
+                previousCjk = codePoint;
+            } else {
+                previousCjk = -1;
+                if (Character.isLetterOrDigit(codePoint)) {
+                    word.appendCodePoint(Character.toLowerCase(codePoint));
+                } else {
+                    flushWord(word, consumer);
+                }
+            }
+        }
+        flushWord(word, consumer);
+    }
+
+    private static void flushWord(StringBuilder word, Consumer<String> consumer) {
+        if (word.length() > 0) {
+            consumer.accept(word.toString());
+            word.setLength(0);
+        }
+    }
+
+    static boolean isCjk(int codePoint) {
+        // 长音符ー属于COMMON脚本，但只出现在假名词中
+        if (codePoint == 0x30FC) {
+            return true;
+        }
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+            || script == Character.UnicodeScript.HIRAGANA
+            || script == Character.UnicodeScript.KATAKANA
+            || script == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -0,0 +1,28 @@
+package cn.apmen.jsagent.framework.snapshot;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 变更键集合
+ * 取出时先移除再回调，回调期间再次标记的键会留到下一次取出，不会丢失
+ */
+public final class ChangeTracker {
+
+    private final Set<String> changed = ConcurrentHashMap.newKeySet();
+
+    public void mark(String key) {
+        changed.add(key);
+    }
+
+    public void drain(Consumer<String> consumer) {
+        Iterator<String> iterator = changed.iterator();
+        while (iterator.hasNext()) {
+            String key = iterator.next();
+            iterator.remove();
+            consumer.accept(key);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package cn.apmen.jsagent.framework.snapshot;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * 内存状态快照配置
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SnapshotConfig {
+
+    /**
+     * 快照文件目录
+     */
+    private Path directory;
+
+    /**
+     * 增量快照间隔，为0时只在关闭时写快照
+     */
+    @Builder.Default
+    private Duration interval = Duration.ofSeconds(30);
+
+    /**
+     * 每个服务的快照分片数，键按哈希分布到分片，启动时各分片并行加载
+     */
+    @Builder.Default
+    private int shards = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * 启动加载的并行线程数
+     */
+    @Builder.Default
+    private int loadParallelism = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * 分片中增量记录的字节数超过该值且超过全量部分时，重写为全量快照
+     */
+    @Builder.Default
+    private long compactionMinBytes = 8L * 1024 * 1024;
+
+    /**
+     * 关闭时等待进行中的一轮快照完成的最长时间
+     */
+    @Builder.Default
+    private Duration closeTimeout = Duration.ofSeconds(30);
+}
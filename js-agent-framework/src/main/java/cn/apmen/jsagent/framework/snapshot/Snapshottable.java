@@ -0,0 +1,68 @@
+package cn.apmen.jsagent.framework.snapshot;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.storage.MessageLog;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * 可快照的内存状态
+ * 状态按键（会话）组织，每个键对应一个消息日志和一份元数据，两者均可为空；
+ * 快照线程通过MessageLog的无锁视图读取消息，不阻塞业务读写
+ *
+ * @param <M> 元数据类型，以JSON写入快照
+ */
+public interface Snapshottable<M> {
+
+    /**
+     * 快照名称，用作快照文件名前缀
+     */
+    String snapshotName();
+
+    /**
+     * 元数据类型
+     */
+    Class<M> metadataType();
+
+    /**
+     * 当前全部键（消息日志或元数据任一存在）
+     */
+    Set<String> snapshotKeys();
+
+    /**
+     * 键对应的消息日志，不存在时返回null
+     */
+    MessageLog snapshotLog(String key);
+
+    /**
+     * 键对应的元数据，不存在时返回null
+     */
+    M snapshotMetadata(String key);
+
+    /**
+     * 取出并清除自上次调用以来单独修改过元数据的键
+     * 消息日志的变化由快照线程按代数和条数检测，不需要在此报告
+     */
+    void drainMetadataChanges(Consumer<String> consumer);
+
+    /**
+     * 从快照恢复一个键的状态，启动加载时会被多个线程针对不同的键并发调用
+     * @param messages 消息列表，为null表示该键没有消息日志
+     * @param metadata 元数据，可为null
+     */
+    void restoreSnapshot(String key, List<Message> messages, M metadata);
+
+    /**
+     * 删除一个键的全部状态，用于集群移交后释放本地副本
+     */
+    void removeSnapshotEntry(String key);
+
+    /**
+     * 键对应的会话ID，集群按会话ID决定归属节点；默认键即会话ID
+     */
+    default String routingKey(String key) {
+        return key;
+    }
+}
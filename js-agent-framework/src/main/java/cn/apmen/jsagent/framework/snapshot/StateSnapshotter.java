@@ -0,0 +1,808 @@
+package cn.apmen.jsagent.framework.snapshot;
+
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.exception.ErrorCode;
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.storage.MessageCodec;
+import cn.apmen.jsagent.framework.storage.MessageLog;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * 内存状态快照器
+ * 定期把 {@link Snapshottable} 的状态以流式二进制记录追加到本地快照文件，启动时并行加载恢复
+ *
+ * 每个服务的状态按键哈希分布到多个分片文件（name-分片号-of-分片数.snap），每个分片是一条只追加的记录流：
+ * 文件头 magic(4) version(4) shards(4) shard(4)，记录为 length(4) crc32c(4) body，
+ * body为 kind(1) key [内容]，消息以MessageCodec编码，元数据以JSON编码
+ *
+ * - 增量：每轮按日志实例、代数和条数比较每个键的消息日志，只写出新追加的消息；被压缩（代数变化）或重建（实例变化）的日志整体重写
+ * - 非阻塞：快照在后台线程上读取MessageLog的无锁视图，不持有服务的任何锁
+ * - 重写：分片的增量部分超过全量部分时，把该分片重写为全量快照（临时文件 + 原子替换）
+ * - 加载：各分片由独立线程读取、解码并恢复；遇到残缺或CRC不匹配的记录即视为文件尾并截断
+ */
+@Slf4j
+public class StateSnapshotter implements Closeable {
+
+    private static final int FILE_MAGIC = 0x4A53534E;
+    private static final int FILE_VERSION = 1;
+    private static final String SUFFIX = ".snap";
+
+    private static final byte KIND_LOG = 1;
+    private static final byte KIND_APPEND = 2;
+    private static final byte KIND_DROP_LOG = 3;
+    private static final byte KIND_METADATA = 4;
+    private static final byte KIND_REMOVE = 5;
+
+    private final SnapshotConfig config;
+    private final List<SourceState> sources = new ArrayList<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ScheduledExecutorService scheduler;
+
+    private boolean closed;
+
+    // 统计信息
+    private final AtomicLong rounds = new AtomicLong();
+    private final AtomicLong recordsWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong shardRewrites = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong restoredEntries = new AtomicLong();
+    private volatile long lastRoundMillis;
+    private volatile long restoreMillis;
+
+    {
+        objectMapper.findAndRegisterModules();
+        objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    public StateSnapshotter(SnapshotConfig config, List<? extends Snapshottable<?>> snapshottables) {
+        if (config.getDirectory() == null) {
+            throw new AgentException(ErrorCode.CONFIG_MISSING, "Snapshot directory is required");
+        }
+        if (config.getShards() <= 0) {
+            throw new AgentException(ErrorCode.CONFIG_INVALID, "Snapshot shard count must be positive: " + config.getShards());
+        }
+        this.config = config;
+        try {
+            Files.createDirectories(config.getDirectory());
+        } catch (IOException e) {
+            throw new AgentException(ErrorCode.STORAGE_IO_FAILED, "Failed to create snapshot directory " + config.getDirectory(), e);
+        }
+
+        Set<String> names = new HashSet<>();
+        for (Snapshottable<?> snapshottable : snapshottables) {
+            if (!names.add(snapshottable.snapshotName())) {
+                throw new AgentException(ErrorCode.CONFIG_INVALID, "Duplicate snapshot name: " + snapshottable.snapshotName());
+            }
+            sources.add(new SourceState(snapshottable, config.getShards()));
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "state-snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 从快照文件恢复状态，应在服务开始处理请求之前调用
+     * @return 恢复的键数
+     */
+    public synchronized long restore() {
+        long start = System.currentTimeMillis();
+        long before = restoredEntries.get();
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService loaders = Executors.newFixedThreadPool(Math.max(1, config.getLoadParallelism()), r -> {
+            Thread thread = new Thread(r, "state-snapshot-loader-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (SourceState source : sources) {
+                Map<Integer, Map<Integer, Path>> layouts = listLayouts(source.snapshottable.snapshotName());
+                Integer chosen = chooseLayout(layouts);
+                boolean reusable = chosen != null && chosen == config.getShards()
+                    && layouts.get(chosen).size() == config.getShards();
+                // 当前布局的文件会被重写覆盖，其余布局在第一轮全量快照完成后删除
+                for (Map.Entry<Integer, Map<Integer, Path>> layout : layouts.entrySet()) {
+                    if (layout.getKey() != config.getShards()) {
+                        source.staleFiles.addAll(layout.getValue().values());
+                    }
+                }
+                if (chosen == null) {
+                    continue;
+                }
+                for (Map.Entry<Integer, Path> file : layouts.get(chosen).entrySet()) {
+                    Shard target = reusable ? source.shards[file.getKey()] : null;
+                    tasks.add(loaders.submit(() -> loadShard(source, file.getValue(), target)));
+                }
+                source.fullRewrite = !reusable;
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AgentException(ErrorCode.STORAGE_IO_FAILED, "Interrupted while restoring snapshots", e);
+        } catch (ExecutionException e) {
+            throw new AgentException(ErrorCode.STORAGE_IO_FAILED, "Failed to restore snapshots", e.getCause());
+        } finally {
+            loaders.shutdownNow();
+        }
+
+        long restored = restoredEntries.get() - before;
+        restoreMillis = System.currentTimeMillis() - start;
+        log.info("Restored {} entries from snapshots in {} in {}ms", restored, config.getDirectory(), restoreMillis);
+        return restored;
+    }
+
+    /**
+     * 按配置的间隔启动后台增量快照
+     */
+    public void start() {
+        Duration interval = config.getInterval();
+        if (interval != null && !interval.isZero()) {
+            scheduler.scheduleWithFixedDelay(this::snapshotQuietly,
+                interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 立即执行一轮增量快照
+     */
+    public synchronized void snapshot() {
+        if (closed) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        for (SourceState source : sources) {
+            snapshotSource(source);
+        }
+        rounds.incrementAndGet();
+        lastRoundMillis = System.currentTimeMillis() - start;
+    }
+
+    /**
+     * 获取快照统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("rounds", rounds.get());
+        stats.put("recordsWritten", recordsWritten.get());
+        stats.put("bytesWritten", bytesWritten.get());
+        stats.put("shardRewrites", shardRewrites.get());
+        stats.put("failures", failures.get());
+        stats.put("restoredEntries", restoredEntries.get());
+        stats.put("restoreMillis", restoreMillis);
+        stats.put("lastRoundMillis", lastRoundMillis);
+        return stats;
+    }
+
+    /**
+     * 等待进行中的一轮快照完成，写出最后一轮快照后关闭文件
+     * 不中断快照线程：FileChannel是可中断通道，写入中途被中断会关闭通道，使该分片只能在下次启动时截断残缺记录
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(config.getCloseTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                log.warn("Snapshot round still running after {}, closing anyway", config.getCloseTimeout());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            snapshotQuietly();
+            closed = true;
+            for (SourceState source : sources) {
+                for (Shard shard : source.shards) {
+                    closeChannel(shard);
+                }
+            }
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            log.warn("State snapshot failed: {}", e.getMessage(), e);
+        }
+    }
+
+    // ==================== 写入 ====================
+
+    private void snapshotSource(SourceState source) {
+        Snapshottable<?> snapshottable = source.snapshottable;
+        Set<String> metadataChanged = new HashSet<>();
+        snapshottable.drainMetadataChanges(metadataChanged::add);
+
+        List<Set<String>> keysByShard = new ArrayList<>(source.shards.length);
+        for (int i = 0; i < source.shards.length; i++) {
+            keysByShard.add(new HashSet<>());
+        }
+        for (String key : snapshottable.snapshotKeys()) {
+            keysByShard.get(shardOf(key, source.shards.length)).add(key);
+        }
+
+        boolean complete = true;
+        for (Shard shard : source.shards) {
+            Set<String> keys = keysByShard.get(shard.index);
+            try {
+                if (source.fullRewrite || shard.dirty || shard.channel == null || shouldRewrite(shard)) {
+                    rewrite(source, shard, keys);
+                } else {
+                    append(source, shard, keys, metadataChanged);
+                }
+            } catch (IOException e) {
+                // 写到一半的分片在下一轮整体重写
+                shard.dirty = true;
+                complete = false;
+                failures.incrementAndGet();
+                log.warn("Failed to snapshot {}: {}", shard.path.getFileName(), e.getMessage());
+            }
+        }
+
+        if (complete && source.fullRewrite) {
+            source.fullRewrite = false;
+            for (Path stale : source.staleFiles) {
+                try {
+                    Files.deleteIfExists(stale);
+                } catch (IOException e) {
+                    log.warn("Failed to delete stale snapshot {}: {}", stale, e.getMessage());
+                }
+            }
+            source.staleFiles.clear();
+        }
+    }
+
+    private boolean shouldRewrite(Shard shard) {
+        long incremental = shard.fileBytes - shard.baseBytes;
+        return incremental > config.getCompactionMinBytes() && incremental > shard.baseBytes;
+    }
+
+    /**
+     * 只写出自上一轮以来发生变化的键
+     */
+    private void append(SourceState source, Shard shard, Set<String> keys, Set<String> metadataChanged) throws IOException {
+        RecordOutput out = new RecordOutput(Channels.newOutputStream(shard.channel));
+        for (String key : keys) {
+            Position previous = shard.positions.get(key);
+            Position current = writeLog(source.snapshottable, out, key, previous);
+            if (current != previous || metadataChanged.contains(key)) {
+                writeMetadata(source.snapshottable, out, key);
+            }
+            shard.positions.put(key, current);
+        }
+        Iterator<String> known = shard.positions.keySet().iterator();
+        while (known.hasNext()) {
+            String key = known.next();
+            if (!keys.contains(key)) {
+                out.begin(KIND_REMOVE, key);
+                out.end();
+                known.remove();
+            }
+        }
+        if (out.records > 0) {
+            out.flush();
+            shard.channel.force(false);
+            shard.fileBytes += out.bytes;
+            recordsWritten.addAndGet(out.records);
+            bytesWritten.addAndGet(out.bytes);
+        }
+    }
+
+    /**
+     * 把分片重写为只包含当前状态的全量快照
+     */
+    private void rewrite(SourceState source, Shard shard, Set<String> keys) throws IOException {
+        Path temp = shard.path.resolveSibling(shard.path.getFileName() + ".tmp");
+        Map<String, Position> positions = new HashMap<>();
+        long length;
+        int records;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            RecordOutput out = new RecordOutput(Channels.newOutputStream(channel));
+            out.writeHeader(source.shards.length, shard.index);
+            for (String key : keys) {
+                positions.put(key, writeLog(source.snapshottable, out, key, null));
+                writeMetadata(source.snapshottable, out, key);
+            }
+            out.flush();
+            channel.force(true);
+            length = out.bytes;
+            records = out.records;
+        }
+
+        closeChannel(shard);
+        Files.move(temp, shard.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        shard.channel = openForAppend(shard.path, length);
+        shard.positions = positions;
+        shard.fileBytes = length;
+        shard.baseBytes = length;
+        shard.dirty = false;
+
+        shardRewrites.incrementAndGet();
+        recordsWritten.addAndGet(records);
+        bytesWritten.addAndGet(length);
+        log.debug("Rewrote snapshot {}: {} keys, {} bytes", shard.path.getFileName(), keys.size(), length);
+    }
+
+    /**
+     * 按上一轮的位置写出消息日志的变化，返回新位置；没有变化时返回previous本身
+     */
+    private Position writeLog(Snapshottable<?> snapshottable, RecordOutput out, String key, Position previous) throws IOException {
+        MessageLog messageLog = snapshottable.snapshotLog(key);
+        if (messageLog == null) {
+            if (previous != null && !previous.hasLog()) {
+                return previous;
+            }
+            if (previous != null) {
+                out.begin(KIND_DROP_LOG, key);
+                out.end();
+            }
+            return Position.NO_LOG;
+        }
+
+        // 先读代数再读视图：期间发生重建时记录旧代数，下一轮会整体重写；日志实例变化（会话重建）时同样整体重写
+        long generation = messageLog.generation();
+        List<Message> messages = messageLog.snapshot();
+        if (previous != null && previous.continues(messageLog, generation)) {
+            if (messages.size() == previous.size) {
+                return previous;
+            }
+            if (messages.size() > previous.size) {
+                DataOutputStream body = out.begin(KIND_APPEND, key);
+                body.writeInt(previous.size);
+                writeMessages(body, messages.subList(previous.size, messages.size()));
+                out.end();
+                return new Position(messageLog, generation, messages.size());
+            }
+        }
+        DataOutputStream body = out.begin(KIND_LOG, key);
+        writeMessages(body, messages);
+        out.end();
+        return new Position(messageLog, generation, messages.size());
+    }
+
+    private void writeMetadata(Snapshottable<?> snapshottable, RecordOutput out, String key) throws IOException {
+        Object metadata = snapshottable.snapshotMetadata(key);
+        if (metadata == null) {
+            return;
+        }
+        byte[] json = objectMapper.writeValueAsBytes(metadata);
+        DataOutputStream body = out.begin(KIND_METADATA, key);
+        body.writeInt(json.length);
+        body.write(json);
+        out.end();
+    }
+
+    private static void writeMessages(DataOutputStream body, List<Message> messages) throws IOException {
+        body.writeInt(messages.size());
+        for (Message message : messages) {
+            byte[] encoded = MessageCodec.encode(message);
+            body.writeInt(encoded.length);
+            body.write(encoded);
+        }
+    }
+
+    // ==================== 加载 ====================
+
+    /**
+     * 读取一个分片文件并恢复其中的键；target不为空时同时建立该分片的增量位置，并截断残缺的文件尾
+     */
+    private void loadShard(SourceState source, Path path, Shard target) {
+        Map<String, PendingEntry> pending = new LinkedHashMap<>();
+        long validLength;
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(path), 1 << 16)) {
+            validLength = readRecords(new DataInputStream(stream), path, pending);
+        } catch (IOException e) {
+            throw new AgentException(ErrorCode.STORAGE_IO_FAILED, "Failed to read snapshot " + path, e);
+        }
+
+        Snapshottable<?> snapshottable = source.snapshottable;
+        for (Map.Entry<String, PendingEntry> entry : pending.entrySet()) {
+            String key = entry.getKey();
+            if (restoreEntry(snapshottable, key, entry.getValue()) && target != null) {
+                MessageLog messageLog = snapshottable.snapshotLog(key);
+                target.positions.put(key, messageLog != null
+                    ? new Position(messageLog, messageLog.generation(), messageLog.size())
+                    : Position.NO_LOG);
+            }
+        }
+        restoredEntries.addAndGet(pending.size());
+
+        if (target != null) {
+            try {
+                target.channel = openForAppend(path, validLength);
+                target.fileBytes = validLength;
+                target.baseBytes = validLength;
+            } catch (IOException e) {
+                throw new AgentException(ErrorCode.STORAGE_IO_FAILED, "Failed to open snapshot " + path, e);
+            }
+        }
+        log.debug("Loaded snapshot {}: {} keys", path.getFileName(), pending.size());
+    }
+
+    /**
+     * 顺序读取记录，返回最后一条完整记录之后的位置
+     */
+    private long readRecords(DataInputStream in, Path path, Map<String, PendingEntry> pending) throws IOException {
+        CRC32C crc = new CRC32C();
+        long position;
+        try {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                log.warn("Ignoring snapshot with unknown format: {}", path);
+                return 0;
+            }
+            in.readInt();
+            in.readInt();
+            position = 16;
+        } catch (EOFException e) {
+            return 0;
+        }
+
+        while (true) {
+            byte[] body;
+            try {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 0) {
+                    break;
+                }
+                body = new byte[length];
+                in.readFully(body);
+                crc.reset();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    log.warn("Checksum mismatch in snapshot {} at {}, truncating", path, position);
+                    break;
+                }
+            } catch (EOFException e) {
+                break;
+            }
+            try {
+                applyRecord(new DataInputStream(new ByteArrayInputStream(body)), pending);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Invalid record in snapshot {} at {}, truncating: {}", path, position, e.getMessage());
+                break;
+            }
+            position += 8 + body.length;
+        }
+        return position;
+    }
+
+    private static void applyRecord(DataInputStream body, Map<String, PendingEntry> pending) throws IOException {
+        byte kind = body.readByte();
+        String key = readString(body);
+        switch (kind) {
+            case KIND_LOG:
+                pending.computeIfAbsent(key, k -> new PendingEntry()).messages = readMessages(body, 0);
+                break;
+            case KIND_APPEND: {
+                PendingEntry entry = pending.computeIfAbsent(key, k -> new PendingEntry());
+                int from = body.readInt();
+                int existing = entry.messages != null ? entry.messages.size() : 0;
+                if (from != existing) {
+                    throw new IOException("Append at " + from + " does not follow " + existing + " messages of " + key);
+                }
+                List<byte[]> appended = readMessages(body, existing);
+                if (entry.messages == null) {
+                    entry.messages = appended;
+                } else {
+                    entry.messages.addAll(appended);
+                }
+                break;
+            }
+            case KIND_DROP_LOG:
+                pending.computeIfAbsent(key, k -> new PendingEntry()).messages = null;
+                break;
+            case KIND_METADATA: {
+                byte[] json = new byte[body.readInt()];
+                body.readFully(json);
+                pending.computeIfAbsent(key, k -> new PendingEntry()).metadata = json;
+                break;
+            }
+            case KIND_REMOVE:
+                pending.remove(key);
+                break;
+            default:
+                throw new IOException("Unknown record kind " + kind);
+        }
+    }
+
+    private static List<byte[]> readMessages(DataInputStream body, int reserve) throws IOException {
+        int count = body.readInt();
+        List<byte[]> messages = new ArrayList<>(reserve + count);
+        for (int i = 0; i < count; i++) {
+            byte[] encoded = new byte[body.readInt()];
+            body.readFully(encoded);
+            messages.add(encoded);
+        }
+        return messages;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <M> boolean restoreEntry(Snapshottable<M> snapshottable, String key, PendingEntry entry) {
+        List<Message> messages = null;
+        if (entry.messages != null) {
+            messages = new ArrayList<>(entry.messages.size());
+            for (byte[] encoded : entry.messages) {
+                messages.add(MessageCodec.decode(encoded));
+            }
+        }
+        M metadata = null;
+        if (entry.metadata != null) {
+            try {
+                metadata = objectMapper.readValue(entry.metadata, snapshottable.metadataType());
+            } catch (IOException e) {
+                log.warn("Ignoring unreadable metadata of {} in snapshot {}: {}",
+                    key, snapshottable.snapshotName(), e.getMessage());
+            }
+        }
+        if (messages == null && metadata == null) {
+            return false;
+        }
+        snapshottable.restoreSnapshot(key, messages, metadata);
+        return true;
+    }
+
+    // ==================== 文件 ====================
+
+    /**
+     * 列出已有的快照文件：分片数 -> 分片号 -> 路径
+     */
+    private Map<Integer, Map<Integer, Path>> listLayouts(String name) {
+        Pattern pattern = Pattern.compile(Pattern.quote(name) + "-(\\d+)-of-(\\d+)" + Pattern.quote(SUFFIX));
+        Map<Integer, Map<Integer, Path>> layouts = new TreeMap<>();
+        try (Stream<Path> files = Files.list(config.getDirectory())) {
+            files.forEach(file -> {
+                Matcher matcher = pattern.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    int shard = Integer.parseInt(matcher.group(1));
+                    int shards = Integer.parseInt(matcher.group(2));
+                    if (shard < shards) {
+                        layouts.computeIfAbsent(shards, k -> new TreeMap<>()).put(shard, file);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            throw new AgentException(ErrorCode.STORAGE_IO_FAILED, "Failed to list snapshots in " + config.getDirectory(), e);
+        }
+        return layouts;
+    }
+
+    /**
+     * 选择要加载的分片布局：优先当前配置且完整的布局，其次任一完整布局（分片数变更后尚未重写），
+     * 都不完整时选文件最多的布局（重写中途崩溃）
+     */
+    private Integer chooseLayout(Map<Integer, Map<Integer, Path>> layouts) {
+        Map<Integer, Path> configured = layouts.get(config.getShards());
+        if (configured != null && configured.size() == config.getShards()) {
+            return config.getShards();
+        }
+        Integer chosen = null;
+        for (Map.Entry<Integer, Map<Integer, Path>> layout : layouts.entrySet()) {
+            if (layout.getValue().size() == layout.getKey()) {
+                return layout.getKey();
+            }
+            if (chosen == null || layout.getValue().size() > layouts.get(chosen).size()) {
+                chosen = layout.getKey();
+            }
+        }
+        return chosen;
+    }
+
+    private static FileChannel openForAppend(Path path, long length) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        if (channel.size() > length) {
+            channel.truncate(length);
+        }
+        channel.position(length);
+        return channel;
+    }
+
+    private static void closeChannel(Shard shard) {
+        if (shard.channel != null) {
+            try {
+                shard.channel.close();
+            } catch (IOException e) {
+                log.warn("Failed to close snapshot {}: {}", shard.path.getFileName(), e.getMessage());
+            }
+            shard.channel = null;
+        }
+    }
+
+    private static int shardOf(String key, int shards) {
+        return Math.floorMod(key.hashCode(), shards);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // ==================== 内部结构 ====================
+
+    /**
+     * 单个服务的快照状态
+     */
+    private final class SourceState {
+        private final Snapshottable<?> snapshottable;
+        private final Shard[] shards;
+        private final List<Path> staleFiles = new ArrayList<>();
+        // 未加载或分片布局不一致时，下一轮重写全部分片并删除旧文件
+        private boolean fullRewrite = true;
+
+        private SourceState(Snapshottable<?> snapshottable, int shardCount) {
+            this.snapshottable = snapshottable;
+            this.shards = new Shard[shardCount];
+            for (int i = 0; i < shardCount; i++) {
+                shards[i] = new Shard(i, config.getDirectory().resolve(
+                    snapshottable.snapshotName() + "-" + i + "-of-" + shardCount + SUFFIX));
+            }
+        }
+    }
+
+    /**
+     * 单个分片文件，只由快照线程（持有快照器锁）访问；加载时每个分片只由一个线程写入
+     */
+    private static final class Shard {
+        private final int index;
+        private final Path path;
+        private FileChannel channel;
+        // 每个键已写入的消息日志位置
+        private Map<String, Position> positions = new HashMap<>();
+        private long fileBytes;
+        private long baseBytes;
+        private boolean dirty;
+
+        private Shard(int index, Path path) {
+            this.index = index;
+            this.path = path;
+        }
+    }
+
+    /**
+     * 已写入快照的消息日志位置：日志实例、代数与条数，log为null表示没有消息日志
+     * 代数只在同一个MessageLog实例内有意义，会话被删除后重建的新日志代数从0重新开始，因此按实例判断是否可以增量追加
+     */
+    private static final class Position {
+        private static final Position NO_LOG = new Position(null, -1, 0);
+
+        // 弱引用：不因快照位置而延长已被服务丢弃的日志的生命周期
+        private final WeakReference<MessageLog> log;
+        private final long generation;
+        private final int size;
+
+        private Position(MessageLog log, long generation, int size) {
+            this.log = log != null ? new WeakReference<>(log) : null;
+            this.generation = generation;
+            this.size = size;
+        }
+
+        private boolean hasLog() {
+            return log != null;
+        }
+
+        private boolean continues(MessageLog messageLog, long currentGeneration) {
+            return log != null && log.get() == messageLog && generation == currentGeneration;
+        }
+    }
+
+    /**
+     * 加载时逐条回放记录得到的键状态
+     */
+    private static final class PendingEntry {
+        private List<byte[]> messages;
+        private byte[] metadata;
+    }
+
+    /**
+     * 记录输出：先在缓冲区中组装记录体，再写出长度与CRC
+     */
+    private static final class RecordOutput {
+        private final DataOutputStream out;
+        private final BodyBuffer buffer = new BodyBuffer();
+        private final DataOutputStream body = new DataOutputStream(buffer);
+        private final CRC32C crc = new CRC32C();
+        private long bytes;
+        private int records;
+
+        private RecordOutput(OutputStream target) {
+            this.out = new DataOutputStream(new BufferedOutputStream(target, 1 << 16));
+        }
+
+        private void writeHeader(int shards, int shard) throws IOException {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(shards);
+            out.writeInt(shard);
+            bytes += 16;
+        }
+
+        private DataOutputStream begin(byte kind, String key) throws IOException {
+            buffer.reset();
+            body.writeByte(kind);
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            body.writeInt(keyBytes.length);
+            body.write(keyBytes);
+            return body;
+        }
+
+        private void end() throws IOException {
+            int length = buffer.size();
+            crc.reset();
+            crc.update(buffer.array(), 0, length);
+            out.writeInt(length);
+            out.writeInt((int) crc.getValue());
+            out.write(buffer.array(), 0, length);
+            bytes += 8 + length;
+            records++;
+        }
+
+        private void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    private static final class BodyBuffer extends ByteArrayOutputStream {
+        private BodyBuffer() {
+            super(4096);
+        }
+
+        private byte[] array() {
+            return buf;
+        }
+    }
+}
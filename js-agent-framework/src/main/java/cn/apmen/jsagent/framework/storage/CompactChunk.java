@@ -0,0 +1,79 @@
+package cn.apmen.jsagent.framework.storage;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * 一整块冷区消息的合并压缩形式
+ * 块内各条消息的MessageCodec编码拼接后整体Deflate：JSON字段名、URL、常用词在块内共享压缩上下文，
+ * 短消息也能得到压缩，且省去逐条的对象与数组开销。块内每个槽位引用同一实例，按槽位下标解码
+ *
+ * 不可变；本类不缓存解压结果，由持有块的MessageLog缓存最近解压的块
+ */
+final class CompactChunk {
+
+    // 对象头、字段与两个数组头的估算开销
+    private static final int OVERHEAD_BYTES = 64;
+
+    private final byte[] payload;
+    // 第i条消息的编码位于解压结果的[offsets[i], offsets[i + 1])
+    private final int[] offsets;
+
+    private CompactChunk(byte[] payload, int[] offsets) {
+        this.payload = payload;
+        this.offsets = offsets;
+    }
+
+    /**
+     * 合并压缩slots[0, count)，槽位为Message或CompactMessage
+     * @return 合并后不比逐条存放更小时返回null
+     */
+    static CompactChunk seal(Object[] slots, int count, long separateBytes) {
+        byte[][] encodings = new byte[count][];
+        int[] offsets = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            Object slot = slots[i];
+            encodings[i] = slot instanceof CompactMessage
+                ? ((CompactMessage) slot).encodedView()
+                : MessageCodec.encode((Message) slot);
+            offsets[i + 1] = offsets[i] + encodings[i].length;
+        }
+        byte[] concatenated = new byte[offsets[count]];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(encodings[i], 0, concatenated, offsets[i], encodings[i].length);
+        }
+        // 每块只合并一次，用默认压缩级别换取比逐条压缩（BEST_SPEED）更高的压缩率
+        CompactChunk chunk = new CompactChunk(CompactMessage.deflate(concatenated, Deflater.DEFAULT_COMPRESSION), offsets);
+        return chunk.retainedBytes() < separateBytes ? chunk : null;
+    }
+
+    /**
+     * 解压整块，得到各条消息编码的拼接
+     */
+    byte[] inflate() {
+        return CompactMessage.inflate(payload, offsets[offsets.length - 1]);
+    }
+
+    /**
+     * 从解压结果中解码第slot条消息为新的Message实例
+     * @param decoded 本块 {@link #inflate()} 的结果
+     */
+    Message message(byte[] decoded, int slot) {
+        return MessageCodec.decode(ByteBuffer.wrap(decoded, offsets[slot], offsets[slot + 1] - offsets[slot]));
+    }
+
+    /**
+     * 第slot条消息的单条紧凑形式，块被拆开重排（重建）时使用
+     * @param decoded 本块 {@link #inflate()} 的结果
+     */
+    CompactMessage compact(byte[] decoded, int slot, int compressionThreshold) {
+        return CompactMessage.fromEncoded(Arrays.copyOfRange(decoded, offsets[slot], offsets[slot + 1]), compressionThreshold);
+    }
+
+    long retainedBytes() {
+        return OVERHEAD_BYTES + payload.length + 4L * offsets.length;
+    }
+}
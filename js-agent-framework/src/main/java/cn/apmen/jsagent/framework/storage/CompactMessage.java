@@ -0,0 +1,159 @@
+package cn.apmen.jsagent.framework.storage;
+
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.exception.ErrorCode;
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 消息的紧凑存储形式
+ * 以MessageCodec编码（UTF-8）保存为一个byte[]，编码长度达到阈值时再用Deflate压缩；
+ * 读取时才解码为Message，解码出的角色和工具名为共享实例
+ *
+ * 不可变，可在不加锁的情况下跨线程读取
+ */
+public final class CompactMessage {
+
+    /**
+     * 默认压缩阈值：编码后不足该字节数的消息不压缩
+     */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 512;
+
+    // 对象头、字段与数组头的估算开销
+    private static final int OVERHEAD_BYTES = 48;
+
+    private final byte[] payload;
+    private final int encodedLength;
+    private final boolean deflated;
+
+    private CompactMessage(byte[] payload, int encodedLength, boolean deflated) {
+        this.payload = payload;
+        this.encodedLength = encodedLength;
+        this.deflated = deflated;
+    }
+
+    /**
+     * 编码消息，编码长度达到compressionThreshold时尝试压缩
+     */
+    public static CompactMessage of(Message message, int compressionThreshold) {
+        return fromEncoded(MessageCodec.encode(message), compressionThreshold);
+    }
+
+    /**
+     * 由MessageCodec编码结果构造，调用方之后不得修改该数组
+     */
+    public static CompactMessage fromEncoded(byte[] encoded, int compressionThreshold) {
+        if (encoded.length >= compressionThreshold) {
+            byte[] compressed = deflate(encoded);
+            // 压缩收益不足1/8时保留原始编码，省去读取时的解压
+            if (compressed.length < encoded.length - (encoded.length >>> 3)) {
+                return new CompactMessage(compressed, encoded.length, true);
+            }
+        }
+        return new CompactMessage(encoded, encoded.length, false);
+    }
+
+    /**
+     * 解码为新的Message实例
+     */
+    public Message toMessage() {
+        return MessageCodec.decode(deflated ? inflate(payload, encodedLength) : payload);
+    }
+
+    /**
+     * MessageCodec编码（解压后）的字节
+     */
+    public byte[] encoded() {
+        return deflated ? inflate(payload, encodedLength) : payload.clone();
+    }
+
+    /**
+     * 同encoded()，未压缩时直接返回内部数组，调用方不得修改
+     */
+    byte[] encodedView() {
+        return deflated ? inflate(payload, encodedLength) : payload;
+    }
+
+    public boolean isDeflated() {
+        return deflated;
+    }
+
+    /**
+     * 估算占用的堆内存字节数
+     */
+    public long retainedBytes() {
+        return OVERHEAD_BYTES + payload.length;
+    }
+
+    /**
+     * 估算未压缩Message对象占用的堆内存字节数（UTF-16字符串与对象开销）
+     */
+    public static long estimateHeapBytes(Message message) {
+        long bytes = 64;
+        bytes += stringBytes(message.getRole()) + stringBytes(message.getContent()) + stringBytes(message.getToolCallId());
+        if (message.getToolCalls() != null) {
+            for (ToolCall toolCall : message.getToolCalls()) {
+                bytes += 96 + stringBytes(toolCall.getId()) + stringBytes(toolCall.getType());
+                if (toolCall.getFunction() != null) {
+                    bytes += stringBytes(toolCall.getFunction().getName()) + stringBytes(toolCall.getFunction().getArguments());
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private static long stringBytes(String value) {
+        return value != null ? 40 + 2L * value.length() : 0;
+    }
+
+    static byte[] deflate(byte[] input) {
+        return deflate(input, Deflater.BEST_SPEED);
+    }
+
+    static byte[] deflate(byte[] input, int level) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, input.length / 2));
+            byte[] buffer = new byte[Math.min(8192, input.length + 64)];
+            while (!deflater.finished()) {
+                int written = deflater.deflate(buffer);
+                out.write(buffer, 0, written);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] inflate(byte[] input, int length) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            byte[] output = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                int read = inflater.inflate(output, offset, length - offset);
+                if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += read;
+            }
+            if (offset != length) {
+                throw new AgentException(ErrorCode.STORAGE_CORRUPTED,
+                    "Compressed message truncated: expected " + length + " bytes, got " + offset);
+            }
+            return output;
+        } catch (DataFormatException e) {
+            throw new AgentException(ErrorCode.STORAGE_CORRUPTED, "Corrupted compressed message", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
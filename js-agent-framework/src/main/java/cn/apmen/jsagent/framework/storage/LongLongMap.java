@@ -0,0 +1,159 @@
+package cn.apmen.jsagent.framework.storage;
+
+import java.util.Arrays;
+
+/**
+ * long到long的开放寻址哈希表（线性探测），键值均为原始类型，不装箱
+ * 0用作空槽标记，不能作为键；删除采用后移法，不留墓碑；非线程安全，由调用方加锁
+ */
+public final class LongLongMap {
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private long[] values;
+    private int size;
+    private int mask;
+    private int resizeThreshold;
+
+    /**
+     * 遍历回调
+     */
+    public interface EntryConsumer {
+        void accept(long key, long value);
+    }
+
+    public LongLongMap() {
+        this(16);
+    }
+
+    public LongLongMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(8, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(long key) {
+        return indexOf(checkKey(key)) >= 0;
+    }
+
+    /**
+     * 获取键对应的值，不存在时返回defaultValue
+     */
+    public long get(long key, long defaultValue) {
+        int index = indexOf(checkKey(key));
+        return index >= 0 ? values[index] : defaultValue;
+    }
+
+    /**
+     * 写入键值，返回旧值，不存在时返回defaultValue
+     */
+    public long put(long key, long value, long defaultValue) {
+        long normalized = checkKey(key);
+        int index = slot(normalized);
+        while (keys[index] != 0) {
+            if (keys[index] == normalized) {
+                long previous = values[index];
+                values[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = normalized;
+        values[index] = value;
+        if (++size > resizeThreshold) {
+            rehash(keys.length * 2);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * 删除键，返回旧值，不存在时返回defaultValue
+     */
+    public long remove(long key, long defaultValue) {
+        int index = indexOf(checkKey(key));
+        if (index < 0) {
+            return defaultValue;
+        }
+        long previous = values[index];
+        // 后移法：把探测链上后续可以前移的元素依次填入空位
+        int hole = index;
+        int next = (hole + 1) & mask;
+        while (keys[next] != 0) {
+            int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = 0;
+        values[hole] = 0;
+        size--;
+        return previous;
+    }
+
+    public void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    private int indexOf(long normalized) {
+        int index = slot(normalized);
+        while (keys[index] != 0) {
+            if (keys[index] == normalized) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int slot(long normalized) {
+        long hash = normalized * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static long checkKey(long key) {
+        if (key == 0) {
+            throw new IllegalArgumentException("Key 0 is reserved");
+        }
+        return key;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int index = slot(oldKeys[i]);
+                while (keys[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+}
@@ -0,0 +1,231 @@
+package cn.apmen.jsagent.framework.storage;
+
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.exception.ErrorCode;
+import cn.apmen.jsagent.framework.openaiunified.model.request.FunctionCall;
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 消息二进制编解码器
+ * 格式：version(1) role content toolCallId toolCallCount [id type name arguments]...
+ * 字符串编码为 varint(UTF-8字节数 + 1) + 字节，长度0表示null；计数使用varint
+ */
+public final class MessageCodec {
+
+    private static final byte VERSION = 1;
+
+    private static final int MAX_INTERNED = 4096;
+    private static final int MAX_INTERNED_LENGTH = 128;
+    private static final Map<String, String> INTERNED = new ConcurrentHashMap<>();
+
+    private MessageCodec() {
+    }
+
+    /**
+     * 编码消息
+     */
+    public static byte[] encode(Message message) {
+        Writer writer = new Writer(estimateSize(message));
+        writer.writeByte(VERSION);
+        writer.writeString(message.getRole());
+        writer.writeString(message.getContent());
+        writer.writeString(message.getToolCallId());
+
+        List<ToolCall> toolCalls = message.getToolCalls();
+        if (toolCalls == null) {
+            writer.writeVarInt(0);
+        } else {
+            writer.writeVarInt(toolCalls.size() + 1);
+            for (ToolCall toolCall : toolCalls) {
+                FunctionCall function = toolCall.getFunction();
+                writer.writeString(toolCall.getId());
+                writer.writeString(toolCall.getType());
+                writer.writeString(function != null ? function.getName() : null);
+                writer.writeString(function != null ? function.getArguments() : null);
+            }
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * 解码消息，从buffer当前位置读取，不修改调用方持有的buffer位置
+     */
+    public static Message decode(ByteBuffer buffer) {
+        ByteBuffer in = buffer.duplicate();
+        try {
+            byte version = in.get();
+            if (version != VERSION) {
+                throw new AgentException(ErrorCode.STORAGE_CORRUPTED, "Unsupported message encoding version: " + version);
+            }
+            Message message = new Message();
+            message.setRole(intern(readString(in)));
+            message.setContent(readString(in));
+            message.setToolCallId(readString(in));
+
+            int toolCallCount = readVarInt(in);
+            if (toolCallCount > 0) {
+                List<ToolCall> toolCalls = new ArrayList<>(toolCallCount - 1);
+                for (int i = 0; i < toolCallCount - 1; i++) {
+                    ToolCall toolCall = new ToolCall();
+                    toolCall.setId(readString(in));
+                    toolCall.setType(intern(readString(in)));
+                    String name = intern(readString(in));
+                    String arguments = readString(in);
+                    if (name != null || arguments != null) {
+                        FunctionCall function = new FunctionCall();
+                        function.setName(name);
+                        function.setArguments(arguments);
+                        toolCall.setFunction(function);
+                    }
+                    toolCalls.add(toolCall);
+                }
+                message.setToolCalls(toolCalls);
+            }
+            return message;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new AgentException(ErrorCode.STORAGE_CORRUPTED, "Truncated message record", e);
+        }
+    }
+
+    /**
+     * 解码消息
+     */
+    public static Message decode(byte[] bytes) {
+        return decode(ByteBuffer.wrap(bytes));
+    }
+
+    private static int estimateSize(Message message) {
+        int size = 16;
+        size += message.getContent() != null ? message.getContent().length() * 3 : 0;
+        if (message.getToolCalls() != null) {
+            size += message.getToolCalls().size() * 64;
+        }
+        return size;
+    }
+
+    /**
+     * 角色、工具类型和工具名的取值有限，解码时共享同一实例
+     * 表满后不再收录新值，避免任意字符串撑大常驻表
+     */
+    private static String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        switch (value) {
+            case "system":
+                return "system";
+            case "user":
+                return "user";
+            case "assistant":
+                return "assistant";
+            case "tool":
+                return "tool";
+            case "function":
+                return "function";
+            default:
+                break;
+        }
+        String shared = INTERNED.get(value);
+        if (shared != null) {
+            return shared;
+        }
+        if (INTERNED.size() >= MAX_INTERNED || value.length() > MAX_INTERNED_LENGTH) {
+            return value;
+        }
+        shared = INTERNED.putIfAbsent(value, value);
+        return shared != null ? shared : value;
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = readVarInt(in);
+        if (length == 0) {
+            return null;
+        }
+        length -= 1;
+        if (length > in.remaining()) {
+            throw new IllegalArgumentException("String length exceeds record");
+        }
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * 可增长的字节写入器
+     */
+    private static final class Writer {
+
+        private byte[] buffer;
+
+        private int size;
+
+        Writer(int initialCapacity) {
+            this.buffer = new byte[Math.max(16, initialCapacity)];
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) value;
+        }
+
+        void writeVarInt(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length + 1);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+    }
+}
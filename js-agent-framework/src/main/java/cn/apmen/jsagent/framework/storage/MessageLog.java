@@ -0,0 +1,480 @@
+package cn.apmen.jsagent.framework.storage;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.token.TokenCounter;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 单个会话的内存消息日志
+ * 追加时维护token前缀和，上下文窗口起点通过二分查找定位，返回的列表为只读零拷贝视图
+ *
+ * 消息按固定大小的块存放，追加只写入当前块的空槽位，写完后以volatile方式发布新的State（块目录、条数、代数）；
+ * 读取方法只读取一次State，不加锁也不复制，视图范围以发布时的条数为界。
+ * 写入方法之间互斥（每个会话同一时刻只有一个写入者），读取从不阻塞写入
+ *
+ * 最近hotWindow条消息以Message对象保存；更早的消息转为 {@link CompactMessage}（UTF-8编码，较长时Deflate压缩），
+ * 整块都已变冷的块再合并压缩为一个 {@link CompactChunk}；
+ * 通过视图读取时才解码，解码结果带上追加时计算的token数，之后计数不再重新分词；
+ * 最近读取过的块由本日志按块下标缓存在少量槽位中（合并块的解压结果与块内已解码的消息），
+ * 同一块内的冷区消息重复读取得到同一实例，顺序遍历时每块只解压一次；缓存不计入retainedBytes，重建时清空
+ *
+ * 已发布的槽位只会原地替换为内容等价的紧凑形式（Message -> CompactMessage -> CompactChunk）；压缩（重建）写入全新的块，
+ * 因此之前返回的视图在后续追加或压缩后仍然保持一致
+ *
+ * 每次压缩（重建）都会递增generation，后台压缩据此判断快照之后前缀是否被改动过
+ */
+public final class MessageLog {
+
+    private static final int CHUNK_SHIFT = 6;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int INITIAL_DIRECTORY = 4;
+    // 解码缓存槽位数（2的幂），按块下标直接映射
+    private static final int DECODED_CHUNK_SLOTS = 4;
+
+    /**
+     * 默认以对象形式保留的最近消息条数
+     */
+    public static final int DEFAULT_HOT_WINDOW = 16;
+
+    private final TokenCounter tokenCounter;
+    private final int hotWindow;
+    private final int compressionThreshold;
+
+    private volatile State state = State.empty(0);
+
+    // 以下字段只由写入者（持有this锁）访问
+    // [0, compactedUpTo) 已转为紧凑形式
+    private int compactedUpTo;
+    // [0, sealedChunks) 块已尝试合并压缩
+    private int sealedChunks;
+
+    private volatile long retainedBytes;
+
+    // 最近读取的块的解码结果，读者之间共享；并发读取同一槽位时可能重复解码，只保留先写入的结果
+    private final AtomicReferenceArray<DecodedChunk> decodedChunks = new AtomicReferenceArray<>(DECODED_CHUNK_SLOTS);
+
+    public MessageLog(TokenCounter tokenCounter) {
+        this(tokenCounter, DEFAULT_HOT_WINDOW, CompactMessage.DEFAULT_COMPRESSION_THRESHOLD);
+    }
+
+    /**
+     * @param hotWindow 以对象形式保留的最近消息条数，小于0表示不转换
+     * @param compressionThreshold 冷区消息编码长度达到该值时压缩
+     */
+    public MessageLog(TokenCounter tokenCounter, int hotWindow, int compressionThreshold) {
+        this.tokenCounter = tokenCounter;
+        this.hotWindow = hotWindow;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * 追加一条消息
+     */
+    public synchronized void append(Message message) {
+        State current = state;
+        Appender appender = new Appender(current);
+        appender.add(message, tokenCounter.countMessageTokens(message), CompactMessage.estimateHeapBytes(message));
+        publish(appender.toState(current.generation));
+    }
+
+    /**
+     * 批量追加消息，整批一次发布
+     */
+    public synchronized void appendAll(List<Message> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        State current = state;
+        Appender appender = new Appender(current);
+        for (Message message : batch) {
+            appender.add(message, tokenCounter.countMessageTokens(message), CompactMessage.estimateHeapBytes(message));
+        }
+        publish(appender.toState(current.generation));
+    }
+
+    public int size() {
+        return state.size;
+    }
+
+    public boolean isEmpty() {
+        return state.size == 0;
+    }
+
+    /**
+     * 全部消息的token总数
+     */
+    public long totalTokens() {
+        State current = state;
+        return current.prefix(current.size);
+    }
+
+    /**
+     * 估算的消息堆内存占用（热区按对象估算，冷区按紧凑编码长度）
+     */
+    public long retainedBytes() {
+        return retainedBytes;
+    }
+
+    /**
+     * 当前的压缩代数，追加不改变代数
+     * 后台压缩需先读取代数再读取快照，以保证替换前缀时的一致性检查有效
+     */
+    public long generation() {
+        return state.generation;
+    }
+
+    /**
+     * 全部消息的只读视图
+     */
+    public List<Message> snapshot() {
+        State current = state;
+        return view(current, 0, current.size);
+    }
+
+    /**
+     * 最近limit条消息的只读视图
+     */
+    public List<Message> recent(int limit) {
+        State current = state;
+        return view(current, Math.max(0, current.size - Math.max(0, limit)), current.size);
+    }
+
+    /**
+     * 在token预算内的最近消息的只读视图
+     * 起点为满足 total - prefix[start] <= maxTokens 的最小start，前缀和单调不减，二分查找即可
+     */
+    public List<Message> contextWindow(long maxTokens) {
+        State current = state;
+        return view(current, current.windowStart(maxTokens), current.size);
+    }
+
+    /**
+     * 在token预算内的最近消息的起始下标
+     */
+    public int windowStart(long maxTokens) {
+        return state.windowStart(maxTokens);
+    }
+
+    /**
+     * 仅保留最近keepRecentCount条消息
+     */
+    public synchronized void retainRecent(int keepRecentCount) {
+        State current = state;
+        if (current.size <= keepRecentCount) {
+            return;
+        }
+        Appender appender = new Appender(State.empty(current.generation + 1));
+        appender.carry(current, current.size - keepRecentCount, current.size, compressionThreshold);
+        install(appender);
+    }
+
+    /**
+     * 用给定消息替换全部内容（用于压缩为摘要）
+     */
+    public synchronized void replace(List<Message> replacement) {
+        Appender appender = new Appender(State.empty(state.generation + 1));
+        for (Message message : replacement) {
+            appender.add(message, tokenCounter.countMessageTokens(message), CompactMessage.estimateHeapBytes(message));
+        }
+        install(appender);
+    }
+
+    /**
+     * 把前prefixLength条消息替换为给定消息，之后追加的消息保持不变
+     * 若generation已变化（期间发生过其他压缩）则放弃替换并返回false
+     */
+    public synchronized boolean replacePrefix(long expectedGeneration, int prefixLength, List<Message> replacement) {
+        State current = state;
+        if (current.generation != expectedGeneration || prefixLength > current.size) {
+            return false;
+        }
+        Appender appender = new Appender(State.empty(current.generation + 1));
+        for (Message message : replacement) {
+            appender.add(message, tokenCounter.countMessageTokens(message), CompactMessage.estimateHeapBytes(message));
+        }
+        appender.carry(current, prefixLength, current.size, compressionThreshold);
+        install(appender);
+        return true;
+    }
+
+    private void install(Appender appender) {
+        compactedUpTo = 0;
+        sealedChunks = 0;
+        retainedBytes = 0;
+        publish(appender.toState(appender.generation));
+        // 旧块不再出现在新状态中，释放其解码结果
+        for (int i = 0; i < DECODED_CHUNK_SLOTS; i++) {
+            decodedChunks.set(i, null);
+        }
+    }
+
+    /**
+     * 先把热区之外的槽位转为紧凑形式，再发布新状态
+     */
+    private void publish(State next) {
+        long bytes = retainedBytes + next.addedBytes;
+        if (hotWindow >= 0) {
+            int coldEnd = next.size - hotWindow;
+            for (int i = compactedUpTo; i < coldEnd; i++) {
+                Object[] chunk = next.entries[i >>> CHUNK_SHIFT];
+                Object entry = chunk[i & CHUNK_MASK];
+                if (entry instanceof Message) {
+                    Message message = (Message) entry;
+                    CompactMessage compact = CompactMessage.of(message, compressionThreshold);
+                    bytes += compact.retainedBytes() - CompactMessage.estimateHeapBytes(message);
+                    chunk[i & CHUNK_MASK] = compact;
+                }
+            }
+            compactedUpTo = Math.max(compactedUpTo, coldEnd);
+
+            // 整块变冷后合并压缩；槽位全部指向同一实例
+            for (int c = sealedChunks; (c + 1) * CHUNK_SIZE <= coldEnd; c++) {
+                Object[] chunk = next.entries[c];
+                if (!(chunk[0] instanceof CompactChunk)) {
+                    long separate = 0;
+                    for (Object entry : chunk) {
+                        separate += retainedBytesOf(entry);
+                    }
+                    CompactChunk sealed = CompactChunk.seal(chunk, CHUNK_SIZE, separate);
+                    if (sealed != null) {
+                        Arrays.fill(chunk, sealed);
+                        bytes += sealed.retainedBytes() - separate;
+                    }
+                }
+                sealedChunks = c + 1;
+            }
+        }
+        retainedBytes = bytes;
+        state = next;
+    }
+
+    private List<Message> view(State source, int from, int to) {
+        if (from >= to) {
+            return Collections.emptyList();
+        }
+        return new View(source, from, to);
+    }
+
+    /**
+     * 读取第index条消息，冷区条目解码后缓存并附带token数
+     */
+    private Message decode(State source, int index) {
+        Object entry = source.entry(index);
+        if (entry instanceof Message) {
+            return (Message) entry;
+        }
+        DecodedChunk decoded = decoded(source, index);
+        int slot = index & CHUNK_MASK;
+        Message message = decoded.messages.get(slot);
+        if (message != null) {
+            return message;
+        }
+        message = entry instanceof CompactChunk
+            ? ((CompactChunk) entry).message(decoded.inflate((CompactChunk) entry), slot)
+            : ((CompactMessage) entry).toMessage();
+        message.cacheTokenCount(tokenCounter, (int) (source.prefix(index + 1) - source.prefix(index)));
+        return decoded.messages.compareAndSet(slot, null, message) ? message : decoded.messages.get(slot);
+    }
+
+    /**
+     * 第index条消息所在块的解码缓存，按块数组判断命中：块数组只在重建时更换，原地替换的紧凑形式与已解码的消息内容等价
+     */
+    private DecodedChunk decoded(State source, int index) {
+        Object[] chunk = source.entries[index >>> CHUNK_SHIFT];
+        int slot = (index >>> CHUNK_SHIFT) & (DECODED_CHUNK_SLOTS - 1);
+        DecodedChunk cached = decodedChunks.get(slot);
+        if (cached != null && cached.source == chunk) {
+            return cached;
+        }
+        DecodedChunk created = new DecodedChunk(chunk);
+        decodedChunks.set(slot, created);
+        return created;
+    }
+
+    /**
+     * 单条消息的估算字节数，不适用于CompactChunk（整块统一计数）
+     */
+    private static long retainedBytesOf(Object entry) {
+        return entry instanceof CompactMessage
+            ? ((CompactMessage) entry).retainedBytes()
+            : CompactMessage.estimateHeapBytes((Message) entry);
+    }
+
+    /**
+     * 已发布的不可变状态
+     * 块目录可能与之后的状态共享，但本状态只访问[0, size)范围内的槽位
+     */
+    private static final class State {
+        private final Object[][] entries;
+        // tokens[i]为entries[0, i]的token总数（含第i条）
+        private final long[][] tokens;
+        private final int size;
+        private final long generation;
+        // 相对上一状态新增的估算字节数，只在发布时使用
+        private final long addedBytes;
+
+        private State(Object[][] entries, long[][] tokens, int size, long generation, long addedBytes) {
+            this.entries = entries;
+            this.tokens = tokens;
+            this.size = size;
+            this.generation = generation;
+            this.addedBytes = addedBytes;
+        }
+
+        private static State empty(long generation) {
+            return new State(new Object[INITIAL_DIRECTORY][], new long[INITIAL_DIRECTORY][], 0, generation, 0);
+        }
+
+        private Object entry(int index) {
+            return entries[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+        }
+
+        /**
+         * entries[0, index) 的token总数
+         */
+        private long prefix(int index) {
+            if (index == 0) {
+                return 0;
+            }
+            int last = index - 1;
+            return tokens[last >>> CHUNK_SHIFT][last & CHUNK_MASK];
+        }
+
+        private int windowStart(long maxTokens) {
+            long total = prefix(size);
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (total - prefix(mid) <= maxTokens) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * 写入者在已发布状态之后追加槽位，完成后生成新状态
+     * 只写入新状态可见范围之外的槽位，已发布状态的读者不受影响
+     */
+    private final class Appender {
+        private Object[][] entries;
+        private long[][] tokens;
+        private int size;
+        private long total;
+        private long addedBytes;
+        private final long generation;
+
+        private Appender(State base) {
+            this.entries = base.entries;
+            this.tokens = base.tokens;
+            this.size = base.size;
+            this.total = base.prefix(base.size);
+            this.generation = base.generation;
+        }
+
+        private void add(Object entry, long entryTokens, long entryBytes) {
+            int chunk = size >>> CHUNK_SHIFT;
+            if (chunk == entries.length) {
+                entries = Arrays.copyOf(entries, entries.length * 2);
+                tokens = Arrays.copyOf(tokens, tokens.length * 2);
+            }
+            if (entries[chunk] == null) {
+                entries[chunk] = new Object[CHUNK_SIZE];
+                tokens[chunk] = new long[CHUNK_SIZE];
+            }
+            total += entryTokens;
+            entries[chunk][size & CHUNK_MASK] = entry;
+            tokens[chunk][size & CHUNK_MASK] = total;
+            addedBytes += entryBytes;
+            size++;
+        }
+
+        /**
+         * 搬运旧状态中的条目：不重新计数token；合并块按槽位拆回单条紧凑形式，之后发布时重新合并
+         */
+        private void carry(State source, int from, int to, int compressionThreshold) {
+            for (int i = from; i < to; i++) {
+                Object entry = source.entry(i);
+                if (entry instanceof CompactChunk) {
+                    CompactChunk chunk = (CompactChunk) entry;
+                    entry = chunk.compact(decoded(source, i).inflate(chunk), i & CHUNK_MASK, compressionThreshold);
+                }
+                add(entry, source.prefix(i + 1) - source.prefix(i), retainedBytesOf(entry));
+            }
+        }
+
+        private State toState(long stateGeneration) {
+            return new State(entries, tokens, size, stateGeneration, addedBytes);
+        }
+    }
+
+    /**
+     * 只读视图，冷区条目在get时解码（命中缓存时直接返回已解码的实例）
+     */
+    private final class View extends AbstractList<Message> implements RandomAccess {
+        private final State state;
+        private final int from;
+        private final int size;
+
+        private View(State state, int from, int to) {
+            this.state = state;
+            this.from = from;
+            this.size = to - from;
+        }
+
+        @Override
+        public Message get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return decode(state, from + index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public List<Message> subList(int fromIndex, int toIndex) {
+            if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+                throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", size: " + size);
+            }
+            return fromIndex == toIndex ? Collections.emptyList() : new View(state, from + fromIndex, from + toIndex);
+        }
+    }
+
+    /**
+     * 一个块的解码缓存：合并块的解压结果与各槽位已解码的消息
+     */
+    private static final class DecodedChunk {
+        private final Object[] source;
+        private final AtomicReferenceArray<Message> messages = new AtomicReferenceArray<>(CHUNK_SIZE);
+        // 每个块数组至多合并压缩一次，解压结果无需按CompactChunk区分
+        private volatile byte[] inflated;
+
+        private DecodedChunk(Object[] source) {
+            this.source = source;
+        }
+
+        private byte[] inflate(CompactChunk chunk) {
+            byte[] bytes = inflated;
+            if (bytes == null) {
+                bytes = chunk.inflate();
+                inflated = bytes;
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package cn.apmen.jsagent.framework.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 堆外slab分配器
+ * 内存按slab页（ByteBuffer.allocateDirect）申请，每页切分为同一尺寸等级的块，等级为2的幂（最小64字节，最大一页）；
+ * 每页用位图记录空闲块，每个等级把仍有空闲块的页串成双向链表；分配与释放都不遍历其他页，
+ * 页内块全部释放后整页从链表摘下归还页池，可被其他等级复用
+ *
+ * 句柄格式：页号（高32位）| 页内偏移（低32位）；块首4字节保存数据长度
+ * 分配与释放互斥；读写块内容不加锁，由调用方保证同一句柄不会被并发释放
+ */
+public final class OffHeapSlabStore {
+
+    private static final int MIN_BLOCK_SHIFT = 6;
+    private static final int LENGTH_HEADER = 4;
+
+    private final int slabSize;
+    private final int maxSlabs;
+    private final int classCount;
+
+    private final List<Slab> slabs = new ArrayList<>();
+    private final ArrayDeque<Integer> releasedSlabIds = new ArrayDeque<>();
+
+    // 每个等级有空闲块的页链表头（页号），-1表示没有
+    private final int[] partialHeads;
+
+    private long usedBytes;
+    private int liveSlabs;
+
+    /**
+     * @param capacityBytes 堆外内存上限
+     * @param slabSize 单页大小，同时是单个块的最大尺寸，需为2的幂
+     */
+    public OffHeapSlabStore(long capacityBytes, int slabSize) {
+        if (Integer.bitCount(slabSize) != 1 || slabSize < (1 << MIN_BLOCK_SHIFT)) {
+            throw new IllegalArgumentException("slabSize must be a power of two >= 64: " + slabSize);
+        }
+        this.slabSize = slabSize;
+        this.maxSlabs = (int) Math.min(Integer.MAX_VALUE, capacityBytes / slabSize);
+        this.classCount = Integer.numberOfTrailingZeros(slabSize) - MIN_BLOCK_SHIFT + 1;
+        this.partialHeads = new int[classCount];
+        Arrays.fill(partialHeads, -1);
+    }
+
+    /**
+     * 单个块能容纳的最大数据长度
+     */
+    public int maxLength() {
+        return slabSize - LENGTH_HEADER;
+    }
+
+    /**
+     * 分配能容纳length字节的块
+     * @return 块句柄；超过单块上限或内存已满时返回-1
+     */
+    public synchronized long allocate(int length) {
+        if (length < 0 || length > maxLength()) {
+            return -1;
+        }
+        int sizeClass = sizeClass(length + LENGTH_HEADER);
+        if (partialHeads[sizeClass] < 0 && !addSlab(sizeClass)) {
+            return -1;
+        }
+        int slabId = partialHeads[sizeClass];
+        Slab slab = slabs.get(slabId);
+        int block = slab.takeFreeBlock();
+        if (slab.usedBlocks == slab.blockCount) {
+            unlink(slabId, slab);
+        }
+        long handle = handle(slabId, block << (sizeClass + MIN_BLOCK_SHIFT));
+        slab.buffer.putInt(offset(handle), length);
+        usedBytes += blockSize(sizeClass);
+        return handle;
+    }
+
+    /**
+     * 容纳length字节数据的块所属的尺寸等级
+     */
+    public int sizeClassFor(int length) {
+        return sizeClass(length + LENGTH_HEADER);
+    }
+
+    /**
+     * 句柄所在块的尺寸等级
+     */
+    public int sizeClassOf(long handle) {
+        return slabOf(handle).sizeClass;
+    }
+
+    /**
+     * 尺寸等级的数量，等级取值为[0, sizeClassCount)
+     */
+    public int sizeClassCount() {
+        return classCount;
+    }
+
+    /**
+     * 释放该块后所在页是否整页空闲（整页归还页池后可被任意等级复用）
+     */
+    public synchronized boolean isLastInSlab(long handle) {
+        return slabOf(handle).usedBlocks == 1;
+    }
+
+    /**
+     * 块内数据区的读写视图，position为0，limit为分配时的长度
+     */
+    public ByteBuffer buffer(long handle) {
+        Slab slab = slabOf(handle);
+        int offset = offset(handle);
+        ByteBuffer view = slab.buffer.duplicate();
+        int length = view.getInt(offset);
+        view.position(offset + LENGTH_HEADER).limit(offset + LENGTH_HEADER + length);
+        return view.slice();
+    }
+
+    /**
+     * 释放块，页内块全部空闲时归还整页
+     */
+    public synchronized void free(long handle) {
+        Slab slab = slabOf(handle);
+        int slabId = slabId(handle);
+        int sizeClass = slab.sizeClass;
+        boolean wasFull = slab.usedBlocks == slab.blockCount;
+        slab.releaseBlock(offset(handle) >>> (sizeClass + MIN_BLOCK_SHIFT));
+        usedBytes -= blockSize(sizeClass);
+        if (slab.usedBlocks == 0) {
+            releaseSlab(slabId, slab);
+        } else if (wasFull) {
+            link(slabId, slab);
+        }
+    }
+
+    /**
+     * 已分配块占用的字节数（按块尺寸计）
+     */
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * 已申请的堆外内存字节数
+     */
+    public synchronized long reservedBytes() {
+        return (long) liveSlabs * slabSize;
+    }
+
+    public long capacityBytes() {
+        return (long) maxSlabs * slabSize;
+    }
+
+    private boolean addSlab(int sizeClass) {
+        Integer reused = releasedSlabIds.poll();
+        int slabId;
+        Slab slab;
+        if (reused != null) {
+            slabId = reused;
+            slab = slabs.get(slabId);
+        } else {
+            if (slabs.size() >= maxSlabs) {
+                return false;
+            }
+            slabId = slabs.size();
+            slab = new Slab(ByteBuffer.allocateDirect(slabSize));
+            slabs.add(slab);
+        }
+        slab.format(sizeClass, slabSize >>> (sizeClass + MIN_BLOCK_SHIFT));
+        slab.live = true;
+        liveSlabs++;
+        link(slabId, slab);
+        return true;
+    }
+
+    private void releaseSlab(int slabId, Slab slab) {
+        unlink(slabId, slab);
+        slab.live = false;
+        liveSlabs--;
+        releasedSlabIds.push(slabId);
+    }
+
+    /**
+     * 把页挂到所属等级的空闲链表头部
+     */
+    private void link(int slabId, Slab slab) {
+        int head = partialHeads[slab.sizeClass];
+        slab.previous = -1;
+        slab.next = head;
+        if (head >= 0) {
+            slabs.get(head).previous = slabId;
+        }
+        partialHeads[slab.sizeClass] = slabId;
+        slab.linked = true;
+    }
+
+    private void unlink(int slabId, Slab slab) {
+        if (!slab.linked) {
+            return;
+        }
+        if (slab.previous >= 0) {
+            slabs.get(slab.previous).next = slab.next;
+        } else {
+            partialHeads[slab.sizeClass] = slab.next;
+        }
+        if (slab.next >= 0) {
+            slabs.get(slab.next).previous = slab.previous;
+        }
+        slab.previous = -1;
+        slab.next = -1;
+        slab.linked = false;
+    }
+
+    private Slab slabOf(long handle) {
+        Slab slab;
+        synchronized (this) {
+            slab = slabs.get(slabId(handle));
+        }
+        if (!slab.live) {
+            throw new IllegalStateException("Block " + Long.toHexString(handle) + " belongs to a released slab");
+        }
+        return slab;
+    }
+
+    private int sizeClass(int bytes) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(bytes, 1 << MIN_BLOCK_SHIFT) - 1);
+        return shift - MIN_BLOCK_SHIFT;
+    }
+
+    private static int blockSize(int sizeClass) {
+        return 1 << (sizeClass + MIN_BLOCK_SHIFT);
+    }
+
+    private static long handle(int slabId, int offset) {
+        return ((long) slabId << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int slabId(long handle) {
+        return (int) (handle >>> 32);
+    }
+
+    private static int offset(long handle) {
+        return (int) handle;
+    }
+
+    /**
+     * 一页及其空闲位图，除live外的字段由store锁保护
+     */
+    private static final class Slab {
+        private final ByteBuffer buffer;
+        private int sizeClass;
+        private int blockCount;
+        private int usedBlocks;
+        // 第i位为1表示第i块空闲
+        private long[] freeBits = new long[0];
+        // 可能含空闲块的最小字下标，分配从这里向后查找
+        private int firstFreeWord;
+        // 等级空闲链表中的前后页号
+        private int previous = -1;
+        private int next = -1;
+        private boolean linked;
+        private volatile boolean live;
+
+        private Slab(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private void format(int sizeClass, int blockCount) {
+            this.sizeClass = sizeClass;
+            this.blockCount = blockCount;
+            this.usedBlocks = 0;
+            int words = (blockCount + 63) >>> 6;
+            if (freeBits.length != words) {
+                freeBits = new long[words];
+            }
+            Arrays.fill(freeBits, -1L);
+            if ((blockCount & 63) != 0) {
+                freeBits[words - 1] = (1L << (blockCount & 63)) - 1;
+            }
+            firstFreeWord = 0;
+        }
+
+        /**
+         * 取出下标最小的空闲块，调用方保证页内有空闲块
+         */
+        private int takeFreeBlock() {
+            int word = firstFreeWord;
+            while (freeBits[word] == 0) {
+                word++;
+            }
+            int bit = Long.numberOfTrailingZeros(freeBits[word]);
+            freeBits[word] &= ~(1L << bit);
+            firstFreeWord = word;
+            usedBlocks++;
+            return (word << 6) | bit;
+        }
+
+        private void releaseBlock(int block) {
+            int word = block >>> 6;
+            freeBits[word] |= 1L << (block & 63);
+            firstFreeWord = Math.min(firstFreeWord, word);
+            usedBlocks--;
+        }
+    }
+}
@@ -0,0 +1,901 @@
+package cn.apmen.jsagent.framework.storage;
+
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.exception.ErrorCode;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * 只追加的内存映射段文件存储
+ *
+ * 数据按key（会话ID）组织为记录链：每条记录保存同一key上一条记录的地址，
+ * 内存索引中每个key只保存链头地址和有效消息数，消息内容保留在映射文件中不占用堆内存。
+ *
+ * 记录格式：length(4) crc32c(4) prev(8) kind(1) keyLength(2) value(4) key payload
+ * 地址格式：段ID（高32位）| 段内偏移（低32位）
+ *
+ * - 写入：单写锁顺序追加，按刷盘模式由后台线程组提交fsync
+ * - 恢复：启动时按段顺序扫描并校验CRC，遇到残缺记录即截断该段尾部
+ * - 压缩：后台按从旧到新的顺序检查最旧段，垃圾比例超过阈值时把其中仍然有效的key整体搬到活跃段后删除该段
+ */
+@Slf4j
+public class SegmentStore implements Closeable {
+
+    private static final int FILE_MAGIC = 0x4A534753;
+    private static final int FILE_VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 23;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte[] EMPTY = new byte[0];
+
+    static final byte KIND_APPEND = 1;
+    static final byte KIND_TRUNCATE = 2;
+    static final byte KIND_CLEAR = 3;
+    static final byte KIND_DELETE = 4;
+    static final byte KIND_METADATA = 5;
+
+    private final SegmentStoreConfig config;
+
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+
+    // 索引：key -> 链头地址、有效消息数、元数据地址
+    private final Map<String, KeyState> index = new ConcurrentHashMap<>();
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+
+    // 压缩串行执行，不与刷盘共用锁以免阻塞组提交
+    private final ReentrantLock compactionLock = new ReentrantLock();
+
+    // 读者持有读锁遍历记录链，压缩删除段时持有写锁
+    private final ReentrantReadWriteLock segmentLock = new ReentrantReadWriteLock();
+
+    private final BlockingQueue<CompletableFuture<Void>> pendingSyncs = new LinkedBlockingQueue<>();
+
+    private final Thread flusher;
+
+    private final ScheduledExecutorService compactor;
+
+    private volatile Segment active;
+
+    private volatile boolean closed;
+
+    // 统计信息
+    private final AtomicLong recordsWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong syncBatches = new AtomicLong();
+    private final AtomicLong syncedWrites = new AtomicLong();
+    private final AtomicLong segmentsCompacted = new AtomicLong();
+    private final AtomicLong bytesReclaimed = new AtomicLong();
+    private final AtomicLong recoveredRecords = new AtomicLong();
+    private final AtomicLong truncatedTails = new AtomicLong();
+
+    public SegmentStore(SegmentStoreConfig config) {
+        if (config.getDirectory() == null) {
+            throw new AgentException(ErrorCode.CONFIG_MISSING, "Segment store directory is required");
+        }
+        if (config.getSegmentSize() <= FILE_HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new AgentException(ErrorCode.CONFIG_INVALID, "Segment size too small: " + config.getSegmentSize());
+        }
+        this.config = config;
+
+        try {
+            Files.createDirectories(config.getDirectory());
+            recover();
+        } catch (IOException e) {
+            throw new AgentException(ErrorCode.STORAGE_IO_FAILED, "Failed to open segment store at " + config.getDirectory(), e);
+        }
+
+        if (config.getSyncMode() == SegmentStoreConfig.SyncMode.GROUP_COMMIT) {
+            flusher = new Thread(this::flushLoop, "segment-store-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        } else {
+            flusher = null;
+        }
+
+        Duration compactionInterval = config.getCompactionInterval();
+        if (compactionInterval != null && !compactionInterval.isZero()) {
+            compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "segment-store-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            compactor.scheduleWithFixedDelay(this::compactQuietly,
+                compactionInterval.toMillis(), compactionInterval.toMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            compactor = null;
+        }
+
+        log.info("Segment store opened: dir={}, segments={}, keys={}, recoveredRecords={}",
+            config.getDirectory(), segments.size(), index.size(), recoveredRecords.get());
+    }
+
+    /**
+     * 追加一条消息记录
+     */
+    public CompletableFuture<Void> append(String key, byte[] payload) {
+        return appendAll(key, List.of(payload));
+    }
+
+    /**
+     * 批量追加消息记录
+     */
+    public CompletableFuture<Void> appendAll(String key, List<byte[]> payloads) {
+        if (payloads.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        appendLock.lock();
+        try {
+            KeyState state = index.getOrDefault(key, KeyState.EMPTY);
+            long head = state.head;
+            for (byte[] payload : payloads) {
+                head = writeRecord(key, KIND_APPEND, head, 0, payload);
+            }
+            index.put(key, new KeyState(head, state.count + payloads.size(), state.metadata));
+        } finally {
+            appendLock.unlock();
+        }
+        return sync();
+    }
+
+    /**
+     * 只保留最近keepRecent条消息
+     */
+    public CompletableFuture<Void> truncate(String key, int keepRecent) {
+        appendLock.lock();
+        try {
+            KeyState state = index.get(key);
+            if (state == null || state.count <= keepRecent) {
+                return CompletableFuture.completedFuture(null);
+            }
+            long address = writeRecord(key, KIND_TRUNCATE, state.head, keepRecent, EMPTY);
+            index.put(key, new KeyState(address, keepRecent, state.metadata));
+        } finally {
+            appendLock.unlock();
+        }
+        return sync();
+    }
+
+    /**
+     * 用给定消息整体替换key的有效消息（用于带摘要的压缩）
+     */
+    public CompletableFuture<Void> replace(String key, List<byte[]> payloads) {
+        appendLock.lock();
+        try {
+            KeyState state = index.getOrDefault(key, KeyState.EMPTY);
+            long head = writeRecord(key, KIND_CLEAR, state.head, 0, EMPTY);
+            for (byte[] payload : payloads) {
+                head = writeRecord(key, KIND_APPEND, head, 0, payload);
+            }
+            index.put(key, new KeyState(head, payloads.size(), state.metadata));
+        } finally {
+            appendLock.unlock();
+        }
+        return sync();
+    }
+
+    /**
+     * 读取并替换key的有效消息，读取与写入在同一次写锁内完成，期间不会有追加被覆盖
+     * @param rewriter 输入当前有效消息，返回替换后的消息；返回null表示不修改
+     */
+    public CompletableFuture<Void> rewrite(String key, Function<List<ByteBuffer>, List<byte[]>> rewriter) {
+        appendLock.lock();
+        try {
+            KeyState state = index.getOrDefault(key, KeyState.EMPTY);
+            List<byte[]> payloads = rewriter.apply(readRecent(key, state.count));
+            if (payloads == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            long head = writeRecord(key, KIND_CLEAR, state.head, 0, EMPTY);
+            for (byte[] payload : payloads) {
+                head = writeRecord(key, KIND_APPEND, head, 0, payload);
+            }
+            index.put(key, new KeyState(head, payloads.size(), state.metadata));
+        } finally {
+            appendLock.unlock();
+        }
+        return sync();
+    }
+
+    /**
+     * 清空key的消息，保留元数据
+     */
+    public CompletableFuture<Void> clear(String key) {
+        return replace(key, List.of());
+    }
+
+    /**
+     * 删除key的消息和元数据
+     */
+    public CompletableFuture<Void> delete(String key) {
+        appendLock.lock();
+        try {
+            if (index.remove(key) == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            writeRecord(key, KIND_DELETE, -1, 0, EMPTY);
+        } finally {
+            appendLock.unlock();
+        }
+        return sync();
+    }
+
+    /**
+     * 写入key的元数据（覆盖）
+     */
+    public CompletableFuture<Void> putMetadata(String key, byte[] payload) {
+        appendLock.lock();
+        try {
+            KeyState state = index.getOrDefault(key, KeyState.EMPTY);
+            long address = writeRecord(key, KIND_METADATA, -1, 0, payload);
+            index.put(key, new KeyState(state.head, state.count, address));
+        } finally {
+            appendLock.unlock();
+        }
+        return sync();
+    }
+
+    /**
+     * key还没有元数据时写入元数据，检查与写入在写锁内完成
+     * @param payload 只在需要写入时调用
+     */
+    public CompletableFuture<Void> putMetadataIfAbsent(String key, Supplier<byte[]> payload) {
+        appendLock.lock();
+        try {
+            KeyState state = index.getOrDefault(key, KeyState.EMPTY);
+            if (state.metadata >= 0) {
+                return CompletableFuture.completedFuture(null);
+            }
+            long address = writeRecord(key, KIND_METADATA, -1, 0, payload.get());
+            index.put(key, new KeyState(state.head, state.count, address));
+        } finally {
+            appendLock.unlock();
+        }
+        return sync();
+    }
+
+    /**
+     * 读取key的全部有效消息（按写入顺序），返回映射文件上的只读视图
+     */
+    public List<ByteBuffer> read(String key) {
+        return readRecent(key, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 读取key最近limit条有效消息（按写入顺序），只遍历需要的记录
+     */
+    public List<ByteBuffer> readRecent(String key, int limit) {
+        segmentLock.readLock().lock();
+        try {
+            KeyState state = index.get(key);
+            if (state == null || state.count == 0 || limit <= 0) {
+                return new ArrayList<>();
+            }
+            int wanted = Math.min(limit, state.count);
+            ByteBuffer[] result = new ByteBuffer[wanted];
+            int remaining = wanted;
+            long address = state.head;
+            while (remaining > 0 && address >= 0) {
+                Segment segment = segmentFor(address);
+                int position = position(address);
+                if (segment.buffer.get(position + 16) == KIND_APPEND) {
+                    result[--remaining] = payloadView(segment, position);
+                }
+                address = segment.buffer.getLong(position + 8);
+            }
+            if (remaining > 0) {
+                log.warn("Record chain for key {} ended early, expected {} messages, found {}", key, wanted, wanted - remaining);
+                return new ArrayList<>(Arrays.asList(result).subList(remaining, wanted));
+            }
+            return new ArrayList<>(Arrays.asList(result));
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 读取key的元数据
+     */
+    public ByteBuffer readMetadata(String key) {
+        segmentLock.readLock().lock();
+        try {
+            KeyState state = index.get(key);
+            if (state == null || state.metadata < 0) {
+                return null;
+            }
+            return payloadView(segmentFor(state.metadata), position(state.metadata));
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 遍历所有带元数据的key
+     */
+    public void forEachMetadata(BiConsumer<String, ByteBuffer> consumer) {
+        for (String key : index.keySet()) {
+            ByteBuffer metadata = readMetadata(key);
+            if (metadata != null) {
+                consumer.accept(key, metadata);
+            }
+        }
+    }
+
+    /**
+     * key的有效消息数
+     */
+    public int count(String key) {
+        KeyState state = index.get(key);
+        return state != null ? state.count : 0;
+    }
+
+    /**
+     * key是否存在（有消息或元数据）
+     */
+    public boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * 压缩最旧的段，直到最旧段的垃圾比例低于阈值
+     * @return 回收的段数量
+     */
+    public int compact() {
+        compactionLock.lock();
+        try {
+            return compactOldestSegments();
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    private int compactOldestSegments() {
+        int reclaimed = 0;
+        while (!closed) {
+            Segment oldest = segments.firstEntry() != null ? segments.firstEntry().getValue() : null;
+            if (oldest == null || oldest == active) {
+                break;
+            }
+            Set<String> keys = new HashSet<>();
+            long liveBytes = measureLiveBytes(oldest, keys);
+            long usedBytes = oldest.writePosition - FILE_HEADER_SIZE;
+            double garbageRatio = usedBytes > 0 ? 1.0 - (double) liveBytes / usedBytes : 1.0;
+            if (garbageRatio < config.getCompactionThreshold()) {
+                break;
+            }
+
+            for (String key : keys) {
+                relocate(key, oldest.id);
+            }
+            // 搬迁的数据落盘后才能删除旧段
+            forceDirty();
+            removeSegment(oldest);
+
+            segmentsCompacted.incrementAndGet();
+            bytesReclaimed.addAndGet(usedBytes - liveBytes);
+            reclaimed++;
+            log.info("Compacted segment {}: garbage={}%, relocated {} keys",
+                oldest.id, Math.round(garbageRatio * 100), keys.size());
+        }
+        return reclaimed;
+    }
+
+    /**
+     * 获取存储统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("directory", config.getDirectory().toString());
+        stats.put("segments", segments.size());
+        stats.put("keys", index.size());
+        stats.put("recordsWritten", recordsWritten.get());
+        stats.put("bytesWritten", bytesWritten.get());
+        stats.put("syncBatches", syncBatches.get());
+        stats.put("syncedWrites", syncedWrites.get());
+        stats.put("averageSyncBatch", syncBatches.get() > 0 ? (double) syncedWrites.get() / syncBatches.get() : 0.0);
+        stats.put("segmentsCompacted", segmentsCompacted.get());
+        stats.put("bytesReclaimed", bytesReclaimed.get());
+        stats.put("recoveredRecords", recoveredRecords.get());
+        stats.put("truncatedTails", truncatedTails.get());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        if (flusher != null) {
+            try {
+                flusher.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        forceDirty();
+        completePendingSyncs(null);
+        for (Segment segment : segments.values()) {
+            closeQuietly(segment);
+        }
+        log.info("Segment store closed: {}", config.getDirectory());
+    }
+
+    // ==================== 写入与刷盘 ====================
+
+    /**
+     * 写入一条记录，调用方必须持有appendLock
+     */
+    private long writeRecord(String key, byte kind, long prev, int value, byte[] payload) {
+        if (closed) {
+            throw new AgentException(ErrorCode.STORAGE_IO_FAILED, "Segment store is closed");
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > 0xFFFF) {
+            throw new AgentException(ErrorCode.STORAGE_RECORD_TOO_LARGE, "Key too long: " + keyBytes.length + " bytes");
+        }
+        int length = RECORD_HEADER_SIZE + keyBytes.length + payload.length;
+        if (length > config.getSegmentSize() - FILE_HEADER_SIZE) {
+            throw new AgentException(ErrorCode.STORAGE_RECORD_TOO_LARGE,
+                "Record of " + length + " bytes exceeds segment size " + config.getSegmentSize());
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.putInt(length).putInt(0).putLong(prev).put(kind)
+            .putShort((short) keyBytes.length).putInt(value).put(keyBytes).put(payload);
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), 8, length - 8);
+        record.putInt(4, (int) crc.getValue());
+
+        Segment segment = active;
+        if (segment.writePosition + length > segment.capacity) {
+            segment = roll();
+        }
+        int position = segment.writePosition;
+        segment.buffer.put(position, record.array());
+        segment.writePosition = position + length;
+
+        recordsWritten.incrementAndGet();
+        bytesWritten.addAndGet(length);
+        return address(segment.id, position);
+    }
+
+    private CompletableFuture<Void> sync() {
+        if (flusher == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        pendingSyncs.add(future);
+        return future;
+    }
+
+    /**
+     * 组提交循环：一次force确认此前排队的全部写入，force期间到达的写入进入下一批
+     */
+    private void flushLoop() {
+        while (!closed || !pendingSyncs.isEmpty()) {
+            try {
+                CompletableFuture<Void> first = pendingSyncs.poll(config.getFlushInterval().toMillis(), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<CompletableFuture<Void>> batch = new ArrayList<>();
+                batch.add(first);
+                pendingSyncs.drainTo(batch);
+                try {
+                    forceDirty();
+                    batch.forEach(future -> future.complete(null));
+                    syncBatches.incrementAndGet();
+                    syncedWrites.addAndGet(batch.size());
+                } catch (RuntimeException e) {
+                    batch.forEach(future -> future.completeExceptionally(e));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    private synchronized void forceDirty() {
+        for (Segment segment : segments.values()) {
+            int written = segment.writePosition;
+            if (written > segment.flushedPosition) {
+                try {
+                    segment.buffer.force(segment.flushedPosition, written - segment.flushedPosition);
+                    segment.flushedPosition = written;
+                } catch (RuntimeException e) {
+                    throw new AgentException(ErrorCode.STORAGE_IO_FAILED, "Failed to sync segment " + segment.id, e);
+                }
+            }
+        }
+    }
+
+    private void completePendingSyncs(Throwable error) {
+        List<CompletableFuture<Void>> remaining = new ArrayList<>();
+        pendingSyncs.drainTo(remaining);
+        remaining.forEach(future -> {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(null);
+            }
+        });
+    }
+
+    /**
+     * 切换到新的活跃段，调用方必须持有appendLock
+     */
+    private Segment roll() {
+        int nextId = active.id + 1;
+        try {
+            Segment segment = openSegment(nextId, segmentPath(nextId), true);
+            segments.put(nextId, segment);
+            active = segment;
+            log.debug("Rolled to new segment {}", nextId);
+            return segment;
+        } catch (IOException e) {
+            throw new AgentException(ErrorCode.STORAGE_IO_FAILED, "Failed to create segment " + nextId, e);
+        }
+    }
+
+    // ==================== 恢复 ====================
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(config.getDirectory())) {
+            files = stream
+                .filter(path -> {
+                    String name = path.getFileName().toString();
+                    return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                })
+                .sorted()
+                .toList();
+        }
+
+        for (Path file : files) {
+            int id = segmentId(file);
+            Segment segment = openSegment(id, file, false);
+            segments.put(id, segment);
+            scanSegment(segment);
+        }
+
+        if (segments.isEmpty()) {
+            Segment segment = openSegment(1, segmentPath(1), true);
+            segments.put(1, segment);
+        }
+        active = segments.lastEntry().getValue();
+    }
+
+    /**
+     * 扫描段文件重建索引，遇到长度为0或CRC不匹配的记录视为段尾
+     */
+    private void scanSegment(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        if (buffer.getInt(0) != FILE_MAGIC) {
+            throw new AgentException(ErrorCode.STORAGE_CORRUPTED, "Invalid segment header: " + segment.path);
+        }
+        int position = FILE_HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= segment.capacity) {
+            int length = buffer.getInt(position);
+            if (length == 0) {
+                break;
+            }
+            if (length < RECORD_HEADER_SIZE || position + length > segment.capacity || !crcMatches(buffer, position, length)) {
+                int tornEnd = length >= RECORD_HEADER_SIZE ? Math.min(segment.capacity, position + length) : position + RECORD_HEADER_SIZE;
+                buffer.put(position, new byte[tornEnd - position]);
+                truncatedTails.incrementAndGet();
+                log.warn("Truncated torn record in segment {} at offset {}", segment.id, position);
+                break;
+            }
+            applyRecovered(segment, position);
+            recoveredRecords.incrementAndGet();
+            position += length;
+        }
+        segment.writePosition = position;
+        segment.flushedPosition = position;
+    }
+
+    private void applyRecovered(Segment segment, int position) {
+        MappedByteBuffer buffer = segment.buffer;
+        String key = readKey(buffer, position);
+        byte kind = buffer.get(position + 16);
+        long address = address(segment.id, position);
+        KeyState state = index.getOrDefault(key, KeyState.EMPTY);
+        switch (kind) {
+            case KIND_APPEND -> index.put(key, new KeyState(address, state.count + 1, state.metadata));
+            case KIND_TRUNCATE -> index.put(key,
+                new KeyState(address, Math.min(state.count, buffer.getInt(position + 19)), state.metadata));
+            case KIND_CLEAR -> index.put(key, new KeyState(address, 0, state.metadata));
+            case KIND_DELETE -> index.remove(key);
+            case KIND_METADATA -> index.put(key, new KeyState(state.head, state.count, address));
+            default -> log.warn("Unknown record kind {} in segment {} at offset {}", kind, segment.id, position);
+        }
+    }
+
+    // ==================== 压缩 ====================
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (Exception e) {
+            log.warn("Segment compaction failed", e);
+        }
+    }
+
+    /**
+     * 统计段中仍然有效的字节数，并收集需要搬迁的key
+     * 控制记录（截断/清空/删除）只影响更旧的记录，最旧段中的控制记录总是可以丢弃
+     */
+    private long measureLiveBytes(Segment segment, Set<String> liveKeys) {
+        Map<String, Set<Long>> liveAddresses = new HashMap<>();
+        long liveBytes = 0;
+        int position = FILE_HEADER_SIZE;
+        while (position < segment.writePosition) {
+            int length = segment.buffer.getInt(position);
+            byte kind = segment.buffer.get(position + 16);
+            long address = address(segment.id, position);
+            String key = readKey(segment.buffer, position);
+            KeyState state = index.get(key);
+            boolean live = false;
+            if (state != null) {
+                if (kind == KIND_APPEND) {
+                    live = liveAddresses.computeIfAbsent(key, k -> chainAddresses(state)).contains(address);
+                } else if (kind == KIND_METADATA) {
+                    live = state.metadata == address;
+                }
+            }
+            if (live) {
+                liveBytes += length;
+                liveKeys.add(key);
+            }
+            position += length;
+        }
+        return liveBytes;
+    }
+
+    private Set<Long> chainAddresses(KeyState state) {
+        Set<Long> addresses = new HashSet<>();
+        segmentLock.readLock().lock();
+        try {
+            int remaining = state.count;
+            long address = state.head;
+            while (remaining > 0 && address >= 0) {
+                Segment segment = segmentFor(address);
+                int position = position(address);
+                if (segment.buffer.get(position + 16) == KIND_APPEND) {
+                    addresses.add(address);
+                    remaining--;
+                }
+                address = segment.buffer.getLong(position + 8);
+            }
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+        return addresses;
+    }
+
+    /**
+     * 把key的完整有效链（及元数据）重写到活跃段：CLEAR + 全部有效消息
+     */
+    private void relocate(String key, int victimSegmentId) {
+        appendLock.lock();
+        try {
+            KeyState state = index.get(key);
+            if (state == null) {
+                return;
+            }
+            boolean chainTouchesVictim = chainAddresses(state).stream()
+                .anyMatch(address -> segmentId(address) == victimSegmentId);
+            boolean metadataInVictim = state.metadata >= 0 && segmentId(state.metadata) == victimSegmentId;
+
+            long head = state.head;
+            int count = state.count;
+            if (chainTouchesVictim) {
+                List<ByteBuffer> payloads = readRecent(key, state.count);
+                head = writeRecord(key, KIND_CLEAR, -1, 0, EMPTY);
+                for (ByteBuffer payload : payloads) {
+                    byte[] bytes = new byte[payload.remaining()];
+                    payload.get(bytes);
+                    head = writeRecord(key, KIND_APPEND, head, 0, bytes);
+                }
+                count = payloads.size();
+            }
+            long metadata = state.metadata;
+            if (metadataInVictim) {
+                ByteBuffer payload = readMetadata(key);
+                byte[] bytes = new byte[payload.remaining()];
+                payload.get(bytes);
+                metadata = writeRecord(key, KIND_METADATA, -1, 0, bytes);
+            }
+            index.put(key, new KeyState(head, count, metadata));
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void removeSegment(Segment segment) {
+        segmentLock.writeLock().lock();
+        try {
+            segments.remove(segment.id);
+        } finally {
+            segmentLock.writeLock().unlock();
+        }
+        closeQuietly(segment);
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            log.warn("Failed to delete compacted segment {}: {}", segment.path, e.getMessage());
+        }
+    }
+
+    // ==================== 段文件 ====================
+
+    private Segment openSegment(int id, Path path, boolean create) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // 创建后未写入文件头即崩溃的空段按新段处理
+        if (!create && channel.size() < FILE_HEADER_SIZE) {
+            create = true;
+        }
+        long size = create ? config.getSegmentSize() : channel.size();
+        if (size > Integer.MAX_VALUE) {
+            channel.close();
+            throw new AgentException(ErrorCode.STORAGE_CORRUPTED, "Segment too large: " + path);
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (create) {
+            buffer.putInt(0, FILE_MAGIC);
+            buffer.putInt(4, FILE_VERSION);
+            buffer.force(0, FILE_HEADER_SIZE);
+        }
+        Segment segment = new Segment(id, path, channel, buffer);
+        segment.writePosition = FILE_HEADER_SIZE;
+        segment.flushedPosition = FILE_HEADER_SIZE;
+        return segment;
+    }
+
+    private Segment segmentFor(long address) {
+        Segment segment = segments.get(segmentId(address));
+        if (segment == null) {
+            throw new AgentException(ErrorCode.STORAGE_CORRUPTED, "Segment " + segmentId(address) + " not found");
+        }
+        return segment;
+    }
+
+    private Path segmentPath(int id) {
+        return config.getDirectory().resolve(String.format("%s%010d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private static int segmentId(Path path) {
+        String name = path.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static ByteBuffer payloadView(Segment segment, int position) {
+        int length = segment.buffer.getInt(position);
+        int keyLength = segment.buffer.getShort(position + 17) & 0xFFFF;
+        int payloadStart = position + RECORD_HEADER_SIZE + keyLength;
+        return segment.buffer.slice(payloadStart, position + length - payloadStart).asReadOnlyBuffer();
+    }
+
+    private static String readKey(ByteBuffer buffer, int position) {
+        int keyLength = buffer.getShort(position + 17) & 0xFFFF;
+        byte[] key = new byte[keyLength];
+        buffer.get(position + RECORD_HEADER_SIZE, key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private static boolean crcMatches(ByteBuffer buffer, int position, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(position + 8, length - 8));
+        return (int) crc.getValue() == buffer.getInt(position + 4);
+    }
+
+    private static long address(int segmentId, int position) {
+        return ((long) segmentId << 32) | (position & 0xFFFFFFFFL);
+    }
+
+    private static int segmentId(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int position(long address) {
+        return (int) address;
+    }
+
+    private static void closeQuietly(Segment segment) {
+        try {
+            segment.channel.close();
+        } catch (IOException e) {
+            log.debug("Failed to close segment {}: {}", segment.id, e.getMessage());
+        }
+    }
+
+    /**
+     * 段文件
+     */
+    private static final class Segment {
+
+        final int id;
+
+        final Path path;
+
+        final FileChannel channel;
+
+        final MappedByteBuffer buffer;
+
+        final int capacity;
+
+        // 写入位置只在appendLock下修改
+        volatile int writePosition;
+
+        // 已刷盘位置只在forceDirty中修改
+        int flushedPosition;
+
+        Segment(int id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.capacity = buffer.capacity();
+        }
+    }
+
+    /**
+     * key的索引状态（不可变，整体替换）
+     */
+    private static final class KeyState {
+
+        static final KeyState EMPTY = new KeyState(-1, 0, -1);
+
+        final long head;
+
+        final int count;
+
+        final long metadata;
+
+        KeyState(long head, int count, long metadata) {
+            this.head = head;
+            this.count = count;
+            this.metadata = metadata;
+        }
+    }
+}
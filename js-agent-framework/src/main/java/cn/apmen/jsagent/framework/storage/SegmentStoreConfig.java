@@ -0,0 +1,69 @@
+package cn.apmen.jsagent.framework.storage;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * 段文件存储配置
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SegmentStoreConfig {
+
+    /**
+     * 段文件目录
+     */
+    private Path directory;
+
+    /**
+     * 单个段文件大小（字节），段文件整体内存映射
+     */
+    @Builder.Default
+    private int segmentSize = 64 * 1024 * 1024;
+
+    /**
+     * 刷盘模式
+     */
+    @Builder.Default
+    private SyncMode syncMode = SyncMode.GROUP_COMMIT;
+
+    /**
+     * 刷盘线程空闲轮询间隔
+     */
+    @Builder.Default
+    private Duration flushInterval = Duration.ofMillis(5);
+
+    /**
+     * 后台压缩检查间隔，为null或0时不启动后台压缩
+     */
+    @Builder.Default
+    private Duration compactionInterval = Duration.ofMinutes(1);
+
+    /**
+     * 触发压缩的最旧段垃圾比例（0-1）
+     */
+    @Builder.Default
+    private double compactionThreshold = 0.5;
+
+    /**
+     * 刷盘模式枚举
+     */
+    public enum SyncMode {
+        /**
+         * 组提交：写入在刷盘线程完成force后才确认，同一批写入共享一次fsync
+         */
+        GROUP_COMMIT,
+
+        /**
+         * 交由操作系统回写，写入即确认
+         */
+        OS
+    }
+}
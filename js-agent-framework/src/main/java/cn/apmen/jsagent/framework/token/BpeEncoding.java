@@ -0,0 +1,53 @@
+package cn.apmen.jsagent.framework.token;
+
+import java.util.regex.Pattern;
+
+/**
+ * 支持的BPE编码
+ * 词表为tiktoken格式（每行"base64 rank"），默认从classpath的tokenizers目录加载
+ */
+public enum BpeEncoding {
+
+    CL100K_BASE("cl100k_base",
+        "'(?i:[sdmt]|ll|ve|re)|[^\\r\\n\\p{L}\\p{N}]?+\\p{L}+|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]++[\\r\\n]*|\\s*[\\r\\n]|\\s+(?!\\S)|\\s+"),
+
+    O200K_BASE("o200k_base",
+        "[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]*[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]+(?i:'s|'t|'re|'ve|'m|'ll|'d)?"
+            + "|[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]+[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]*(?i:'s|'t|'re|'ve|'m|'ll|'d)?"
+            + "|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n/]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+");
+
+    private final String encodingName;
+    private final Pattern pattern;
+
+    BpeEncoding(String encodingName, String regex) {
+        this.encodingName = encodingName;
+        this.pattern = Pattern.compile(regex, Pattern.UNICODE_CHARACTER_CLASS);
+    }
+
+    public String getEncodingName() {
+        return encodingName;
+    }
+
+    /**
+     * 预分词正则
+     */
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * 默认的classpath词表位置
+     */
+    public String getResourceLocation() {
+        return "tokenizers/" + encodingName + ".tiktoken";
+    }
+
+    public static BpeEncoding fromName(String name) {
+        for (BpeEncoding encoding : values()) {
+            if (encoding.encodingName.equalsIgnoreCase(name) || encoding.name().equalsIgnoreCase(name)) {
+                return encoding;
+            }
+        }
+        throw new IllegalArgumentException("Unknown BPE encoding: " + name);
+    }
+}
@@ -0,0 +1,297 @@
+package cn.apmen.jsagent.framework.token;
+
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.exception.ErrorCode;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.regex.Matcher;
+
+/**
+ * 纯Java实现的BPE分词器，兼容tiktoken的cl100k_base/o200k_base词表
+ * 计数路径复用线程本地的缓冲区，不为每个片段分配字符串或字节数组
+ */
+@Slf4j
+public final class BpeTokenizer implements TokenCounter {
+
+    private final BpeEncoding encoding;
+    private final ByteRankTable ranks;
+    private final ThreadLocal<Workspace> workspace = ThreadLocal.withInitial(Workspace::new);
+
+    private BpeTokenizer(BpeEncoding encoding, ByteRankTable ranks) {
+        this.encoding = encoding;
+        this.ranks = ranks;
+    }
+
+    /**
+     * 从classpath默认位置加载词表
+     */
+    public static BpeTokenizer load(BpeEncoding encoding) {
+        String location = encoding.getResourceLocation();
+        try (InputStream in = BpeTokenizer.class.getClassLoader().getResourceAsStream(location)) {
+            if (in == null) {
+                throw new AgentException(ErrorCode.CONFIG_MISSING, "BPE vocabulary not found on classpath: " + location);
+            }
+            return load(encoding, in);
+        } catch (IOException e) {
+            throw new AgentException(ErrorCode.CONFIG_INVALID, "Failed to read BPE vocabulary " + location, e);
+        }
+    }
+
+    /**
+     * 从本地文件加载词表
+     */
+    public static BpeTokenizer load(BpeEncoding encoding, Path vocabulary) {
+        if (!Files.isRegularFile(vocabulary)) {
+            throw new AgentException(ErrorCode.CONFIG_MISSING, "BPE vocabulary not found: " + vocabulary);
+        }
+        try (InputStream in = Files.newInputStream(vocabulary)) {
+            return load(encoding, in);
+        } catch (IOException e) {
+            throw new AgentException(ErrorCode.CONFIG_INVALID, "Failed to read BPE vocabulary " + vocabulary, e);
+        }
+    }
+
+    /**
+     * 从tiktoken格式的输入流加载词表（每行"base64 rank"）
+     */
+    public static BpeTokenizer load(BpeEncoding encoding, InputStream in) throws IOException {
+        long start = System.currentTimeMillis();
+        ByteRankTable.Builder builder = ByteRankTable.builder();
+        Base64.Decoder decoder = Base64.getDecoder();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isEmpty()) {
+                continue;
+            }
+            int separator = line.indexOf(' ');
+            if (separator <= 0) {
+                throw new AgentException(ErrorCode.CONFIG_INVALID,
+                    "Malformed BPE vocabulary line " + lineNumber + " for " + encoding.getEncodingName());
+            }
+            try {
+                builder.add(decoder.decode(line.substring(0, separator)), Integer.parseInt(line.substring(separator + 1).trim()));
+            } catch (IllegalArgumentException e) {
+                throw new AgentException(ErrorCode.CONFIG_INVALID,
+                    "Malformed BPE vocabulary line " + lineNumber + " for " + encoding.getEncodingName(), e);
+            }
+        }
+
+        ByteRankTable table = builder.build();
+        log.info("Loaded BPE vocabulary {}: {} tokens in {}ms",
+            encoding.getEncodingName(), table.size(), System.currentTimeMillis() - start);
+        return new BpeTokenizer(encoding, table);
+    }
+
+    public BpeEncoding getEncoding() {
+        return encoding;
+    }
+
+    public int getVocabularySize() {
+        return ranks.size();
+    }
+
+    @Override
+    public int countTokens(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        Workspace ws = workspace.get();
+        Matcher matcher = encoding.getPattern().matcher(text);
+        int count = 0;
+        while (matcher.find()) {
+            count += encodePiece(text, matcher.start(), matcher.end(), ws, false);
+        }
+        return count;
+    }
+
+    /**
+     * 把文本编码为token序列
+     */
+    public int[] encode(String text) {
+        if (text == null || text.isEmpty()) {
+            return new int[0];
+        }
+        Workspace ws = workspace.get();
+        ws.tokenCount = 0;
+        Matcher matcher = encoding.getPattern().matcher(text);
+        while (matcher.find()) {
+            encodePiece(text, matcher.start(), matcher.end(), ws, true);
+        }
+        return Arrays.copyOf(ws.tokens, ws.tokenCount);
+    }
+
+    /**
+     * 把token序列解码为文本
+     */
+    public String decode(int[] tokens) {
+        int length = 0;
+        for (int token : tokens) {
+            int tokenLength = ranks.length(token);
+            if (tokenLength < 0) {
+                throw new IllegalArgumentException("Unknown token: " + token);
+            }
+            length += tokenLength;
+        }
+        byte[] bytes = new byte[length];
+        int position = 0;
+        for (int token : tokens) {
+            ranks.copyTo(token, bytes, position);
+            position += ranks.length(token);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 编码预分词得到的一个片段，返回token数
+     */
+    private int encodePiece(String text, int start, int end, Workspace ws, boolean emit) {
+        int length = ws.utf8(text, start, end);
+        byte[] bytes = ws.bytes;
+
+        int rank = ranks.get(bytes, 0, length);
+        if (rank != ByteRankTable.MISSING) {
+            if (emit) {
+                ws.emit(rank);
+            }
+            return 1;
+        }
+        return bytePairMerge(bytes, length, ws, emit);
+    }
+
+    /**
+     * 标准BPE合并：反复合并rank最小的相邻片段，直到没有可合并的片段
+     */
+    private int bytePairMerge(byte[] bytes, int length, Workspace ws, boolean emit) {
+        ws.ensureParts(length + 1);
+        int[] starts = ws.starts;
+        int[] pairRanks = ws.pairRanks;
+
+        // parts[i]从starts[i]开始，pairRanks[i]是parts[i]与parts[i+1]合并后的rank
+        int parts = length + 1;
+        for (int i = 0; i < parts; i++) {
+            starts[i] = i;
+            pairRanks[i] = i + 2 <= length ? rankOrMax(bytes, i, i + 2) : Integer.MAX_VALUE;
+        }
+
+        while (parts > 2) {
+            int minRank = Integer.MAX_VALUE;
+            int minIndex = -1;
+            for (int i = 0; i < parts - 1; i++) {
+                if (pairRanks[i] < minRank) {
+                    minRank = pairRanks[i];
+                    minIndex = i;
+                }
+            }
+            if (minIndex < 0) {
+                break;
+            }
+
+            // 合并parts[minIndex]与parts[minIndex+1]，更新受影响的相邻rank
+            if (minIndex > 0) {
+                pairRanks[minIndex - 1] = mergedRank(bytes, starts, parts, minIndex - 1);
+            }
+            pairRanks[minIndex] = mergedRank(bytes, starts, parts, minIndex);
+            System.arraycopy(starts, minIndex + 2, starts, minIndex + 1, parts - minIndex - 2);
+            System.arraycopy(pairRanks, minIndex + 2, pairRanks, minIndex + 1, parts - minIndex - 2);
+            parts--;
+        }
+
+        if (emit) {
+            for (int i = 0; i < parts - 1; i++) {
+                int rank = ranks.get(bytes, starts[i], starts[i + 1]);
+                if (rank == ByteRankTable.MISSING) {
+                    throw new IllegalStateException("Byte sequence missing from vocabulary " + encoding.getEncodingName());
+                }
+                ws.emit(rank);
+            }
+        }
+        return parts - 1;
+    }
+
+    /**
+     * parts[i]、parts[i+1]、parts[i+2]三段合并后的rank（合并前视角），越界时为MAX_VALUE
+     */
+    private int mergedRank(byte[] bytes, int[] starts, int parts, int i) {
+        return i + 3 < parts ? rankOrMax(bytes, starts[i], starts[i + 3]) : Integer.MAX_VALUE;
+    }
+
+    private int rankOrMax(byte[] bytes, int from, int to) {
+        int rank = ranks.get(bytes, from, to);
+        return rank == ByteRankTable.MISSING ? Integer.MAX_VALUE : rank;
+    }
+
+    /**
+     * 线程本地的编码缓冲区
+     */
+    private static final class Workspace {
+
+        byte[] bytes = new byte[256];
+        int[] starts = new int[257];
+        int[] pairRanks = new int[257];
+        int[] tokens = new int[256];
+        int tokenCount;
+
+        /**
+         * 把text[start, end)编码为UTF-8写入bytes，返回字节数
+         */
+        int utf8(String text, int start, int end) {
+            int maxLength = (end - start) * 3;
+            if (bytes.length < maxLength) {
+                bytes = new byte[Math.max(maxLength, bytes.length * 2)];
+            }
+            int position = 0;
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    bytes[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[position++] = (byte) (0xC0 | (c >> 6));
+                    bytes[position++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    bytes[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    bytes[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    // 孤立代理项按U+FFFD处理，与String.getBytes一致
+                    bytes[position++] = (byte) 0xEF;
+                    bytes[position++] = (byte) 0xBF;
+                    bytes[position++] = (byte) 0xBD;
+                } else {
+                    bytes[position++] = (byte) (0xE0 | (c >> 12));
+                    bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    bytes[position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return position;
+        }
+
+        void ensureParts(int size) {
+            if (starts.length < size) {
+                starts = new int[Math.max(size, starts.length * 2)];
+                pairRanks = new int[starts.length];
+            }
+        }
+
+        void emit(int token) {
+            if (tokenCount == tokens.length) {
+                tokens = Arrays.copyOf(tokens, tokens.length * 2);
+            }
+            tokens[tokenCount++] = token;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package cn.apmen.jsagent.framework.token;
+
+import java.util.Arrays;
+
+/**
+ * 字节序列到rank的只读哈希表
+ * 所有key连续存放在一个字节池中，按区间查找，查询路径不分配对象
+ */
+final class ByteRankTable {
+
+    static final int MISSING = -1;
+
+    private final byte[] pool;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final int[] ranks;
+
+    // 开放寻址槽位：entry下标+1，0表示空
+    private final int[] slots;
+    private final int mask;
+
+    // rank -> entry下标，用于解码
+    private final int[] entryByRank;
+
+    private ByteRankTable(byte[] pool, int[] offsets, int[] lengths, int[] ranks, int size) {
+        this.pool = pool;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.ranks = ranks;
+
+        int capacity = Integer.highestOneBit(Math.max(2, size * 2 - 1)) << 1;
+        this.slots = new int[capacity];
+        this.mask = capacity - 1;
+
+        int maxRank = 0;
+        for (int i = 0; i < size; i++) {
+            int slot = hash(pool, offsets[i], lengths[i]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+            maxRank = Math.max(maxRank, ranks[i]);
+        }
+
+        this.entryByRank = new int[maxRank + 1];
+        Arrays.fill(entryByRank, -1);
+        for (int i = 0; i < size; i++) {
+            entryByRank[ranks[i]] = i;
+        }
+    }
+
+    /**
+     * 查找bytes[from, to)对应的rank，不存在时返回MISSING
+     */
+    int get(byte[] bytes, int from, int to) {
+        int length = to - from;
+        int slot = hash(bytes, from, length) & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            int index = entry - 1;
+            if (lengths[index] == length
+                && Arrays.equals(pool, offsets[index], offsets[index] + length, bytes, from, to)) {
+                return ranks[index];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    /**
+     * 获取rank对应的字节序列长度，rank不存在时返回-1
+     */
+    int length(int rank) {
+        int index = rank >= 0 && rank < entryByRank.length ? entryByRank[rank] : -1;
+        return index >= 0 ? lengths[index] : -1;
+    }
+
+    /**
+     * 把rank对应的字节序列复制到target
+     */
+    void copyTo(int rank, byte[] target, int position) {
+        int index = entryByRank[rank];
+        System.arraycopy(pool, offsets[index], target, position, lengths[index]);
+    }
+
+    int size() {
+        return ranks.length;
+    }
+
+    private static int hash(byte[] bytes, int from, int length) {
+        // FNV-1a
+        int hash = 0x811C9DC5;
+        for (int i = from, end = from + length; i < end; i++) {
+            hash ^= bytes[i];
+            hash *= 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 词表构建器
+     */
+    static final class Builder {
+
+        private byte[] pool = new byte[1 << 20];
+        private int poolSize;
+        private int[] offsets = new int[1 << 16];
+        private int[] lengths = new int[1 << 16];
+        private int[] ranks = new int[1 << 16];
+        private int size;
+
+        Builder add(byte[] token, int rank) {
+            if (poolSize + token.length > pool.length) {
+                pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + token.length));
+            }
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+                ranks = Arrays.copyOf(ranks, size * 2);
+            }
+            System.arraycopy(token, 0, pool, poolSize, token.length);
+            offsets[size] = poolSize;
+            lengths[size] = token.length;
+            ranks[size] = rank;
+            poolSize += token.length;
+            size++;
+            return this;
+        }
+
+        ByteRankTable build() {
+            return new ByteRankTable(Arrays.copyOf(pool, poolSize), Arrays.copyOf(offsets, size),
+                Arrays.copyOf(lengths, size), Arrays.copyOf(ranks, size), size);
+        }
+    }
+}
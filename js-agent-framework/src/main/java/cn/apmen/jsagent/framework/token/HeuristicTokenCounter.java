@@ -0,0 +1,44 @@
+package cn.apmen.jsagent.framework.token;
+
+/**
+ * 基于字符类别的token估算器
+ * CJK字符按每字1个token计算，其余字符按平均4个字符1个token计算
+ * 仅在没有BPE词表时作为兜底使用
+ */
+public final class HeuristicTokenCounter implements TokenCounter {
+
+    static final HeuristicTokenCounter INSTANCE = new HeuristicTokenCounter();
+
+    private HeuristicTokenCounter() {
+    }
+
+    @Override
+    public int countTokens(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            if (isCjk(codePoint)) {
+                cjk++;
+            } else {
+                other++;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return cjk + (other + 3) / 4;
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+            || script == Character.UnicodeScript.HIRAGANA
+            || script == Character.UnicodeScript.KATAKANA
+            || script == Character.UnicodeScript.HANGUL
+            || (codePoint >= 0x3000 && codePoint <= 0x303F) // CJK标点
+            || (codePoint >= 0xFF00 && codePoint <= 0xFFEF); // 全角字符
+    }
+}
@@ -0,0 +1,60 @@
+package cn.apmen.jsagent.framework.token;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall;
+
+/**
+ * Token计数器
+ * 用于上下文窗口预算，消息级计数结果缓存在Message上
+ */
+public interface TokenCounter {
+
+    /**
+     * 每条消息的格式开销（参考OpenAI chat格式）
+     */
+    int TOKENS_PER_MESSAGE = 3;
+
+    /**
+     * 每个工具调用的格式开销
+     */
+    int TOKENS_PER_TOOL_CALL = 3;
+
+    /**
+     * 计算文本的token数量
+     */
+    int countTokens(String text);
+
+    /**
+     * 计算消息的token数量，结果按计数器缓存在消息上
+     */
+    default int countMessageTokens(Message message) {
+        int cached = message.getCachedTokenCount(this);
+        if (cached >= 0) {
+            return cached;
+        }
+
+        int tokens = TOKENS_PER_MESSAGE + countTokens(message.getRole()) + countTokens(message.getContent());
+        if (message.getToolCallId() != null) {
+            tokens += countTokens(message.getToolCallId());
+        }
+        if (message.getToolCalls() != null) {
+            for (ToolCall toolCall : message.getToolCalls()) {
+                tokens += TOKENS_PER_TOOL_CALL;
+                if (toolCall.getFunction() != null) {
+                    tokens += countTokens(toolCall.getFunction().getName());
+                    tokens += countTokens(toolCall.getFunction().getArguments());
+                }
+            }
+        }
+
+        message.cacheTokenCount(this, tokens);
+        return tokens;
+    }
+
+    /**
+     * 无词表时使用的估算计数器
+     */
+    static TokenCounter heuristic() {
+        return HeuristicTokenCounter.INSTANCE;
+    }
+}
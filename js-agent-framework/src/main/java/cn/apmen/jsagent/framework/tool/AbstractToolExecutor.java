@@ -1,10 +1,12 @@
 package cn.apmen.jsagent.framework.tool;
 
+import cn.apmen.jsagent.framework.exception.ErrorCode;
 import cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -151,6 +153,24 @@ public abstract class AbstractToolExecutor implements ToolExecutor {
         return ToolResult.error(toolCallId, error);
     }
 
+    /**
+     * 工具声明的执行模式
+     * 含阻塞IO（进程等待、同步客户端调用等）的子类可以重写为VIRTUAL_THREAD
+     * @return 执行模式
+     */
+    protected ToolExecutionMode getExecutionMode() {
+        return ToolExecutionMode.BOUNDED_ELASTIC;
+    }
+
+    /**
+     * 获取运行阻塞逻辑的调度器
+     * 子类应使用 subscribeOn(getExecutionScheduler()) 代替直接使用 Schedulers.boundedElastic()
+     * @return 调度器
+     */
+    protected Scheduler getExecutionScheduler() {
+        return ToolSchedulers.forMode(getExecutionMode());
+    }
+
     /**
      * 执行工具调用的模板方法
      * @param toolCall 工具调用信息
@@ -165,7 +185,7 @@ public abstract class AbstractToolExecutor implements ToolExecutor {
 
             // 验证参数
             if (!validateParameters(arguments)) {
-                return Mono.just(error(toolCall.getId(), "Invalid parameters"));
+                return Mono.just(ToolResult.error(toolCall.getId(), ErrorCode.TOOL_INVALID_ARGUMENTS, "Invalid parameters"));
             }
 
             // 执行具体逻辑
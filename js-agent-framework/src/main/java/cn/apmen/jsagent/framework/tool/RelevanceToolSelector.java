@@ -0,0 +1,337 @@
+package cn.apmen.jsagent.framework.tool;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Function;
+import cn.apmen.jsagent.framework.openaiunified.model.request.Tool;
+import cn.apmen.jsagent.framework.search.TextTokenizer;
+import cn.apmen.jsagent.framework.token.TokenCounter;
+import cn.apmen.jsagent.framework.vector.Embedder;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按相关度选择工具
+ * 工具名称、描述与参数描述切词后按BM25对查询打分；配置了Embedder时与向量余弦相似度加权合并。
+ * 固定保留与最近使用的工具始终发送，其余按得分取前topK，输出保持候选列表原有顺序，
+ * 相同的工具子集得到相同的请求前缀。工具的词项与向量按名称缓存，描述或参数变化时重建
+ */
+@Slf4j
+public class RelevanceToolSelector implements ToolSelector {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final ToolSelectorConfig config;
+    private final Embedder embedder;
+    private final TokenCounter tokenCounter;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, ToolDocument> documents = new ConcurrentHashMap<>();
+
+    private final AtomicLong selections = new AtomicLong();
+    private final AtomicLong bypassed = new AtomicLong();
+    private final AtomicLong noMatch = new AtomicLong();
+    private final AtomicLong candidateTools = new AtomicLong();
+    private final AtomicLong selectedTools = new AtomicLong();
+    private final AtomicLong tokensSaved = new AtomicLong();
+
+    public RelevanceToolSelector(ToolSelectorConfig config) {
+        this(config, null, TokenCounter.heuristic());
+    }
+
+    /**
+     * @param config 选择配置
+     * @param embedder 向量化实现，为null时只使用BM25
+     * @param tokenCounter 用于统计节省的工具定义token数
+     */
+    public RelevanceToolSelector(ToolSelectorConfig config, Embedder embedder, TokenCounter tokenCounter) {
+        this.config = config != null ? config : ToolSelectorConfig.builder().build();
+        this.embedder = embedder;
+        this.tokenCounter = tokenCounter != null ? tokenCounter : TokenCounter.heuristic();
+    }
+
+    /**
+     * 配置了Embedder时查询与工具描述的向量化是阻塞的同步调用，放到boundedElastic上执行；
+     * 只用BM25时直接在调用线程上计算
+     */
+    @Override
+    public Mono<List<Tool>> selectAsync(List<Tool> tools, ToolSelectionContext context) {
+        Mono<List<Tool>> selection = Mono.fromCallable(() -> select(tools, context));
+        return embedder != null ? selection.subscribeOn(Schedulers.boundedElastic()) : selection;
+    }
+
+    @Override
+    public List<Tool> select(List<Tool> tools, ToolSelectionContext context) {
+        if (tools == null || tools.size() <= Math.max(config.getMinToolCount(), config.getTopK())) {
+            bypassed.incrementAndGet();
+            return tools;
+        }
+
+        Set<String> keep = new HashSet<>(config.getPinnedTools());
+        if (context != null) {
+            keep.addAll(context.getPinnedTools());
+            keep.addAll(context.getRecentTools());
+        }
+
+        List<ToolDocument> candidates = new ArrayList<>(tools.size());
+        List<ToolDocument> all = new ArrayList<>(tools.size());
+        for (Tool tool : tools) {
+            ToolDocument document = document(tool);
+            all.add(document);
+            if (document != null && !keep.contains(document.name)) {
+                candidates.add(document);
+            }
+        }
+
+        String query = context != null ? context.getQuery() : null;
+        Set<String> ranked = rank(candidates, query);
+        if (ranked.isEmpty() && config.isIncludeAllWhenNoMatch()) {
+            noMatch.incrementAndGet();
+            bypassed.incrementAndGet();
+            return tools;
+        }
+
+        List<Tool> selected = new ArrayList<>();
+        long saved = 0;
+        for (int i = 0; i < tools.size(); i++) {
+            ToolDocument document = all.get(i);
+            if (document == null || keep.contains(document.name) || ranked.contains(document.name)) {
+                selected.add(tools.get(i));
+            } else {
+                saved += document.tokens;
+            }
+        }
+
+        selections.incrementAndGet();
+        candidateTools.addAndGet(tools.size());
+        selectedTools.addAndGet(selected.size());
+        tokensSaved.addAndGet(saved);
+        log.debug("Selected {} of {} tools (~{} tokens saved): {}", selected.size(), tools.size(), saved, ranked);
+        return selected;
+    }
+
+    /**
+     * 按综合得分取前topK个工具名称
+     */
+    private Set<String> rank(List<ToolDocument> candidates, String query) {
+        int limit = config.getTopK();
+        if (candidates.isEmpty() || limit <= 0 || query == null || query.isBlank()) {
+            return Set.of();
+        }
+
+        Set<String> terms = new LinkedHashSet<>();
+        TextTokenizer.tokenize(query, terms::add);
+        double[] scores = bm25(candidates, terms);
+
+        if (embedder != null) {
+            double max = 0;
+            for (double score : scores) {
+                max = Math.max(max, score);
+            }
+            float[] queryVector = embedder.embed(query);
+            double weight = Math.min(1.0, Math.max(0.0, config.getEmbeddingWeight()));
+            for (int i = 0; i < scores.length; i++) {
+                double lexical = max > 0 ? scores[i] / max : 0;
+                double semantic = Math.max(0, dot(queryVector, vector(candidates.get(i))));
+                scores[i] = (1 - weight) * lexical + weight * semantic;
+            }
+        }
+
+        // 小顶堆取前limit，分数相同时注册顺序靠前的优先
+        PriorityQueue<Integer> heap = new PriorityQueue<>(limit + 1, (x, y) -> {
+            int compare = Double.compare(scores[x], scores[y]);
+            return compare != 0 ? compare : Integer.compare(y, x);
+        });
+        for (int i = 0; i < scores.length; i++) {
+            if (scores[i] <= config.getMinScore()) {
+                continue;
+            }
+            heap.offer(i);
+            if (heap.size() > limit) {
+                heap.poll();
+            }
+        }
+
+        Set<String> result = new HashSet<>();
+        for (Integer index : heap) {
+            result.add(candidates.get(index).name);
+        }
+        return result;
+    }
+
+    /**
+     * 以候选工具集合为语料计算BM25得分
+     */
+    private double[] bm25(List<ToolDocument> candidates, Set<String> terms) {
+        double[] scores = new double[candidates.size()];
+        if (terms.isEmpty()) {
+            return scores;
+        }
+
+        long totalLength = 0;
+        for (ToolDocument document : candidates) {
+            totalLength += document.length;
+        }
+        double averageLength = Math.max(1.0, (double) totalLength / candidates.size());
+
+        for (String term : terms) {
+            int documentFrequency = 0;
+            for (ToolDocument document : candidates) {
+                if (document.frequencies.containsKey(term)) {
+                    documentFrequency++;
+                }
+            }
+            if (documentFrequency == 0) {
+                continue;
+            }
+            double idf = Math.log(1 + (candidates.size() - documentFrequency + 0.5) / (documentFrequency + 0.5));
+            for (int i = 0; i < scores.length; i++) {
+                ToolDocument document = candidates.get(i);
+                Integer tf = document.frequencies.get(term);
+                if (tf == null) {
+                    continue;
+                }
+                double norm = K1 * (1 - B + B * document.length / averageLength);
+                scores[i] += idf * (tf * (K1 + 1)) / (tf + norm);
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * 获取工具的索引文档，定义变化时重建
+     */
+    private ToolDocument document(Tool tool) {
+        Function function = tool.getFunction();
+        if (function == null || function.getName() == null) {
+            return null;
+        }
+        String fingerprint = function.getDescription() + "\u0000" + function.getParameters();
+        return documents.compute(function.getName(), (name, existing) ->
+                existing != null && existing.fingerprint.equals(fingerprint) ? existing
+                        : buildDocument(name, fingerprint, function));
+    }
+
+    private ToolDocument buildDocument(String name, String fingerprint, Function function) {
+        StringBuilder text = new StringBuilder();
+        if (function.getDescription() != null) {
+            text.append(function.getDescription()).append('\n');
+        }
+        appendParameterText(function.getParameters(), text);
+
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (int i = 0; i < Math.max(1, config.getNameWeight()); i++) {
+            TextTokenizer.tokenize(name, term -> frequencies.merge(term, 1, Integer::sum));
+        }
+        TextTokenizer.tokenize(text.toString(), term -> frequencies.merge(term, 1, Integer::sum));
+        int length = 0;
+        for (int frequency : frequencies.values()) {
+            length += frequency;
+        }
+
+        String definition;
+        try {
+            definition = objectMapper.writeValueAsString(function);
+        } catch (JsonProcessingException e) {
+            definition = name + text;
+        }
+        return new ToolDocument(name, fingerprint, frequencies, length, tokenCounter.countTokens(definition),
+                name.replace('_', ' ') + "\n" + text);
+    }
+
+    /**
+     * 参数名称与参数描述也参与检索（如 city、expression）
+     */
+    @SuppressWarnings("unchecked")
+    private void appendParameterText(Map<String, Object> parameters, StringBuilder text) {
+        if (parameters == null || !(parameters.get("properties") instanceof Map)) {
+            return;
+        }
+        Map<String, Object> properties = (Map<String, Object>) parameters.get("properties");
+        properties.forEach((parameter, definition) -> {
+            text.append(parameter).append(' ');
+            if (definition instanceof Map && ((Map<String, Object>) definition).get("description") != null) {
+                text.append(((Map<String, Object>) definition).get("description"));
+            }
+            text.append('\n');
+        });
+    }
+
+    private float[] vector(ToolDocument document) {
+        float[] vector = document.vector;
+        if (vector == null) {
+            vector = embedder.embed(document.text);
+            document.vector = vector;
+        }
+        return vector;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * 清空缓存的工具索引
+     */
+    public void invalidate() {
+        documents.clear();
+    }
+
+    /**
+     * 获取选择统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        long count = selections.get();
+        stats.put("selections", count);
+        stats.put("bypassed", bypassed.get());
+        stats.put("noMatch", noMatch.get());
+        stats.put("avgCandidates", count == 0 ? 0.0 : (double) candidateTools.get() / count);
+        stats.put("avgSelected", count == 0 ? 0.0 : (double) selectedTools.get() / count);
+        stats.put("estimatedTokensSaved", tokensSaved.get());
+        stats.put("indexedTools", documents.size());
+        stats.put("embedding", embedder != null);
+        return stats;
+    }
+
+    /**
+     * 单个工具的索引文档
+     */
+    private static final class ToolDocument {
+        private final String name;
+        private final String fingerprint;
+        private final Map<String, Integer> frequencies;
+        private final int length;
+        private final int tokens;
+        private final String text;
+        // 首次参与向量打分时计算
+        private volatile float[] vector;
+
+        private ToolDocument(String name, String fingerprint, Map<String, Integer> frequencies, int length,
+                             int tokens, String text) {
+            this.name = Objects.requireNonNull(name);
+            this.fingerprint = fingerprint;
+            this.frequencies = frequencies;
+            this.length = length;
+            this.tokens = tokens;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package cn.apmen.jsagent.framework.tool;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Duration;
+
+/**
+ * 工具舱壁（bulkhead）策略
+ * 由ToolDefinition声明，限制工具的并发数与排队长度，并为单次调用设置超时；
+ * 并发已满时调用排队等待，队列已满时立即拒绝，慢工具不会拖垮同一轮的其他工具
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class ToolBulkheadPolicy {
+
+    /**
+     * 舱壁分组键，相同键的工具共享并发与队列限制（如同一MCP服务的全部工具），为空时按工具名隔离
+     */
+    private String bulkheadKey;
+
+    /**
+     * 最大并发执行数
+     */
+    @Builder.Default
+    private int maxConcurrency = 8;
+
+    /**
+     * 最大排队数，0表示并发已满时直接拒绝
+     */
+    @Builder.Default
+    private int maxQueueSize = 32;
+
+    /**
+     * 单次调用超时（含排队时间），超时后取消调用并返回超时结果，为空表示不限制
+     */
+    private Duration timeout;
+
+    /**
+     * 按工具名隔离的策略
+     */
+    public static ToolBulkheadPolicy of(int maxConcurrency, int maxQueueSize, Duration timeout) {
+        return ToolBulkheadPolicy.builder()
+                .maxConcurrency(maxConcurrency)
+                .maxQueueSize(maxQueueSize)
+                .timeout(timeout)
+                .build();
+    }
+
+    /**
+     * 多个工具共享的策略
+     */
+    public static ToolBulkheadPolicy shared(String bulkheadKey, int maxConcurrency, int maxQueueSize, Duration timeout) {
+        return ToolBulkheadPolicy.builder()
+                .bulkheadKey(bulkheadKey)
+                .maxConcurrency(maxConcurrency)
+                .maxQueueSize(maxQueueSize)
+                .timeout(timeout)
+                .build();
+    }
+}
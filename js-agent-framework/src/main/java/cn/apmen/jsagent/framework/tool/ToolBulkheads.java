@@ -0,0 +1,277 @@
+package cn.apmen.jsagent.framework.tool;
+
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.exception.ErrorCode;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 工具舱壁
+ * 按ToolBulkheadPolicy的分组键限制并发，超出并发的调用进入有界队列等待，队列已满时拒绝；
+ * 舱壁容量由创建它的策略确定，之后的调用不会改动；
+ * 排队与执行均为非阻塞，调用被取消（超时、落后调用截止）时释放并发名额或移出队列。
+ * 同时按工具记录排队耗时与调用延迟
+ */
+@Slf4j
+public class ToolBulkheads {
+
+    private final Map<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+    private final Map<String, ToolCallStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * 在工具的舱壁内执行调用
+     * @param toolName 工具名称
+     * @param toolCallId 工具调用ID，用于构造拒绝与超时结果
+     * @param policy 舱壁策略，为null时不限制并发，只记录延迟
+     * @param invoker 实际执行工具的调用
+     * @return 执行结果，被拒绝或超时时返回错误结果
+     */
+    public Mono<ToolResult> execute(String toolName, String toolCallId, ToolBulkheadPolicy policy,
+                                    Supplier<Mono<ToolResult>> invoker) {
+        ToolCallStats toolStats = statsFor(toolName);
+        Mono<ToolResult> call = guard(toolName, policy, invoker, toolStats);
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            toolStats.calls.increment();
+            return call
+                    .onErrorResume(error -> {
+                        if (error instanceof TimeoutException && policy != null && policy.getTimeout() != null) {
+                            toolStats.timeouts.increment();
+                            log.warn("Tool {} timed out after {}ms", toolName, policy.getTimeout().toMillis());
+                            return Mono.just(ToolResult.error(toolCallId, "Tool " + toolName
+                                    + " timed out after " + policy.getTimeout().toMillis() + "ms"));
+                        }
+                        if (error instanceof AgentException agentException
+                                && agentException.getErrorCode() == ErrorCode.RESOURCE_EXHAUSTED) {
+                            toolStats.rejected.increment();
+                            log.warn("Tool {} rejected: {}", toolName, error.getMessage());
+                            return Mono.just(ToolResult.error(toolCallId, "Tool " + toolName
+                                    + " is overloaded, please retry later"));
+                        }
+                        return Mono.error(error);
+                    })
+                    .doFinally(signal -> toolStats.recordLatency(System.nanoTime() - start));
+        });
+    }
+
+    private Mono<ToolResult> guard(String toolName, ToolBulkheadPolicy policy,
+                                   Supplier<Mono<ToolResult>> invoker, ToolCallStats toolStats) {
+        if (policy == null) {
+            return Mono.defer(invoker);
+        }
+        Bulkhead bulkhead = bulkheadFor(toolName, policy);
+        Mono<ToolResult> call = bulkhead.execute(invoker, toolStats);
+        return policy.getTimeout() != null ? call.timeout(policy.getTimeout()) : call;
+    }
+
+    /**
+     * 工具所用的舱壁：容量在创建时确定；设置了分组键时，容量与分组舱壁不同的工具使用自己的舱壁，不改动分组的容量
+     */
+    private Bulkhead bulkheadFor(String toolName, ToolBulkheadPolicy policy) {
+        String groupKey = policy.getBulkheadKey();
+        if (groupKey == null) {
+            return bulkheads.computeIfAbsent(toolName, k -> new Bulkhead(k, policy));
+        }
+        Bulkhead group = bulkheads.computeIfAbsent(groupKey, k -> new Bulkhead(k, policy));
+        if (group.accepts(policy)) {
+            return group;
+        }
+        return bulkheads.computeIfAbsent(groupKey + "/" + toolName, k -> {
+            log.warn("Tool {} declares a different bulkhead capacity than group {}, using its own bulkhead {}",
+                    toolName, groupKey, k);
+            return new Bulkhead(k, policy);
+        });
+    }
+
+    /**
+     * 记录一次因超过本轮截止时间而被放弃的调用
+     */
+    public void recordStraggler(String toolName) {
+        statsFor(toolName).stragglers.increment();
+    }
+
+    /**
+     * 获取舱壁与工具调用统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> result = new HashMap<>();
+        Map<String, Object> groups = new TreeMap<>();
+        bulkheads.forEach((key, bulkhead) -> groups.put(key, bulkhead.snapshot()));
+        result.put("bulkheads", groups);
+        Map<String, Object> tools = new TreeMap<>();
+        stats.forEach((toolName, toolStats) -> tools.put(toolName, toolStats.snapshot()));
+        result.put("tools", tools);
+        return result;
+    }
+
+    private ToolCallStats statsFor(String toolName) {
+        return stats.computeIfAbsent(toolName, name -> new ToolCallStats());
+    }
+
+    /**
+     * 单个舱壁分组：并发计数与等待队列由自身加锁
+     */
+    private static final class Bulkhead {
+        private final String key;
+        private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+        private final int maxConcurrency;
+        private final int maxQueueSize;
+        private int active;
+        private long rejected;
+
+        private Bulkhead(String key, ToolBulkheadPolicy policy) {
+            this.key = key;
+            this.maxConcurrency = Math.max(1, policy.getMaxConcurrency());
+            this.maxQueueSize = Math.max(0, policy.getMaxQueueSize());
+        }
+
+        /**
+         * 策略的容量是否与本舱壁一致（超时按调用各自的策略生效，不参与比较）
+         */
+        private boolean accepts(ToolBulkheadPolicy policy) {
+            return maxConcurrency == Math.max(1, policy.getMaxConcurrency())
+                    && maxQueueSize == Math.max(0, policy.getMaxQueueSize());
+        }
+
+        private Mono<ToolResult> execute(Supplier<Mono<ToolResult>> invoker, ToolCallStats toolStats) {
+            return Mono.create(sink -> {
+                Waiter waiter = new Waiter(sink, invoker, toolStats);
+                boolean start = false;
+                synchronized (this) {
+                    if (active < maxConcurrency) {
+                        active++;
+                        start = true;
+                    } else if (queue.size() < maxQueueSize) {
+                        queue.addLast(waiter);
+                    } else {
+                        rejected++;
+                        sink.error(new AgentException(ErrorCode.RESOURCE_EXHAUSTED,
+                                "Bulkhead " + key + " is full: " + active + " running, " + queue.size() + " queued"));
+                        return;
+                    }
+                }
+                sink.onCancel(() -> cancel(waiter));
+                if (start) {
+                    run(waiter);
+                }
+            });
+        }
+
+        /**
+         * 开始执行：调用结束或被取消时释放名额；等待期间已取消的调用在update时立即被取消并释放
+         */
+        private void run(Waiter waiter) {
+            waiter.toolStats.recordQueueWait(System.nanoTime() - waiter.enqueuedAt);
+            Disposable subscription = Mono.defer(waiter.invoker)
+                    .contextWrite(waiter.sink.contextView())
+                    .doFinally(signal -> release())
+                    .subscribe(waiter.sink::success, waiter.sink::error, waiter.sink::success);
+            waiter.subscription.update(subscription);
+        }
+
+        private void cancel(Waiter waiter) {
+            synchronized (this) {
+                if (queue.remove(waiter)) {
+                    return;
+                }
+            }
+            waiter.subscription.dispose();
+        }
+
+        private void release() {
+            Waiter next;
+            synchronized (this) {
+                next = queue.pollFirst();
+                if (next == null) {
+                    active--;
+                }
+            }
+            if (next != null) {
+                run(next);
+            }
+        }
+
+        private synchronized Map<String, Object> snapshot() {
+            Map<String, Object> snapshot = new HashMap<>();
+            snapshot.put("active", active);
+            snapshot.put("queued", queue.size());
+            snapshot.put("maxConcurrency", maxConcurrency);
+            snapshot.put("maxQueueSize", maxQueueSize);
+            snapshot.put("rejected", rejected);
+            snapshot.put("saturation", maxConcurrency == 0 ? 0.0 : (double) active / maxConcurrency);
+            return snapshot;
+        }
+    }
+
+    private static final class Waiter {
+        private final MonoSink<ToolResult> sink;
+        private final Supplier<Mono<ToolResult>> invoker;
+        private final ToolCallStats toolStats;
+        private final Disposable.Swap subscription = Disposables.swap();
+        private final long enqueuedAt = System.nanoTime();
+
+        private Waiter(MonoSink<ToolResult> sink, Supplier<Mono<ToolResult>> invoker, ToolCallStats toolStats) {
+            this.sink = sink;
+            this.invoker = invoker;
+            this.toolStats = toolStats;
+        }
+    }
+
+    private static final class ToolCallStats {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder stragglers = new LongAdder();
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder queueWaitNanos = new LongAdder();
+        private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder latencyNanos = new LongAdder();
+        private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+        private void recordQueueWait(long nanos) {
+            admitted.increment();
+            queueWaitNanos.add(nanos);
+            maxQueueWaitNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        private void recordLatency(long nanos) {
+            completed.increment();
+            latencyNanos.add(nanos);
+            maxLatencyNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        private Map<String, Object> snapshot() {
+            long admittedCount = admitted.sum();
+            long completedCount = completed.sum();
+            Map<String, Object> snapshot = new HashMap<>();
+            snapshot.put("calls", calls.sum());
+            snapshot.put("rejected", rejected.sum());
+            snapshot.put("timeouts", timeouts.sum());
+            snapshot.put("stragglers", stragglers.sum());
+            snapshot.put("avgQueueWaitMs", admittedCount == 0 ? 0.0 : toMillis(queueWaitNanos.sum()) / admittedCount);
+            snapshot.put("maxQueueWaitMs", toMillis(maxQueueWaitNanos.get()));
+            snapshot.put("avgLatencyMs", completedCount == 0 ? 0.0 : toMillis(latencyNanos.sum()) / completedCount);
+            snapshot.put("maxLatencyMs", toMillis(maxLatencyNanos.get()));
+            return snapshot;
+        }
+
+        private static double toMillis(long nanos) {
+            return nanos / (double) Duration.ofMillis(1).toNanos();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package cn.apmen.jsagent.framework.tool;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * 工具结果缓存策略
+ * 由ToolDefinition声明，只适用于纯函数或变化缓慢的工具（日期计算、天气、地理编码、搜索等）；
+ * ToolRegistry.execute按规范化后的调用参数缓存成功结果
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ToolCachePolicy {
+
+    /**
+     * 缓存作用域
+     */
+    public enum Scope {
+        /**
+         * 所有用户共享同一份结果
+         */
+        GLOBAL,
+        /**
+         * 按用户隔离，缺少用户ID的调用不走缓存
+         */
+        USER
+    }
+
+    /**
+     * 结果有效期
+     */
+    @Builder.Default
+    private Duration ttl = Duration.ofMinutes(5);
+
+    /**
+     * 参与缓存键计算的参数字段，支持用点号访问嵌套字段（如 "arguments.city"），
+     * 嵌套字段的值是JSON字符串时会先解析；为空时使用全部参数
+     */
+    private List<String> keyFields;
+
+    /**
+     * 缓存作用域
+     */
+    @Builder.Default
+    private Scope scope = Scope.GLOBAL;
+
+    /**
+     * 按解析后的参数判断本次调用是否可缓存，为空时全部可缓存
+     * 用于同一工具中混有依赖当前时间的子功能的情况
+     */
+    private Predicate<Map<String, Object>> condition;
+
+    /**
+     * 全局共享、使用全部参数作为键的策略
+     */
+    public static ToolCachePolicy global(Duration ttl) {
+        return ToolCachePolicy.builder().ttl(ttl).build();
+    }
+
+    /**
+     * 按用户隔离、使用全部参数作为键的策略
+     */
+    public static ToolCachePolicy perUser(Duration ttl) {
+        return ToolCachePolicy.builder().ttl(ttl).scope(Scope.USER).build();
+    }
+}
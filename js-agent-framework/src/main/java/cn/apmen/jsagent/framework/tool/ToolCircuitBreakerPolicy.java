@@ -0,0 +1,81 @@
+package cn.apmen.jsagent.framework.tool;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Duration;
+
+/**
+ * 工具熔断策略
+ * 由ToolDefinition声明，按最近若干次调用的失败率与慢调用率判断工具（或MCP服务）是否不可用；
+ * 熔断打开期间调用直接返回错误结果，冷却后放行少量试探调用，全部成功则恢复
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class ToolCircuitBreakerPolicy {
+
+    /**
+     * 熔断分组键，相同键的工具共享熔断状态（如同一MCP服务的全部工具），为空时按工具名隔离
+     */
+    private String breakerKey;
+
+    /**
+     * 滑动窗口大小（最近的调用次数）
+     */
+    @Builder.Default
+    private int slidingWindowSize = 20;
+
+    /**
+     * 窗口内至少有多少次调用才计算失败率
+     */
+    @Builder.Default
+    private int minimumCalls = 10;
+
+    /**
+     * 失败率阈值（0~1），达到时打开熔断
+     */
+    @Builder.Default
+    private double failureRateThreshold = 0.5;
+
+    /**
+     * 超过该耗时的调用记为慢调用
+     */
+    @Builder.Default
+    private Duration slowCallDuration = Duration.ofSeconds(10);
+
+    /**
+     * 慢调用率阈值（0~1），达到时打开熔断
+     */
+    @Builder.Default
+    private double slowCallRateThreshold = 0.8;
+
+    /**
+     * 熔断打开后的冷却时间，之后进入半开状态
+     */
+    @Builder.Default
+    private Duration openDuration = Duration.ofSeconds(30);
+
+    /**
+     * 半开状态允许的试探调用数，全部成功则关闭熔断
+     */
+    @Builder.Default
+    private int halfOpenCalls = 3;
+
+    /**
+     * 按工具名隔离的默认策略
+     */
+    public static ToolCircuitBreakerPolicy defaults() {
+        return ToolCircuitBreakerPolicy.builder().build();
+    }
+
+    /**
+     * 多个工具共享熔断状态的默认策略
+     */
+    public static ToolCircuitBreakerPolicy shared(String breakerKey) {
+        return ToolCircuitBreakerPolicy.builder().breakerKey(breakerKey).build();
+    }
+}
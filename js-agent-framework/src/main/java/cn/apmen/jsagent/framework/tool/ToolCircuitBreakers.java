@@ -0,0 +1,335 @@
+package cn.apmen.jsagent.framework.tool;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 工具熔断器
+ * 按ToolCircuitBreakerPolicy的分组键维护 关闭 / 打开 / 半开 三种状态：
+ * 关闭时在最近N次调用的滑动窗口内统计失败率与慢调用率，超过阈值即打开；
+ * 打开时调用直接返回结构化的错误结果，模型可以立即改用其他方式；冷却后进入半开，
+ * 放行少量试探调用，全部成功则关闭，任一失败或过慢则重新打开
+ *
+ * 只有执行与传输层面的失败计入窗口；参数无效等调用方错误（{@link ToolResult#isCallerError()}）不反映工具是否可用，不计入。
+ * 共享分组键的工具按各自的策略判定：策略与分组熔断器一致的工具共享它，策略不同的工具使用 分组键/工具名 的独立熔断器
+ */
+@Slf4j
+public class ToolCircuitBreakers {
+
+    /**
+     * 熔断状态
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * 在工具的熔断器内执行调用
+     * @param toolName 工具名称
+     * @param toolCallId 工具调用ID，用于构造熔断结果
+     * @param policy 熔断策略，为null时直接执行
+     * @param admission 调用的准入包装（如舱壁），参数为记录结果的实际调用
+     * @param invoker 实际执行工具的调用
+     * @return 执行结果，熔断打开时返回错误结果
+     */
+    public Mono<ToolResult> execute(String toolName, String toolCallId, ToolCircuitBreakerPolicy policy,
+                                    Function<Supplier<Mono<ToolResult>>, Mono<ToolResult>> admission,
+                                    Supplier<Mono<ToolResult>> invoker) {
+        if (policy == null) {
+            return admission.apply(invoker);
+        }
+        CircuitBreaker breaker = breakerFor(toolName, policy);
+        return Mono.defer(() -> {
+            Permit permit = breaker.tryAcquire();
+            if (permit == null) {
+                return Mono.just(openResult(toolName, toolCallId, breaker));
+            }
+            // 只有真正开始执行的调用才计入窗口，排队被拒绝或取消的调用只释放试探名额
+            Supplier<Mono<ToolResult>> recorded = () -> Mono.defer(() -> {
+                long start = System.nanoTime();
+                return invoker.get()
+                        .doOnNext(result -> {
+                            if (result.isCallerError()) {
+                                breaker.release(permit);
+                            } else {
+                                breaker.record(permit, !result.isSuccess(), System.nanoTime() - start);
+                            }
+                        })
+                        .doOnError(error -> breaker.record(permit, true, System.nanoTime() - start))
+                        .doFinally(signal -> {
+                            if (signal == SignalType.CANCEL) {
+                                breaker.cancelled(permit, System.nanoTime() - start);
+                            }
+                        });
+            });
+            return admission.apply(recorded)
+                    .doFinally(signal -> breaker.release(permit));
+        });
+    }
+
+    /**
+     * 获取熔断器当前状态，不存在时返回null
+     */
+    public State getState(String breakerKey) {
+        CircuitBreaker breaker = breakers.get(breakerKey);
+        return breaker != null ? breaker.state : null;
+    }
+
+    /**
+     * 重置熔断器为关闭状态并清空滑动窗口
+     */
+    public boolean reset(String breakerKey) {
+        CircuitBreaker breaker = breakers.get(breakerKey);
+        if (breaker == null) {
+            return false;
+        }
+        breaker.transition(State.CLOSED, "manual reset");
+        return true;
+    }
+
+    /**
+     * 手动打开熔断器（如维护中的MCP服务），冷却时间后照常进入半开
+     */
+    public boolean forceOpen(String breakerKey) {
+        CircuitBreaker breaker = breakers.get(breakerKey);
+        if (breaker == null) {
+            return false;
+        }
+        breaker.transition(State.OPEN, "manual open");
+        return true;
+    }
+
+    /**
+     * 获取全部熔断器的状态与统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> result = new TreeMap<>();
+        breakers.forEach((key, breaker) -> result.put(key, breaker.snapshot()));
+        return result;
+    }
+
+    /**
+     * 工具所用的熔断器：未设置分组键时按工具名；设置了分组键时，策略与分组熔断器不同的工具不沿用分组的策略
+     */
+    private CircuitBreaker breakerFor(String toolName, ToolCircuitBreakerPolicy policy) {
+        String groupKey = policy.getBreakerKey();
+        if (groupKey == null) {
+            return breakers.computeIfAbsent(toolName, k -> new CircuitBreaker(k, policy));
+        }
+        CircuitBreaker group = breakers.computeIfAbsent(groupKey, k -> new CircuitBreaker(k, policy));
+        if (group.policy == policy || group.policy.equals(policy)) {
+            return group;
+        }
+        return breakers.computeIfAbsent(groupKey + "/" + toolName, k -> {
+            log.warn("Tool {} declares a different circuit breaker policy than group {}, using its own breaker {}",
+                    toolName, groupKey, k);
+            return new CircuitBreaker(k, policy);
+        });
+    }
+
+    private ToolResult openResult(String toolName, String toolCallId, CircuitBreaker breaker) {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("error", "circuit_open");
+        error.put("tool", toolName);
+        error.put("circuit", breaker.key);
+        error.put("retryAfterSeconds", Math.max(1, (breaker.remainingOpenMillis() + 999) / 1000));
+        error.put("message", "Tool " + toolName + " is temporarily unavailable after repeated failures. "
+                + "Do not retry it now; use other tools or answer without it.");
+        try {
+            return ToolResult.error(toolCallId, objectMapper.writeValueAsString(error));
+        } catch (JsonProcessingException e) {
+            return ToolResult.error(toolCallId, String.valueOf(error.get("message")));
+        }
+    }
+
+    /**
+     * 一次调用的准入凭证，记录是否为半开试探调用以及所属的状态周期
+     */
+    private static final class Permit {
+        private final boolean trial;
+        private final long generation;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private Permit(boolean trial, long generation) {
+            this.trial = trial;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * 单个熔断器：状态与滑动窗口由自身加锁
+     */
+    private static final class CircuitBreaker {
+        private final String key;
+        private final ToolCircuitBreakerPolicy policy;
+        private final boolean[] failures;
+        private final boolean[] slows;
+        private volatile State state = State.CLOSED;
+        // 每次状态变化递增，旧周期的调用结果不再影响当前状态
+        private long generation;
+        private int buffered;
+        private int next;
+        private int failureCount;
+        private int slowCount;
+        private long openedAt;
+        private int trialsInFlight;
+        private int trialSuccesses;
+        private long notPermitted;
+        private long openCount;
+        private long lastTransitionAt = System.currentTimeMillis();
+
+        private CircuitBreaker(String key, ToolCircuitBreakerPolicy policy) {
+            this.key = key;
+            this.policy = policy;
+            int size = Math.max(1, policy.getSlidingWindowSize());
+            this.failures = new boolean[size];
+            this.slows = new boolean[size];
+        }
+
+        private synchronized Permit tryAcquire() {
+            if (state == State.OPEN) {
+                if (remainingOpenMillis() > 0) {
+                    notPermitted++;
+                    return null;
+                }
+                transition(State.HALF_OPEN, "open duration elapsed");
+            }
+            if (state == State.HALF_OPEN) {
+                if (trialsInFlight + trialSuccesses >= Math.max(1, policy.getHalfOpenCalls())) {
+                    notPermitted++;
+                    return null;
+                }
+                trialsInFlight++;
+                return new Permit(true, generation);
+            }
+            return new Permit(false, generation);
+        }
+
+        private synchronized void record(Permit permit, boolean failure, long elapsedNanos) {
+            if (!permit.done.compareAndSet(false, true) || permit.generation != generation) {
+                return;
+            }
+            boolean slow = isSlow(elapsedNanos);
+            if (permit.trial) {
+                trialsInFlight--;
+                if (failure || slow) {
+                    transition(State.OPEN, failure ? "trial call failed" : "trial call too slow");
+                } else if (++trialSuccesses >= Math.max(1, policy.getHalfOpenCalls())) {
+                    transition(State.CLOSED, "trial calls succeeded");
+                }
+                return;
+            }
+            if (state != State.CLOSED) {
+                return;
+            }
+            if (buffered == failures.length) {
+                failureCount -= failures[next] ? 1 : 0;
+                slowCount -= slows[next] ? 1 : 0;
+            } else {
+                buffered++;
+            }
+            failures[next] = failure;
+            slows[next] = slow;
+            failureCount += failure ? 1 : 0;
+            slowCount += slow ? 1 : 0;
+            next = (next + 1) % failures.length;
+
+            if (buffered >= Math.max(1, policy.getMinimumCalls())) {
+                if (failureRate() >= policy.getFailureRateThreshold()) {
+                    transition(State.OPEN, String.format("failure rate %.0f%%", failureRate() * 100));
+                } else if (slowCallRate() >= policy.getSlowCallRateThreshold()) {
+                    transition(State.OPEN, String.format("slow call rate %.0f%%", slowCallRate() * 100));
+                }
+            }
+        }
+
+        /**
+         * 被超时或截止时间取消的调用：超过慢调用阈值时记为慢调用，否则不计入窗口
+         */
+        private synchronized void cancelled(Permit permit, long elapsedNanos) {
+            if (isSlow(elapsedNanos)) {
+                record(permit, false, elapsedNanos);
+            } else {
+                release(permit);
+            }
+        }
+
+        private boolean isSlow(long elapsedNanos) {
+            return policy.getSlowCallDuration() != null && elapsedNanos >= policy.getSlowCallDuration().toNanos();
+        }
+
+        /**
+         * 调用结束：未记录结果的试探调用（被拒绝或取消）归还名额
+         */
+        private synchronized void release(Permit permit) {
+            if (permit.done.compareAndSet(false, true) && permit.trial && permit.generation == generation) {
+                trialsInFlight--;
+            }
+        }
+
+        private synchronized void transition(State target, String reason) {
+            State previous = state;
+            state = target;
+            generation++;
+            buffered = 0;
+            next = 0;
+            failureCount = 0;
+            slowCount = 0;
+            trialsInFlight = 0;
+            trialSuccesses = 0;
+            lastTransitionAt = System.currentTimeMillis();
+            if (target == State.OPEN) {
+                openedAt = System.nanoTime();
+                openCount++;
+                log.warn("Circuit breaker {} {} -> OPEN: {}", key, previous, reason);
+            } else {
+                log.info("Circuit breaker {} {} -> {}: {}", key, previous, target, reason);
+            }
+        }
+
+        private synchronized long remainingOpenMillis() {
+            if (state != State.OPEN) {
+                return 0;
+            }
+            long elapsed = System.nanoTime() - openedAt;
+            return Math.max(0, Duration.ofNanos(policy.getOpenDuration().toNanos() - elapsed).toMillis());
+        }
+
+        private double failureRate() {
+            return buffered == 0 ? 0.0 : (double) failureCount / buffered;
+        }
+
+        private double slowCallRate() {
+            return buffered == 0 ? 0.0 : (double) slowCount / buffered;
+        }
+
+        private synchronized Map<String, Object> snapshot() {
+            Map<String, Object> snapshot = new HashMap<>();
+            snapshot.put("state", state.name());
+            snapshot.put("bufferedCalls", buffered);
+            snapshot.put("failureRate", failureRate());
+            snapshot.put("slowCallRate", slowCallRate());
+            snapshot.put("notPermitted", notPermitted);
+            snapshot.put("openCount", openCount);
+            snapshot.put("retryAfterMs", remainingOpenMillis());
+            snapshot.put("lastTransitionAt", lastTransitionAt);
+            return snapshot;
+        }
+    }
+}
@@ -31,6 +31,30 @@ public interface ToolDefinition {
      */
     String[] getRequiredParameters();
 
+    /**
+     * 获取结果缓存策略
+     * @return 缓存策略，返回null表示不缓存（默认）
+     */
+    default ToolCachePolicy getCachePolicy() {
+        return null;
+    }
+
+    /**
+     * 获取舱壁策略（并发、排队与超时限制）
+     * @return 舱壁策略，返回null时使用ToolRegistry的默认策略
+     */
+    default ToolBulkheadPolicy getBulkheadPolicy() {
+        return null;
+    }
+
+    /**
+     * 获取熔断策略
+     * @return 熔断策略，返回null时使用ToolRegistry的默认策略
+     */
+    default ToolCircuitBreakerPolicy getCircuitBreakerPolicy() {
+        return null;
+    }
+
     /**
      * 构建Tool对象
      */
@@ -0,0 +1,19 @@
+package cn.apmen.jsagent.framework.tool;
+
+/**
+ * 工具执行模式
+ * 由AbstractToolExecutor子类声明，决定阻塞型工具逻辑在哪个调度器上运行
+ */
+public enum ToolExecutionMode {
+
+    /**
+     * 平台线程池（Schedulers.boundedElastic），默认模式
+     */
+    BOUNDED_ELASTIC,
+
+    /**
+     * 虚拟线程（需要Java 21+并开启虚拟线程执行配置）
+     * 未开启或运行时不支持时自动降级为BOUNDED_ELASTIC
+     */
+    VIRTUAL_THREAD
+}
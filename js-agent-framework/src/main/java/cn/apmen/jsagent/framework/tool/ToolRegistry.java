@@ -3,8 +3,10 @@ package cn.apmen.jsagent.framework.tool;
 import cn.apmen.jsagent.framework.openaiunified.model.request.Tool;
 import cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
@@ -16,12 +18,37 @@ import java.util.stream.Collectors;
 @Slf4j
 public class ToolRegistry {
     private final Map<String, ToolExecutor> executors = new ConcurrentHashMap<>();
+    private final ToolResultCache resultCache;
+    private final ToolBulkheads bulkheads = new ToolBulkheads();
+    private final ToolCircuitBreakers circuitBreakers = new ToolCircuitBreakers();
+    // 未声明舱壁策略的工具使用的默认策略，为null时不限制
+    private volatile ToolBulkheadPolicy defaultBulkheadPolicy;
+    // 未声明熔断策略的工具使用的默认策略，为null时不熔断
+    private volatile ToolCircuitBreakerPolicy defaultCircuitBreakerPolicy;
+    // 一轮工具调用的截止时间，为null时等待全部调用完成
+    private volatile Duration stragglerDeadline;
+    // getAllTools结果快照，注册表变化时失效
+    private volatile List<Tool> toolsSnapshot;
+
+    public ToolRegistry() {
+        this(new ToolResultCache());
+    }
+
+    /**
+     * @param resultCache 工具结果缓存，只对声明了缓存策略的工具生效
+     */
+    public ToolRegistry(ToolResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
 
     /**
      * 注册工具执行器
      */
     public void registerExecutor(ToolExecutor executor) {
-        executors.put(executor.getToolName(), executor);
+        if (executors.put(executor.getToolName(), executor) != null) {
+            resultCache.invalidate(executor.getToolName());
+        }
+        toolsSnapshot = null;
         log.info("Registered tool executor: {}", executor.getToolName());
     }
 
@@ -57,12 +84,18 @@ public class ToolRegistry {
 
     /**
      * 获取所有工具的Tool对象列表
+     * 结果在注册表变化前复用，返回的列表不可修改
      * @return 所有工具的Tool对象列表
      */
     public List<Tool> getAllTools() {
-        return getAllToolDefinitions().stream()
-                .map(ToolDefinition::buildTool)
-                .collect(Collectors.toList());
+        List<Tool> snapshot = toolsSnapshot;
+        if (snapshot == null) {
+            snapshot = getAllToolDefinitions().stream()
+                    .map(ToolDefinition::buildTool)
+                    .collect(Collectors.toUnmodifiableList());
+            toolsSnapshot = snapshot;
+        }
+        return snapshot;
     }
 
     /**
@@ -123,12 +156,51 @@ public class ToolRegistry {
             toolContext.setToolName(toolName);
         }
 
-        return executor.execute(toolCall, toolContext)
+        // 声明了缓存策略的工具先查缓存，相同参数的并发调用合并执行；
+        // 未命中时先经过熔断器（打开时直接返回），再在工具的舱壁内执行
+        ToolBulkheadPolicy bulkheadPolicy = executor.getBulkheadPolicy() != null
+                ? executor.getBulkheadPolicy() : defaultBulkheadPolicy;
+        ToolCircuitBreakerPolicy breakerPolicy = executor.getCircuitBreakerPolicy() != null
+                ? executor.getCircuitBreakerPolicy() : defaultCircuitBreakerPolicy;
+        return resultCache.execute(executor, toolCall, toolContext,
+                        () -> circuitBreakers.execute(toolName, toolCall.getId(), breakerPolicy,
+                                invoker -> bulkheads.execute(toolName, toolCall.getId(), bulkheadPolicy, invoker),
+                                () -> executor.execute(toolCall, toolContext)))
                 .doOnNext(result -> log.debug("Tool {} executed with result: {}", toolName, result.isSuccess()))
                 .doOnError(error -> log.error("Error executing tool {}: {}", toolName, error.getMessage()))
                 .onErrorReturn(ToolResult.error(toolCall.getId(), "Tool execution failed"));
     }
 
+    /**
+     * 并行执行一轮工具调用
+     * 结果顺序与toolCalls一致；设置了截止时间时，超过截止时间仍未完成的调用被取消，
+     * 以超时结果代替，本轮以部分结果继续
+     * @param toolCalls 本轮的工具调用
+     * @param toolContext 工具上下文
+     * @return 与toolCalls一一对应的结果列表
+     */
+    public Mono<List<ToolResult>> executeAll(List<ToolCall> toolCalls, ToolContext toolContext) {
+        Duration deadline = stragglerDeadline;
+        return Flux.fromIterable(toolCalls)
+                .flatMapSequential(toolCall -> {
+                    Mono<ToolResult> result = execute(toolCall, toolContext);
+                    if (deadline == null) {
+                        return result;
+                    }
+                    return result.timeout(deadline, Mono.fromSupplier(() -> straggler(toolCall, deadline)));
+                })
+                .collectList();
+    }
+
+    private ToolResult straggler(ToolCall toolCall, Duration deadline) {
+        String toolName = toolCall.getFunction() != null ? toolCall.getFunction().getName() : null;
+        bulkheads.recordStraggler(String.valueOf(toolName));
+        log.warn("Tool {} did not finish within round deadline {}ms, continuing with partial results",
+                toolName, deadline.toMillis());
+        return ToolResult.error(toolCall.getId(), "Tool " + toolName + " did not finish within "
+                + deadline.toMillis() + "ms and was skipped");
+    }
+
     /**
      * 执行工具调用（兼容旧版本）
      */
@@ -176,6 +248,8 @@ public class ToolRegistry {
      */
     public void clear() {
         executors.clear();
+        resultCache.clear();
+        toolsSnapshot = null;
         log.info("Cleared all registered tools");
     }
 
@@ -185,12 +259,56 @@ public class ToolRegistry {
     public boolean removeExecutor(String toolName) {
         ToolExecutor removed = executors.remove(toolName);
         if (removed != null) {
+            resultCache.invalidate(toolName);
+            toolsSnapshot = null;
             log.info("Removed tool executor: {}", toolName);
             return true;
         }
         return false;
     }
 
+    /**
+     * 获取工具结果缓存
+     */
+    public ToolResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * 设置默认舱壁策略，作用于未声明舱壁策略的工具
+     * @param defaultBulkheadPolicy 默认策略，为null时不限制
+     */
+    public void setDefaultBulkheadPolicy(ToolBulkheadPolicy defaultBulkheadPolicy) {
+        this.defaultBulkheadPolicy = defaultBulkheadPolicy;
+    }
+
+    /**
+     * 设置默认熔断策略，作用于未声明熔断策略的工具
+     * @param defaultCircuitBreakerPolicy 默认策略，为null时不熔断
+     */
+    public void setDefaultCircuitBreakerPolicy(ToolCircuitBreakerPolicy defaultCircuitBreakerPolicy) {
+        this.defaultCircuitBreakerPolicy = defaultCircuitBreakerPolicy;
+    }
+
+    /**
+     * 获取工具熔断器，用于查看或手动重置熔断状态
+     */
+    public ToolCircuitBreakers getCircuitBreakers() {
+        return circuitBreakers;
+    }
+
+    /**
+     * 设置一轮工具调用的截止时间（落后调用处理）
+     * @param stragglerDeadline 截止时间，为null时等待全部调用完成
+     */
+    public void setStragglerDeadline(Duration stragglerDeadline) {
+        this.stragglerDeadline = stragglerDeadline;
+    }
+
+    public Duration getStragglerDeadline() {
+        return stragglerDeadline;
+    }
+
     /**
      * 获取工具统计信息
      */
@@ -198,6 +316,9 @@ public class ToolRegistry {
         Map<String, Object> stats = new HashMap<>();
         stats.put("totalTools", executors.size());
         stats.put("toolNames", new ArrayList<>(executors.keySet()));
+        stats.put("resultCache", resultCache.getStatistics());
+        stats.put("execution", bulkheads.getStatistics());
+        stats.put("circuitBreakers", circuitBreakers.getStatistics());
         return stats;
     }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package cn.apmen.jsagent.framework.tool;
 
+import cn.apmen.jsagent.framework.exception.ErrorCode;
 import lombok.Data;
 
 /**
@@ -27,6 +28,11 @@ public class ToolResult {
      * 错误信息（如果执行失败）
      */
     private String error;
+
+    /**
+     * 错误码（如果执行失败且能归类），为空表示一般的执行失败
+     */
+    private ErrorCode errorCode;
     /**
      * 执行耗时（毫秒）
      */
@@ -50,6 +56,22 @@ public class ToolResult {
     public static ToolResult error(String toolCallId, String error) {
         return new ToolResult(toolCallId, false, null, error);
     }
+    /**
+     * 创建带错误码的失败结果
+     */
+    public static ToolResult error(String toolCallId, ErrorCode errorCode, String error) {
+        ToolResult result = new ToolResult(toolCallId, false, null, error);
+        result.setErrorCode(errorCode);
+        return result;
+    }
+
+    /**
+     * 是否为调用方的错误（参数无效、权限不足等），这类失败不反映工具本身是否可用
+     */
+    public boolean isCallerError() {
+        return !success && errorCode != null && errorCode.isUserError();
+    }
+
     /**
      * 创建失败结果（带异常）
      */
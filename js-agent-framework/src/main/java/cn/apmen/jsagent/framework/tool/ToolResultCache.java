@@ -0,0 +1,385 @@
+package cn.apmen.jsagent.framework.tool;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 工具结果缓存
+ * 按 工具名 + 作用域（用户ID）+ 规范化参数JSON（键排序）缓存成功结果，条目数有上限，按LRU淘汰；
+ * 相同键的并发调用合并为一次执行，其余调用等待同一结果；执行按等待者引用计数，
+ * 单个等待者取消不影响其他等待者，最后一个等待者取消时取消执行本身
+ */
+@Slf4j
+public class ToolResultCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    public static final int DEFAULT_MAX_ENTRY_CHARS = 64 * 1024;
+
+    private static final TypeReference<Map<String, Object>> ARGUMENTS_TYPE = new TypeReference<>() {};
+
+    private final int maxEntries;
+    private final int maxEntryChars;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // 访问顺序的LinkedHashMap实现LRU，由自身加锁
+    private final LinkedHashMap<String, CachedResult> entries;
+    private final Map<String, SharedCall> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, ToolCacheStats> stats = new ConcurrentHashMap<>();
+
+    public ToolResultCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_ENTRY_CHARS);
+    }
+
+    /**
+     * @param maxEntries 最大缓存条目数，0表示关闭缓存
+     * @param maxEntryChars 单条结果的最大字符数，超过时不缓存
+     */
+    public ToolResultCache(int maxEntries, int maxEntryChars) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.maxEntryChars = maxEntryChars;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+                if (size() > ToolResultCache.this.maxEntries) {
+                    statsFor(eldest.getValue().toolName).evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+        objectMapper.findAndRegisterModules();
+        objectMapper.configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    /**
+     * 按工具声明的缓存策略执行调用
+     * @param definition 工具定义
+     * @param toolCall 工具调用
+     * @param context 工具上下文
+     * @param invoker 实际执行工具的调用
+     * @return 执行结果，toolCallId始终为本次调用的ID
+     */
+    public Mono<ToolResult> execute(ToolDefinition definition, ToolCall toolCall, ToolContext context,
+                                    Supplier<Mono<ToolResult>> invoker) {
+        ToolCachePolicy policy = definition.getCachePolicy();
+        if (policy == null || maxEntries == 0) {
+            return invoker.get();
+        }
+        return Mono.deferContextual(contextView -> {
+            String toolName = definition.getToolName();
+            ToolCacheStats toolStats = statsFor(toolName);
+            String key = cacheKey(toolName, policy, toolCall, context);
+            if (key == null) {
+                toolStats.bypasses.increment();
+                return invoker.get();
+            }
+
+            CachedResult cached = lookup(key, toolStats);
+            if (cached != null) {
+                toolStats.hits.increment();
+                log.debug("Tool {} result served from cache", toolName);
+                return Mono.just(copyOf(toolCall.getId(), cached.result, 0));
+            }
+
+            SharedCall call = null;
+            boolean leader = false;
+            while (call == null) {
+                SharedCall created = new SharedCall(key, toolStats);
+                SharedCall existing = inFlight.putIfAbsent(key, created);
+                if (existing == null) {
+                    created.join();
+                    call = created;
+                    leader = true;
+                } else if (existing.join()) {
+                    call = existing;
+                }
+                // 否则existing刚结束或被取消、正在移出，重试
+            }
+            if (leader) {
+                toolStats.misses.increment();
+                // 执行沿用发起者的订阅上下文
+                call.start(Mono.defer(invoker)
+                        .doOnNext(result -> store(key, toolName, policy.getTtl(), result, toolStats))
+                        .contextWrite(contextView));
+            } else {
+                toolStats.coalesced.increment();
+            }
+            return call.result.asMono()
+                    .doOnCancel(call::leave)
+                    .map(result -> copyOf(toolCall.getId(), result, result.getExecutionTimeMs()));
+        });
+    }
+
+    /**
+     * 清除指定工具的缓存
+     */
+    public void invalidate(String toolName) {
+        synchronized (entries) {
+            Iterator<CachedResult> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().toolName.equals(toolName)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * 清空全部缓存
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * 获取缓存统计信息，按工具分别统计命中、未命中、合并、跳过、淘汰、过期与取消次数
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("entries", size());
+        result.put("maxEntries", maxEntries);
+        result.put("inFlight", inFlight.size());
+        Map<String, Object> tools = new TreeMap<>();
+        stats.forEach((toolName, toolStats) -> tools.put(toolName, toolStats.snapshot()));
+        result.put("tools", tools);
+        return result;
+    }
+
+    private CachedResult lookup(String key, ToolCacheStats toolStats) {
+        synchronized (entries) {
+            CachedResult cached = entries.get(key);
+            if (cached == null) {
+                return null;
+            }
+            if (System.nanoTime() - cached.expiresAtNanos >= 0) {
+                entries.remove(key);
+                toolStats.expirations.increment();
+                return null;
+            }
+            return cached;
+        }
+    }
+
+    private void store(String key, String toolName, Duration ttl, ToolResult result, ToolCacheStats toolStats) {
+        if (!result.isSuccess() || ttl == null || ttl.isNegative() || ttl.isZero()) {
+            return;
+        }
+        if (result.getContent() != null && result.getContent().length() > maxEntryChars) {
+            toolStats.bypasses.increment();
+            return;
+        }
+        CachedResult cached = new CachedResult(toolName, result, System.nanoTime() + ttl.toNanos());
+        synchronized (entries) {
+            entries.put(key, cached);
+        }
+    }
+
+    /**
+     * 计算缓存键；参数无法解析、作用域要求的用户ID缺失或策略条件不满足时返回null
+     */
+    private String cacheKey(String toolName, ToolCachePolicy policy, ToolCall toolCall, ToolContext context) {
+        String scopeKey = "";
+        if (policy.getScope() == ToolCachePolicy.Scope.USER) {
+            scopeKey = context != null ? context.getUserId() : null;
+            if (scopeKey == null) {
+                return null;
+            }
+        }
+        try {
+            String raw = toolCall.getFunction().getArguments();
+            Map<String, Object> arguments = raw == null || raw.isBlank()
+                    ? new HashMap<>()
+                    : objectMapper.readValue(raw, ARGUMENTS_TYPE);
+            if (policy.getCondition() != null && !policy.getCondition().test(arguments)) {
+                return null;
+            }
+            Object keyArguments = keyArguments(arguments, policy.getKeyFields());
+            return toolName + '\u0000' + scopeKey + '\u0000' + objectMapper.writeValueAsString(keyArguments);
+        } catch (Exception e) {
+            log.debug("Tool {} arguments not cacheable: {}", toolName, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 取出参与缓存键的参数；嵌套的JSON字符串先展开，使字符串与对象两种写法得到相同的键
+     */
+    private Object keyArguments(Map<String, Object> arguments, List<String> keyFields) {
+        if (keyFields == null || keyFields.isEmpty()) {
+            Map<String, Object> expanded = new HashMap<>();
+            arguments.forEach((name, value) -> expanded.put(name, expand(value)));
+            return expanded;
+        }
+        Map<String, Object> selected = new TreeMap<>();
+        for (String path : keyFields) {
+            Object value = arguments;
+            for (String segment : path.split("\\.")) {
+                value = expand(value);
+                value = value instanceof Map<?, ?> map ? map.get(segment) : null;
+            }
+            selected.put(path, expand(value));
+        }
+        return selected;
+    }
+
+    private Object expand(Object value) {
+        if (value instanceof String text) {
+            String trimmed = text.trim();
+            if (trimmed.startsWith("{") || trimmed.startsWith("[")) {
+                try {
+                    return objectMapper.readValue(trimmed, Object.class);
+                } catch (Exception e) {
+                    return value;
+                }
+            }
+        }
+        return value;
+    }
+
+    private ToolCacheStats statsFor(String toolName) {
+        return stats.computeIfAbsent(toolName, name -> new ToolCacheStats());
+    }
+
+    private static ToolResult copyOf(String toolCallId, ToolResult source, long executionTimeMs) {
+        ToolResult copy = source.isSuccess()
+                ? ToolResult.success(toolCallId, source.getContent())
+                : ToolResult.error(toolCallId, source.getErrorCode(), source.getError());
+        copy.setExecutionTimeMs(executionTimeMs);
+        return copy;
+    }
+
+    /**
+     * 合并中的一次执行，等待者引用计数
+     */
+    private final class SharedCall {
+        private final String key;
+        private final ToolCacheStats toolStats;
+        private final Sinks.One<ToolResult> result = Sinks.one();
+
+        private int waiters;
+        // 已完成或已取消，不再接受新的等待者
+        private boolean finished;
+        private Disposable execution;
+
+        private SharedCall(String key, ToolCacheStats toolStats) {
+            this.key = key;
+            this.toolStats = toolStats;
+        }
+
+        private synchronized boolean join() {
+            if (finished) {
+                return false;
+            }
+            waiters++;
+            return true;
+        }
+
+        private void start(Mono<ToolResult> invocation) {
+            Disposable subscription = invocation
+                    .doFinally(signal -> {
+                        if (signal != SignalType.CANCEL) {
+                            finish();
+                        }
+                    })
+                    .subscribe(
+                            value -> result.tryEmitValue(value),
+                            error -> result.tryEmitError(error),
+                            () -> result.tryEmitEmpty());
+            synchronized (this) {
+                execution = subscription;
+            }
+        }
+
+        private void finish() {
+            synchronized (this) {
+                finished = true;
+            }
+            inFlight.remove(key, this);
+        }
+
+        /**
+         * 等待者取消；最后一个等待者离开时取消执行
+         */
+        private void leave() {
+            Disposable toCancel;
+            synchronized (this) {
+                if (finished || --waiters > 0) {
+                    return;
+                }
+                finished = true;
+                toCancel = execution;
+            }
+            inFlight.remove(key, this);
+            toolStats.cancellations.increment();
+            if (toCancel != null) {
+                toCancel.dispose();
+            }
+        }
+    }
+
+    private static final class CachedResult {
+        private final String toolName;
+        private final ToolResult result;
+        private final long expiresAtNanos;
+
+        private CachedResult(String toolName, ToolResult result, long expiresAtNanos) {
+            this.toolName = toolName;
+            this.result = result;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    private static final class ToolCacheStats {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder coalesced = new LongAdder();
+        private final LongAdder bypasses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private final LongAdder expirations = new LongAdder();
+        private final LongAdder cancellations = new LongAdder();
+
+        private Map<String, Object> snapshot() {
+            long hitCount = hits.sum();
+            long missCount = misses.sum();
+            Map<String, Object> snapshot = new HashMap<>();
+            snapshot.put("hits", hitCount);
+            snapshot.put("misses", missCount);
+            snapshot.put("coalesced", coalesced.sum());
+            snapshot.put("bypasses", bypasses.sum());
+            snapshot.put("evictions", evictions.sum());
+            snapshot.put("expirations", expirations.sum());
+            snapshot.put("cancellations", cancellations.sum());
+            snapshot.put("hitRate", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+            return snapshot;
+        }
+    }
+}
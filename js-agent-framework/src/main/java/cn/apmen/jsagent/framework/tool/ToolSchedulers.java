@@ -0,0 +1,168 @@
+package cn.apmen.jsagent.framework.tool;
+
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 工具调度器
+ * 根据ToolExecutionMode为阻塞型工具提供调度器，并提供虚拟线程钉住（pinning）诊断
+ *
+ * 虚拟线程执行配置默认关闭，可通过以下方式开启：
+ * - 启动参数：-Djs-agent.tools.virtual-threads=true
+ * - 代码：ToolSchedulers.setVirtualThreadsEnabled(true)
+ * 编译目标仍为Java 17，虚拟线程通过反射创建，在Java 21以下运行时自动降级为boundedElastic
+ */
+@Slf4j
+public final class ToolSchedulers {
+
+    public static final String VIRTUAL_THREADS_PROPERTY = "js-agent.tools.virtual-threads";
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    private static volatile boolean virtualThreadsEnabled = Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY);
+
+    private static volatile Scheduler virtualThreadScheduler;
+
+    private static volatile boolean virtualThreadsUnsupported;
+
+    private static volatile RecordingStream pinningStream;
+
+    private static final AtomicLong pinnedEventCount = new AtomicLong();
+
+    private ToolSchedulers() {
+    }
+
+    /**
+     * 获取指定执行模式对应的调度器
+     */
+    public static Scheduler forMode(ToolExecutionMode mode) {
+        if (mode == ToolExecutionMode.VIRTUAL_THREAD && virtualThreadsEnabled) {
+            Scheduler scheduler = virtualThreadScheduler();
+            if (scheduler != null) {
+                return scheduler;
+            }
+        }
+        return Schedulers.boundedElastic();
+    }
+
+    /**
+     * 开启或关闭虚拟线程执行配置
+     */
+    public static void setVirtualThreadsEnabled(boolean enabled) {
+        virtualThreadsEnabled = enabled;
+        log.info("Virtual thread tool execution {}", enabled ? "enabled" : "disabled");
+    }
+
+    /**
+     * 虚拟线程执行配置是否开启
+     */
+    public static boolean isVirtualThreadsEnabled() {
+        return virtualThreadsEnabled;
+    }
+
+    /**
+     * 当前运行时是否支持虚拟线程
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return virtualThreadScheduler() != null;
+    }
+
+    /**
+     * 开启虚拟线程钉住诊断
+     * 通过JFR订阅jdk.VirtualThreadPinned事件，持续时间超过阈值的钉住会记录告警日志及栈顶帧
+     * @param threshold 钉住时长阈值
+     * @return 是否成功开启
+     */
+    public static synchronized boolean startPinningDiagnostics(Duration threshold) {
+        if (pinningStream != null) {
+            return true;
+        }
+        if (!isVirtualThreadsSupported()) {
+            log.warn("Virtual threads are not supported by this runtime, pinning diagnostics not started");
+            return false;
+        }
+        try {
+            RecordingStream stream = new RecordingStream();
+            stream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+            stream.onEvent(PINNED_EVENT, event -> {
+                pinnedEventCount.incrementAndGet();
+                List<RecordedFrame> frames = event.getStackTrace() != null ? event.getStackTrace().getFrames() : List.of();
+                StringBuilder top = new StringBuilder();
+                for (int i = 0; i < Math.min(5, frames.size()); i++) {
+                    RecordedFrame frame = frames.get(i);
+                    top.append("\n    at ").append(frame.getMethod().getType().getName())
+                        .append('.').append(frame.getMethod().getName())
+                        .append(':').append(frame.getLineNumber());
+                }
+                log.warn("Virtual thread pinned for {}ms{}", event.getDuration().toMillis(), top);
+            });
+            stream.startAsync();
+            pinningStream = stream;
+            log.info("Virtual thread pinning diagnostics started, threshold={}ms", threshold.toMillis());
+            return true;
+        } catch (Exception e) {
+            log.warn("Failed to start virtual thread pinning diagnostics: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 停止虚拟线程钉住诊断
+     */
+    public static synchronized void stopPinningDiagnostics() {
+        if (pinningStream != null) {
+            pinningStream.close();
+            pinningStream = null;
+            log.info("Virtual thread pinning diagnostics stopped");
+        }
+    }
+
+    /**
+     * 获取调度器统计信息
+     */
+    public static Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("virtualThreadsEnabled", virtualThreadsEnabled);
+        stats.put("virtualThreadsSupported", isVirtualThreadsSupported());
+        stats.put("pinningDiagnosticsActive", pinningStream != null);
+        stats.put("pinnedEvents", pinnedEventCount.get());
+        return stats;
+    }
+
+    /**
+     * 懒加载虚拟线程调度器，反射调用Executors.newVirtualThreadPerTaskExecutor以保持Java 17编译兼容
+     */
+    private static Scheduler virtualThreadScheduler() {
+        Scheduler scheduler = virtualThreadScheduler;
+        if (scheduler != null || virtualThreadsUnsupported) {
+            return scheduler;
+        }
+        synchronized (ToolSchedulers.class) {
+            if (virtualThreadScheduler == null && !virtualThreadsUnsupported) {
+                try {
+                    ExecutorService executor = (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+                    virtualThreadScheduler = Schedulers.fromExecutorService(executor, "tool-virtual");
+                    log.info("Created virtual thread scheduler for blocking tools");
+                } catch (ReflectiveOperationException e) {
+                    virtualThreadsUnsupported = true;
+                    log.warn("Virtual threads require Java 21+, falling back to boundedElastic (runtime: {})",
+                        System.getProperty("java.version"));
+                }
+            }
+            return virtualThreadScheduler;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package cn.apmen.jsagent.framework.tool;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 工具选择上下文
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class ToolSelectionContext {
+
+    /**
+     * 最新用户消息过短（如“再查一下”）时拼接上一条用户消息作为查询
+     */
+    private static final int SHORT_QUERY_CHARS = 16;
+
+    /**
+     * 用于相关度排序的查询文本
+     */
+    private String query;
+
+    /**
+     * 最近轮次中调用过的工具，始终保留，避免工具调用循环中途丢失工具
+     */
+    @Builder.Default
+    private Set<String> recentTools = Set.of();
+
+    /**
+     * 本次请求固定保留的工具（如ToolCallAgent的terminate）
+     */
+    @Builder.Default
+    private Set<String> pinnedTools = Set.of();
+
+    /**
+     * 只有查询文本的上下文
+     */
+    public static ToolSelectionContext of(String query) {
+        return ToolSelectionContext.builder().query(query).build();
+    }
+
+    /**
+     * 从消息列表构建：查询取最新用户消息，最近使用的工具取当前轮与上一轮中assistant消息的工具调用
+     */
+    public static ToolSelectionContext fromMessages(List<Message> messages) {
+        if (messages == null || messages.isEmpty()) {
+            return ToolSelectionContext.builder().build();
+        }
+
+        String query = null;
+        Set<String> recentTools = new LinkedHashSet<>();
+        int userMessages = 0;
+        for (int i = messages.size() - 1; i >= 0 && userMessages < 2; i--) {
+            Message message = messages.get(i);
+            if ("user".equals(message.getRole())) {
+                userMessages++;
+                String content = message.getContent();
+                if (content == null || content.isBlank()) {
+                    continue;
+                }
+                if (query == null) {
+                    query = content;
+                } else if (query.length() < SHORT_QUERY_CHARS) {
+                    query = content + "\n" + query;
+                }
+            } else if ("assistant".equals(message.getRole()) && message.getToolCalls() != null) {
+                for (ToolCall toolCall : message.getToolCalls()) {
+                    if (toolCall.getFunction() != null && toolCall.getFunction().getName() != null) {
+                        recentTools.add(toolCall.getFunction().getName());
+                    }
+                }
+            }
+        }
+
+        return ToolSelectionContext.builder()
+                .query(query)
+                .recentTools(recentTools)
+                .build();
+    }
+}
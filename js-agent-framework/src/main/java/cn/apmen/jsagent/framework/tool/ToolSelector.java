@@ -0,0 +1,31 @@
+package cn.apmen.jsagent.framework.tool;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Tool;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * 工具选择器
+ * 每轮请求前从全部工具中挑选与当前上下文相关的子集发送给模型，减少提示词中的工具定义
+ */
+public interface ToolSelector {
+
+    /**
+     * 选择本轮发送给模型的工具
+     * @param tools 候选工具，按注册顺序
+     * @param context 选择上下文（最新用户消息、最近使用的工具、固定保留的工具）
+     * @return 选中的工具，保持候选列表中的相对顺序
+     */
+    List<Tool> select(List<Tool> tools, ToolSelectionContext context);
+
+    /**
+     * 在请求链路上选择工具，含阻塞计算（如向量化）的实现应重写并切换到合适的调度器
+     * @param tools 候选工具，按注册顺序
+     * @param context 选择上下文
+     * @return 选中的工具
+     */
+    default Mono<List<Tool>> selectAsync(List<Tool> tools, ToolSelectionContext context) {
+        return Mono.fromCallable(() -> select(tools, context));
+    }
+}
@@ -0,0 +1,60 @@
+package cn.apmen.jsagent.framework.tool;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Set;
+
+/**
+ * 相关度工具选择配置
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ToolSelectorConfig {
+
+    /**
+     * 按相关度选取的工具数量（不含固定保留和最近使用的工具）
+     */
+    @Builder.Default
+    private int topK = 8;
+
+    /**
+     * 候选工具不超过该数量时不做选择，直接发送全部工具
+     */
+    @Builder.Default
+    private int minToolCount = 12;
+
+    /**
+     * 始终发送的工具名称
+     */
+    @Builder.Default
+    private Set<String> pinnedTools = Set.of();
+
+    /**
+     * 工具名称中的词项在索引中的重复次数，名称命中比描述命中权重更高
+     */
+    @Builder.Default
+    private int nameWeight = 3;
+
+    /**
+     * 配置了Embedder时向量相似度在综合得分中的权重（0~1），其余为归一化的BM25得分
+     */
+    @Builder.Default
+    private double embeddingWeight = 0.5;
+
+    /**
+     * 低于该得分的工具不视为相关
+     */
+    @Builder.Default
+    private double minScore = 0.0;
+
+    /**
+     * 没有任何工具与查询相关时是否发送全部工具（否则只发送固定保留和最近使用的工具）
+     */
+    @Builder.Default
+    private boolean includeAllWhenNoMatch = true;
+}
@@ -0,0 +1,35 @@
+package cn.apmen.jsagent.framework.tool.annotation;
+
+import cn.apmen.jsagent.framework.tool.ToolExecutionMode;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 声明工具方法
+ * 方法的参数为一个record（工具参数），可额外声明ToolCall、ToolContext参数；
+ * 返回值为String、ToolResult、Mono&lt;String&gt;或Mono&lt;ToolResult&gt;。
+ * 编译期由AgentToolProcessor为所在类生成 类名_AgentTools，其中包含：
+ * 由record组件生成的参数JSON Schema，以及基于Jackson流式解析、直接构造record的参数绑定与校验代码
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.CLASS)
+public @interface AgentToolMethod {
+
+    /**
+     * 工具名称，为空时使用方法名的下划线形式
+     */
+    String name() default "";
+
+    /**
+     * 工具描述
+     */
+    String description();
+
+    /**
+     * 同步方法（返回String或ToolResult）的执行模式，返回Mono的方法不切换调度器
+     */
+    ToolExecutionMode executionMode() default ToolExecutionMode.BOUNDED_ELASTIC;
+}
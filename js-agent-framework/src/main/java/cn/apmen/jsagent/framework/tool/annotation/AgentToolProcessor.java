@@ -0,0 +1,740 @@
+package cn.apmen.jsagent.framework.tool.annotation;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.RecordComponentElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @AgentToolMethod 注解处理器
+ * 为每个包含工具方法的类生成 类名_AgentTools：每个工具方法对应一个GeneratedToolExecutor子类，
+ * 参数JSON Schema在编译期由参数record生成，参数绑定为直接读取JsonParser的代码，不使用反射
+ */
+@SupportedAnnotationTypes("cn.apmen.jsagent.framework.tool.annotation.AgentToolMethod")
+public class AgentToolProcessor extends AbstractProcessor {
+
+    private static final String TOOL_CALL = "cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall";
+    private static final String TOOL_CONTEXT = "cn.apmen.jsagent.framework.tool.ToolContext";
+    private static final String TOOL_RESULT = "cn.apmen.jsagent.framework.tool.ToolResult";
+    private static final String MONO = "reactor.core.publisher.Mono";
+
+    private Types types;
+    private Elements elements;
+    private Filer filer;
+    private Messager messager;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        types = processingEnv.getTypeUtils();
+        elements = processingEnv.getElementUtils();
+        filer = processingEnv.getFiler();
+        messager = processingEnv.getMessager();
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Map<TypeElement, List<ToolMethod>> byClass = new LinkedHashMap<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(AgentToolMethod.class)) {
+            ToolMethod method = toolMethod((ExecutableElement) element);
+            if (method != null) {
+                byClass.computeIfAbsent((TypeElement) element.getEnclosingElement(), k -> new ArrayList<>()).add(method);
+            }
+        }
+        byClass.forEach(this::generate);
+        return true;
+    }
+
+    // ---- 模型 ----
+
+    private enum Kind {
+        STRING("string"), INTEGER("integer"), LONG("integer"), DOUBLE("number"), FLOAT("number"),
+        BOOLEAN("boolean"), ENUM("string"), LIST("array");
+
+        private final String schemaType;
+
+        Kind(String schemaType) {
+            this.schemaType = schemaType;
+        }
+    }
+
+    private enum ReturnKind {
+        STRING, RESULT, MONO_STRING, MONO_RESULT
+    }
+
+    private record Param(String component, String field, String typeName, Kind kind, boolean primitive,
+                         Kind elementKind, List<String> enumConstants, ToolParam annotation, boolean required,
+                         String defaultLiteral) {
+    }
+
+    private record ToolMethod(ExecutableElement element, String toolName, AgentToolMethod annotation,
+                              String recordType, List<Param> params, List<String> invokeArgs,
+                              ReturnKind returnKind) {
+    }
+
+    // ---- 校验与解析 ----
+
+    private ToolMethod toolMethod(ExecutableElement method) {
+        AgentToolMethod annotation = method.getAnnotation(AgentToolMethod.class);
+        if (method.getModifiers().contains(Modifier.PRIVATE)) {
+            return error(method, "@AgentToolMethod method must not be private");
+        }
+        if (method.getEnclosingElement().getKind() != ElementKind.CLASS) {
+            return error(method, "@AgentToolMethod must be declared in a class");
+        }
+        ReturnKind returnKind = returnKind(method.getReturnType());
+        if (returnKind == null) {
+            return error(method, "@AgentToolMethod must return String, ToolResult, Mono<String> or Mono<ToolResult>");
+        }
+
+        TypeElement record = null;
+        List<String> invokeArgs = new ArrayList<>();
+        for (VariableElement parameter : method.getParameters()) {
+            TypeMirror type = parameter.asType();
+            String name = types.erasure(type).toString();
+            if (TOOL_CALL.equals(name)) {
+                invokeArgs.add("toolCall");
+            } else if (TOOL_CONTEXT.equals(name)) {
+                invokeArgs.add("context");
+            } else if (type.getKind() == TypeKind.DECLARED
+                    && ((DeclaredType) type).asElement().getKind() == ElementKind.RECORD && record == null) {
+                record = (TypeElement) ((DeclaredType) type).asElement();
+                invokeArgs.add("arguments");
+            } else {
+                return error(parameter, "@AgentToolMethod parameters must be one record and optionally ToolCall/ToolContext");
+            }
+        }
+        if (record == null) {
+            return error(method, "@AgentToolMethod requires a record parameter describing the tool arguments");
+        }
+        if (record.getModifiers().contains(Modifier.PRIVATE)) {
+            return error(record, "Tool argument record must not be private");
+        }
+
+        List<Param> params = new ArrayList<>();
+        for (RecordComponentElement component : record.getRecordComponents()) {
+            Param param = param(component);
+            if (param == null) {
+                return null;
+            }
+            params.add(param);
+        }
+
+        String toolName = annotation.name().isEmpty() ? snakeCase(method.getSimpleName().toString()) : annotation.name();
+        return new ToolMethod(method, toolName, annotation, record.getQualifiedName().toString(), params,
+                invokeArgs, returnKind);
+    }
+
+    private Param param(RecordComponentElement component) {
+        ToolParam annotation = component.getAnnotation(ToolParam.class);
+        String name = component.getSimpleName().toString();
+        String field = annotation != null && !annotation.name().isEmpty() ? annotation.name() : name;
+        TypeMirror type = component.asType();
+
+        Kind kind;
+        Kind elementKind = null;
+        boolean primitive = type.getKind().isPrimitive();
+        List<String> enumConstants = null;
+        if (primitive) {
+            kind = switch (type.getKind()) {
+                case INT -> Kind.INTEGER;
+                case LONG -> Kind.LONG;
+                case DOUBLE -> Kind.DOUBLE;
+                case FLOAT -> Kind.FLOAT;
+                case BOOLEAN -> Kind.BOOLEAN;
+                default -> null;
+            };
+        } else if (isList(type)) {
+            kind = Kind.LIST;
+            List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+            elementKind = arguments.size() == 1 ? boxedKind(arguments.get(0)) : null;
+            if (elementKind == null || elementKind == Kind.FLOAT) {
+                return error(component, "List tool parameters must hold String, Integer, Long, Double or Boolean");
+            }
+        } else if (type.getKind() == TypeKind.DECLARED
+                && ((DeclaredType) type).asElement().getKind() == ElementKind.ENUM) {
+            kind = Kind.ENUM;
+            enumConstants = new ArrayList<>();
+            for (Element enclosed : ((DeclaredType) type).asElement().getEnclosedElements()) {
+                if (enclosed.getKind() == ElementKind.ENUM_CONSTANT) {
+                    enumConstants.add(enclosed.getSimpleName().toString());
+                }
+            }
+        } else {
+            kind = boxedKind(type);
+        }
+        if (kind == null) {
+            return error(component, "Unsupported tool parameter type " + type);
+        }
+
+        boolean required = annotation == null || annotation.required();
+        String defaultLiteral = null;
+        if (annotation != null && !annotation.defaultValue().isEmpty()) {
+            if (required) {
+                return error(component, "defaultValue is only allowed on parameters with required = false");
+            }
+            defaultLiteral = defaultLiteral(component, kind, types.erasure(type).toString(), annotation.defaultValue(),
+                    enumConstants);
+            if (defaultLiteral == null) {
+                return null;
+            }
+        }
+        if (annotation != null && annotation.allowedValues().length > 0 && kind != Kind.STRING) {
+            return error(component, "allowedValues is only supported on String parameters, use an enum instead");
+        }
+        return new Param(name, field, types.erasure(type).toString(), kind, primitive, elementKind, enumConstants,
+                annotation, required, defaultLiteral);
+    }
+
+    private Kind boxedKind(TypeMirror type) {
+        switch (types.erasure(type).toString()) {
+            case "java.lang.String":
+                return Kind.STRING;
+            case "java.lang.Integer":
+                return Kind.INTEGER;
+            case "java.lang.Long":
+                return Kind.LONG;
+            case "java.lang.Double":
+                return Kind.DOUBLE;
+            case "java.lang.Float":
+                return Kind.FLOAT;
+            case "java.lang.Boolean":
+                return Kind.BOOLEAN;
+            default:
+                return null;
+        }
+    }
+
+    private boolean isList(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED && "java.util.List".equals(types.erasure(type).toString());
+    }
+
+    private ReturnKind returnKind(TypeMirror type) {
+        String name = types.erasure(type).toString();
+        if ("java.lang.String".equals(name)) {
+            return ReturnKind.STRING;
+        }
+        if (TOOL_RESULT.equals(name)) {
+            return ReturnKind.RESULT;
+        }
+        if (MONO.equals(name) && ((DeclaredType) type).getTypeArguments().size() == 1) {
+            String element = types.erasure(((DeclaredType) type).getTypeArguments().get(0)).toString();
+            if ("java.lang.String".equals(element)) {
+                return ReturnKind.MONO_STRING;
+            }
+            if (TOOL_RESULT.equals(element)) {
+                return ReturnKind.MONO_RESULT;
+            }
+        }
+        return null;
+    }
+
+    private String defaultLiteral(Element component, Kind kind, String typeName, String value, List<String> enumConstants) {
+        try {
+            switch (kind) {
+                case STRING:
+                    return javaString(value);
+                case INTEGER:
+                    return String.valueOf(Integer.parseInt(value));
+                case LONG:
+                    return Long.parseLong(value) + "L";
+                case DOUBLE:
+                    return Double.parseDouble(value) + "d";
+                case FLOAT:
+                    return Float.parseFloat(value) + "f";
+                case BOOLEAN:
+                    if (!"true".equals(value) && !"false".equals(value)) {
+                        return error(component, "defaultValue must be true or false");
+                    }
+                    return value;
+                case ENUM:
+                    if (!enumConstants.contains(value)) {
+                        return error(component, "defaultValue must be one of " + enumConstants);
+                    }
+                    return typeName + "." + value;
+                default:
+                    return error(component, "defaultValue is not supported for " + kind.schemaType + " parameters");
+            }
+        } catch (NumberFormatException e) {
+            return error(component, "defaultValue " + value + " is not a valid " + kind.schemaType);
+        }
+    }
+
+    private <T> T error(Element element, String message) {
+        messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+        return null;
+    }
+
+    // ---- 代码生成 ----
+
+    private void generate(TypeElement type, List<ToolMethod> methods) {
+        PackageElement pkg = elements.getPackageOf(type);
+        String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+        String targetType = type.getQualifiedName().toString();
+        String className = binaryName(type, packageName) + "_AgentTools";
+
+        StringBuilder out = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            out.append("package ").append(packageName).append(";\n\n");
+        }
+        out.append("import cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall;\n")
+                .append("import cn.apmen.jsagent.framework.tool.ToolContext;\n")
+                .append("import cn.apmen.jsagent.framework.tool.ToolExecutionMode;\n")
+                .append("import cn.apmen.jsagent.framework.tool.ToolExecutor;\n")
+                .append("import cn.apmen.jsagent.framework.tool.ToolResult;\n")
+                .append("import cn.apmen.jsagent.framework.tool.annotation.GeneratedToolExecutor;\n")
+                .append("import com.fasterxml.jackson.core.JsonParser;\n")
+                .append("import com.fasterxml.jackson.core.JsonToken;\n")
+                .append("import reactor.core.publisher.Mono;\n\n")
+                .append("import java.io.IOException;\n")
+                .append("import java.util.List;\n")
+                .append("import java.util.Map;\n")
+                .append("import java.util.Set;\n\n")
+                .append("/**\n * 由AgentToolProcessor根据 ").append(type.getSimpleName())
+                .append(" 中的@AgentToolMethod生成，请勿修改\n */\n")
+                .append("@javax.annotation.processing.Generated(\"").append(AgentToolProcessor.class.getName()).append("\")\n")
+                .append("public final class ").append(className).append(" {\n\n")
+                .append("    private ").append(className).append("() {\n    }\n\n")
+                .append("    /**\n     * 创建 ").append(type.getSimpleName()).append(" 的全部工具执行器\n     */\n")
+                .append("    public static List<ToolExecutor> executors(").append(targetType).append(" target) {\n")
+                .append("        return List.of(");
+        for (int i = 0; i < methods.size(); i++) {
+            out.append(i > 0 ? ", " : "").append("new ").append(executorName(methods.get(i))).append("(target)");
+        }
+        out.append(");\n    }\n");
+
+        for (ToolMethod method : methods) {
+            generateExecutor(out, targetType, method);
+        }
+        out.append("}\n");
+
+        String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+        try {
+            JavaFileObject file = filer.createSourceFile(qualifiedName, type);
+            try (Writer writer = file.openWriter()) {
+                writer.write(out.toString());
+            }
+        } catch (IOException e) {
+            error(type, "Failed to generate " + qualifiedName + ": " + e.getMessage());
+        }
+    }
+
+    private void generateExecutor(StringBuilder out, String targetType, ToolMethod method) {
+        String name = executorName(method);
+        String record = method.recordType();
+        List<Param> params = method.params();
+
+        out.append("\n    /**\n     * ").append(method.toolName()).append(" -> ")
+                .append(method.element().getSimpleName()).append("\n     */\n")
+                .append("    public static final class ").append(name)
+                .append(" extends GeneratedToolExecutor<").append(record).append("> {\n\n")
+                .append("        private static final Map<String, Object> PARAMETERS = parseSchema(\n                ")
+                .append(javaString(schema(params))).append(");\n");
+        for (Param param : params) {
+            if (param.annotation() != null && param.annotation().allowedValues().length > 0) {
+                // 可选值按小写保存，绑定时忽略大小写比较
+                out.append("        private static final Set<String> ").append(constant(param)).append(" = Set.of(");
+                Set<String> values = new LinkedHashSet<>();
+                for (String value : param.annotation().allowedValues()) {
+                    values.add(value.toLowerCase(Locale.ROOT));
+                }
+                int i = 0;
+                for (String value : values) {
+                    out.append(i++ > 0 ? ", " : "").append(javaString(value));
+                }
+                out.append(");\n");
+            }
+        }
+        out.append("\n        private final ").append(targetType).append(" target;\n\n")
+                .append("        public ").append(name).append("(").append(targetType).append(" target) {\n")
+                .append("            super(").append(javaString(method.toolName())).append(", ")
+                .append(javaString(method.annotation().description())).append(", PARAMETERS, new String[]{");
+        boolean first = true;
+        for (Param param : params) {
+            if (param.required()) {
+                out.append(first ? "" : ", ").append(javaString(param.field()));
+                first = false;
+            }
+        }
+        out.append("},\n                    ToolExecutionMode.").append(method.annotation().executionMode().name()).append(");\n")
+                .append("            this.target = target;\n        }\n");
+
+        // bind
+        out.append("\n        @Override\n        protected ").append(record)
+                .append(" bind(JsonParser parser) throws IOException {\n");
+        for (Param param : params) {
+            out.append("            ").append(localType(param)).append(" ").append(local(param)).append(" = null;\n");
+        }
+        out.append("            startObject(parser);\n")
+                .append("            while (parser.nextToken() == JsonToken.FIELD_NAME) {\n")
+                .append("                String field = parser.currentName();\n")
+                .append("                parser.nextToken();\n")
+                .append("                switch (field) {\n");
+        for (Param param : params) {
+            out.append("                    case ").append(javaString(param.field())).append(":\n")
+                    .append("                        ").append(local(param)).append(" = ").append(readExpression(param)).append(";\n")
+                    .append("                        break;\n");
+        }
+        out.append("                    default:\n")
+                .append("                        parser.skipChildren();\n")
+                .append("                }\n")
+                .append("            }\n");
+        for (Param param : params) {
+            appendChecks(out, param);
+        }
+        out.append("            return new ").append(record).append("(");
+        for (int i = 0; i < params.size(); i++) {
+            out.append(i > 0 ? ",\n                    " : "").append(valueExpression(params.get(i)));
+        }
+        out.append(");\n        }\n");
+
+        // enum converters
+        for (Param param : params) {
+            if (param.kind() == Kind.ENUM) {
+                out.append("\n        private static ").append(param.typeName()).append(" ").append(enumConverter(param))
+                        .append("(String value) {\n")
+                        .append("            switch (value.toUpperCase(java.util.Locale.ROOT)) {\n");
+                for (String constant : param.enumConstants()) {
+                    out.append("                case ").append(javaString(constant.toUpperCase(Locale.ROOT))).append(":\n")
+                            .append("                    return ").append(param.typeName()).append(".").append(constant).append(";\n");
+                }
+                out.append("                default:\n")
+                        .append("                    throw notAllowed(").append(javaString(param.field())).append(", value, ")
+                        .append(javaString(param.enumConstants().toString())).append(");\n")
+                        .append("            }\n        }\n");
+            }
+        }
+
+        // invoke
+        String call = "target." + method.element().getSimpleName() + "(" + String.join(", ", method.invokeArgs()) + ")";
+        out.append("\n        @Override\n        protected Mono<ToolResult> invoke(").append(record)
+                .append(" arguments, ToolCall toolCall, ToolContext context) {\n");
+        switch (method.returnKind()) {
+            case STRING:
+                out.append("            return Mono.fromCallable(() -> ").append(call).append(")\n")
+                        .append("                    .subscribeOn(getExecutionScheduler())\n")
+                        .append("                    .map(content -> ToolResult.success(toolCall.getId(), content));\n");
+                break;
+            case RESULT:
+                out.append("            return Mono.fromCallable(() -> ").append(call).append(")\n")
+                        .append("                    .subscribeOn(getExecutionScheduler());\n");
+                break;
+            case MONO_STRING:
+                out.append("            return ").append(call).append("\n")
+                        .append("                    .map(content -> ToolResult.success(toolCall.getId(), content));\n");
+                break;
+            default:
+                out.append("            return ").append(call).append(";\n");
+                break;
+        }
+        out.append("        }\n    }\n");
+    }
+
+    private void appendChecks(StringBuilder out, Param param) {
+        String local = local(param);
+        String field = javaString(param.field());
+        if (param.required()) {
+            out.append("            if (").append(local).append(" == null) {\n")
+                    .append("                throw missing(").append(field).append(");\n")
+                    .append("            }\n");
+        }
+        ToolParam annotation = param.annotation();
+        if (annotation == null) {
+            return;
+        }
+        if (annotation.allowedValues().length > 0) {
+            out.append("            if (").append(local).append(" != null && !").append(constant(param))
+                    .append(".contains(").append(local).append(".toLowerCase(java.util.Locale.ROOT))) {\n")
+                    .append("                throw notAllowed(").append(field).append(", ").append(local).append(", ")
+                    .append(javaString(List.of(annotation.allowedValues()).toString())).append(");\n")
+                    .append("            }\n");
+        }
+        boolean numeric = param.kind() == Kind.INTEGER || param.kind() == Kind.LONG
+                || param.kind() == Kind.DOUBLE || param.kind() == Kind.FLOAT;
+        if (numeric && (!Double.isInfinite(annotation.min()) || !Double.isInfinite(annotation.max()))) {
+            out.append("            if (").append(local).append(" != null) {\n")
+                    .append("                checkRange(").append(field).append(", ").append(local).append(", ")
+                    .append(doubleLiteral(annotation.min())).append(", ").append(doubleLiteral(annotation.max())).append(");\n")
+                    .append("            }\n");
+        }
+    }
+
+    private String readExpression(Param param) {
+        String field = javaString(param.field());
+        switch (param.kind()) {
+            case LIST:
+                return "readList(parser, " + field + ", GeneratedToolExecutor::" + reader(param.elementKind()) + ")";
+            case ENUM:
+                return "readString(parser, " + field + ")";
+            default:
+                return reader(param.kind()) + "(parser, " + field + ")";
+        }
+    }
+
+    private String reader(Kind kind) {
+        switch (kind) {
+            case INTEGER:
+                return "readInteger";
+            case LONG:
+                return "readLong";
+            case DOUBLE:
+            case FLOAT:
+                return "readDouble";
+            case BOOLEAN:
+                return "readBoolean";
+            default:
+                return "readString";
+        }
+    }
+
+    private String localType(Param param) {
+        switch (param.kind()) {
+            case INTEGER:
+                return "Integer";
+            case LONG:
+                return "Long";
+            case DOUBLE:
+            case FLOAT:
+                return "Double";
+            case BOOLEAN:
+                return "Boolean";
+            case LIST:
+                return "List<" + boxedName(param.elementKind()) + ">";
+            default:
+                return "String";
+        }
+    }
+
+    private String boxedName(Kind kind) {
+        switch (kind) {
+            case INTEGER:
+                return "Integer";
+            case LONG:
+                return "Long";
+            case DOUBLE:
+                return "Double";
+            case BOOLEAN:
+                return "Boolean";
+            default:
+                return "String";
+        }
+    }
+
+    /**
+     * 构造record时的参数表达式：处理缺省值、基本类型与枚举转换
+     */
+    private String valueExpression(Param param) {
+        String local = local(param);
+        String fallback = param.defaultLiteral() != null ? param.defaultLiteral() : (param.primitive() ? zero(param.kind()) : "null");
+        String value;
+        switch (param.kind()) {
+            case ENUM:
+                value = enumConverter(param) + "(" + local + ")";
+                break;
+            case FLOAT:
+                value = local + ".floatValue()";
+                break;
+            default:
+                value = local;
+                break;
+        }
+        if (param.required()) {
+            return value;
+        }
+        return local + " != null ? " + value + " : " + fallback;
+    }
+
+    private String zero(Kind kind) {
+        switch (kind) {
+            case LONG:
+                return "0L";
+            case DOUBLE:
+                return "0d";
+            case FLOAT:
+                return "0f";
+            case BOOLEAN:
+                return "false";
+            default:
+                return "0";
+        }
+    }
+
+    /**
+     * 按参数record生成JSON Schema
+     */
+    private String schema(List<Param> params) {
+        StringBuilder json = new StringBuilder("{\"type\":\"object\",\"properties\":{");
+        for (int i = 0; i < params.size(); i++) {
+            Param param = params.get(i);
+            ToolParam annotation = param.annotation();
+            json.append(i > 0 ? "," : "").append(jsonString(param.field())).append(":{\"type\":")
+                    .append(jsonString(param.kind().schemaType));
+            if (param.kind() == Kind.LIST) {
+                json.append(",\"items\":{\"type\":").append(jsonString(param.elementKind().schemaType)).append("}");
+            }
+            if (annotation != null && !annotation.description().isEmpty()) {
+                json.append(",\"description\":").append(jsonString(annotation.description()));
+            }
+            List<String> allowed = param.kind() == Kind.ENUM ? param.enumConstants()
+                    : annotation != null ? List.of(annotation.allowedValues()) : List.of();
+            if (!allowed.isEmpty()) {
+                json.append(",\"enum\":[");
+                for (int j = 0; j < allowed.size(); j++) {
+                    json.append(j > 0 ? "," : "").append(jsonString(allowed.get(j)));
+                }
+                json.append("]");
+            }
+            if (annotation != null && !Double.isInfinite(annotation.min())) {
+                json.append(",\"minimum\":").append(jsonNumber(annotation.min()));
+            }
+            if (annotation != null && !Double.isInfinite(annotation.max())) {
+                json.append(",\"maximum\":").append(jsonNumber(annotation.max()));
+            }
+            if (annotation != null && !annotation.defaultValue().isEmpty()) {
+                boolean quoted = param.kind() == Kind.STRING || param.kind() == Kind.ENUM;
+                json.append(",\"default\":").append(quoted ? jsonString(annotation.defaultValue()) : annotation.defaultValue());
+            }
+            json.append("}");
+        }
+        json.append("},\"required\":[");
+        boolean first = true;
+        for (Param param : params) {
+            if (param.required()) {
+                json.append(first ? "" : ",").append(jsonString(param.field()));
+                first = false;
+            }
+        }
+        return json.append("]}").toString();
+    }
+
+    // ---- 命名与字面量 ----
+
+    private String executorName(ToolMethod method) {
+        String methodName = method.element().getSimpleName().toString();
+        return Character.toUpperCase(methodName.charAt(0)) + methodName.substring(1) + "Executor";
+    }
+
+    private String binaryName(TypeElement type, String packageName) {
+        String qualified = type.getQualifiedName().toString();
+        String simple = packageName.isEmpty() ? qualified : qualified.substring(packageName.length() + 1);
+        return simple.replace('.', '_');
+    }
+
+    private String local(Param param) {
+        return "_" + param.component();
+    }
+
+    private String constant(Param param) {
+        return snakeCase(param.component()).toUpperCase(Locale.ROOT) + "_VALUES";
+    }
+
+    private String enumConverter(Param param) {
+        return "to" + Character.toUpperCase(param.component().charAt(0)) + param.component().substring(1);
+    }
+
+    private static String snakeCase(String name) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isUpperCase(c)) {
+                if (i > 0) {
+                    result.append('_');
+                }
+                result.append(Character.toLowerCase(c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static String doubleLiteral(double value) {
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+        }
+        return value + "d";
+    }
+
+    private static String jsonNumber(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder json = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    /**
+     * Java字符串字面量，非ASCII字符转为\\u转义，与源文件编码无关
+     */
+    private static String javaString(String value) {
+        StringBuilder literal = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> literal.append("\\\"");
+                case '\\' -> literal.append("\\\\");
+                case '\n' -> literal.append("\\n");
+                case '\r' -> literal.append("\\r");
+                case '\t' -> literal.append("\\t");
+                default -> {
+                    if (c < 0x20 || c > 0x7e) {
+                        literal.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        literal.append(c);
+                    }
+                }
+            }
+        }
+        return literal.append('"').toString();
+    }
+}
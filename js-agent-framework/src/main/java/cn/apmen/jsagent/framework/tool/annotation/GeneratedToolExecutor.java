@@ -0,0 +1,327 @@
+package cn.apmen.jsagent.framework.tool.annotation;
+
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.exception.ErrorCode;
+import cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall;
+import cn.apmen.jsagent.framework.tool.ToolBulkheadPolicy;
+import cn.apmen.jsagent.framework.tool.ToolCachePolicy;
+import cn.apmen.jsagent.framework.tool.ToolCircuitBreakerPolicy;
+import cn.apmen.jsagent.framework.tool.ToolContext;
+import cn.apmen.jsagent.framework.tool.ToolExecutionMode;
+import cn.apmen.jsagent.framework.tool.ToolExecutor;
+import cn.apmen.jsagent.framework.tool.ToolResult;
+import cn.apmen.jsagent.framework.tool.ToolSchedulers;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AgentToolProcessor生成的工具执行器基类
+ * 参数JSON由生成的bind方法流式读取并直接构造参数record，类型、必需参数、可选值与数值范围校验
+ * 在读取时完成，不经过中间Map；参数Schema在类加载时解析一次
+ * @param <A> 参数record类型
+ */
+@Slf4j
+public abstract class GeneratedToolExecutor<A> implements ToolExecutor {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final ObjectMapper SCHEMA_MAPPER = new ObjectMapper();
+
+    private final String toolName;
+    private final String description;
+    private final Map<String, Object> parametersDefinition;
+    private final String[] requiredParameters;
+    private final ToolExecutionMode executionMode;
+
+    private volatile ToolCachePolicy cachePolicy;
+    private volatile ToolBulkheadPolicy bulkheadPolicy;
+    private volatile ToolCircuitBreakerPolicy circuitBreakerPolicy;
+
+    protected GeneratedToolExecutor(String toolName, String description, Map<String, Object> parametersDefinition,
+                                    String[] requiredParameters, ToolExecutionMode executionMode) {
+        this.toolName = toolName;
+        this.description = description;
+        this.parametersDefinition = parametersDefinition;
+        this.requiredParameters = requiredParameters;
+        this.executionMode = executionMode;
+    }
+
+    /**
+     * 从参数JSON读取参数record，解析器位于第一个token之前
+     */
+    protected abstract A bind(JsonParser parser) throws IOException;
+
+    /**
+     * 调用工具方法
+     */
+    protected abstract Mono<ToolResult> invoke(A arguments, ToolCall toolCall, ToolContext context);
+
+    @Override
+    public final Mono<ToolResult> execute(ToolCall toolCall, ToolContext context) {
+        A arguments;
+        try {
+            arguments = bind(toolCall);
+        } catch (AgentException e) {
+            log.warn("Invalid arguments for tool {}: {}", toolName, e.getContext());
+            return Mono.just(ToolResult.error(toolCall.getId(), ErrorCode.TOOL_INVALID_ARGUMENTS, "Invalid arguments: " + e.getContext()));
+        }
+        return Mono.defer(() -> invoke(arguments, toolCall, context))
+                .onErrorResume(e -> {
+                    log.error("Tool execution failed for {}: {}", toolName, e.getMessage(), e);
+                    return Mono.just(ToolResult.error(toolCall.getId(), "Tool execution failed: " + e.getMessage()));
+                });
+    }
+
+    /**
+     * 绑定工具调用参数，缺少参数时按空对象处理
+     */
+    public final A bind(ToolCall toolCall) {
+        String json = toolCall.getFunction() != null ? toolCall.getFunction().getArguments() : null;
+        if (json == null || json.isBlank()) {
+            json = "{}";
+        }
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            return bind(parser);
+        } catch (JsonProcessingException e) {
+            throw invalid("arguments are not valid JSON: " + e.getOriginalMessage());
+        } catch (IOException e) {
+            throw invalid("failed to read arguments: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 运行同步工具方法的调度器
+     */
+    protected Scheduler getExecutionScheduler() {
+        return ToolSchedulers.forMode(executionMode);
+    }
+
+    @Override
+    public String getToolName() {
+        return toolName;
+    }
+
+    @Override
+    public String getDescription() {
+        return description;
+    }
+
+    @Override
+    public Map<String, Object> getParametersDefinition() {
+        return parametersDefinition;
+    }
+
+    @Override
+    public String[] getRequiredParameters() {
+        return requiredParameters.clone();
+    }
+
+    @Override
+    public ToolCachePolicy getCachePolicy() {
+        return cachePolicy;
+    }
+
+    @Override
+    public ToolBulkheadPolicy getBulkheadPolicy() {
+        return bulkheadPolicy;
+    }
+
+    @Override
+    public ToolCircuitBreakerPolicy getCircuitBreakerPolicy() {
+        return circuitBreakerPolicy;
+    }
+
+    /**
+     * 设置结果缓存策略
+     */
+    public GeneratedToolExecutor<A> withCachePolicy(ToolCachePolicy cachePolicy) {
+        this.cachePolicy = cachePolicy;
+        return this;
+    }
+
+    /**
+     * 设置舱壁策略
+     */
+    public GeneratedToolExecutor<A> withBulkheadPolicy(ToolBulkheadPolicy bulkheadPolicy) {
+        this.bulkheadPolicy = bulkheadPolicy;
+        return this;
+    }
+
+    /**
+     * 设置熔断策略
+     */
+    public GeneratedToolExecutor<A> withCircuitBreakerPolicy(ToolCircuitBreakerPolicy circuitBreakerPolicy) {
+        this.circuitBreakerPolicy = circuitBreakerPolicy;
+        return this;
+    }
+
+    // ---- 以下供生成代码使用 ----
+
+    /**
+     * 解析生成的参数Schema，只在类加载时调用一次
+     */
+    protected static Map<String, Object> parseSchema(String schema) {
+        try {
+            return Collections.unmodifiableMap(SCHEMA_MAPPER.readValue(schema, new TypeReference<Map<String, Object>>() {}));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Invalid generated tool schema", e);
+        }
+    }
+
+    protected static void startObject(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token != JsonToken.START_OBJECT) {
+            throw invalid("arguments must be a JSON object");
+        }
+    }
+
+    protected static String readString(JsonParser parser, String field) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != null && token.isScalarValue()) {
+            return parser.getText();
+        }
+        throw invalid(field + " must be a string");
+    }
+
+    protected static Integer readInteger(JsonParser parser, String field) throws IOException {
+        Long value = readLong(parser, field);
+        if (value == null) {
+            return null;
+        }
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw invalid(field + " is out of integer range");
+        }
+        return value.intValue();
+    }
+
+    protected static Long readLong(JsonParser parser, String field) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_NUMBER_INT:
+                return parser.getLongValue();
+            case VALUE_NUMBER_FLOAT:
+                double number = parser.getDoubleValue();
+                if (number == Math.rint(number)) {
+                    return (long) number;
+                }
+                break;
+            case VALUE_STRING:
+                // 模型偶尔把数字写成字符串
+                try {
+                    return Long.parseLong(parser.getText().trim());
+                } catch (NumberFormatException e) {
+                    break;
+                }
+            default:
+                break;
+        }
+        throw invalid(field + " must be an integer");
+    }
+
+    protected static Double readDouble(JsonParser parser, String field) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_STRING:
+                try {
+                    return Double.parseDouble(parser.getText().trim());
+                } catch (NumberFormatException e) {
+                    break;
+                }
+            default:
+                break;
+        }
+        throw invalid(field + " must be a number");
+    }
+
+    protected static Boolean readBoolean(JsonParser parser, String field) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_STRING:
+                String text = parser.getText().trim();
+                if ("true".equalsIgnoreCase(text) || "false".equalsIgnoreCase(text)) {
+                    return Boolean.valueOf(text);
+                }
+                break;
+            default:
+                break;
+        }
+        throw invalid(field + " must be a boolean");
+    }
+
+    /**
+     * 列表元素读取
+     */
+    @FunctionalInterface
+    protected interface ElementReader<T> {
+        T read(JsonParser parser, String field) throws IOException;
+    }
+
+    protected static <T> List<T> readList(JsonParser parser, String field, ElementReader<T> reader) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.START_ARRAY) {
+            throw invalid(field + " must be an array");
+        }
+        List<T> values = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            T value = reader.read(parser, field + "[" + values.size() + "]");
+            if (value == null) {
+                throw invalid(field + "[" + values.size() + "] must not be null");
+            }
+            values.add(value);
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    protected static void checkRange(String field, double value, double min, double max) {
+        if (value < min || value > max) {
+            throw invalid(field + " must be between " + format(min) + " and " + format(max));
+        }
+    }
+
+    protected static AgentException missing(String field) {
+        return invalid("missing required parameter " + field);
+    }
+
+    protected static AgentException notAllowed(String field, String value, String allowed) {
+        return invalid(field + " must be one of " + allowed + ", got " + value);
+    }
+
+    protected static AgentException invalid(String message) {
+        return new AgentException(ErrorCode.TOOL_INVALID_ARGUMENTS, message);
+    }
+
+    private static String format(double bound) {
+        if (Double.isInfinite(bound)) {
+            return bound > 0 ? "+inf" : "-inf";
+        }
+        return bound == Math.rint(bound) ? String.valueOf((long) bound) : String.valueOf(bound);
+    }
+}
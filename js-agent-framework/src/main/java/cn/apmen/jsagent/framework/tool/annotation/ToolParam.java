@@ -0,0 +1,51 @@
+package cn.apmen.jsagent.framework.tool.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 工具参数说明，标注在@AgentToolMethod参数record的组件上
+ * 支持的组件类型：String、int/long/double/float/boolean及其包装类型、枚举、
+ * 以及元素为String/Integer/Long/Double/Boolean的List
+ */
+@Target(ElementType.RECORD_COMPONENT)
+@Retention(RetentionPolicy.CLASS)
+public @interface ToolParam {
+
+    /**
+     * JSON字段名，为空时使用组件名
+     */
+    String name() default "";
+
+    /**
+     * 参数描述
+     */
+    String description() default "";
+
+    /**
+     * 是否必需
+     */
+    boolean required() default true;
+
+    /**
+     * 缺省值（按组件类型解析），只对非必需参数生效
+     */
+    String defaultValue() default "";
+
+    /**
+     * 字符串参数的可选值，绑定时忽略大小写比较，传给工具方法的仍是原值
+     */
+    String[] allowedValues() default {};
+
+    /**
+     * 数值参数的最小值（含）
+     */
+    double min() default Double.NEGATIVE_INFINITY;
+
+    /**
+     * 数值参数的最大值（含）
+     */
+    double max() default Double.POSITIVE_INFINITY;
+}
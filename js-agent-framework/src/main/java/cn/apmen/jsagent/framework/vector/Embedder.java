@@ -0,0 +1,25 @@
+package cn.apmen.jsagent.framework.vector;
+
+/**
+ * 文本向量化接口
+ * 返回的向量需为L2归一化的float数组，相似度按点积（即余弦）计算
+ */
+public interface Embedder {
+
+    /**
+     * 向量维度
+     */
+    int dimension();
+
+    /**
+     * 计算文本的归一化向量，空文本返回全零向量
+     */
+    float[] embed(String text);
+
+    /**
+     * 离线可用的特征哈希向量化
+     */
+    static Embedder featureHashing(int dimension) {
+        return new FeatureHashingEmbedder(dimension);
+    }
+}
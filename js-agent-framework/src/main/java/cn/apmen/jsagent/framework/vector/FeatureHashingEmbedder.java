@@ -0,0 +1,61 @@
+package cn.apmen.jsagent.framework.vector;
+
+import cn.apmen.jsagent.framework.search.TextTokenizer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 特征哈希向量化
+ * 复用检索切词（拉丁词、CJK二元组），每个词项按哈希落到一个维度并带符号累加，最后做L2归一化
+ * 不依赖模型和网络，只能捕捉词面重叠；需要语义召回时替换为模型向量化实现
+ */
+public class FeatureHashingEmbedder implements Embedder {
+
+    public static final int DEFAULT_DIMENSION = 256;
+
+    private final int dimension;
+
+    public FeatureHashingEmbedder() {
+        this(DEFAULT_DIMENSION);
+    }
+
+    public FeatureHashingEmbedder(int dimension) {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("dimension must be positive: " + dimension);
+        }
+        this.dimension = dimension;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public float[] embed(String text) {
+        float[] vector = new float[dimension];
+        TextTokenizer.tokenize(text, term -> {
+            int hash = hash(term);
+            // 低位选维度，最高位决定符号，减少哈希冲突带来的偏差
+            int slot = Math.floorMod(hash, dimension);
+            vector[slot] += hash < 0 ? -1f : 1f;
+        });
+        VectorMath.normalize(vector);
+        return vector;
+    }
+
+    /**
+     * FNV-1a后接一轮混洗，保证短词项的高位也充分扩散
+     */
+    private static int hash(String term) {
+        int hash = 0x811C9DC5;
+        for (byte b : term.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+}
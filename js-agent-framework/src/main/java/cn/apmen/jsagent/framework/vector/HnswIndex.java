@@ -0,0 +1,626 @@
+package cn.apmen.jsagent.framework.vector;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * 堆内HNSW近似最近邻索引
+ * 向量按节点ID连续存放在一个float数组中，邻接表为int数组（下标0为邻居数），不装箱
+ * 向量须已L2归一化，相似度为点积
+ *
+ * 写入持写锁串行插入，查询持读锁并发执行；搜索用的堆与访问标记按线程复用
+ */
+public final class HnswIndex {
+
+    private static final long RANDOM_SEED = 42L;
+
+    // 过滤查询的搜索宽度最多扩大到初始宽度的这个倍数，仍不足k条时由调用方改用精确查询
+    private static final int MAX_FILTERED_WIDTH_FACTOR = 8;
+
+    private final int dimension;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final SplittableRandom random = new SplittableRandom(RANDOM_SEED);
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial(Workspace::new);
+
+    // vectors[id * dimension, (id + 1) * dimension)
+    private float[] vectors;
+
+    // links[id][level] = {count, neighbor...}
+    private int[][][] links;
+
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswIndex(int dimension, int m, int efConstruction) {
+        if (dimension <= 0 || m < 2 || efConstruction < 1) {
+            throw new IllegalArgumentException("Invalid HNSW parameters: dimension=" + dimension
+                + ", m=" + m + ", efConstruction=" + efConstruction);
+        }
+        this.dimension = dimension;
+        this.m = m;
+        this.maxM0 = m * 2;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.vectors = new float[16 * dimension];
+        this.links = new int[16][][];
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 插入一个向量，返回其节点ID（从0递增）
+     */
+    public int add(float[] vector) {
+        checkDimension(vector);
+        lock.writeLock().lock();
+        try {
+            int id = size;
+            ensureCapacity(id + 1);
+            System.arraycopy(vector, 0, vectors, id * dimension, dimension);
+            int level = randomLevel();
+            links[id] = newLinks(level);
+            size++;
+            link(id, level);
+            return id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 查询与query最相似的k个节点，按相似度从高到低排列
+     * @param ef 搜索宽度，越大召回越高、越慢
+     * @param filter 结果过滤条件，为null时不过滤；被过滤的节点仍参与图遍历
+     * @return 有过滤条件且命中稀疏时搜索宽度只扩大有限次，结果可能少于k条，
+     *         调用方可对候选节点用 {@link #exactSearch} 兜底
+     */
+    public List<Hit> search(float[] query, int k, int ef, IntPredicate filter) {
+        checkDimension(query);
+        lock.readLock().lock();
+        try {
+            if (size == 0 || k <= 0) {
+                return List.of();
+            }
+            Workspace workspace = workspaces.get();
+            int entry = greedyDescend(query, entryPoint, maxLevel, 1);
+
+            // 过滤后不足k条时扩大搜索宽度重试，宽度有上限，避免小会话退化为遍历全图
+            int width = Math.max(ef, k);
+            int maxWidth = (int) Math.min(size, (long) width * MAX_FILTERED_WIDTH_FACTOR);
+            while (true) {
+                ScoreHeap results = searchLayer(query, entry, width, 0, workspace);
+                List<Hit> hits = collect(results, k, filter);
+                if (hits.size() >= k || width >= maxWidth) {
+                    return hits;
+                }
+                width = Math.min(maxWidth, width * 2);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 在给定节点中精确查询最相似的k个，按相似度从高到低排列
+     * @param ids 候选节点，只读取前count个，超出当前节点数的ID被忽略
+     */
+    public List<Hit> exactSearch(float[] query, int k, int[] ids, int count) {
+        checkDimension(query);
+        lock.readLock().lock();
+        try {
+            if (k <= 0 || count == 0) {
+                return List.of();
+            }
+            ScoreHeap results = workspaces.get().results;
+            results.clear();
+            for (int i = 0; i < count; i++) {
+                int id = ids[i];
+                if (id >= size) {
+                    continue;
+                }
+                float score = VectorMath.dot(query, 0, vectors, id * dimension, dimension);
+                if (results.size() < k || score > results.topScore()) {
+                    results.push(id, score);
+                    if (results.size() > k) {
+                        results.pop();
+                    }
+                }
+            }
+            return collect(results, k, null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 读取节点向量的副本
+     */
+    public float[] vector(int id) {
+        lock.readLock().lock();
+        try {
+            if (id < 0 || id >= size) {
+                throw new IndexOutOfBoundsException("node " + id + ", size " + size);
+            }
+            return Arrays.copyOfRange(vectors, id * dimension, (id + 1) * dimension);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 写出图结构（不含向量），配合 {@link #restore} 在重启时跳过重新建图
+     */
+    public void writeGraph(DataOutputStream out) throws IOException {
+        lock.readLock().lock();
+        try {
+            out.writeInt(dimension);
+            out.writeInt(m);
+            out.writeInt(size);
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            for (int id = 0; id < size; id++) {
+                int[][] nodeLinks = links[id];
+                out.writeByte(nodeLinks.length - 1);
+                for (int[] levelLinks : nodeLinks) {
+                    int count = levelLinks[0];
+                    out.writeShort(count);
+                    for (int i = 1; i <= count; i++) {
+                        out.writeInt(levelLinks[i]);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 由向量与 {@link #writeGraph} 写出的图结构恢复索引
+     * @param vectors 按节点ID连续存放的向量，长度至少为图中节点数乘以维度
+     * @return 恢复后的索引；参数、节点数与图不一致或图结构无效（入口点、邻居越界）时返回null，由调用方重新建图
+     */
+    public static HnswIndex restore(int dimension, int m, int efConstruction, float[] vectors, int vectorCount,
+                                    DataInputStream in) throws IOException {
+        if (in.readInt() != dimension || in.readInt() != m) {
+            return null;
+        }
+        int count = in.readInt();
+        if (count > vectorCount) {
+            return null;
+        }
+        HnswIndex index = new HnswIndex(dimension, m, efConstruction);
+        index.ensureCapacity(count);
+        System.arraycopy(vectors, 0, index.vectors, 0, count * dimension);
+        int entryPoint = in.readInt();
+        int maxLevel = in.readInt();
+        if (count == 0 ? entryPoint != -1 || maxLevel != -1
+                : entryPoint < 0 || entryPoint >= count || maxLevel < 0 || maxLevel > 31) {
+            return null;
+        }
+        for (int id = 0; id < count; id++) {
+            int level = in.readUnsignedByte();
+            if (level > maxLevel) {
+                return null;
+            }
+            int[][] nodeLinks = index.newLinks(level);
+            for (int l = 0; l <= level; l++) {
+                int linkCount = in.readUnsignedShort();
+                if (linkCount >= nodeLinks[l].length) {
+                    return null;
+                }
+                nodeLinks[l][0] = linkCount;
+                for (int i = 1; i <= linkCount; i++) {
+                    nodeLinks[l][i] = in.readInt();
+                }
+            }
+            index.links[id] = nodeLinks;
+        }
+        if (count > 0 && index.links[entryPoint].length != maxLevel + 1) {
+            return null;
+        }
+        // 邻居必须是图中的其他节点，且在该层存在，否则查询时会越界
+        for (int id = 0; id < count; id++) {
+            int[][] nodeLinks = index.links[id];
+            for (int l = 0; l < nodeLinks.length; l++) {
+                for (int i = 1; i <= nodeLinks[l][0]; i++) {
+                    int neighbor = nodeLinks[l][i];
+                    if (neighbor < 0 || neighbor >= count || neighbor == id || index.links[neighbor].length <= l) {
+                        return null;
+                    }
+                }
+            }
+        }
+        index.entryPoint = entryPoint;
+        index.maxLevel = maxLevel;
+        index.size = count;
+        // 随机数序列无法恢复，重新播种只影响之后插入节点的层数分布
+        return index;
+    }
+
+    private void link(int id, int level) {
+        if (entryPoint < 0) {
+            entryPoint = id;
+            maxLevel = level;
+            return;
+        }
+
+        Workspace workspace = workspaces.get();
+        int offset = id * dimension;
+        float[] query = Arrays.copyOfRange(vectors, offset, offset + dimension);
+
+        int entry = greedyDescend(query, entryPoint, maxLevel, level + 1);
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            ScoreHeap candidates = searchLayer(query, entry, efConstruction, l, workspace);
+            int[] neighbors = selectNeighbors(candidates.drainDescending(), m);
+            int[] nodeLinks = links[id][l];
+            for (int neighbor : neighbors) {
+                nodeLinks[++nodeLinks[0]] = neighbor;
+                connect(neighbor, id, l);
+            }
+            entry = neighbors.length > 0 ? neighbors[0] : entry;
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = id;
+        }
+    }
+
+    /**
+     * 把target加入node在level层的邻接表，超出上限时按启发式重新裁剪
+     */
+    private void connect(int node, int target, int level) {
+        int[] nodeLinks = links[node][level];
+        int maxConnections = level == 0 ? maxM0 : m;
+        int count = nodeLinks[0];
+        if (count < maxConnections) {
+            nodeLinks[count + 1] = target;
+            nodeLinks[0] = count + 1;
+            return;
+        }
+
+        int nodeOffset = node * dimension;
+        int[] ids = new int[count + 1];
+        float[] scores = new float[count + 1];
+        for (int i = 0; i < count; i++) {
+            ids[i] = nodeLinks[i + 1];
+        }
+        ids[count] = target;
+        for (int i = 0; i <= count; i++) {
+            scores[i] = VectorMath.dot(vectors, nodeOffset, vectors, ids[i] * dimension, dimension);
+        }
+        sortDescending(ids, scores);
+
+        int[] kept = selectNeighbors(new Scored(ids, scores), maxConnections);
+        nodeLinks[0] = kept.length;
+        System.arraycopy(kept, 0, nodeLinks, 1, kept.length);
+    }
+
+    /**
+     * HNSW启发式选邻：候选按相似度降序，只保留比已选邻居更接近查询点的候选，保持图的多方向连通
+     * 不足limit个时用被裁掉的候选补齐
+     */
+    private int[] selectNeighbors(Scored candidates, int limit) {
+        int count = candidates.ids.length;
+        if (count <= limit) {
+            return candidates.ids;
+        }
+        int[] selected = new int[limit];
+        int selectedCount = 0;
+        int[] pruned = new int[count];
+        int prunedCount = 0;
+        for (int i = 0; i < count && selectedCount < limit; i++) {
+            int candidate = candidates.ids[i];
+            float toQuery = candidates.scores[i];
+            int candidateOffset = candidate * dimension;
+            boolean diverse = true;
+            for (int j = 0; j < selectedCount; j++) {
+                if (VectorMath.dot(vectors, candidateOffset, vectors, selected[j] * dimension, dimension) > toQuery) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[selectedCount++] = candidate;
+            } else {
+                pruned[prunedCount++] = candidate;
+            }
+        }
+        for (int i = 0; i < prunedCount && selectedCount < limit; i++) {
+            selected[selectedCount++] = pruned[i];
+        }
+        return selectedCount == limit ? selected : Arrays.copyOf(selected, selectedCount);
+    }
+
+    /**
+     * 从topLevel逐层贪心下降到stopLevel，返回stopLevel层的入口点
+     */
+    private int greedyDescend(float[] query, int entry, int topLevel, int stopLevel) {
+        int current = entry;
+        float currentScore = VectorMath.dot(query, 0, vectors, current * dimension, dimension);
+        for (int level = topLevel; level >= stopLevel; level--) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                int[] levelLinks = links[current][level];
+                for (int i = 1; i <= levelLinks[0]; i++) {
+                    int neighbor = levelLinks[i];
+                    float score = VectorMath.dot(query, 0, vectors, neighbor * dimension, dimension);
+                    if (score > currentScore) {
+                        currentScore = score;
+                        current = neighbor;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 在单层内做宽度为ef的最佳优先搜索，返回结果小顶堆（堆顶为当前最差结果）
+     */
+    private ScoreHeap searchLayer(float[] query, int entry, int ef, int level, Workspace workspace) {
+        workspace.prepare(size);
+        ScoreHeap candidates = workspace.candidates;
+        ScoreHeap results = workspace.results;
+
+        float entryScore = VectorMath.dot(query, 0, vectors, entry * dimension, dimension);
+        workspace.visit(entry);
+        candidates.push(entry, -entryScore);
+        results.push(entry, entryScore);
+
+        while (!candidates.isEmpty()) {
+            float candidateScore = -candidates.topScore();
+            if (results.size() >= ef && candidateScore < results.topScore()) {
+                break;
+            }
+            int candidate = candidates.pop();
+            int[] levelLinks = links[candidate][level];
+            for (int i = 1; i <= levelLinks[0]; i++) {
+                int neighbor = levelLinks[i];
+                if (!workspace.visit(neighbor)) {
+                    continue;
+                }
+                float score = VectorMath.dot(query, 0, vectors, neighbor * dimension, dimension);
+                if (results.size() < ef || score > results.topScore()) {
+                    candidates.push(neighbor, -score);
+                    results.push(neighbor, score);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private List<Hit> collect(ScoreHeap results, int k, IntPredicate filter) {
+        Scored sorted = results.drainDescending();
+        List<Hit> hits = new ArrayList<>(Math.min(k, sorted.ids.length));
+        for (int i = 0; i < sorted.ids.length && hits.size() < k; i++) {
+            if (filter == null || filter.test(sorted.ids[i])) {
+                hits.add(new Hit(sorted.ids[i], sorted.scores[i]));
+            }
+        }
+        return hits;
+    }
+
+    private int randomLevel() {
+        double level = -Math.log(1.0 - random.nextDouble()) * levelMultiplier;
+        return (int) Math.min(level, 31);
+    }
+
+    private int[][] newLinks(int level) {
+        int[][] nodeLinks = new int[level + 1][];
+        nodeLinks[0] = new int[maxM0 + 1];
+        for (int l = 1; l <= level; l++) {
+            nodeLinks[l] = new int[m + 1];
+        }
+        return nodeLinks;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required > links.length) {
+            int capacity = Math.max(required, links.length * 2);
+            links = Arrays.copyOf(links, capacity);
+            vectors = Arrays.copyOf(vectors, capacity * dimension);
+        }
+    }
+
+    private void checkDimension(float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("Expected vector of dimension " + dimension + ", got " + vector.length);
+        }
+    }
+
+    private static void sortDescending(int[] ids, float[] scores) {
+        // 邻接表规模很小（不超过2M+1），插入排序即可
+        for (int i = 1; i < ids.length; i++) {
+            int id = ids[i];
+            float score = scores[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] < score) {
+                ids[j + 1] = ids[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            ids[j + 1] = id;
+            scores[j + 1] = score;
+        }
+    }
+
+    /**
+     * 查询结果：节点ID与相似度
+     */
+    public static final class Hit {
+        private final int id;
+        private final float score;
+
+        Hit(int id, float score) {
+            this.id = id;
+            this.score = score;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public float getScore() {
+            return score;
+        }
+    }
+
+    /**
+     * 按相似度降序排列的节点
+     */
+    private static final class Scored {
+        private final int[] ids;
+        private final float[] scores;
+
+        private Scored(int[] ids, float[] scores) {
+            this.ids = ids;
+            this.scores = scores;
+        }
+    }
+
+    /**
+     * 以分数为键的int小顶堆，候选队列以相反数入堆即得大顶堆
+     */
+    private static final class ScoreHeap {
+        private int[] ids = new int[64];
+        private float[] scores = new float[64];
+        private int size;
+
+        void clear() {
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        float topScore() {
+            return scores[0];
+        }
+
+        void push(int id, float score) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (scores[parent] <= score) {
+                    break;
+                }
+                ids[i] = ids[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            scores[i] = score;
+        }
+
+        int pop() {
+            int top = ids[0];
+            int lastId = ids[--size];
+            float lastScore = scores[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && scores[child + 1] < scores[child]) {
+                    child++;
+                }
+                if (scores[child] >= lastScore) {
+                    break;
+                }
+                ids[i] = ids[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            ids[i] = lastId;
+            scores[i] = lastScore;
+            return top;
+        }
+
+        /**
+         * 取出全部元素，按分数降序返回
+         */
+        Scored drainDescending() {
+            int[] sortedIds = new int[size];
+            float[] sortedScores = new float[size];
+            for (int i = size - 1; i >= 0; i--) {
+                sortedScores[i] = scores[0];
+                sortedIds[i] = pop();
+            }
+            return new Scored(sortedIds, sortedScores);
+        }
+    }
+
+    /**
+     * 线程私有的搜索缓冲：两个堆和按轮次标记的访问数组，避免每次查询分配
+     */
+    private static final class Workspace {
+        private final ScoreHeap candidates = new ScoreHeap();
+        private final ScoreHeap results = new ScoreHeap();
+        private int[] visitedEpochs = new int[64];
+        private int epoch;
+
+        void prepare(int nodeCount) {
+            candidates.clear();
+            results.clear();
+            if (visitedEpochs.length < nodeCount) {
+                visitedEpochs = new int[Math.max(nodeCount, visitedEpochs.length * 2)];
+                epoch = 0;
+            }
+            if (++epoch == Integer.MAX_VALUE) {
+                Arrays.fill(visitedEpochs, 0);
+                epoch = 1;
+            }
+        }
+
+        /**
+         * 标记节点已访问，首次访问返回true
+         */
+        boolean visit(int id) {
+            if (visitedEpochs[id] == epoch) {
+                return false;
+            }
+            visitedEpochs[id] = epoch;
+            return true;
+        }
+    }
+}
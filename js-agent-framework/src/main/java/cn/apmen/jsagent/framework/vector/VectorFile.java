@@ -0,0 +1,201 @@
+package cn.apmen.jsagent.framework.vector;
+
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.exception.ErrorCode;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 只追加的内存映射向量文件
+ *
+ * 文件头：magic(4) version(4) dimension(4) reserved(4) end(8)，end为有效数据末尾
+ * 记录：length(4) kind(1) sessionLength(2) session [vector(dimension*4) message]
+ * kind为ENTRY时携带向量与MessageCodec编码的消息，为TOMBSTONE时表示清除该会话此前的全部记录
+ *
+ * 写入按窗口映射文件尾部，记录写完后才推进文件头中的end，进程崩溃后残缺记录会被忽略
+ */
+@Slf4j
+final class VectorFile implements Closeable {
+
+    static final byte ENTRY = 1;
+    static final byte TOMBSTONE = 2;
+
+    private static final int MAGIC = 0x4A535646;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int END_OFFSET = 16;
+    private static final int RECORD_HEADER_SIZE = 7;
+
+    private final Path path;
+    private final int dimension;
+    private final int chunkSize;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long end;
+
+    /**
+     * 读取到的记录回调
+     */
+    interface RecordConsumer {
+        void accept(byte kind, String sessionId, ByteBuffer body);
+    }
+
+    VectorFile(Path path, int dimension, int chunkSize) {
+        this.path = path;
+        this.dimension = dimension;
+        this.chunkSize = chunkSize;
+        try {
+            this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            boolean created = channel.size() < HEADER_SIZE;
+            this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            if (created) {
+                header.putInt(0, MAGIC);
+                header.putInt(4, VERSION);
+                header.putInt(8, dimension);
+                header.putLong(END_OFFSET, HEADER_SIZE);
+            } else if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                channel.close();
+                throw new AgentException(ErrorCode.STORAGE_CORRUPTED, "Not a vector memory file: " + path);
+            } else if (header.getInt(8) != dimension) {
+                channel.close();
+                throw new AgentException(ErrorCode.STORAGE_CORRUPTED, "Vector file " + path + " has dimension "
+                    + header.getInt(8) + ", embedder produces " + dimension);
+            }
+            this.end = Math.min(header.getLong(END_OFFSET), channel.size());
+        } catch (IOException e) {
+            throw new AgentException(ErrorCode.STORAGE_IO_FAILED, "Failed to open vector file " + path, e);
+        }
+    }
+
+    /**
+     * 按写入顺序回放全部记录，遇到残缺记录时截断到该位置
+     */
+    void replay(RecordConsumer consumer) {
+        long position = HEADER_SIZE;
+        MappedByteBuffer readWindow = null;
+        long readWindowStart = 0;
+        try {
+            while (position + RECORD_HEADER_SIZE <= end) {
+                if (readWindow == null || position + RECORD_HEADER_SIZE > readWindowStart + readWindow.limit()) {
+                    readWindowStart = position;
+                    readWindow = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(chunkSize, end - position));
+                }
+                int length = readWindow.getInt((int) (position - readWindowStart));
+                if (length < RECORD_HEADER_SIZE || position + length > end) {
+                    log.warn("Truncating vector file {} at {}: invalid record length {}", path, position, length);
+                    break;
+                }
+                if (position + length > readWindowStart + readWindow.limit()) {
+                    readWindowStart = position;
+                    readWindow = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(Math.max(chunkSize, length), end - position));
+                }
+
+                ByteBuffer record = readWindow.duplicate();
+                int offset = (int) (position - readWindowStart);
+                record.position(offset + 4).limit(offset + length);
+                byte kind = record.get();
+                byte[] session = new byte[record.getShort() & 0xFFFF];
+                record.get(session);
+                consumer.accept(kind, new String(session, StandardCharsets.UTF_8), record.slice());
+                position += length;
+            }
+        } catch (IOException e) {
+            throw new AgentException(ErrorCode.STORAGE_IO_FAILED, "Failed to read vector file " + path, e);
+        }
+        if (position != end) {
+            end = position;
+            header.putLong(END_OFFSET, end);
+        }
+    }
+
+    /**
+     * 追加一条向量记录
+     */
+    void appendEntry(String sessionId, float[] vector, byte[] message) {
+        byte[] session = sessionId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer target = reserve(ENTRY, session, dimension * 4 + message.length);
+        for (float value : vector) {
+            target.putFloat(value);
+        }
+        target.put(message);
+        commit(target);
+    }
+
+    /**
+     * 追加一条会话清除记录
+     */
+    void appendTombstone(String sessionId) {
+        byte[] session = sessionId.getBytes(StandardCharsets.UTF_8);
+        commit(reserve(TOMBSTONE, session, 0));
+    }
+
+    long length() {
+        return end;
+    }
+
+    int dimension() {
+        return dimension;
+    }
+
+    private ByteBuffer reserve(byte kind, byte[] session, int bodyLength) {
+        if (session.length > 0xFFFF) {
+            throw new AgentException(ErrorCode.STORAGE_RECORD_TOO_LARGE, "Session id too long: " + session.length + " bytes");
+        }
+        int length = RECORD_HEADER_SIZE + session.length + bodyLength;
+        try {
+            if (window == null || end + length > windowStart + window.capacity()) {
+                windowStart = end;
+                window = channel.map(FileChannel.MapMode.READ_WRITE, end, Math.max(chunkSize, length));
+            }
+        } catch (IOException e) {
+            throw new AgentException(ErrorCode.STORAGE_IO_FAILED, "Failed to map vector file " + path, e);
+        }
+        ByteBuffer target = window.duplicate();
+        target.position((int) (end - windowStart));
+        target.putInt(length);
+        target.put(kind);
+        target.putShort((short) session.length);
+        target.put(session);
+        return target;
+    }
+
+    private void commit(ByteBuffer written) {
+        end = windowStart + written.position();
+        header.putLong(END_OFFSET, end);
+    }
+
+    /**
+     * 把映射页刷到磁盘
+     */
+    void force() {
+        if (window != null) {
+            window.force();
+        }
+        header.force();
+    }
+
+    @Override
+    public void close() {
+        try {
+            force();
+            // 截掉映射窗口预留的尾部空间
+            channel.truncate(end);
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Failed to close vector file {}: {}", path, e.getMessage());
+        }
+    }
+}
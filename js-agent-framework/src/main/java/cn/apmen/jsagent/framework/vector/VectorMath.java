@@ -0,0 +1,49 @@
+package cn.apmen.jsagent.framework.vector;
+
+/**
+ * 向量运算工具
+ */
+final class VectorMath {
+
+    private VectorMath() {
+    }
+
+    /**
+     * 原地L2归一化，零向量保持不变
+     */
+    static void normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm == 0) {
+            return;
+        }
+        float scale = (float) (1.0 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= scale;
+        }
+    }
+
+    /**
+     * a[aOffset, aOffset+length) 与 b[bOffset, bOffset+length) 的点积
+     */
+    static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float sum0 = 0;
+        float sum1 = 0;
+        float sum2 = 0;
+        float sum3 = 0;
+        int i = 0;
+        // 四路展开，便于JIT自动向量化
+        for (; i + 3 < length; i += 4) {
+            sum0 += a[aOffset + i] * b[bOffset + i];
+            sum1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            sum2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            sum3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            sum0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum0 + sum1 + sum2 + sum3;
+    }
+}
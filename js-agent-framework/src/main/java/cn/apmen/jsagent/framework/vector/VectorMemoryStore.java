@@ -0,0 +1,298 @@
+package cn.apmen.jsagent.framework.vector;
+
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.exception.ErrorCode;
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.storage.CompactMessage;
+import cn.apmen.jsagent.framework.storage.MessageCodec;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 单个Agent的向量长期记忆
+ * 每条记忆为（会话ID，消息，向量），向量进入HNSW索引，节点ID即记录下标；
+ * 消息以紧凑编码常驻，命中时才解码
+ *
+ * 持久化时记录追加到内存映射向量文件，关闭时额外写出图快照；
+ * 启动时回放向量文件，图快照可用则直接恢复，只为快照之后追加的记录补建图
+ */
+@Slf4j
+public class VectorMemoryStore implements Closeable {
+
+    private static final String VECTOR_SUFFIX = ".vec";
+    private static final String GRAPH_SUFFIX = ".hnsw";
+
+    // 会话记录数不超过查询宽度的这个倍数时直接精确查询，比过滤图遍历访问的节点更少
+    private static final int EXACT_SEARCH_FACTOR = 4;
+
+    private final VectorMemoryConfig config;
+    private final VectorFile file;
+    private final Path vectorPath;
+    private final Path graphPath;
+
+    private HnswIndex index;
+
+    // 与索引节点ID对齐；被清除的记录消息置为null，查询时过滤
+    private String[] sessionIds = new String[16];
+    private CompactMessage[] messages = new CompactMessage[16];
+    private int count;
+    private int removed;
+
+    // 会话ID -> 该会话的节点ID，只追加；用于按会话过滤的查询与清除
+    private final Map<String, SessionNodes> sessionNodes = new HashMap<>();
+    private boolean graphDirty;
+
+    /**
+     * 创建仅在内存中的存储
+     */
+    public VectorMemoryStore(int dimension, VectorMemoryConfig config) {
+        this.config = config;
+        this.file = null;
+        this.vectorPath = null;
+        this.graphPath = null;
+        this.index = new HnswIndex(dimension, config.getM(), config.getEfConstruction());
+    }
+
+    /**
+     * 打开（或创建）持久化存储，baseName为文件名前缀
+     */
+    public VectorMemoryStore(int dimension, VectorMemoryConfig config, String baseName) {
+        this.config = config;
+        try {
+            Files.createDirectories(config.getDirectory());
+        } catch (IOException e) {
+            throw new AgentException(ErrorCode.STORAGE_IO_FAILED,
+                "Failed to create vector memory directory " + config.getDirectory(), e);
+        }
+        this.vectorPath = config.getDirectory().resolve(baseName + VECTOR_SUFFIX);
+        this.file = new VectorFile(vectorPath, dimension, config.getMappedChunkSize());
+        this.graphPath = config.getDirectory().resolve(baseName + GRAPH_SUFFIX);
+        load(dimension);
+    }
+
+    /**
+     * 写入一条记忆
+     */
+    public synchronized void add(String sessionId, Message message, float[] vector) {
+        byte[] encoded = MessageCodec.encode(message);
+        if (file != null) {
+            file.appendEntry(sessionId, vector, encoded);
+        }
+        // 先写入载荷再插入索引，索引写锁保证查询看到节点时载荷已可见
+        ensureCapacity(count + 1);
+        sessionIds[count] = sessionId;
+        messages[count] = CompactMessage.fromEncoded(encoded, CompactMessage.DEFAULT_COMPRESSION_THRESHOLD);
+        index.add(vector);
+        // 节点进入索引后再登记到会话，精确查询读取到的节点都已有向量
+        sessionNodes.computeIfAbsent(sessionId, id -> new SessionNodes()).add(count);
+        count++;
+        graphDirty = true;
+    }
+
+    /**
+     * 清除某个会话的全部记忆
+     */
+    public synchronized void removeSession(String sessionId) {
+        if (file != null) {
+            file.appendTombstone(sessionId);
+        }
+        applyTombstone(sessionId);
+    }
+
+    /**
+     * 查询最相似的k条记忆，sessionId为null时在该Agent的全部会话中查询
+     */
+    public List<Message> search(float[] query, int k, String sessionId) {
+        // 数组引用在扩容时替换，过滤器读取查询开始时的引用即可（之后追加的节点不会被遍历到）
+        String[] sessions;
+        CompactMessage[] payloads;
+        int[] nodes = null;
+        int nodeCount = 0;
+        synchronized (this) {
+            sessions = sessionIds;
+            payloads = messages;
+            if (sessionId != null) {
+                SessionNodes session = sessionNodes.get(sessionId);
+                if (session == null) {
+                    return List.of();
+                }
+                nodes = session.ids;
+                nodeCount = session.size;
+            }
+        }
+
+        List<HnswIndex.Hit> hits;
+        if (nodes != null && nodeCount <= Math.max(config.getEfSearch(), k) * EXACT_SEARCH_FACTOR) {
+            hits = index.exactSearch(query, k, nodes, nodeCount);
+        } else {
+            hits = index.search(query, k, config.getEfSearch(),
+                id -> id < payloads.length && payloads[id] != null
+                    && (sessionId == null || sessionId.equals(sessions[id])));
+            // 会话在全图中占比很低时有限宽度的图搜索可能凑不满k条，改为遍历该会话的节点
+            if (nodes != null && hits.size() < Math.min(k, nodeCount)) {
+                hits = index.exactSearch(query, k, nodes, nodeCount);
+            }
+        }
+
+        List<Message> results = new ArrayList<>(hits.size());
+        for (HnswIndex.Hit hit : hits) {
+            CompactMessage message = payloads[hit.getId()];
+            if (message != null) {
+                results.add(message.toMessage());
+            }
+        }
+        return results;
+    }
+
+    public synchronized int size() {
+        return count - removed;
+    }
+
+    /**
+     * 获取存储统计信息
+     */
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("vectors", count);
+        stats.put("removed", removed);
+        stats.put("dimension", index.dimension());
+        stats.put("fileBytes", file != null ? file.length() : 0L);
+        return stats;
+    }
+
+    /**
+     * 关闭并删除持久化文件
+     */
+    public synchronized void delete() {
+        close();
+        if (file != null) {
+            try {
+                Files.deleteIfExists(graphPath);
+                Files.deleteIfExists(vectorPath);
+            } catch (IOException e) {
+                log.warn("Failed to delete vector memory files {}: {}", graphPath, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (file == null) {
+            return;
+        }
+        if (graphDirty) {
+            writeGraph();
+        }
+        file.close();
+    }
+
+    private void load(int dimension) {
+        long start = System.currentTimeMillis();
+        float[][] vectorHolder = {new float[16 * dimension]};
+        file.replay((kind, sessionId, body) -> {
+            if (kind == VectorFile.TOMBSTONE) {
+                applyTombstone(sessionId);
+                return;
+            }
+            ensureCapacity(count + 1);
+            if (vectorHolder[0].length < (count + 1) * dimension) {
+                vectorHolder[0] = Arrays.copyOf(vectorHolder[0], vectorHolder[0].length * 2);
+            }
+            body.asFloatBuffer().get(vectorHolder[0], count * dimension, dimension);
+            body.position(body.position() + dimension * 4);
+            sessionIds[count] = sessionId;
+            byte[] encoded = new byte[body.remaining()];
+            body.get(encoded);
+            messages[count] = CompactMessage.fromEncoded(encoded, CompactMessage.DEFAULT_COMPRESSION_THRESHOLD);
+            sessionNodes.computeIfAbsent(sessionId, id -> new SessionNodes()).add(count);
+            count++;
+        });
+        float[] vectors = vectorHolder[0];
+
+        int restored = 0;
+        if (Files.exists(graphPath)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(graphPath)))) {
+                index = HnswIndex.restore(dimension, config.getM(), config.getEfConstruction(), vectors, count, in);
+                restored = index != null ? index.size() : 0;
+            } catch (IOException e) {
+                log.warn("Ignoring unreadable HNSW graph {}: {}", graphPath, e.getMessage());
+                index = null;
+            }
+        }
+        if (index == null) {
+            index = new HnswIndex(dimension, config.getM(), config.getEfConstruction());
+        }
+        for (int id = restored; id < count; id++) {
+            index.add(Arrays.copyOfRange(vectors, id * dimension, (id + 1) * dimension));
+        }
+        graphDirty = restored != count;
+
+        log.info("Loaded vector memory {}: {} vectors ({} from graph snapshot, {} re-linked) in {}ms",
+            graphPath.getFileName(), count, restored, count - restored, System.currentTimeMillis() - start);
+    }
+
+    private void writeGraph() {
+        Path temp = graphPath.resolveSibling(graphPath.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                index.writeGraph(out);
+            }
+            Files.move(temp, graphPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            graphDirty = false;
+        } catch (IOException e) {
+            // 图快照只是加速启动，写失败时下次启动重新建图
+            log.warn("Failed to write HNSW graph {}: {}", graphPath, e.getMessage());
+        }
+    }
+
+    private void applyTombstone(String sessionId) {
+        SessionNodes session = sessionNodes.remove(sessionId);
+        if (session == null) {
+            return;
+        }
+        for (int i = 0; i < session.size; i++) {
+            int id = session.ids[i];
+            if (messages[id] != null) {
+                messages[id] = null;
+                removed++;
+            }
+        }
+    }
+
+    private void ensureCapacity(int required) {
+        if (required > messages.length) {
+            int capacity = Math.max(required, messages.length * 2);
+            sessionIds = Arrays.copyOf(sessionIds, capacity);
+            messages = Arrays.copyOf(messages, capacity);
+        }
+    }
+
+    /**
+     * 单个会话的节点ID列表；扩容时替换数组，已发布的前size个元素不再改变
+     */
+    private static final class SessionNodes {
+        private int[] ids = new int[8];
+        private int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+-- R2dbcConversationService 表结构（H2 / PostgreSQL）
+
+CREATE TABLE IF NOT EXISTS agent_conversation (
+    conversation_id VARCHAR(128) NOT NULL PRIMARY KEY,
+    user_id         VARCHAR(128),
+    title           VARCHAR(512),
+    description     VARCHAR(2048),
+    agent_id        VARCHAR(128),
+    status          VARCHAR(16),
+    priority        VARCHAR(16),
+    pinned          BOOLEAN DEFAULT FALSE NOT NULL,
+    attributes      VARCHAR(65535),
+    created_at      TIMESTAMP,
+    last_active_at  TIMESTAMP
+);
+
+-- getUserConversations：按用户查询并按活跃时间排序
+CREATE INDEX IF NOT EXISTS idx_agent_conversation_user ON agent_conversation (user_id, last_active_at);
+
+CREATE TABLE IF NOT EXISTS agent_conversation_message (
+    id              BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    conversation_id VARCHAR(128) NOT NULL,
+    role            VARCHAR(16) NOT NULL,
+    content         VARCHAR(1000000),
+    tool_call_id    VARCHAR(128),
+    tool_calls      VARCHAR(1000000),
+    token_count     INTEGER NOT NULL,
+    created_at      TIMESTAMP NOT NULL
+);
+
+-- 键集分页：conversation_id + id 覆盖最近消息、上下文窗口和流式读取
+CREATE INDEX IF NOT EXISTS idx_agent_message_conversation ON agent_conversation_message (conversation_id, id);
@@ -0,0 +1,106 @@
+package cn.apmen.jsagent.framework.cluster;
+
+import cn.apmen.jsagent.framework.exception.AgentException;
+import cn.apmen.jsagent.framework.memory.InMemoryMemoryService;
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ClusterCoordinatorTest {
+
+    private static ClusterConfig.ClusterConfigBuilder config() {
+        return ClusterConfig.builder()
+                .selfId("a")
+                .sharedSecret("secret")
+                .nodes(List.of(ClusterNode.parse("a=http://localhost:1")))
+                .fenceTimeout(Duration.ofSeconds(10));
+    }
+
+    private static HandoffBatch batch(String conversationId, String... contents) {
+        return HandoffBatch.builder()
+                .source("memory")
+                .fromNode("b")
+                .entries(List.of(HandoffBatch.Entry.builder()
+                        .key(conversationId)
+                        .messages(Arrays.stream(contents).map(content -> new Message("user", content)).toList())
+                        .build()))
+                .build();
+    }
+
+    private static List<String> contents(InMemoryMemoryService service, String conversationId) {
+        return service.getMemoryHistory(conversationId).block().stream().map(Message::getContent).toList();
+    }
+
+    @Test
+    void requiresSharedSecretAndChecksIt() {
+        assertThatThrownBy(() -> new ClusterCoordinator(config().sharedSecret(" ").build(), List.of()))
+                .isInstanceOf(AgentException.class);
+
+        try (ClusterCoordinator coordinator = new ClusterCoordinator(config().build(), List.of())) {
+            assertThat(coordinator.authenticate("secret")).isTrue();
+            assertThat(coordinator.authenticate("secreT")).isFalse();
+            assertThat(coordinator.authenticate(null)).isFalse();
+        }
+    }
+
+    @Test
+    void acceptedHandoffWaitsForInFlightRequestsAndQueuesNewOnes() throws Exception {
+        InMemoryMemoryService service = new InMemoryMemoryService();
+        try (ClusterCoordinator coordinator = new ClusterCoordinator(config().build(), List.of(service))) {
+            // 移交到达前就被路由到新归属节点、仍在执行中的请求
+            Sinks.Empty<Void> gate = Sinks.empty();
+            CompletableFuture<String> inFlight = coordinator.route("c", null, owner -> Mono.just("remote"),
+                    () -> service.addMessage("c", new Message("user", "local-1"))
+                            .then(gate.asMono())
+                            .then(service.addMessage("c", new Message("user", "local-2")))
+                            .thenReturn("local"))
+                    .toFuture();
+
+            CompletableFuture<Integer> accepted = coordinator.acceptHandoff(batch("c", "moved-1", "moved-2")).toFuture();
+            Thread.sleep(200);
+            assertThat(accepted).isNotDone();
+
+            // 栅栏期间到达的请求排队，合并完成后再执行
+            CompletableFuture<String> queued = coordinator.route("c", null, owner -> Mono.just("remote"),
+                    () -> service.addMessage("c", new Message("user", "after")).thenReturn("local"))
+                    .toFuture();
+            Thread.sleep(100);
+            assertThat(queued).isNotDone();
+
+            gate.tryEmitEmpty();
+            assertThat(inFlight.get(5, TimeUnit.SECONDS)).isEqualTo("local");
+            assertThat(accepted.get(5, TimeUnit.SECONDS)).isEqualTo(1);
+            assertThat(queued.get(5, TimeUnit.SECONDS)).isEqualTo("local");
+        }
+
+        assertThat(contents(service, "c")).containsExactly("moved-1", "moved-2", "local-1", "local-2", "after");
+    }
+
+    @Test
+    void handoffFailsWhenRequestsOutliveTheFence() {
+        InMemoryMemoryService service = new InMemoryMemoryService();
+        try (ClusterCoordinator coordinator = new ClusterCoordinator(
+                config().fenceTimeout(Duration.ofMillis(100)).build(), List.of(service))) {
+            Sinks.Empty<Void> gate = Sinks.empty();
+            coordinator.route("c", null, owner -> Mono.empty(), gate::asMono).subscribe();
+
+            assertThatThrownBy(() -> coordinator.acceptHandoff(batch("c", "moved")).block())
+                    .isInstanceOf(AgentException.class);
+            gate.tryEmitEmpty();
+
+            // 栅栏已撤销，后续请求不受影响
+            assertThat(coordinator.route("c", null, owner -> Mono.just("remote"), () -> Mono.just("local")).block())
+                    .isEqualTo("local");
+        }
+    }
+}
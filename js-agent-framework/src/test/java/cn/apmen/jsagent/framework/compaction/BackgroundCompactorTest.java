@@ -0,0 +1,149 @@
+package cn.apmen.jsagent.framework.compaction;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.storage.MessageLog;
+import cn.apmen.jsagent.framework.token.TokenCounter;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BackgroundCompactorTest {
+
+    /**
+     * 摘要结果由测试手动完成
+     */
+    private static final class ManualSummarizer extends ConversationSummarizer {
+        private final Queue<Sinks.One<String>> pending = new ConcurrentLinkedQueue<>();
+
+        private ManualSummarizer(CompactionConfig config) {
+            super(null, config);
+        }
+
+        @Override
+        public Mono<String> summarize(List<Message> messages) {
+            Sinks.One<String> sink = Sinks.one();
+            pending.add(sink);
+            return sink.asMono();
+        }
+    }
+
+    private static MessageLog log(int messages) {
+        MessageLog log = new MessageLog(TokenCounter.heuristic());
+        for (int i = 0; i < messages; i++) {
+            log.append(new Message("user", "message " + i + " " + "x".repeat(40)));
+        }
+        return log;
+    }
+
+    @Test
+    void waitsForPermitWithoutBlockingAndReleasesOnCancel() {
+        CompactionConfig config = CompactionConfig.builder().maxConcurrency(1).build();
+        ManualSummarizer summarizer = new ManualSummarizer(config);
+        try (BackgroundCompactor compactor = new BackgroundCompactor(summarizer, config)) {
+            MessageLog first = log(20);
+            MessageLog second = log(20);
+            MessageLog third = log(20);
+
+            Disposable running = compactor.compact("a", first, 2).subscribe();
+            // 订阅在调用线程上立即返回，等待许可不占用线程
+            Disposable waiting = compactor.compact("b", second, 2).subscribe();
+            Mono<CompactionResult> queued = compactor.compact("c", third, 2);
+            Sinks.One<CompactionResult> thirdResult = Sinks.one();
+            queued.subscribe(thirdResult::tryEmitValue);
+            assertThat(summarizer.pending).hasSize(1);
+
+            // 取消排队中的b后，a的许可直接交给c
+            waiting.dispose();
+            summarizer.pending.poll().tryEmitValue("summary a");
+            assertThat(summarizer.pending).hasSize(1);
+            summarizer.pending.poll().tryEmitValue("summary c");
+
+            assertThat(thirdResult.asMono().block(Duration.ofSeconds(5))).isEqualTo(CompactionResult.SUMMARIZED);
+            assertThat(third.snapshot()).hasSize(3);
+            assertThat(second.snapshot()).hasSize(20);
+            running.dispose();
+
+            // 许可全部归还
+            compactor.compact("b", second, 2).subscribe();
+            assertThat(summarizer.pending).hasSize(1);
+        }
+    }
+
+    @Test
+    void doesNotRequeueWhenThereIsNothingToCompact() {
+        CompactionConfig config = CompactionConfig.builder()
+                .triggerTokens(10)
+                .retainRecentTokens(100_000)
+                .build();
+        ManualSummarizer summarizer = new ManualSummarizer(config);
+        try (BackgroundCompactor compactor = new BackgroundCompactor(summarizer, config)) {
+            MessageLog messageLog = log(0);
+            for (int i = 0; i < 100; i++) {
+                messageLog.append(new Message("user", "message " + i));
+                compactor.maybeCompact("c", messageLog);
+            }
+
+            assertThat(compactor.getStatistics()).containsEntry("scheduled", 0L);
+            assertThat((long) compactor.getStatistics().get("deferred")).isGreaterThan(90L);
+            assertThat(summarizer.pending).isEmpty();
+        }
+    }
+
+    @Test
+    void toolCallSplitIsMarkedUntilWindowMoves() throws InterruptedException {
+        CompactionConfig config = CompactionConfig.builder()
+                .triggerTokens(10)
+                .retainRecentTokens(30)
+                .minMessagesToSummarize(2)
+                .batchWindow(Duration.ofMillis(10))
+                .build();
+        ManualSummarizer summarizer = new ManualSummarizer(config);
+        try (BackgroundCompactor compactor = new BackgroundCompactor(summarizer, config)) {
+            // 切分点落在一串tool结果中，回退后不足minMessagesToSummarize
+            MessageLog messageLog = log(0);
+            messageLog.append(new Message("assistant", "call tools"));
+            for (int i = 0; i < 6; i++) {
+                messageLog.append(new Message("tool", "result " + i + " " + "y".repeat(40)));
+            }
+            compactor.maybeCompact("c", messageLog);
+            waitUntil(() -> (long) compactor.getStatistics().get("skipped") == 1L);
+
+            for (int i = 0; i < 5; i++) {
+                compactor.maybeCompact("c", messageLog);
+            }
+            assertThat(compactor.getStatistics())
+                    .containsEntry("scheduled", 1L)
+                    .containsEntry("deferred", 5L);
+        }
+    }
+
+    @Test
+    void explicitCompactReportsWhyNothingWasReplaced() {
+        CompactionConfig config = CompactionConfig.builder().minMessagesToSummarize(4).build();
+        ManualSummarizer summarizer = new ManualSummarizer(config);
+        try (BackgroundCompactor compactor = new BackgroundCompactor(summarizer, config)) {
+            MessageLog messageLog = log(20);
+            Disposable running = compactor.compact("a", messageLog, 2).subscribe();
+
+            assertThat(compactor.compact("a", messageLog, 2).block()).isEqualTo(CompactionResult.SKIPPED_IN_FLIGHT);
+            assertThat(compactor.compact("b", log(5), 2).block()).isEqualTo(CompactionResult.NOTHING_TO_DO);
+            running.dispose();
+        }
+    }
+
+    private static void waitUntil(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+}
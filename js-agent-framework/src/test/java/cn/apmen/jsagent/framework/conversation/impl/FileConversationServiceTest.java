@@ -0,0 +1,74 @@
+package cn.apmen.jsagent.framework.conversation.impl;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.storage.SegmentStore;
+import cn.apmen.jsagent.framework.storage.SegmentStoreConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileConversationServiceTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void historySurvivesRestart() {
+        try (FileConversationService service = new FileConversationService(directory)) {
+            service.addMessage("c1", new Message("user", "hello")).block();
+            service.addMessages("c1", List.of(new Message("assistant", "hi"), new Message("user", "bye"))).block();
+        }
+        try (FileConversationService service = new FileConversationService(directory)) {
+            assertThat(service.getConversationHistory("c1").block()).extracting(Message::getContent)
+                    .containsExactly("hello", "hi", "bye");
+        }
+    }
+
+    @Test
+    void compressKeepsSummaryAndRecentMessages() {
+        try (FileConversationService service = new FileConversationService(directory)) {
+            for (int i = 0; i < 10; i++) {
+                service.addMessage("c1", new Message("user", "m" + i)).block();
+            }
+            service.compressHistory("c1", 3).block();
+
+            List<Message> history = service.getConversationHistory("c1").block();
+            assertThat(history).hasSize(4);
+            assertThat(history.get(0).getRole()).isEqualTo("system");
+            assertThat(history.subList(1, 4)).extracting(Message::getContent).containsExactly("m7", "m8", "m9");
+        }
+    }
+
+    @Test
+    void compressDoesNotLoseConcurrentAppends() {
+        SegmentStore store = new SegmentStore(SegmentStoreConfig.builder()
+                .directory(directory)
+                .syncMode(SegmentStoreConfig.SyncMode.OS)
+                .build());
+        try (FileConversationService service = new FileConversationService(store)) {
+            int total = 2000;
+            CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < total; i++) {
+                    service.addMessage("c1", new Message("user", String.valueOf(i))).block();
+                }
+            });
+            while (!writer.isDone()) {
+                service.compressHistory("c1", 20).block();
+            }
+            writer.join();
+
+            // 摘要之后必须是连续的、以最后一条追加消息结尾的后缀
+            List<Message> history = service.getConversationHistory("c1").block();
+            int expected = total - 1;
+            for (int i = history.size() - 1; i >= 0 && !"system".equals(history.get(i).getRole()); i--) {
+                assertThat(history.get(i).getContent()).isEqualTo(String.valueOf(expected--));
+            }
+            assertThat(expected).isLessThan(total - 1);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package cn.apmen.jsagent.framework.conversation.impl;
+
+import cn.apmen.jsagent.framework.conversation.ConversationMetadata;
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import io.r2dbc.spi.ConnectionFactories;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class R2dbcConversationServiceTest {
+
+    private R2dbcConversationService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new R2dbcConversationService(ConnectionFactories.get(
+                "r2dbc:h2:mem:///" + UUID.randomUUID() + "?options=DB_CLOSE_DELAY=-1"));
+        service.initializeSchema().block();
+    }
+
+    @Test
+    void messagesRoundTripAcrossInsertBatchesAndPages() {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            messages.add(new Message(i % 2 == 0 ? "user" : "assistant", "m" + i));
+        }
+        service.addMessages("c1", messages).block();
+        service.addMessage("c2", new Message("user", "other")).block();
+
+        assertThat(service.getConversationHistory("c1").block()).extracting(Message::getContent)
+                .containsExactlyElementsOf(messages.stream().map(Message::getContent).toList());
+        assertThat(service.getRecentMessages("c1", 3).block()).extracting(Message::getContent)
+                .containsExactly("m247", "m248", "m249");
+        assertThat(service.getConversationStats("c1").block().getTotalMessages()).isEqualTo(250);
+        StepVerifier.create(service.streamConversationHistory("c1").take(2).map(Message::getContent))
+                .expectNext("m0", "m1")
+                .verifyComplete();
+    }
+
+    @Test
+    void contextWindowKeepsNewestMessagesWithinBudget() {
+        for (int i = 0; i < 300; i++) {
+            service.addMessage("c1", new Message("user", "message number " + i)).block();
+        }
+
+        List<Message> window = service.getContextWindowMessages("c1", 500, null).block();
+
+        assertThat(window).isNotEmpty().hasSizeLessThan(300);
+        assertThat(window.get(window.size() - 1).getContent()).isEqualTo("message number 299");
+    }
+
+    @Test
+    void compressReplacesOldMessagesWithSummary() {
+        for (int i = 0; i < 10; i++) {
+            service.addMessage("c1", new Message("user", "m" + i)).block();
+        }
+
+        service.compressHistory("c1", 3).block();
+
+        List<Message> history = service.getConversationHistory("c1").block();
+        assertThat(history).hasSize(4);
+        assertThat(history.get(0).getRole()).isEqualTo("system");
+        assertThat(history.get(0).getContent()).contains("7 messages");
+        assertThat(history.subList(1, 4)).extracting(Message::getContent).containsExactly("m7", "m8", "m9");
+    }
+
+    @Test
+    void metadataAndDeleteRoundTrip() {
+        LocalDateTime now = LocalDateTime.now().withNano(0);
+        service.setConversationMetadata("c1", ConversationMetadata.builder()
+                .conversationId("c1")
+                .userId("u1")
+                .title("title")
+                .tags(Set.of("a"))
+                .createdAt(now)
+                .lastActiveAt(now)
+                .build()).block();
+        service.addMessage("c1", new Message("user", "hello")).block();
+
+        ConversationMetadata metadata = service.getConversationMetadata("c1").block();
+        assertThat(metadata.getTitle()).isEqualTo("title");
+        assertThat(metadata.getTags()).containsExactly("a");
+        assertThat(service.getUserConversations("u1").block()).containsExactly("c1");
+
+        service.deleteConversation("c1").block();
+        assertThat(service.conversationExists("c1").block()).isFalse();
+        assertThat(service.getConversationMetadata("c1").block()).isNull();
+    }
+}
@@ -0,0 +1,163 @@
+package cn.apmen.jsagent.framework.journal;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.token.TokenCounter;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InMemoryConversationJournalTest {
+
+    @Test
+    void projectionsShareOneJournal() {
+        InMemoryConversationJournal journal = new InMemoryConversationJournal();
+        JournalMemoryService memory = new JournalMemoryService(journal);
+        JournalConversationService conversations = new JournalConversationService(journal);
+
+        // 用户消息只写入一次，同时出现在两个视图中
+        journal.append("c1", new Message("user", "hi"), true, true).block();
+        memory.addMessage("c1", new Message("assistant", "hello ")).block();
+        memory.addMessage("c1", new Message("assistant", "there")).block();
+        journal.appendFinalResponse("c1").block();
+
+        assertThat(memory.getMemoryHistory("c1").block()).extracting(Message::getContent)
+                .containsExactly("hi", "hello ", "there");
+        assertThat(conversations.getConversationHistory("c1").block()).extracting(Message::getContent)
+                .containsExactly("hi", "hello there");
+        assertThat(journal.readAfter("c1", 0).block()).hasSize(4);
+    }
+
+    @Test
+    void recreatedConversationIsVisibleAfterEviction() {
+        InMemoryConversationJournal journal = new InMemoryConversationJournal(1, 100);
+        JournalMemoryService memory = new JournalMemoryService(journal);
+        JournalConversationService conversations = new JournalConversationService(journal);
+
+        for (int i = 0; i < 5; i++) {
+            journal.append("a", new Message("user", "old" + i), true, true).block();
+        }
+        memory.clearMemory("a").block();
+        conversations.compressHistory("a", 1).block();
+        assertThat(conversations.getConversationStats("a").block().isCompressed()).isTrue();
+
+        // 写入另一个会话淘汰a，a重建后序号从1重新开始
+        journal.append("b", new Message("user", "other"), true, true).block();
+        journal.append("a", new Message("user", "new"), true, true).block();
+
+        assertThat(memory.getMemoryHistory("a").block()).extracting(Message::getContent)
+                .containsExactly("new");
+        assertThat(conversations.getConversationHistory("a").block()).extracting(Message::getContent)
+                .containsExactly("new");
+        assertThat(conversations.getConversationStats("a").block().isCompressed()).isFalse();
+    }
+
+    @Test
+    void staleViewFromOlderEpochIsIgnored() {
+        // 不通知移除的日志实现：只能依靠代次判断视图起点是否过期
+        InMemoryConversationJournal journal = new InMemoryConversationJournal() {
+            @Override
+            public void addRemovalListener(Consumer<String> listener) {
+            }
+        };
+        JournalMemoryService memory = new JournalMemoryService(journal);
+        for (int i = 0; i < 3; i++) {
+            memory.addMessage("a", new Message("user", "old" + i)).block();
+        }
+        memory.clearMemory("a").block();
+        long firstEpoch = journal.getEpoch("a").block();
+
+        journal.delete("a").block();
+        memory.addMessage("a", new Message("user", "new")).block();
+
+        assertThat(journal.getEpoch("a").block()).isGreaterThan(firstEpoch);
+        assertThat(memory.getMemoryHistory("a").block()).extracting(Message::getContent)
+                .containsExactly("new");
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedConversation() {
+        InMemoryConversationJournal journal = new InMemoryConversationJournal(2, 100);
+        journal.append("a", new Message("user", "1"), true, true).block();
+        journal.append("b", new Message("user", "2"), true, true).block();
+        journal.readAfter("a", 0).block();
+        journal.append("c", new Message("user", "3"), true, true).block();
+
+        assertThat(journal.exists("a").block()).isTrue();
+        assertThat(journal.exists("b").block()).isFalse();
+        assertThat(journal.exists("c").block()).isTrue();
+        assertThat(journal.getStatistics()).containsEntry("evictedConversations", 1L);
+    }
+
+    @Test
+    void trimsOldestEntriesAndKeepsSequencesMonotonic() {
+        InMemoryConversationJournal journal = new InMemoryConversationJournal(10, 8);
+        for (int i = 1; i <= 20; i++) {
+            journal.append("c", new Message("user", "m" + i), true, true).block();
+        }
+
+        assertThat(journal.getLastSequence("c").block()).isEqualTo(20L);
+        List<JournalEntry> all = journal.readAfter("c", 0).block();
+        assertThat(all).hasSizeLessThanOrEqualTo(8);
+        assertThat(all.get(all.size() - 1).getSequence()).isEqualTo(20L);
+        assertThat(all.get(all.size() - 1).getMessage().getContent()).isEqualTo("m20");
+
+        List<JournalEntry> tail = journal.readAfter("c", 18).block();
+        assertThat(tail).extracting(JournalEntry::getSequence).containsExactly(19L, 20L);
+    }
+
+    @Test
+    void contextMemoryUsesTokenCounterBudget() {
+        InMemoryConversationJournal journal = new InMemoryConversationJournal();
+        // 每条消息固定计为10个token
+        TokenCounter counter = new TokenCounter() {
+            @Override
+            public int countTokens(String text) {
+                return 10;
+            }
+
+            @Override
+            public int countMessageTokens(Message message) {
+                return 10;
+            }
+        };
+        JournalMemoryService memory = new JournalMemoryService(journal, counter);
+        for (int i = 0; i < 10; i++) {
+            memory.addMessage("c", new Message("user", "m" + i)).block();
+        }
+
+        assertThat(memory.getContextMemory("c", 45, null).block()).extracting(Message::getContent)
+                .containsExactly("m6", "m7", "m8", "m9");
+        assertThat(memory.getContextMemory("c", 45, "system").block()).hasSize(3);
+        assertThat(memory.getContextMemory("c", 1, null).block()).extracting(Message::getContent)
+                .containsExactly("m9");
+    }
+
+    @Test
+    void memorySearchFollowsViewChanges() throws InterruptedException {
+        InMemoryConversationJournal journal = new InMemoryConversationJournal();
+        JournalMemoryService memory = new JournalMemoryService(journal);
+        memory.addMessage("c", new Message("user", "我的猫很可爱")).block();
+        memory.addMessage("c", new Message("user", "the cat sleeps")).block();
+
+        assertThat(memory.searchMemory("c", "猫", 5).block()).extracting(Message::getContent)
+                .containsExactly("我的猫很可爱");
+
+        // 压缩移动了视图起点，索引在后台重建，完成前查询仍使用旧索引
+        memory.compressMemory("c", 1).block();
+        memory.addMessage("c", new Message("user", "猫在睡觉")).block();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        List<Message> found = memory.searchMemory("c", "猫", 5).block();
+        while (!found.isEmpty() && found.get(0).getContent().equals("我的猫很可爱") && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+            found = memory.searchMemory("c", "猫", 5).block();
+        }
+        assertThat(found).extracting(Message::getContent).containsExactly("猫在睡觉");
+
+        memory.clearMemory("c").block();
+        assertThat(memory.searchMemory("c", "猫", 5).block()).isEmpty();
+    }
+}
@@ -0,0 +1,221 @@
+package cn.apmen.jsagent.framework.memory;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BoundedInMemoryMemoryServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private BoundedInMemoryMemoryService service(long maxResidentBytes, long maxOffHeapBytes) {
+        return new BoundedInMemoryMemoryService(BoundedMemoryConfig.builder()
+                .maxResidentBytes(maxResidentBytes)
+                .evictionHighWatermark(1.0)
+                .minIdleBeforeEviction(Duration.ZERO)
+                .maxOffHeapBytes(maxOffHeapBytes)
+                .offHeapSlabSize(64 * 1024)
+                .spillDirectory(directory)
+                .build());
+    }
+
+    private static void fill(BoundedInMemoryMemoryService service, String conversationId, int messages) {
+        for (int i = 0; i < messages; i++) {
+            service.addMessage(conversationId, new Message("user", conversationId + "-" + i + "-" + "x".repeat(200))).block();
+            // 淘汰在后台执行，逐条等待使换出顺序确定
+            service.awaitEvictions();
+        }
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedConversationFirst() {
+        try (BoundedInMemoryMemoryService service = service(Long.MAX_VALUE, 0)) {
+            fill(service, "a", 20);
+            fill(service, "b", 20);
+            fill(service, "c", 20);
+            service.getRecentMemory("a", 1).block();
+            long resident = (long) service.getStatistics().get("residentBytes");
+
+            try (BoundedInMemoryMemoryService bounded = service(resident * 2 / 3, 0)) {
+                fill(bounded, "a", 20);
+                fill(bounded, "b", 20);
+                bounded.getRecentMemory("a", 1).block();
+                fill(bounded, "c", 20);
+
+                // b最久未访问，先被换出
+                assertThat((int) bounded.getStatistics().get("spilledConversations")).isGreaterThanOrEqualTo(1);
+                assertThat(bounded.getStatistics().get("reloads")).isEqualTo(0L);
+                assertThat(bounded.getMemoryHistory("b").block()).hasSize(20);
+                assertThat(bounded.getStatistics().get("reloads")).isEqualTo(1L);
+            }
+        }
+    }
+
+    @Test
+    void spilledConversationsReloadTransparently() {
+        try (BoundedInMemoryMemoryService service = service(16 * 1024, 0)) {
+            for (int c = 0; c < 20; c++) {
+                fill(service, "c" + c, 10);
+            }
+            assertThat((long) service.getStatistics().get("residentBytes")).isLessThanOrEqualTo(16 * 1024);
+
+            for (int c = 0; c < 20; c++) {
+                List<Message> history = service.getMemoryHistory("c" + c).block();
+                assertThat(history).hasSize(10);
+                assertThat(history.get(9).getContent()).startsWith("c" + c + "-9-");
+            }
+        }
+    }
+
+    @Test
+    void concurrentReadersOfSpilledConversationSeeSameHistory() {
+        try (BoundedInMemoryMemoryService service = service(8 * 1024, 0)) {
+            for (int c = 0; c < 10; c++) {
+                fill(service, "c" + c, 10);
+            }
+
+            List<CompletableFuture<Integer>> readers = IntStream.range(0, 8)
+                    .mapToObj(i -> CompletableFuture.supplyAsync(() -> service.getMemoryHistory("c0").block().size()))
+                    .toList();
+
+            assertThat(readers).allSatisfy(reader -> assertThat(reader.join()).isEqualTo(10));
+        }
+    }
+
+    @Test
+    void offHeapTierPromotesBackToHeap() {
+        try (BoundedInMemoryMemoryService service = service(8 * 1024, 1024 * 1024)) {
+            for (int c = 0; c < 10; c++) {
+                fill(service, "c" + c, 10);
+            }
+            assertThat((long) service.getStatistics().get("warmDemotions")).isPositive();
+
+            for (int c = 0; c < 10; c++) {
+                assertThat(service.getMemoryHistory("c" + c).block()).hasSize(10);
+            }
+            assertThat((long) service.getStatistics().get("warmPromotions")).isPositive();
+        }
+    }
+
+    @Test
+    void warmTierSpillsVictimFromTheSizeClassThatNeedsSpace() {
+        try (BoundedInMemoryMemoryService service = service(1, 128 * 1024)) {
+            // 两个小会话共用一页（4KB等级），一个大会话独占另一页（64KB等级）
+            service.addMessages("small-1", List.of(new Message("user", "a".repeat(2000)))).block();
+            service.awaitEvictions();
+            service.addMessages("small-2", List.of(new Message("user", "b".repeat(2000)))).block();
+            service.awaitEvictions();
+            service.addMessages("large-1", List.of(new Message("user", "c".repeat(40_000)))).block();
+            service.awaitEvictions();
+            assertThat(service.getStatistics()).containsEntry("warmDemotions", 3L);
+
+            // 第二个大会话需要64KB等级的块：只换出large-1，不动更久未访问的小会话
+            service.addMessages("large-2", List.of(new Message("user", "d".repeat(40_000)))).block();
+            service.awaitEvictions();
+
+            assertThat(service.getStatistics())
+                    .containsEntry("warmDemotions", 4L)
+                    .containsEntry("warmSpills", 1L)
+                    .containsEntry("spilledConversations", 1);
+            assertThat(service.getMemoryHistory("large-1").block()).hasSize(1);
+            assertThat(service.getStatistics()).containsEntry("reloads", 1L);
+            assertThat(service.getMemoryHistory("small-1").block()).hasSize(1);
+            assertThat(service.getStatistics()).containsEntry("reloads", 1L);
+        }
+    }
+
+    @Test
+    void concurrentDemotionsAndReadsThroughWarmTierKeepEveryHistory() {
+        // 温层只有两页：并发写入不断把温层会话换出到磁盘，同时读取把它们提升回热层
+        try (BoundedInMemoryMemoryService service = service(4 * 1024, 128 * 1024)) {
+            List<CompletableFuture<Void>> workers = IntStream.range(0, 4)
+                    .mapToObj(w -> CompletableFuture.runAsync(() -> {
+                        for (int round = 0; round < 3; round++) {
+                            for (int c = w; c < 40; c += 4) {
+                                fill(service, "c" + c, 2);
+                                service.getMemoryHistory("c" + ((c + 7) % 40)).block();
+                            }
+                        }
+                    }))
+                    .toList();
+            workers.forEach(CompletableFuture::join);
+
+            assertThat((long) service.getStatistics().get("warmSpills")).isPositive();
+            for (int c = 0; c < 40; c++) {
+                assertThat(service.getMemoryHistory("c" + c).block()).hasSize(6);
+            }
+            assertThat(service.memoryExists("missing").block()).isFalse();
+        }
+    }
+
+    @Test
+    void evictionRunsInBackgroundDownToLowWatermark() {
+        try (BoundedInMemoryMemoryService service = new BoundedInMemoryMemoryService(BoundedMemoryConfig.builder()
+                .maxResidentBytes(32 * 1024)
+                .evictionHighWatermark(0.5)
+                .evictionLowWatermark(0.25)
+                .minIdleBeforeEviction(Duration.ZERO)
+                .spillDirectory(directory)
+                .build())) {
+            for (int c = 0; c < 40; c++) {
+                service.addMessage("c" + c, new Message("user", "x".repeat(1000))).block();
+            }
+            service.awaitEvictions();
+
+            // 停在低水位附近，而不是刚好回落到高水位以下
+            assertThat((long) service.getStatistics().get("residentBytes")).isLessThanOrEqualTo(16 * 1024);
+            assertThat((long) service.getStatistics().get("evictions")).isPositive();
+            for (int c = 0; c < 40; c++) {
+                assertThat(service.getMemoryHistory("c" + c).block()).hasSize(1);
+            }
+        }
+    }
+
+    @Test
+    void spilledConversationsAndMetadataAreBounded() {
+        try (BoundedInMemoryMemoryService service = new BoundedInMemoryMemoryService(BoundedMemoryConfig.builder()
+                .maxResidentBytes(1)
+                .minIdleBeforeEviction(Duration.ZERO)
+                .maxSpilledConversations(5)
+                .maxMetadataEntries(8)
+                .spillDirectory(directory)
+                .build())) {
+            for (int c = 0; c < 20; c++) {
+                fill(service, "c" + c, 1);
+            }
+
+            assertThat(service.getStatistics())
+                    .containsEntry("spilledConversations", 5)
+                    .containsEntry("metadataEntries", 5);
+            assertThat((long) service.getStatistics().get("expiredSpills")).isGreaterThanOrEqualTo(14L);
+            assertThat(service.memoryExists("c0").block()).isFalse();
+            assertThat(service.getMemoryHistory("c19").block()).hasSize(1);
+        }
+    }
+
+    @Test
+    void searchRanksThroughIndexAndSurvivesSpill() {
+        try (BoundedInMemoryMemoryService service = service(8 * 1024, 0)) {
+            service.addMessage("s", new Message("user", "我的猫很可爱")).block();
+            service.addMessage("s", new Message("user", "今天天气不错")).block();
+            for (int c = 0; c < 10; c++) {
+                fill(service, "c" + c, 10);
+            }
+            assertThat((int) service.getStatistics().get("spilledConversations")).isGreaterThanOrEqualTo(1);
+
+            assertThat(service.searchMemory("s", "猫", 5).block()).extracting(Message::getContent)
+                    .containsExactly("我的猫很可爱");
+            assertThat(service.searchMemory("c3", "c3-7", 1).block()).extracting(Message::getContent)
+                    .first().asString().startsWith("c3-7-");
+        }
+    }
+}
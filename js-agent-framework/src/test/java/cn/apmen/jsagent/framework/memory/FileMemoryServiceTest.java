@@ -0,0 +1,66 @@
+package cn.apmen.jsagent.framework.memory;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileMemoryServiceTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void messagesAndMetadataSurviveRestart() {
+        LocalDateTime createdAt;
+        try (FileMemoryService service = new FileMemoryService(directory)) {
+            service.addMessage("c1", new Message("user", "hello")).block();
+            createdAt = service.getMemoryMetadata("c1").block().getCreatedAt();
+            service.addMessages("c1", List.of(new Message("assistant", "hi"), new Message("user", "bye"))).block();
+        }
+        try (FileMemoryService service = new FileMemoryService(directory)) {
+            assertThat(service.getMemoryHistory("c1").block()).extracting(Message::getContent)
+                    .containsExactly("hello", "hi", "bye");
+            assertThat(service.getRecentMemory("c1", 2).block()).extracting(Message::getContent)
+                    .containsExactly("hi", "bye");
+            // 元数据只在首次写入时创建
+            assertThat(service.getMemoryMetadata("c1").block().getCreatedAt()).isEqualTo(createdAt);
+            assertThat(service.getMemoryStats("c1").block().getTotalMessages()).isEqualTo(3);
+        }
+    }
+
+    @Test
+    void compressAndClearSurviveRestart() {
+        try (FileMemoryService service = new FileMemoryService(directory)) {
+            for (int i = 0; i < 10; i++) {
+                service.addMessage("c1", new Message("user", "m" + i)).block();
+                service.addMessage("c2", new Message("user", "n" + i)).block();
+            }
+            service.compressMemory("c1", 3).block();
+            service.clearMemory("c2").block();
+        }
+        try (FileMemoryService service = new FileMemoryService(directory)) {
+            assertThat(service.getMemoryHistory("c1").block()).extracting(Message::getContent)
+                    .containsExactly("m7", "m8", "m9");
+            assertThat(service.memoryExists("c2").block()).isFalse();
+            assertThat(service.getMemoryMetadata("c2").block()).isNull();
+        }
+    }
+
+    @Test
+    void writesCompleteOffTheFlusherThread() {
+        try (FileMemoryService service = new FileMemoryService(directory)) {
+            AtomicReference<String> thread = new AtomicReference<>();
+            service.addMessage("c1", new Message("user", "hello"))
+                    .doOnSuccess(v -> thread.set(Thread.currentThread().getName()))
+                    .block();
+            assertThat(thread.get()).isNotNull().doesNotStartWith("segment-store-flusher");
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package cn.apmen.jsagent.framework.memory;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.token.TokenCounter;
+import cn.apmen.jsagent.framework.vector.Embedder;
+import cn.apmen.jsagent.framework.vector.VectorMemoryConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InMemoryAgentMemoryServiceTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * 记录调用线程的向量化器
+     */
+    private static final class RecordingEmbedder implements Embedder {
+        private final Embedder delegate = Embedder.featureHashing(64);
+        private final Set<String> threads = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public int dimension() {
+            return delegate.dimension();
+        }
+
+        @Override
+        public float[] embed(String text) {
+            threads.add(Thread.currentThread().getName());
+            return delegate.embed(text);
+        }
+    }
+
+    @Test
+    void embedsOffTheCallerThreadAndRecallsBySession() {
+        RecordingEmbedder embedder = new RecordingEmbedder();
+        try (InMemoryAgentMemoryService service = new InMemoryAgentMemoryService(TokenCounter.heuristic(), embedder,
+                VectorMemoryConfig.builder().directory(directory).build())) {
+            service.addMessage("agent", "s1", new Message("user", "the weather in Paris is sunny")).block();
+            service.addMessage("agent", "s2", new Message("user", "deploy the service to kubernetes")).block();
+            service.addMessage("agent", "s1", new Message("tool", "ignored tool output")).block();
+
+            assertThat(service.getRelevantMemory("agent", "s1", "Paris weather", 3).block())
+                    .extracting(Message::getContent)
+                    .containsExactly("the weather in Paris is sunny");
+            assertThat(embedder.threads).isNotEmpty()
+                    .allSatisfy(thread -> assertThat(thread).startsWith("boundedElastic"));
+            assertThat(service.getVectorStatistics("agent")).containsEntry("vectors", 2);
+        }
+    }
+
+    @Test
+    void clearAgentMemoryDeletesStoreNotYetOpened() {
+        RecordingEmbedder embedder = new RecordingEmbedder();
+        VectorMemoryConfig config = VectorMemoryConfig.builder().directory(directory).build();
+        try (InMemoryAgentMemoryService service = new InMemoryAgentMemoryService(TokenCounter.heuristic(), embedder, config)) {
+            service.addMessage("agent", "s1", new Message("user", "remember me")).block();
+        }
+        try (InMemoryAgentMemoryService service = new InMemoryAgentMemoryService(TokenCounter.heuristic(), embedder, config)) {
+            service.clearAgentMemory("agent").block();
+            assertThat(service.getRelevantMemory("agent", "s1", "remember", 3).block()).isEmpty();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package cn.apmen.jsagent.framework.memory;
+
+import cn.apmen.jsagent.framework.compaction.BackgroundCompactor;
+import cn.apmen.jsagent.framework.compaction.CompactionConfig;
+import cn.apmen.jsagent.framework.compaction.ConversationSummarizer;
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.token.TokenCounter;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InMemoryMemoryServiceTest {
+
+    /**
+     * 摘要结果由测试手动完成
+     */
+    private static final class ManualSummarizer extends ConversationSummarizer {
+        private final Queue<Sinks.One<String>> pending = new ConcurrentLinkedQueue<>();
+
+        private ManualSummarizer(CompactionConfig config) {
+            super(null, config);
+        }
+
+        @Override
+        public Mono<String> summarize(List<Message> messages) {
+            Sinks.One<String> sink = Sinks.one();
+            pending.add(sink);
+            return sink.asMono();
+        }
+    }
+
+    private static final CompactionConfig CONFIG = CompactionConfig.builder()
+            .triggerTokens(200)
+            .retainRecentTokens(60)
+            .minMessagesToSummarize(2)
+            .batchWindow(Duration.ofMillis(10))
+            .build();
+
+    private static void fill(InMemoryMemoryService service, int messages) {
+        for (int i = 0; i < messages; i++) {
+            service.addMessage("c", new Message("user", "message " + i + " " + "x".repeat(40))).block();
+        }
+    }
+
+    @Test
+    void compressDuringBackgroundCompactionKeepsHistory() throws InterruptedException {
+        ManualSummarizer summarizer = new ManualSummarizer(CONFIG);
+        try (BackgroundCompactor compactor = new BackgroundCompactor(summarizer, CONFIG)) {
+            InMemoryMemoryService service = new InMemoryMemoryService(TokenCounter.heuristic(), compactor);
+            fill(service, 20);
+            waitUntil(() -> !summarizer.pending.isEmpty());
+
+            service.compressMemory("c", 2).block();
+            assertThat(service.getMemoryHistory("c").block()).hasSize(20);
+
+            // 后台摘要按原前缀完成替换
+            summarizer.pending.poll().tryEmitValue("summary");
+            waitUntil(() -> service.getMemoryHistory("c").block().size() < 20);
+            List<Message> history = service.getMemoryHistory("c").block();
+            assertThat(history.get(0).getContent()).endsWith("summary");
+            assertThat(history.get(history.size() - 1).getContent()).startsWith("message 19 ");
+        }
+    }
+
+    @Test
+    void compressFallsBackToTruncationOnlyWhenSummarizationFails() {
+        ManualSummarizer summarizer = new ManualSummarizer(CONFIG);
+        try (BackgroundCompactor compactor = new BackgroundCompactor(summarizer, CompactionConfig.builder()
+                .minMessagesToSummarize(2).build())) {
+            InMemoryMemoryService service = new InMemoryMemoryService(TokenCounter.heuristic(), compactor);
+            for (int i = 0; i < 3; i++) {
+                service.addMessage("c", new Message("user", "m" + i)).block();
+            }
+
+            // 可摘要的消息不足：不截断
+            service.compressMemory("c", 2).block();
+            assertThat(service.getMemoryHistory("c").block()).hasSize(3);
+
+            for (int i = 3; i < 10; i++) {
+                service.addMessage("c", new Message("user", "m" + i)).block();
+            }
+            Mono<Void> compress = service.compressMemory("c", 2);
+            Sinks.One<Void> done = Sinks.one();
+            compress.subscribe(null, done::tryEmitError, done::tryEmitEmpty);
+            summarizer.pending.poll().tryEmitError(new IllegalStateException("llm down"));
+            done.asMono().block(Duration.ofSeconds(5));
+            assertThat(service.getMemoryHistory("c").block()).hasSize(2);
+        }
+    }
+
+    private static void waitUntil(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+}
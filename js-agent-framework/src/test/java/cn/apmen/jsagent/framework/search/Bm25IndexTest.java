@@ -0,0 +1,105 @@
+package cn.apmen.jsagent.framework.search;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.storage.MessageLog;
+import cn.apmen.jsagent.framework.token.TokenCounter;
+import org.junit.jupiter.api.Test;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class Bm25IndexTest {
+
+    private static Message user(String content) {
+        return new Message("user", content);
+    }
+
+    @Test
+    void singleCharacterCjkQueryMatchesLongerRun() {
+        MessageLog log = new MessageLog(TokenCounter.heuristic());
+        log.append(user("今天天气不错"));
+        log.append(user("我的猫很可爱"));
+        Bm25Index index = new Bm25Index();
+        index.sync(log);
+
+        assertThat(index.search("猫", 5)).extracting(Message::getContent).containsExactly("我的猫很可爱");
+        assertThat(index.search("可爱的猫", 5)).extracting(Message::getContent).first().isEqualTo("我的猫很可爱");
+    }
+
+    @Test
+    void mixedScriptQueryMatchesBothScripts() {
+        MessageLog log = new MessageLog(TokenCounter.heuristic());
+        log.append(user("部署Kubernetes集群"));
+        log.append(user("kubernetes upgrade notes"));
+        log.append(user("集群监控"));
+        Bm25Index index = new Bm25Index();
+        index.sync(log);
+
+        assertThat(index.search("Kubernetes集群", 3)).extracting(Message::getContent)
+            .first().isEqualTo("部署Kubernetes集群");
+    }
+
+    @Test
+    void rareTermsOutrankCommonTerms() {
+        MessageLog log = new MessageLog(TokenCounter.heuristic());
+        for (int i = 0; i < 20; i++) {
+            log.append(user("status update number " + i));
+        }
+        log.append(user("status of the database migration"));
+        log.append(user("status update"));
+        Bm25Index index = new Bm25Index();
+        index.sync(log);
+
+        // migration只出现在一条消息中，IDF远高于几乎每条都有的status
+        assertThat(index.search("status migration", 2)).extracting(Message::getContent)
+            .first().isEqualTo("status of the database migration");
+    }
+
+    @Test
+    void syncIndexesOnlyNewlyAppendedMessages() {
+        MessageLog log = new MessageLog(TokenCounter.heuristic());
+        Bm25Index index = new Bm25Index();
+        log.append(user("alpha"));
+        index.sync(log);
+        assertThat(index.documentCount()).isEqualTo(1);
+
+        log.append(user("beta"));
+        log.append(user("alpha beta"));
+        index.sync(log);
+
+        assertThat(index.documentCount()).isEqualTo(3);
+        assertThat(index.search("beta", 5)).extracting(Message::getContent)
+            .containsExactlyInAnyOrder("alpha beta", "beta");
+        assertThat(index.rebuilds()).isZero();
+    }
+
+    @Test
+    void rebuildAfterCompactionRunsOnSchedulerAndServesOldIndexMeanwhile() {
+        MessageLog log = new MessageLog(TokenCounter.heuristic());
+        for (int i = 0; i < 10; i++) {
+            log.append(user("message " + i + (i == 2 ? " needle" : "")));
+        }
+        List<Runnable> pending = new ArrayList<>();
+        Bm25Index index = new Bm25Index(Schedulers.fromExecutor(pending::add));
+        index.sync(log);
+
+        log.retainRecent(3);
+        index.sync(log);
+
+        // 重建尚未执行：仍用旧索引查询
+        assertThat(pending).hasSize(1);
+        assertThat(index.search("needle", 5)).extracting(Message::getContent).containsExactly("message 2 needle");
+
+        pending.remove(0).run();
+        assertThat(index.rebuilds()).isEqualTo(1);
+        assertThat(index.documentCount()).isEqualTo(3);
+        assertThat(index.search("needle", 5)).isEmpty();
+
+        log.append(user("another needle"));
+        index.sync(log);
+        assertThat(index.search("needle", 5)).extracting(Message::getContent).containsExactly("another needle");
+    }
+}
@@ -0,0 +1,34 @@
+package cn.apmen.jsagent.framework.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TextTokenizerTest {
+
+    private static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        TextTokenizer.tokenize(text, tokens::add);
+        return tokens;
+    }
+
+    @Test
+    void latinWordsAreLowercasedAndSplitOnPunctuation() {
+        assertThat(tokens("Hello, World! GPT-4o")).containsExactly("hello", "world", "gpt", "4o");
+    }
+
+    @Test
+    void cjkRunsEmitUnigramsAndBigrams() {
+        assertThat(tokens("猫很可爱")).containsExactly("猫", "很", "猫很", "可", "很可", "爱", "可爱");
+        assertThat(tokens("猫")).containsExactly("猫");
+    }
+
+    @Test
+    void mixedScriptSplitsAtScriptBoundaries() {
+        assertThat(tokens("用Java写代码")).containsExactly("用", "java", "写", "代", "写代", "码", "代码");
+        assertThat(tokens("東京タワー")).contains("東京", "タワ", "ワー");
+    }
+}
@@ -0,0 +1,72 @@
+package cn.apmen.jsagent.framework.snapshot;
+
+import cn.apmen.jsagent.framework.memory.InMemoryMemoryService;
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StateSnapshotterTest {
+
+    @TempDir
+    Path directory;
+
+    private StateSnapshotter snapshotter(InMemoryMemoryService service) {
+        return new StateSnapshotter(SnapshotConfig.builder()
+                .directory(directory)
+                .interval(Duration.ZERO)
+                .shards(2)
+                .loadParallelism(2)
+                .build(), List.of(service));
+    }
+
+    private static List<String> contents(InMemoryMemoryService service, String conversationId) {
+        return service.getMemoryHistory(conversationId).block().stream().map(Message::getContent).toList();
+    }
+
+    @Test
+    void appendsAreRestoredAfterRestart() {
+        InMemoryMemoryService service = new InMemoryMemoryService();
+        try (StateSnapshotter snapshotter = snapshotter(service)) {
+            service.addMessages("c", List.of(new Message("user", "one"), new Message("assistant", "two"))).block();
+            snapshotter.snapshot();
+            service.addMessage("c", new Message("user", "three")).block();
+        }
+
+        InMemoryMemoryService restored = new InMemoryMemoryService();
+        try (StateSnapshotter snapshotter = snapshotter(restored)) {
+            assertThat(snapshotter.restore()).isEqualTo(1);
+        }
+        assertThat(contents(restored, "c")).containsExactly("one", "two", "three");
+    }
+
+    @Test
+    void recreatedConversationIsRewrittenNotSkipped() {
+        InMemoryMemoryService service = new InMemoryMemoryService();
+        try (StateSnapshotter snapshotter = snapshotter(service)) {
+            service.addMessages("c", List.of(new Message("user", "old-1"), new Message("assistant", "old-2"))).block();
+            snapshotter.snapshot();
+
+            // 重建的会话使用新的MessageLog，代数与条数都和旧日志相同
+            service.clearMemory("c").block();
+            service.addMessages("c", List.of(new Message("user", "new-1"), new Message("assistant", "new-2"))).block();
+            snapshotter.snapshot();
+
+            // 在重建后的日志上继续增量追加
+            service.clearMemory("c").block();
+            service.addMessage("c", new Message("user", "newer-1")).block();
+            service.addMessages("c", List.of(new Message("assistant", "newer-2"), new Message("user", "newer-3"))).block();
+        }
+
+        InMemoryMemoryService restored = new InMemoryMemoryService();
+        try (StateSnapshotter snapshotter = snapshotter(restored)) {
+            snapshotter.restore();
+        }
+        assertThat(contents(restored, "c")).containsExactly("newer-1", "newer-2", "newer-3");
+    }
+}
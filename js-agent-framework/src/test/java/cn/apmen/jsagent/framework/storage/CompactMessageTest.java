@@ -0,0 +1,84 @@
+package cn.apmen.jsagent.framework.storage;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.token.TokenCounter;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompactMessageTest {
+
+    private static void assertSameMessages(List<Message> actual, List<Message> expected) {
+        assertThat(actual).hasSameSizeAs(expected);
+        for (int i = 0; i < expected.size(); i++) {
+            Message a = actual.get(i);
+            Message e = expected.get(i);
+            assertThat(a.getRole()).isEqualTo(e.getRole());
+            assertThat(a.getContent()).isEqualTo(e.getContent());
+            assertThat(a.getToolCallId()).isEqualTo(e.getToolCallId());
+            if (e.getToolCalls() == null) {
+                assertThat(a.getToolCalls()).isNull();
+            } else {
+                assertThat(a.getToolCalls()).hasSameSizeAs(e.getToolCalls());
+                assertThat(a.getToolCalls().get(0).getFunction().getArguments())
+                        .isEqualTo(e.getToolCalls().get(0).getFunction().getArguments());
+            }
+        }
+    }
+
+    @Test
+    void roundTripsAndDeflatesOnlyLargeMessages() {
+        Message small = new Message("user", "你好 hello");
+        Message large = new Message("tool", "result ".repeat(200), "call_1");
+
+        CompactMessage compactSmall = CompactMessage.of(small, CompactMessage.DEFAULT_COMPRESSION_THRESHOLD);
+        CompactMessage compactLarge = CompactMessage.of(large, CompactMessage.DEFAULT_COMPRESSION_THRESHOLD);
+
+        assertThat(compactSmall.isDeflated()).isFalse();
+        assertThat(compactLarge.isDeflated()).isTrue();
+        assertThat(compactLarge.retainedBytes()).isLessThan(CompactMessage.estimateHeapBytes(large) / 4);
+        assertSameMessages(List.of(compactSmall.toMessage(), compactLarge.toMessage()), List.of(small, large));
+        // 角色与工具名解码为共享实例
+        assertThat(compactLarge.toMessage().getRole()).isSameAs(compactLarge.toMessage().getRole());
+    }
+
+    @Test
+    void coldChunksAreSealedAndDecodeToOriginalContent() {
+        List<Message> messages = SampleConversations.searchAgent(5, 300);
+        MessageLog compact = new MessageLog(TokenCounter.heuristic());
+        MessageLog plain = new MessageLog(TokenCounter.heuristic(), -1, CompactMessage.DEFAULT_COMPRESSION_THRESHOLD);
+        for (Message message : messages) {
+            compact.append(message);
+            plain.append(message);
+        }
+
+        assertSameMessages(compact.snapshot(), messages);
+        assertThat(compact.retainedBytes()).isLessThan(plain.retainedBytes() / 3);
+        assertThat(compact.totalTokens()).isEqualTo(plain.totalTokens());
+        // 随机访问与倒序访问跨块解码
+        assertSameMessages(List.of(compact.snapshot().get(130), compact.snapshot().get(3)),
+                List.of(messages.get(130), messages.get(3)));
+    }
+
+    @Test
+    void rebuildUnpacksSealedChunksAtNewOffsets() {
+        List<Message> messages = SampleConversations.searchAgent(9, 400);
+        MessageLog log = new MessageLog(TokenCounter.heuristic());
+        log.appendAll(messages);
+        List<Message> before = log.snapshot();
+
+        // 前缀长度不是块大小的整数倍，搬运后的条目与块不再对齐
+        assertThat(log.replacePrefix(log.generation(), 37, List.of(new Message("system", "summary")))).isTrue();
+
+        List<Message> after = log.snapshot();
+        assertThat(after.get(0).getContent()).isEqualTo("summary");
+        assertSameMessages(after.subList(1, after.size()), messages.subList(37, messages.size()));
+        // 之前的视图不受重建影响
+        assertSameMessages(before, messages);
+
+        log.retainRecent(100);
+        assertSameMessages(log.snapshot(), messages.subList(300, 400));
+    }
+}
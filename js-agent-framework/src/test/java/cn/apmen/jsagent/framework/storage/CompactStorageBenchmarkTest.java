@@ -0,0 +1,99 @@
+package cn.apmen.jsagent.framework.storage;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.token.TokenCounter;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 每个1000条消息的会话保留的堆内存：普通List&lt;Message&gt;与MessageLog（紧凑冷区）对比
+ * 同时保留若干会话，以GC后的堆占用差值计算，并输出MessageLog自身的估算值与全量读取耗时
+ * 运行：mvn -Pbenchmark test -pl js-agent-framework -Dtest=CompactStorageBenchmarkTest
+ */
+@Tag("benchmark")
+class CompactStorageBenchmarkTest {
+
+    private static final int CONVERSATIONS = 40;
+    private static final int MESSAGES = 1000;
+
+    @Test
+    void bytesRetainedPerThousandMessageConversation() {
+        long plain = retained(seed -> new ArrayList<>(SampleConversations.searchAgent(seed, MESSAGES)));
+        System.out.printf("List<Message>: %,d bytes per conversation%n", plain);
+        for (int hotWindow : new int[]{MessageLog.DEFAULT_HOT_WINDOW, 64, 0}) {
+            long compact = retained(seed -> {
+                MessageLog log = new MessageLog(TokenCounter.heuristic(), hotWindow, CompactMessage.DEFAULT_COMPRESSION_THRESHOLD);
+                for (Message message : SampleConversations.searchAgent(seed, MESSAGES)) {
+                    log.append(message);
+                }
+                return log;
+            });
+            System.out.printf("MessageLog (hot window %d): %,d bytes per conversation (%.2fx smaller)%n",
+                    hotWindow, compact, (double) plain / compact);
+        }
+
+        MessageLog log = new MessageLog(TokenCounter.heuristic());
+        for (Message message : SampleConversations.searchAgent(1, MESSAGES)) {
+            log.append(message);
+        }
+        System.out.printf("MessageLog.retainedBytes() estimate: %,d%n", log.retainedBytes());
+
+        // 每轮对话都会重读上下文窗口并计数token，窗口大于热区时这部分来自冷区
+        for (int hotWindow : new int[]{MessageLog.DEFAULT_HOT_WINDOW, 64, 0}) {
+            MessageLog windowed = new MessageLog(TokenCounter.heuristic(), hotWindow, CompactMessage.DEFAULT_COMPRESSION_THRESHOLD);
+            for (Message message : SampleConversations.searchAgent(1, MESSAGES)) {
+                windowed.append(message);
+            }
+            for (int i = 0; i < 20; i++) {
+                readAll(windowed);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < 20; i++) {
+                readAll(windowed);
+            }
+            System.out.printf("re-read and count all %d messages (hot window %d): %.3fms%n",
+                    MESSAGES, hotWindow, (System.nanoTime() - start) / 20 / 1e6);
+        }
+    }
+
+    private static long readAll(MessageLog log) {
+        TokenCounter counter = TokenCounter.heuristic();
+        long tokens = 0;
+        for (Message message : log.snapshot()) {
+            tokens += counter.countMessageTokens(message);
+        }
+        return tokens;
+    }
+
+    private static long retained(Function<Long, Object> factory) {
+        List<Object> held = new ArrayList<>(CONVERSATIONS);
+        long before = usedAfterGc();
+        for (long seed = 0; seed < CONVERSATIONS; seed++) {
+            held.add(factory.apply(seed));
+        }
+        long after = usedAfterGc();
+        if (held.size() != CONVERSATIONS) {
+            throw new IllegalStateException();
+        }
+        return (after - before) / CONVERSATIONS;
+    }
+
+    private static long usedAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,94 @@
+package cn.apmen.jsagent.framework.storage;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.token.TokenCounter;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 一个写入者、多个读取者：MessageLog只读视图与synchronizedList整表复制（改造前的读取方式）对比
+ * 读取者每次取全部历史与最近20条（不解码内容，解码开销见CompactStorageBenchmarkTest）；写入者以约每秒2万条的速度追加，记录追加的最大耗时
+ * 运行：mvn -Pbenchmark test -pl js-agent-framework -Dtest=MessageLogContentionBenchmarkTest
+ */
+@Tag("benchmark")
+class MessageLogContentionBenchmarkTest {
+
+    private static final int INITIAL_MESSAGES = 1000;
+    private static final long DURATION_MILLIS = 3000;
+
+    @Test
+    void manyReadersOneWriter() throws InterruptedException {
+        List<Message> messages = SampleConversations.searchAgent(3, INITIAL_MESSAGES * 4);
+        for (int readers : new int[]{1, 4, 16}) {
+            List<Message> list = Collections.synchronizedList(new ArrayList<>(messages.subList(0, INITIAL_MESSAGES)));
+            run("synchronizedList+copy", readers, messages, list::add, () -> {
+                List<Message> all;
+                List<Message> recent;
+                synchronized (list) {
+                    all = new ArrayList<>(list);
+                    recent = new ArrayList<>(list.subList(Math.max(0, list.size() - 20), list.size()));
+                }
+                return all.size() + recent.size();
+            });
+
+            MessageLog log = new MessageLog(TokenCounter.heuristic());
+            log.appendAll(messages.subList(0, INITIAL_MESSAGES));
+            run("MessageLog view", readers, messages, log::append, () -> {
+                List<Message> all = log.snapshot();
+                List<Message> recent = log.recent(20);
+                return all.size() + recent.size();
+            });
+        }
+    }
+
+    private static void run(String name, int readerCount, List<Message> source, Consumer<Message> writer,
+                            Supplier<Integer> reader) throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        LongAdder reads = new LongAdder();
+        LongAdder writes = new LongAdder();
+        long[] maxAppendNanos = new long[1];
+        CountDownLatch finished = new CountDownLatch(readerCount + 1);
+        List<Thread> threads = new ArrayList<>();
+        for (int r = 0; r < readerCount; r++) {
+            threads.add(new Thread(() -> {
+                long sink = 0;
+                while (!stop.get()) {
+                    sink += reader.get();
+                    reads.increment();
+                }
+                if (sink == 42) {
+                    System.out.print("");
+                }
+                finished.countDown();
+            }));
+        }
+        threads.add(new Thread(() -> {
+            int i = INITIAL_MESSAGES;
+            while (!stop.get()) {
+                long start = System.nanoTime();
+                writer.accept(source.get(i++ % source.size()));
+                maxAppendNanos[0] = Math.max(maxAppendNanos[0], System.nanoTime() - start);
+                writes.increment();
+                LockSupport.parkNanos(50_000);
+            }
+            finished.countDown();
+        }));
+        threads.forEach(Thread::start);
+        Thread.sleep(DURATION_MILLIS);
+        stop.set(true);
+        finished.await();
+        double seconds = DURATION_MILLIS / 1000.0;
+        System.out.printf("%-22s readers=%2d  reads %,12.0f/s  appends %,9.0f/s  max append %.2fms%n",
+                name, readerCount, reads.sum() / seconds, writes.sum() / seconds, maxAppendNanos[0] / 1e6);
+    }
+}
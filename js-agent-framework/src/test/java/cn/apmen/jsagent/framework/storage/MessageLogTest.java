@@ -0,0 +1,159 @@
+package cn.apmen.jsagent.framework.storage;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.token.TokenCounter;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageLogTest {
+
+    // 每条消息固定计为10个token
+    private static final TokenCounter TEN_TOKENS = text -> 10;
+
+    private static Message message(int i) {
+        return new Message("user", String.valueOf(i));
+    }
+
+    @Test
+    void viewsAreBoundedByPublishedSize() {
+        MessageLog log = new MessageLog(TEN_TOKENS);
+        for (int i = 0; i < 100; i++) {
+            log.append(message(i));
+        }
+        List<Message> snapshot = log.snapshot();
+
+        for (int i = 100; i < 300; i++) {
+            log.append(message(i));
+        }
+
+        assertThat(snapshot).hasSize(100);
+        assertThat(snapshot.get(99).getContent()).isEqualTo("99");
+        assertThat(log.snapshot()).hasSize(300);
+        assertThat(log.recent(3)).extracting(Message::getContent).containsExactly("297", "298", "299");
+        assertThat(log.snapshot().subList(64, 66)).extracting(Message::getContent).containsExactly("64", "65");
+    }
+
+    @Test
+    void contextWindowUsesTokenPrefixSums() {
+        MessageLog log = new MessageLog(TEN_TOKENS);
+        List<Message> batch = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            batch.add(message(i));
+        }
+        log.appendAll(batch);
+
+        int perMessage = TEN_TOKENS.countMessageTokens(message(0));
+        assertThat(log.totalTokens()).isEqualTo(50L * perMessage);
+        assertThat(log.contextWindow(3L * perMessage)).extracting(Message::getContent).containsExactly("47", "48", "49");
+        assertThat(log.windowStart(3L * perMessage + perMessage - 1)).isEqualTo(47);
+        assertThat(log.contextWindow(0)).isEmpty();
+        assertThat(log.contextWindow(Long.MAX_VALUE)).hasSize(50);
+    }
+
+    @Test
+    void replacePrefixFailsAfterConcurrentRebuild() {
+        MessageLog log = new MessageLog(TEN_TOKENS);
+        for (int i = 0; i < 10; i++) {
+            log.append(message(i));
+        }
+        long generation = log.generation();
+        log.retainRecent(5);
+
+        assertThat(log.replacePrefix(generation, 3, List.of(new Message("system", "summary")))).isFalse();
+        assertThat(log.replacePrefix(log.generation(), 3, List.of(new Message("system", "summary")))).isTrue();
+        assertThat(log.snapshot()).extracting(Message::getContent).containsExactly("summary", "8", "9");
+    }
+
+    @Test
+    void readersAlwaysSeeAContiguousPrefixWhileOneWriterAppends() {
+        MessageLog log = new MessageLog(TEN_TOKENS);
+        int total = 20_000;
+        AtomicBoolean done = new AtomicBoolean();
+        List<CompletableFuture<Integer>> readers = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            readers.add(CompletableFuture.supplyAsync(() -> {
+                int checks = 0;
+                while (!done.get()) {
+                    List<Message> snapshot = log.snapshot();
+                    int size = snapshot.size();
+                    if (size > 0) {
+                        // 视图内每一条都已发布且位置正确
+                        assertThat(snapshot.get(size - 1).getContent()).isEqualTo(String.valueOf(size - 1));
+                        assertThat(snapshot.get(size / 2).getContent()).isEqualTo(String.valueOf(size / 2));
+                        assertThat(log.totalTokens()).isGreaterThanOrEqualTo(size * 10L);
+                    }
+                    checks++;
+                }
+                return checks;
+            }));
+        }
+        for (int i = 0; i < total; i++) {
+            log.append(message(i));
+        }
+        done.set(true);
+
+        assertThat(readers).allSatisfy(reader -> assertThat(reader.join()).isPositive());
+        assertThat(log.size()).isEqualTo(total);
+    }
+
+    @Test
+    void sealedChunksDecodeConsistentlyAcrossRebuilds() {
+        MessageLog log = new MessageLog(TEN_TOKENS, 0, 0);
+        for (int i = 0; i < 640; i++) {
+            log.append(new Message("user", "message number " + i + " with some repeated filler text"));
+        }
+        List<Message> before = log.snapshot();
+        // 交替访问不同块，覆盖解压缓存槽位冲突
+        for (int i = 0; i < 640; i += 67) {
+            assertThat(before.get(i).getContent()).startsWith("message number " + i + " ");
+        }
+
+        log.retainRecent(300);
+        List<Message> after = log.snapshot();
+        assertThat(after.get(0).getContent()).startsWith("message number 340 ");
+        assertThat(after.get(299).getContent()).startsWith("message number 639 ");
+        // 重建前的视图仍然读取旧块
+        assertThat(before.get(5).getContent()).startsWith("message number 5 ");
+    }
+
+    @Test
+    void coldMessagesAreDecodedOnceWithTheirTokenCounts() {
+        AtomicInteger counted = new AtomicInteger();
+        TokenCounter counter = text -> {
+            counted.incrementAndGet();
+            return 10;
+        };
+        MessageLog log = new MessageLog(counter, 0, 0);
+        for (int i = 0; i < 130; i++) {
+            log.append(message(i));
+        }
+        long total = log.totalTokens();
+
+        // 前两块已合并压缩，最后两条为单条紧凑形式
+        Message sealed = log.snapshot().get(40);
+        Message compact = log.snapshot().get(129);
+        assertThat(log.contextWindow(Long.MAX_VALUE).get(40)).isSameAs(sealed);
+        assertThat(log.recent(1).get(0)).isSameAs(compact);
+
+        counted.set(0);
+        long recounted = 0;
+        for (Message message : log.snapshot()) {
+            recounted += counter.countMessageTokens(message);
+        }
+        assertThat(recounted).isEqualTo(total);
+        assertThat(counted).hasValue(0);
+
+        // 重建后换了新块，读取到内容相同的新实例
+        log.retainRecent(100);
+        Message carried = log.snapshot().get(10);
+        assertThat(carried).isNotSameAs(sealed);
+        assertThat(carried.getContent()).isEqualTo("40");
+    }
+}
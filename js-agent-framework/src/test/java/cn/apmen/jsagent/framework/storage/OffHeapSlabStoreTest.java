@@ -0,0 +1,56 @@
+package cn.apmen.jsagent.framework.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OffHeapSlabStoreTest {
+
+    @Test
+    void allocatesDistinctBlocksUntilFullAndReusesFreedOnes() {
+        // 两页，每页16个256字节的块
+        OffHeapSlabStore store = new OffHeapSlabStore(8 * 1024, 4 * 1024);
+        Set<Long> handles = new HashSet<>();
+        for (int i = 0; i < 32; i++) {
+            long handle = store.allocate(200);
+            assertThat(handle).isNotNegative();
+            store.buffer(handle).putInt(0, i);
+            handles.add(handle);
+        }
+        assertThat(handles).hasSize(32);
+        assertThat(store.allocate(200)).isEqualTo(-1);
+
+        long freed = handles.iterator().next();
+        store.free(freed);
+        assertThat(store.allocate(200)).isEqualTo(freed);
+        assertThat(store.usedBytes()).isEqualTo(32 * 256);
+    }
+
+    @Test
+    void emptySlabReturnsToPoolForAnotherSizeClass() {
+        OffHeapSlabStore store = new OffHeapSlabStore(4 * 1024, 4 * 1024);
+        List<Long> small = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            small.add(store.allocate(32));
+        }
+        assertThat(store.allocate(1000)).isEqualTo(-1);
+
+        assertThat(store.isLastInSlab(small.get(0))).isFalse();
+        for (int i = 0; i < 63; i++) {
+            store.free(small.get(i));
+        }
+        assertThat(store.isLastInSlab(small.get(63))).isTrue();
+        store.free(small.get(63));
+        assertThat(store.reservedBytes()).isZero();
+
+        long large = store.allocate(1000);
+        assertThat(large).isNotNegative();
+        assertThat(store.sizeClassOf(large)).isEqualTo(store.sizeClassFor(1000));
+        assertThat(store.buffer(large).remaining()).isEqualTo(1000);
+    }
+}
@@ -0,0 +1,89 @@
+package cn.apmen.jsagent.framework.storage;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.FunctionCall;
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * 测试用的搜索型Agent会话：每轮为用户提问、带工具调用的assistant、搜索结果（JSON）和回答
+ */
+final class SampleConversations {
+
+    private static final String[] WORDS = ("the of and to in is for that on with as by this are from at be or an it "
+        + "agent model tool search result query data memory service conversation context token message system user "
+        + "response request latency throughput cache index vector storage cluster node session stream reactor thread "
+        + "java spring server client network error timeout retry policy budget window summary history snapshot "
+        + "performance benchmark heap garbage collector allocation compression encoding decode parse json schema "
+        + "weather city price market report analysis release version update feature support guide example document "
+        + "how what when where why which new best more most first last open source cloud deploy config runtime").split(" ");
+
+    private static final String[] CHINESE = {"智能体", "搜索", "结果", "会话", "记忆", "工具", "模型", "延迟", "缓存", "天气",
+        "城市", "价格", "报告", "分析", "版本", "更新", "部署", "配置", "性能", "压缩"};
+
+    private SampleConversations() {
+    }
+
+    /**
+     * 生成messageCount条消息的会话，同一seed生成的内容相同
+     */
+    static List<Message> searchAgent(long seed, int messageCount) {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<Message> messages = new ArrayList<>(messageCount);
+        for (int turn = 0; messages.size() < messageCount; turn++) {
+            String question = random.nextInt(5) == 0 ? chinese(random, 8 + random.nextInt(20)) : words(random, 8 + random.nextInt(16)) + "?";
+            messages.add(new Message("user", question));
+
+            String callId = "call_" + Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+            Message call = new Message("assistant", null);
+            ToolCall toolCall = new ToolCall();
+            toolCall.setId(callId);
+            toolCall.setType("function");
+            FunctionCall function = new FunctionCall();
+            function.setName("web_search");
+            function.setArguments("{\"query\":\"" + words(random, 3 + random.nextInt(5)) + "\",\"limit\":5}");
+            toolCall.setFunction(function);
+            call.setToolCalls(List.of(toolCall));
+            messages.add(call);
+
+            StringBuilder results = new StringBuilder("{\"results\":[");
+            for (int i = 0; i < 5; i++) {
+                if (i > 0) {
+                    results.append(',');
+                }
+                results.append("{\"title\":\"").append(words(random, 4 + random.nextInt(6)))
+                    .append("\",\"url\":\"https://www.site").append(random.nextInt(200)).append(".com/")
+                    .append(WORDS[random.nextInt(WORDS.length)]).append('/').append(turn * 10 + i)
+                    .append("\",\"snippet\":\"").append(words(random, 25 + random.nextInt(30))).append("\"}");
+            }
+            messages.add(new Message("tool", results.append("]}").toString(), callId));
+
+            messages.add(new Message("assistant", words(random, 60 + random.nextInt(120))));
+        }
+        return new ArrayList<>(messages.subList(0, messageCount));
+    }
+
+    private static String words(SplittableRandom random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            // 偏向高频词，接近自然文本的分布
+            int index = (int) (WORDS.length * Math.pow(random.nextDouble(), 2));
+            text.append(WORDS[index]);
+        }
+        return text.toString();
+    }
+
+    private static String chinese(SplittableRandom random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(CHINESE[random.nextInt(CHINESE.length)]);
+        }
+        return text.append('？').toString();
+    }
+}
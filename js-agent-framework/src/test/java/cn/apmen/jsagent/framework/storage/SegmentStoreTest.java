@@ -0,0 +1,122 @@
+package cn.apmen.jsagent.framework.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SegmentStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void tornTailIsTruncatedOnRecovery() throws IOException {
+        try (SegmentStore store = open(64 * 1024)) {
+            store.append("a", bytes("first")).join();
+            store.append("a", bytes("second")).join();
+        }
+
+        // 破坏最后一条记录的载荷，模拟写入一半时崩溃
+        int firstRecord = 23 + 1 + "first".length();
+        int lastPayload = 8 + firstRecord + 23 + 1;
+        try (Stream<Path> files = Files.list(directory);
+             RandomAccessFile file = new RandomAccessFile(files.findFirst().orElseThrow().toFile(), "rw")) {
+            file.seek(lastPayload);
+            file.write('X');
+        }
+
+        try (SegmentStore store = open(64 * 1024)) {
+            assertThat(store.getStatistics()).containsEntry("truncatedTails", 1L);
+            assertThat(strings(store.read("a"))).containsExactly("first");
+
+            // 截断后的位置可以继续写入
+            store.append("a", bytes("third")).join();
+        }
+        try (SegmentStore store = open(64 * 1024)) {
+            assertThat(store.getStatistics()).containsEntry("truncatedTails", 0L);
+            assertThat(strings(store.read("a"))).containsExactly("first", "third");
+        }
+    }
+
+    @Test
+    void compactionRelocatesLiveKeysAndReclaimsGarbageSegments() {
+        try (SegmentStore store = open(4096)) {
+            store.append("live", bytes("keep")).join();
+            store.putMetadata("live", bytes("meta")).join();
+            String filler = "x".repeat(100);
+            for (int i = 0; i < 200; i++) {
+                store.append("garbage", bytes(filler + i)).join();
+            }
+            int segmentsBefore = (int) store.getStatistics().get("segments");
+            assertThat(segmentsBefore).isGreaterThan(5);
+
+            store.delete("garbage").join();
+            assertThat(store.compact()).isEqualTo(segmentsBefore - 1);
+            assertThat((int) store.getStatistics().get("segments")).isLessThan(segmentsBefore);
+            assertThat((long) store.getStatistics().get("bytesReclaimed")).isPositive();
+            assertThat(strings(store.read("live"))).containsExactly("keep");
+            assertThat(string(store.readMetadata("live"))).isEqualTo("meta");
+        }
+        try (SegmentStore store = open(4096)) {
+            assertThat(strings(store.read("live"))).containsExactly("keep");
+            assertThat(string(store.readMetadata("live"))).isEqualTo("meta");
+            assertThat(store.contains("garbage")).isFalse();
+        }
+    }
+
+    @Test
+    void putMetadataIfAbsentWritesOnceUnderConcurrency() {
+        try (SegmentStore store = open(64 * 1024)) {
+            AtomicInteger created = new AtomicInteger();
+            List<CompletableFuture<Void>> writers = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                writers.add(CompletableFuture.runAsync(() -> store.putMetadataIfAbsent("c1", () -> {
+                    created.incrementAndGet();
+                    return bytes("created");
+                }).join()));
+            }
+            writers.forEach(CompletableFuture::join);
+
+            assertThat(created.get()).isEqualTo(1);
+            assertThat(store.getStatistics()).containsEntry("recordsWritten", 1L);
+
+            // 已有元数据时不覆盖
+            store.putMetadataIfAbsent("c1", () -> bytes("ignored")).join();
+            assertThat(string(store.readMetadata("c1"))).isEqualTo("created");
+        }
+    }
+
+    private SegmentStore open(int segmentSize) {
+        return new SegmentStore(SegmentStoreConfig.builder()
+                .directory(directory)
+                .segmentSize(segmentSize)
+                .compactionInterval(Duration.ZERO)
+                .build());
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(ByteBuffer payload) {
+        return StandardCharsets.UTF_8.decode(payload.duplicate()).toString();
+    }
+
+    private static List<String> strings(List<ByteBuffer> payloads) {
+        return payloads.stream().map(SegmentStoreTest::string).toList();
+    }
+}
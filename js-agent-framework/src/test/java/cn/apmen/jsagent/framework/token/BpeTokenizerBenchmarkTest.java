@@ -0,0 +1,66 @@
+package cn.apmen.jsagent.framework.token;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+/**
+ * BPE编码吞吐（tokens/s），需要真实词表
+ * 运行：mvn -Pbenchmark test -pl js-agent-framework -Dtest=BpeTokenizerBenchmarkTest -Djs-agent.tokenizer.vocabulary-dir=/path/to/vocab
+ */
+@Tag("benchmark")
+class BpeTokenizerBenchmarkTest {
+
+    private static final int ROUNDS = 20;
+
+    @Test
+    void countTokensThroughput() {
+        String english = repeat("The agent calls the search tool, reads 12 results and writes a short answer. ", 2000);
+        String chinese = repeat("智能体调用搜索工具，阅读十二条结果后给出简短的回答。", 2000);
+        String mixed = randomMixed(200_000);
+
+        for (BpeEncoding encoding : BpeEncoding.values()) {
+            BpeTokenizer tokenizer = BpeTokenizerTest.realTokenizer(encoding);
+            report(tokenizer, "english", english);
+            report(tokenizer, "chinese", chinese);
+            report(tokenizer, "mixed", mixed);
+        }
+    }
+
+    private static void report(BpeTokenizer tokenizer, String name, String text) {
+        int tokens = tokenizer.countTokens(text);
+        for (int i = 0; i < 3; i++) {
+            tokenizer.countTokens(text);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            tokenizer.countTokens(text);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%s %-8s %8d chars %7d tokens  %,.0f tokens/s%n",
+                tokenizer.getEncoding().getEncodingName(), name, text.length(), tokens, tokens * ROUNDS / seconds);
+    }
+
+    private static String repeat(String text, int times) {
+        return text.repeat(times);
+    }
+
+    private static String randomMixed(int length) {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            int kind = random.nextInt(10);
+            if (kind < 3) {
+                text.appendCodePoint(0x4E00 + random.nextInt(3000));
+            } else if (kind < 4) {
+                text.append(' ');
+            } else if (kind < 5) {
+                text.append(random.nextInt(10));
+            } else {
+                text.append((char) ('a' + random.nextInt(26)));
+            }
+        }
+        return text.toString();
+    }
+}
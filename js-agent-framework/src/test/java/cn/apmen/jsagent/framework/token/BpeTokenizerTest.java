@@ -0,0 +1,109 @@
+package cn.apmen.jsagent.framework.token;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class BpeTokenizerTest {
+
+    /**
+     * 真实词表目录（包含cl100k_base.tiktoken / o200k_base.tiktoken），未配置时跳过对应用例
+     */
+    static final String VOCABULARY_DIR_PROPERTY = "js-agent.tokenizer.vocabulary-dir";
+
+    /**
+     * 256个单字节token + he / ll / hell / hello 四次合并
+     */
+    private static BpeTokenizer syntheticTokenizer() throws IOException {
+        StringBuilder vocabulary = new StringBuilder();
+        for (int b = 0; b < 256; b++) {
+            vocabulary.append(Base64.getEncoder().encodeToString(new byte[]{(byte) b})).append(' ').append(b).append('\n');
+        }
+        String[] merges = {"he", "ll", "hell", "hello"};
+        for (int i = 0; i < merges.length; i++) {
+            vocabulary.append(Base64.getEncoder().encodeToString(merges[i].getBytes(StandardCharsets.UTF_8)))
+                    .append(' ').append(256 + i).append('\n');
+        }
+        return BpeTokenizer.load(BpeEncoding.CL100K_BASE,
+                new ByteArrayInputStream(vocabulary.toString().getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    static BpeTokenizer realTokenizer(BpeEncoding encoding) {
+        String directory = System.getProperty(VOCABULARY_DIR_PROPERTY);
+        assumeTrue(directory != null, "set -D" + VOCABULARY_DIR_PROPERTY + " to run against real vocabularies");
+        Path vocabulary = Path.of(directory, encoding.getEncodingName() + ".tiktoken");
+        assumeTrue(Files.isRegularFile(vocabulary), vocabulary + " not found");
+        return BpeTokenizer.load(encoding, vocabulary);
+    }
+
+    @Test
+    void appliesMergesByRank() throws IOException {
+        BpeTokenizer tokenizer = syntheticTokenizer();
+
+        assertThat(tokenizer.encode("hello")).containsExactly(259);
+        assertThat(tokenizer.encode("hello hello")).containsExactly(259, ' ', 259);
+        assertThat(tokenizer.encode("help")).containsExactly(256, 'l', 'p');
+        assertThat(tokenizer.countTokens("hello hello")).isEqualTo(3);
+    }
+
+    @Test
+    void roundTripsMultiByteText() throws IOException {
+        BpeTokenizer tokenizer = syntheticTokenizer();
+        String text = "你好，世界 😀 hello\n\tünïcödé  ";
+
+        int[] tokens = tokenizer.encode(text);
+
+        assertThat(tokenizer.decode(tokens)).isEqualTo(text);
+        assertThat(tokenizer.countTokens(text)).isEqualTo(tokens.length);
+        // 没有合并的多字节字符按UTF-8字节计数
+        assertThat(tokenizer.countTokens("你好")).isEqualTo(6);
+    }
+
+    @Test
+    void matchesCl100kReferenceTokens() {
+        BpeTokenizer tokenizer = realTokenizer(BpeEncoding.CL100K_BASE);
+
+        assertThat(tokenizer.encode("hello world")).containsExactly(15339, 1917);
+        assertThat(tokenizer.encode("你好，世界")).containsExactly(57668, 53901, 3922, 3574, 244, 98220);
+    }
+
+    @Test
+    void matchesO200kReferenceTokens() {
+        BpeTokenizer tokenizer = realTokenizer(BpeEncoding.O200K_BASE);
+
+        assertThat(tokenizer.encode("hello world")).containsExactly(24912, 2375);
+        assertThat(tokenizer.encode("你好，世界")).containsExactly(177519, 979, 28428);
+    }
+
+    @Test
+    void messageTokenCountIsCachedPerCounterAndInvalidatedOnChange() throws IOException {
+        BpeTokenizer tokenizer = syntheticTokenizer();
+        Message message = new Message("user", "hello");
+
+        int tokens = tokenizer.countMessageTokens(message);
+        assertThat(message.getCachedTokenCount(tokenizer)).isEqualTo(tokens);
+        assertThat(message.getCachedTokenCount(TokenCounter.heuristic())).isEqualTo(-1);
+
+        message.setContent("hello hello");
+        assertThat(message.getCachedTokenCount(tokenizer)).isEqualTo(-1);
+        assertThat(tokenizer.countMessageTokens(message)).isEqualTo(tokens + 2);
+    }
+
+    @Test
+    void heuristicCountsCjkPerCharacter() {
+        TokenCounter heuristic = TokenCounter.heuristic();
+
+        assertThat(heuristic.countTokens("你好世界")).isEqualTo(4);
+        assertThat(heuristic.countTokens("abcdefgh")).isEqualTo(2);
+        assertThat(heuristic.countTokens("")).isZero();
+    }
+}
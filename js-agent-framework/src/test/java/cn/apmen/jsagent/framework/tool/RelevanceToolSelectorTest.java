@@ -0,0 +1,74 @@
+package cn.apmen.jsagent.framework.tool;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Function;
+import cn.apmen.jsagent.framework.openaiunified.model.request.Tool;
+import cn.apmen.jsagent.framework.vector.Embedder;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RelevanceToolSelectorTest {
+
+    private static final ToolSelectorConfig CONFIG = ToolSelectorConfig.builder().topK(2).minToolCount(2).build();
+
+    private static List<Tool> tools() {
+        List<Tool> tools = new ArrayList<>();
+        tools.add(tool("get_weather", "查询城市天气 weather forecast"));
+        tools.add(tool("calculator", "数学计算 math expression"));
+        tools.add(tool("search_web", "搜索网页 web search"));
+        tools.add(tool("send_email", "发送邮件 email"));
+        tools.add(tool("terminate", "结束任务"));
+        return tools;
+    }
+
+    private static Tool tool(String name, String description) {
+        return new Tool("function", new Function(name, description, Map.of()));
+    }
+
+    private static Set<String> names(List<Tool> tools) {
+        return tools.stream().map(tool -> tool.getFunction().getName()).collect(Collectors.toSet());
+    }
+
+    @Test
+    void selectsRelevantToolsAndKeepsPinned() {
+        RelevanceToolSelector selector = new RelevanceToolSelector(CONFIG);
+        ToolSelectionContext context = ToolSelectionContext.of("what is the weather forecast").toBuilder()
+                .pinnedTools(Set.of("terminate"))
+                .build();
+
+        List<Tool> selected = selector.selectAsync(tools(), context).block();
+
+        assertThat(names(selected)).contains("get_weather", "terminate").doesNotContain("send_email");
+    }
+
+    @Test
+    void embeddingRunsOffTheCallingThread() {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        Embedder hashing = Embedder.featureHashing(64);
+        Embedder recording = new Embedder() {
+            @Override
+            public int dimension() {
+                return hashing.dimension();
+            }
+
+            @Override
+            public float[] embed(String text) {
+                threads.add(Thread.currentThread().getName());
+                return hashing.embed(text);
+            }
+        };
+        RelevanceToolSelector selector = new RelevanceToolSelector(CONFIG, recording, null);
+
+        List<Tool> selected = selector.selectAsync(tools(), ToolSelectionContext.of("weather forecast")).block();
+
+        assertThat(names(selected)).contains("get_weather");
+        assertThat(threads).isNotEmpty().allMatch(name -> name.startsWith("boundedElastic"));
+    }
+}
@@ -0,0 +1,103 @@
+package cn.apmen.jsagent.framework.tool;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ToolBulkheadsTest {
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> bulkheadStats(ToolBulkheads bulkheads, String key) {
+        return (Map<String, Object>) ((Map<String, Object>) bulkheads.getStatistics().get("bulkheads")).get(key);
+    }
+
+    private static Disposable subscribe(Mono<ToolResult> call, AtomicReference<ToolResult> result) {
+        return call.subscribe(result::set);
+    }
+
+    @Test
+    void callsBeyondQueueAreRejected() {
+        ToolBulkheads bulkheads = new ToolBulkheads();
+        ToolBulkheadPolicy policy = ToolBulkheadPolicy.of(1, 1, null);
+        Sinks.One<ToolResult> running = Sinks.one();
+        AtomicReference<ToolResult> first = new AtomicReference<>();
+        AtomicReference<ToolResult> second = new AtomicReference<>();
+
+        subscribe(bulkheads.execute("search", "c1", policy, running::asMono), first);
+        subscribe(bulkheads.execute("search", "c2", policy, () -> Mono.just(ToolResult.success("c2", "queued"))), second);
+        ToolResult rejected = bulkheads.execute("search", "c3", policy,
+                () -> Mono.just(ToolResult.success("c3", "never"))).block();
+
+        assertThat(rejected.isSuccess()).isFalse();
+        assertThat(rejected.getError()).contains("overloaded");
+        assertThat(bulkheadStats(bulkheads, "search")).containsEntry("active", 1).containsEntry("queued", 1)
+                .containsEntry("rejected", 1L);
+
+        // 运行中的调用结束后排队的调用接着执行
+        running.tryEmitValue(ToolResult.success("c1", "done"));
+        assertThat(first.get().getContent()).isEqualTo("done");
+        assertThat(second.get().getContent()).isEqualTo("queued");
+        assertThat(bulkheadStats(bulkheads, "search")).containsEntry("active", 0).containsEntry("queued", 0);
+    }
+
+    @Test
+    void queuedCallTimesOutWithoutRunning() {
+        ToolBulkheads bulkheads = new ToolBulkheads();
+        ToolBulkheadPolicy holder = ToolBulkheadPolicy.shared("mcp:server", 1, 4, null);
+        ToolBulkheadPolicy waiting = ToolBulkheadPolicy.shared("mcp:server", 1, 4, Duration.ofMillis(50));
+        AtomicBoolean invoked = new AtomicBoolean();
+
+        Disposable running = bulkheads.execute("fetch", "c1", holder, Mono::never).subscribe();
+        ToolResult timedOut = bulkheads.execute("query", "c2", waiting, () -> {
+            invoked.set(true);
+            return Mono.just(ToolResult.success("c2", "ok"));
+        }).block();
+
+        assertThat(timedOut.getError()).contains("timed out after 50ms");
+        assertThat(invoked).isFalse();
+        assertThat(bulkheadStats(bulkheads, "mcp:server")).containsEntry("active", 1).containsEntry("queued", 0);
+        running.dispose();
+    }
+
+    @Test
+    void cancellingRunningCallReleasesPermit() {
+        ToolBulkheads bulkheads = new ToolBulkheads();
+        ToolBulkheadPolicy policy = ToolBulkheadPolicy.of(1, 0, null);
+        AtomicBoolean cancelled = new AtomicBoolean();
+
+        Disposable running = bulkheads.execute("search", "c1", policy,
+                () -> Mono.<ToolResult>never().doOnCancel(() -> cancelled.set(true))).subscribe();
+        assertThat(bulkheadStats(bulkheads, "search")).containsEntry("active", 1);
+        running.dispose();
+
+        assertThat(cancelled).isTrue();
+        assertThat(bulkheadStats(bulkheads, "search")).containsEntry("active", 0);
+        assertThat(bulkheads.execute("search", "c2", policy, () -> Mono.just(ToolResult.success("c2", "ok")))
+                .block().isSuccess()).isTrue();
+    }
+
+    @Test
+    void toolWithDifferentCapacityDoesNotResizeTheGroup() {
+        ToolBulkheads bulkheads = new ToolBulkheads();
+        ToolBulkheadPolicy narrow = ToolBulkheadPolicy.shared("mcp:server", 1, 0, null);
+        ToolBulkheadPolicy wide = ToolBulkheadPolicy.shared("mcp:server", 4, 8, null);
+
+        bulkheads.execute("fetch", "c1", narrow, () -> Mono.just(ToolResult.success("c1", "ok"))).block();
+        bulkheads.execute("report", "c2", wide, () -> Mono.just(ToolResult.success("c2", "ok"))).block();
+        bulkheads.execute("fetch", "c3", narrow, () -> Mono.just(ToolResult.success("c3", "ok"))).block();
+
+        assertThat(bulkheadStats(bulkheads, "mcp:server")).containsEntry("maxConcurrency", 1)
+                .containsEntry("maxQueueSize", 0);
+        assertThat(bulkheadStats(bulkheads, "mcp:server/report")).containsEntry("maxConcurrency", 4)
+                .containsEntry("maxQueueSize", 8);
+        assertThat(bulkheadStats(bulkheads, "mcp:server/fetch")).isNull();
+    }
+}
@@ -0,0 +1,76 @@
+package cn.apmen.jsagent.framework.tool;
+
+import cn.apmen.jsagent.framework.exception.ErrorCode;
+import org.assertj.core.api.InstanceOfAssertFactories;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ToolCircuitBreakersTest {
+
+    private static ToolCircuitBreakerPolicy.ToolCircuitBreakerPolicyBuilder policy() {
+        return ToolCircuitBreakerPolicy.builder()
+                .slidingWindowSize(4)
+                .minimumCalls(2)
+                .failureRateThreshold(0.5)
+                .openDuration(Duration.ofMinutes(1));
+    }
+
+    private static ToolResult call(ToolCircuitBreakers breakers, String toolName, ToolCircuitBreakerPolicy policy,
+                                   Supplier<ToolResult> result) {
+        return breakers.execute(toolName, "call", policy, invoker -> invoker.get(), () -> Mono.fromSupplier(result)).block();
+    }
+
+    @Test
+    void failuresOpenTheBreaker() {
+        ToolCircuitBreakers breakers = new ToolCircuitBreakers();
+        ToolCircuitBreakerPolicy policy = policy().build();
+        call(breakers, "search", policy, () -> ToolResult.error("call", "connection refused"));
+        call(breakers, "search", policy, () -> ToolResult.error("call", "connection refused"));
+
+        assertThat(breakers.getState("search")).isEqualTo(ToolCircuitBreakers.State.OPEN);
+        assertThat(call(breakers, "search", policy, () -> ToolResult.success("call", "ok")).getError())
+                .contains("circuit_open");
+    }
+
+    @Test
+    void invalidArgumentsDoNotCountAsFailures() {
+        ToolCircuitBreakers breakers = new ToolCircuitBreakers();
+        ToolCircuitBreakerPolicy policy = policy().build();
+        for (int i = 0; i < 10; i++) {
+            ToolResult result = call(breakers, "search", policy,
+                    () -> ToolResult.error("call", ErrorCode.TOOL_INVALID_ARGUMENTS, "Invalid arguments: query"));
+            assertThat(result.isCallerError()).isTrue();
+        }
+
+        assertThat(breakers.getState("search")).isEqualTo(ToolCircuitBreakers.State.CLOSED);
+        assertThat(breakers.getStatistics()).extractingByKey("search")
+                .asInstanceOf(InstanceOfAssertFactories.MAP)
+                .containsEntry("bufferedCalls", 0);
+    }
+
+    @Test
+    void toolWithDifferentPolicyDoesNotInheritTheGroupPolicy() {
+        ToolCircuitBreakers breakers = new ToolCircuitBreakers();
+        ToolCircuitBreakerPolicy strict = policy().breakerKey("mcp:server").build();
+        ToolCircuitBreakerPolicy lenient = policy().breakerKey("mcp:server").minimumCalls(4).failureRateThreshold(1.0).build();
+
+        call(breakers, "fetch", strict, () -> ToolResult.success("call", "ok"));
+        call(breakers, "slow_report", lenient, () -> ToolResult.error("call", "upstream 500"));
+        call(breakers, "slow_report", lenient, () -> ToolResult.success("call", "ok"));
+
+        // 按自己的策略：4次调用内失败率未达100%，不打开；沿用strict策略时此处已打开
+        assertThat(breakers.getState("mcp:server/slow_report")).isEqualTo(ToolCircuitBreakers.State.CLOSED);
+        assertThat(breakers.getState("mcp:server")).isEqualTo(ToolCircuitBreakers.State.CLOSED);
+
+        // 同策略的工具共享分组熔断器
+        call(breakers, "query", strict, () -> ToolResult.error("call", "connection refused"));
+        call(breakers, "fetch", strict, () -> ToolResult.error("call", "connection refused"));
+        assertThat(breakers.getState("mcp:server")).isEqualTo(ToolCircuitBreakers.State.OPEN);
+        assertThat(breakers.getState("mcp:server/query")).isNull();
+    }
+}
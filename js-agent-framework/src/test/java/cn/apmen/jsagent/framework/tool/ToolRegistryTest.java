@@ -0,0 +1,83 @@
+package cn.apmen.jsagent.framework.tool;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.FunctionCall;
+import cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ToolRegistryTest {
+
+    private static ToolExecutor tool(String name, Function<ToolCall, Mono<ToolResult>> behavior) {
+        return new ToolExecutor() {
+            @Override
+            public Mono<ToolResult> execute(ToolCall toolCall, ToolContext context) {
+                return behavior.apply(toolCall);
+            }
+
+            @Override
+            public String getToolName() {
+                return name;
+            }
+
+            @Override
+            public String getDescription() {
+                return name;
+            }
+
+            @Override
+            public Map<String, Object> getParametersDefinition() {
+                return Map.of();
+            }
+
+            @Override
+            public String[] getRequiredParameters() {
+                return new String[0];
+            }
+        };
+    }
+
+    private static ToolCall call(String id, String toolName) {
+        ToolCall toolCall = new ToolCall();
+        toolCall.setId(id);
+        toolCall.setType("function");
+        FunctionCall function = new FunctionCall();
+        function.setName(toolName);
+        function.setArguments("{}");
+        toolCall.setFunction(function);
+        return toolCall;
+    }
+
+    @Test
+    void stragglersAreCancelledAndResultsKeepCallOrder() {
+        ToolRegistry registry = new ToolRegistry();
+        registry.setDefaultBulkheadPolicy(ToolBulkheadPolicy.of(1, 0, null));
+        registry.setStragglerDeadline(Duration.ofMillis(200));
+        AtomicBoolean cancelled = new AtomicBoolean();
+        registry.registerExecutor(tool("slow", toolCall ->
+                Mono.<ToolResult>never().doOnCancel(() -> cancelled.set(true))));
+        registry.registerExecutor(tool("fast", toolCall -> Mono.just(ToolResult.success(toolCall.getId(), "fast"))));
+        registry.registerExecutor(tool("medium", toolCall -> Mono.just(ToolResult.success(toolCall.getId(), "medium"))
+                .delayElement(Duration.ofMillis(20))));
+
+        List<ToolResult> results = registry.executeAll(
+                List.of(call("c1", "slow"), call("c2", "fast"), call("c3", "medium")), null).block();
+
+        assertThat(results).extracting(ToolResult::getToolCallId).containsExactly("c1", "c2", "c3");
+        assertThat(results.get(0).isSuccess()).isFalse();
+        assertThat(results.get(0).getError()).contains("did not finish within 200ms");
+        assertThat(results.subList(1, 3)).extracting(ToolResult::getContent).containsExactly("fast", "medium");
+
+        // 被放弃的调用已取消并释放舱壁名额，下一轮可以再次执行
+        assertThat(cancelled).isTrue();
+        registry.registerExecutor(tool("slow", toolCall -> Mono.just(ToolResult.success(toolCall.getId(), "recovered"))));
+        assertThat(registry.execute(call("c4", "slow")).block().getContent()).isEqualTo("recovered");
+    }
+}
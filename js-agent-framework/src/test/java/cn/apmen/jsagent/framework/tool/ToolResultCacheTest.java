@@ -0,0 +1,126 @@
+package cn.apmen.jsagent.framework.tool;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.FunctionCall;
+import cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ToolResultCacheTest {
+
+    private static final ToolDefinition LOOKUP = new ToolDefinition() {
+        @Override
+        public String getToolName() {
+            return "lookup";
+        }
+
+        @Override
+        public String getDescription() {
+            return "lookup";
+        }
+
+        @Override
+        public Map<String, Object> getParametersDefinition() {
+            return Map.of();
+        }
+
+        @Override
+        public String[] getRequiredParameters() {
+            return new String[0];
+        }
+
+        @Override
+        public ToolCachePolicy getCachePolicy() {
+            return ToolCachePolicy.global(Duration.ofMinutes(1));
+        }
+    };
+
+    private static ToolCall call(String id) {
+        ToolCall toolCall = new ToolCall();
+        toolCall.setId(id);
+        toolCall.setType("function");
+        FunctionCall function = new FunctionCall();
+        function.setName("lookup");
+        function.setArguments("{\"q\":\"x\"}");
+        toolCall.setFunction(function);
+        return toolCall;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> lookupStats(ToolResultCache cache) {
+        return (Map<String, Object>) ((Map<String, Object>) cache.getStatistics().get("tools")).get("lookup");
+    }
+
+    private final AtomicInteger executions = new AtomicInteger();
+    private final AtomicInteger cancelled = new AtomicInteger();
+    private final Sinks.One<String> upstream = Sinks.one();
+
+    private final Supplier<Mono<ToolResult>> invoker = () -> {
+        executions.incrementAndGet();
+        return upstream.asMono()
+                .map(content -> ToolResult.success("leader", content))
+                .doOnCancel(cancelled::incrementAndGet);
+    };
+
+    @Test
+    void concurrentCallsShareOneExecution() {
+        ToolResultCache cache = new ToolResultCache();
+        Mono<ToolResult> first = cache.execute(LOOKUP, call("a"), null, invoker);
+        Mono<ToolResult> second = cache.execute(LOOKUP, call("b"), null, invoker);
+
+        ToolResult[] results = new ToolResult[2];
+        first.subscribe(result -> results[0] = result);
+        second.subscribe(result -> results[1] = result);
+        upstream.tryEmitValue("value");
+
+        assertThat(executions).hasValue(1);
+        assertThat(results[0].getToolCallId()).isEqualTo("a");
+        assertThat(results[1].getToolCallId()).isEqualTo("b");
+        assertThat(results[1].getContent()).isEqualTo("value");
+        assertThat(lookupStats(cache)).containsEntry("misses", 1L).containsEntry("coalesced", 1L);
+        assertThat(cache.execute(LOOKUP, call("c"), null, invoker).block().getContent()).isEqualTo("value");
+        assertThat(executions).hasValue(1);
+    }
+
+    @Test
+    void cancellingOneWaiterKeepsTheSharedExecution() {
+        ToolResultCache cache = new ToolResultCache();
+        Disposable leaving = cache.execute(LOOKUP, call("a"), null, invoker).subscribe();
+        ToolResult[] result = new ToolResult[1];
+        cache.execute(LOOKUP, call("b"), null, invoker).subscribe(value -> result[0] = value);
+
+        leaving.dispose();
+        assertThat(cancelled).hasValue(0);
+        upstream.tryEmitValue("value");
+
+        assertThat(result[0].getContent()).isEqualTo("value");
+        assertThat(executions).hasValue(1);
+    }
+
+    @Test
+    void cancellingTheLastWaiterCancelsTheExecution() {
+        ToolResultCache cache = new ToolResultCache();
+        Disposable first = cache.execute(LOOKUP, call("a"), null, invoker).subscribe();
+        Disposable second = cache.execute(LOOKUP, call("b"), null, invoker).subscribe();
+
+        first.dispose();
+        second.dispose();
+
+        assertThat(cancelled).hasValue(1);
+        assertThat(cache.getStatistics()).containsEntry("inFlight", 0);
+        assertThat(lookupStats(cache)).containsEntry("cancellations", 1L);
+
+        // 之后的调用重新执行，不会拿到被取消的结果
+        upstream.tryEmitValue("value");
+        assertThat(cache.execute(LOOKUP, call("c"), null, invoker).block().getContent()).isEqualTo("value");
+        assertThat(executions).hasValue(2);
+    }
+}
@@ -0,0 +1,63 @@
+package cn.apmen.jsagent.framework.tool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 10k并发模拟阻塞工具调用：boundedElastic平台线程池 vs 虚拟线程
+ * 运行：mvn -Pjdk21,benchmark test -pl js-agent-framework -Dtest=ToolSchedulersBenchmarkTest
+ */
+@Tag("benchmark")
+class ToolSchedulersBenchmarkTest {
+
+    private static final int CALLS = 10_000;
+    private static final Duration BLOCKING_TIME = Duration.ofMillis(50);
+
+    private final boolean enabledBefore = ToolSchedulers.isVirtualThreadsEnabled();
+
+    @AfterEach
+    void restore() {
+        ToolSchedulers.setVirtualThreadsEnabled(enabledBefore);
+    }
+
+    @Test
+    void virtualThreadsOutperformBoundedElasticForBlockingCalls() {
+        assumeTrue(ToolSchedulers.isVirtualThreadsSupported(), "requires Java 21+");
+        ToolSchedulers.setVirtualThreadsEnabled(true);
+        Scheduler virtual = ToolSchedulers.forMode(ToolExecutionMode.VIRTUAL_THREAD);
+
+        // 预热
+        run(Schedulers.boundedElastic(), 200);
+        run(virtual, 200);
+
+        long elastic = run(Schedulers.boundedElastic(), CALLS);
+        long virtualThreads = run(virtual, CALLS);
+
+        System.out.printf("%d blocking calls x %dms: boundedElastic=%dms, virtualThreads=%dms (%.1fx)%n",
+                CALLS, BLOCKING_TIME.toMillis(), elastic, virtualThreads, (double) elastic / virtualThreads);
+        assertThat(virtualThreads).isLessThan(elastic);
+    }
+
+    private static long run(Scheduler scheduler, int calls) {
+        long start = System.nanoTime();
+        Long completed = Flux.range(0, calls)
+                .flatMap(i -> Mono.fromCallable(() -> {
+                    Thread.sleep(BLOCKING_TIME.toMillis());
+                    return i;
+                }).subscribeOn(scheduler), calls)
+                .count()
+                .block();
+        assertThat(completed).isEqualTo(calls);
+        return Duration.ofNanos(System.nanoTime() - start).toMillis();
+    }
+}
@@ -0,0 +1,43 @@
+package cn.apmen.jsagent.framework.tool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class ToolSchedulersTest {
+
+    private final boolean enabledBefore = ToolSchedulers.isVirtualThreadsEnabled();
+
+    @AfterEach
+    void restore() {
+        ToolSchedulers.setVirtualThreadsEnabled(enabledBefore);
+    }
+
+    @Test
+    void boundedElasticModeIgnoresVirtualThreads() {
+        ToolSchedulers.setVirtualThreadsEnabled(true);
+        assertThat(ToolSchedulers.forMode(ToolExecutionMode.BOUNDED_ELASTIC)).isSameAs(Schedulers.boundedElastic());
+    }
+
+    @Test
+    void virtualThreadModeFallsBackWhenDisabled() {
+        ToolSchedulers.setVirtualThreadsEnabled(false);
+        assertThat(ToolSchedulers.forMode(ToolExecutionMode.VIRTUAL_THREAD)).isSameAs(Schedulers.boundedElastic());
+    }
+
+    @Test
+    void virtualThreadModeRunsOnVirtualThreads() throws Exception {
+        assumeTrue(ToolSchedulers.isVirtualThreadsSupported(), "requires Java 21+");
+        ToolSchedulers.setVirtualThreadsEnabled(true);
+
+        Thread thread = Mono.fromCallable(Thread::currentThread)
+                .subscribeOn(ToolSchedulers.forMode(ToolExecutionMode.VIRTUAL_THREAD))
+                .block();
+
+        assertThat((Boolean) Thread.class.getMethod("isVirtual").invoke(thread)).isTrue();
+    }
+}
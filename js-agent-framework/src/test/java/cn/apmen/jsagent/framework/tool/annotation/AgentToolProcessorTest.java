@@ -0,0 +1,236 @@
+package cn.apmen.jsagent.framework.tool.annotation;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.FunctionCall;
+import cn.apmen.jsagent.framework.openaiunified.model.request.ToolCall;
+import cn.apmen.jsagent.framework.tool.ToolExecutor;
+import cn.apmen.jsagent.framework.tool.ToolResult;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import reactor.core.publisher.Mono;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 用JDK编译器运行AgentToolProcessor，检查生成的Schema、参数绑定与编译诊断
+ */
+class AgentToolProcessorTest {
+
+    private static final String TOOLS = """
+            package sample;
+
+            import cn.apmen.jsagent.framework.tool.annotation.AgentToolMethod;
+            import cn.apmen.jsagent.framework.tool.annotation.ToolParam;
+
+            import java.util.List;
+
+            public class SampleTools {
+
+                public enum Mode { FAST, THOROUGH }
+
+                public record SearchArgs(
+                        @ToolParam(description = "search mode") Mode mode,
+                        @ToolParam(required = false, defaultValue = "FAST") Mode fallback,
+                        @ToolParam(required = false) List<String> tags,
+                        @ToolParam(required = false) List<Long> ids,
+                        @ToolParam(required = false, defaultValue = "5", min = 1, max = 20) int limit,
+                        @ToolParam(required = false) Integer page,
+                        @ToolParam(required = false) Boolean verbose,
+                        @ToolParam(required = false) double weight,
+                        @ToolParam(required = false, defaultValue = "0.5") float ratio) {
+                }
+
+                @AgentToolMethod(description = "search")
+                public String search(SearchArgs args) {
+                    return args.toString();
+                }
+            }
+            """;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void generatesSchemaForEnumsListsAndOptionalParameters() throws Exception {
+        ToolExecutor executor = compileAndLoad(TOOLS);
+
+        assertThat(executor.getToolName()).isEqualTo("search");
+        assertThat(executor.getRequiredParameters()).containsExactly("mode");
+        Map<String, Object> schema = executor.getParametersDefinition();
+        assertThat(schema).containsEntry("required", List.of("mode"));
+        Map<String, Object> properties = map(schema.get("properties"));
+        assertThat(map(properties.get("mode"))).containsEntry("type", "string")
+                .containsEntry("enum", List.of("FAST", "THOROUGH")).containsEntry("description", "search mode");
+        assertThat(map(properties.get("fallback"))).containsEntry("default", "FAST");
+        assertThat(map(properties.get("tags"))).containsEntry("type", "array")
+                .containsEntry("items", Map.of("type", "string"));
+        assertThat(map(properties.get("ids"))).containsEntry("items", Map.of("type", "integer"));
+        assertThat(map(properties.get("limit"))).containsEntry("type", "integer").containsEntry("default", 5)
+                .containsEntry("minimum", 1).containsEntry("maximum", 20);
+        assertThat(map(properties.get("page"))).containsEntry("type", "integer");
+        assertThat(map(properties.get("verbose"))).containsEntry("type", "boolean");
+        assertThat(map(properties.get("ratio"))).containsEntry("type", "number").containsEntry("default", 0.5);
+    }
+
+    @Test
+    void bindsDefaultsAndLeavesOptionalBoxedParametersNull() throws Exception {
+        ToolExecutor executor = compileAndLoad(TOOLS);
+
+        ToolResult minimal = executor.execute(call("{\"mode\":\"thorough\"}"), null).block();
+        assertThat(minimal.getContent()).isEqualTo("SearchArgs[mode=THOROUGH, fallback=FAST, tags=null, ids=null, "
+                + "limit=5, page=null, verbose=null, weight=0.0, ratio=0.5]");
+
+        ToolResult full = executor.execute(call("{\"mode\":\"FAST\",\"fallback\":\"thorough\",\"tags\":[\"a\",\"b\"],"
+                + "\"ids\":[1,2],\"limit\":7,\"page\":2,\"verbose\":true,\"weight\":1.5,\"ratio\":0.25,\"extra\":{}}"), null).block();
+        assertThat(full.getContent()).isEqualTo("SearchArgs[mode=FAST, fallback=THOROUGH, tags=[a, b], ids=[1, 2], "
+                + "limit=7, page=2, verbose=true, weight=1.5, ratio=0.25]");
+    }
+
+    @Test
+    void rejectsInvalidArgumentsAtBindTime() throws Exception {
+        ToolExecutor executor = compileAndLoad(TOOLS);
+
+        assertThat(executor.execute(call("{}"), null).block().getError()).contains("mode");
+        assertThat(executor.execute(call("{\"mode\":\"SLOW\"}"), null).block().getError()).contains("SLOW");
+        assertThat(executor.execute(call("{\"mode\":\"FAST\",\"limit\":50}"), null).block().getError()).contains("limit");
+        assertThat(executor.execute(call("{\"mode\":\"FAST\",\"tags\":\"a\"}"), null).block().getError()).contains("tags");
+    }
+
+    @Test
+    void reportsUnsupportedParameterTypes() throws Exception {
+        assertThat(compileErrors("java.util.Map<String, String> options")).anyMatch(error ->
+                error.contains("Unsupported tool parameter type java.util.Map<java.lang.String,java.lang.String>"));
+        assertThat(compileErrors("List<Float> weights")).anyMatch(error ->
+                error.contains("List tool parameters must hold String, Integer, Long, Double or Boolean"));
+        assertThat(compileErrors("char flag")).anyMatch(error -> error.contains("Unsupported tool parameter type char"));
+    }
+
+    @Test
+    void reportsInvalidParameterAnnotations() throws Exception {
+        assertThat(compileErrors("@ToolParam(defaultValue = \"3\") int limit")).anyMatch(error ->
+                error.contains("defaultValue is only allowed on parameters with required = false"));
+        assertThat(compileErrors("@ToolParam(required = false, defaultValue = \"many\") int limit")).anyMatch(error ->
+                error.contains("defaultValue many is not a valid integer"));
+        assertThat(compileErrors("@ToolParam(allowedValues = {\"1\", \"2\"}) int level")).anyMatch(error ->
+                error.contains("allowedValues is only supported on String parameters"));
+        assertThat(compileErrors("@ToolParam(required = false, defaultValue = \"a\") List<String> tags")).anyMatch(error ->
+                error.contains("defaultValue is not supported for array parameters"));
+    }
+
+    private ToolExecutor compileAndLoad(String source) throws Exception {
+        List<String> errors = compile(source);
+        assertThat(errors).isEmpty();
+        URLClassLoader loader = new URLClassLoader(new URL[]{directory.resolve("classes").toUri().toURL()},
+                getClass().getClassLoader());
+        Object target = loader.loadClass("sample.SampleTools").getConstructor().newInstance();
+        @SuppressWarnings("unchecked")
+        List<ToolExecutor> executors = (List<ToolExecutor>) loader.loadClass("sample.SampleTools_AgentTools")
+                .getMethod("executors", target.getClass()).invoke(null, target);
+        assertThat(executors).hasSize(1);
+        return executors.get(0);
+    }
+
+    private List<String> compileErrors(String component) throws IOException {
+        String source = """
+                package sample;
+
+                import cn.apmen.jsagent.framework.tool.annotation.AgentToolMethod;
+                import cn.apmen.jsagent.framework.tool.annotation.ToolParam;
+
+                import java.util.List;
+
+                public class SampleTools {
+
+                    public record Args(%s) {
+                    }
+
+                    @AgentToolMethod(description = "broken")
+                    public String broken(Args args) {
+                        return "";
+                    }
+                }
+                """.formatted(component);
+        List<String> errors = compile(source);
+        assertThat(errors).isNotEmpty();
+        return errors;
+    }
+
+    /**
+     * 编译源码并运行注解处理器，返回错误诊断
+     */
+    private List<String> compile(String source) throws IOException {
+        Path sourceFile = directory.resolve("src/sample/SampleTools.java");
+        Path classes = directory.resolve("classes");
+        Files.createDirectories(sourceFile.getParent());
+        Files.createDirectories(classes);
+        Files.writeString(sourceFile, source, StandardCharsets.UTF_8);
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+            List<String> options = List.of("-classpath", classpath(), "-d", classes.toString(), "-s", classes.toString());
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null,
+                    fileManager.getJavaFileObjects(sourceFile.toFile()));
+            task.setProcessors(List.of(new AgentToolProcessor()));
+            task.call();
+        }
+        return diagnostics.getDiagnostics().stream()
+                .filter(diagnostic -> diagnostic.getKind() == Diagnostic.Kind.ERROR)
+                .map(diagnostic -> diagnostic.getMessage(null))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 生成代码引用的类所在的位置，不依赖java.class.path（构建工具可能使用清单jar启动测试）
+     */
+    private static String classpath() {
+        List<String> entries = new ArrayList<>();
+        for (Class<?> type : List.of(GeneratedToolExecutor.class, JsonParser.class, ObjectMapper.class, Mono.class,
+                Publisher.class, Logger.class)) {
+            try {
+                entries.add(new File(type.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath());
+            } catch (URISyntaxException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return entries.stream().distinct().collect(Collectors.joining(File.pathSeparator));
+    }
+
+    private static ToolCall call(String arguments) {
+        ToolCall toolCall = new ToolCall();
+        toolCall.setId("call");
+        toolCall.setType("function");
+        FunctionCall function = new FunctionCall();
+        function.setName("search");
+        function.setArguments(arguments);
+        toolCall.setFunction(function);
+        return toolCall;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> map(Object value) {
+        return (Map<String, Object>) value;
+    }
+}
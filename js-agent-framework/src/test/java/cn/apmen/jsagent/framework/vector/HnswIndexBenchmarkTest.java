@@ -0,0 +1,124 @@
+package cn.apmen.jsagent.framework.vector;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * 百万向量HNSW：建图耗时、查询延迟、recall@10，以及按小会话过滤时精确查询与图搜索的对比
+ * 运行：mvn -Pbenchmark test -pl js-agent-framework -Dtest=HnswIndexBenchmarkTest
+ * 规模可用 -Djs-agent.benchmark.vectors 调整，建图参数默认取VectorMemoryConfig，可用 -Djs-agent.benchmark.m / efConstruction 覆盖
+ */
+@Tag("benchmark")
+class HnswIndexBenchmarkTest {
+
+    private static final int DIMENSION = 64;
+    private static final int QUERIES = 200;
+    private static final int K = 10;
+    private static final int EF_SEARCH = 64;
+
+    @Test
+    void millionVectors() {
+        int count = Integer.getInteger("js-agent.benchmark.vectors", 1_000_000);
+        SplittableRandom random = new SplittableRandom(1);
+        int m = Integer.getInteger("js-agent.benchmark.m", VectorMemoryConfig.builder().build().getM());
+        int efConstruction = Integer.getInteger("js-agent.benchmark.efConstruction",
+                VectorMemoryConfig.builder().build().getEfConstruction());
+        HnswIndex index = new HnswIndex(DIMENSION, m, efConstruction);
+        float[][] vectors = new float[count][];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            vectors[i] = VectorMemoryStoreTest.randomVector(random, DIMENSION);
+            index.add(vectors[i]);
+        }
+        System.out.printf("build: %d vectors (m=%d, efConstruction=%d) in %.1fs%n",
+                count, m, efConstruction, (System.nanoTime() - start) / 1e9);
+
+        float[][] queries = new float[QUERIES][];
+        for (int q = 0; q < QUERIES; q++) {
+            queries[q] = VectorMemoryStoreTest.randomVector(random, DIMENSION);
+        }
+
+        List<Set<Integer>> truth = new ArrayList<>();
+        for (int q = 0; q < 20; q++) {
+            truth.add(bruteForce(vectors, queries[q]));
+        }
+        long[] latencies = new long[QUERIES];
+        for (int ef : new int[]{EF_SEARCH, EF_SEARCH * 4}) {
+            double recall = 0;
+            for (int q = 0; q < QUERIES; q++) {
+                long t = System.nanoTime();
+                List<HnswIndex.Hit> hits = index.search(queries[q], K, ef, null);
+                latencies[q] = System.nanoTime() - t;
+                if (q < truth.size()) {
+                    recall += recall(hits, truth.get(q));
+                }
+            }
+            report("unfiltered ef=" + ef, latencies);
+            System.out.printf("recall@%d ef=%d: %.3f%n", K, ef, recall / truth.size());
+        }
+
+        // 一个1000条记录的会话，均匀分布在全图中
+        int sessionSize = 1000;
+        int[] session = new int[sessionSize];
+        Set<Integer> members = new HashSet<>();
+        for (int i = 0; i < sessionSize; i++) {
+            session[i] = i * (count / sessionSize);
+            members.add(session[i]);
+        }
+        for (int q = 0; q < QUERIES; q++) {
+            long t = System.nanoTime();
+            index.exactSearch(queries[q], K, session, sessionSize);
+            latencies[q] = System.nanoTime() - t;
+        }
+        report("session exact (1000 nodes)", latencies);
+        for (int q = 0; q < 20; q++) {
+            long t = System.nanoTime();
+            index.search(queries[q], K, EF_SEARCH, members::contains);
+            latencies[q] = System.nanoTime() - t;
+        }
+        report("session filtered graph, capped", Arrays.copyOf(latencies, 20));
+    }
+
+    private static Set<Integer> bruteForce(float[][] vectors, float[] query) {
+        int[] best = new int[K];
+        float[] scores = new float[K];
+        Arrays.fill(scores, Float.NEGATIVE_INFINITY);
+        for (int i = 0; i < vectors.length; i++) {
+            float score = VectorMath.dot(query, 0, vectors[i], 0, DIMENSION);
+            if (score > scores[K - 1]) {
+                int j = K - 1;
+                while (j > 0 && scores[j - 1] < score) {
+                    scores[j] = scores[j - 1];
+                    best[j] = best[j - 1];
+                    j--;
+                }
+                scores[j] = score;
+                best[j] = i;
+            }
+        }
+        Set<Integer> result = new HashSet<>();
+        for (int id : best) {
+            result.add(id);
+        }
+        return result;
+    }
+
+    private static double recall(List<HnswIndex.Hit> hits, Set<Integer> truth) {
+        return hits.stream().filter(hit -> truth.contains(hit.getId())).count() / (double) K;
+    }
+
+    private static void report(String name, long[] latencies) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%s: p50 %.3fms, p99 %.3fms%n", name,
+                sorted[sorted.length / 2] / 1e6, sorted[sorted.length * 99 / 100] / 1e6);
+    }
+}
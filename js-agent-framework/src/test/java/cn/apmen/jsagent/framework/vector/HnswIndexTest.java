@@ -0,0 +1,83 @@
+package cn.apmen.jsagent.framework.vector;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HnswIndexTest {
+
+    private static final int DIMENSION = 16;
+    private static final int M = 8;
+    private static final int EF_CONSTRUCTION = 32;
+
+    // 图快照头部：dimension(4) m(4) size(4) entryPoint(4) maxLevel(4)，之后是节点0：level(1) count(2) neighbor(4)...
+    private static final int ENTRY_POINT_OFFSET = 12;
+    private static final int FIRST_NEIGHBOR_OFFSET = 23;
+
+    private final HnswIndex index = new HnswIndex(DIMENSION, M, EF_CONSTRUCTION);
+    private final float[] vectors = new float[200 * DIMENSION];
+
+    HnswIndexTest() {
+        SplittableRandom random = new SplittableRandom(3);
+        for (int i = 0; i < 200; i++) {
+            float[] vector = VectorMemoryStoreTest.randomVector(random, DIMENSION);
+            System.arraycopy(vector, 0, vectors, i * DIMENSION, DIMENSION);
+            index.add(vector);
+        }
+    }
+
+    @Test
+    void restoredGraphAnswersLikeTheOriginal() throws IOException {
+        HnswIndex restored = restore(graph());
+
+        assertThat(restored).isNotNull();
+        assertThat(restored.size()).isEqualTo(200);
+        float[] query = VectorMemoryStoreTest.randomVector(new SplittableRandom(9), DIMENSION);
+        assertThat(restored.search(query, 5, 32, null)).extracting(HnswIndex.Hit::getId)
+                .containsExactlyElementsOf(index.search(query, 5, 32, null).stream().map(HnswIndex.Hit::getId).toList());
+    }
+
+    @Test
+    void entryPointOutsideGraphIsRejected() throws IOException {
+        byte[] graph = graph();
+        ByteBuffer.wrap(graph).putInt(ENTRY_POINT_OFFSET, 200);
+        assertThat(restore(graph)).isNull();
+
+        ByteBuffer.wrap(graph).putInt(ENTRY_POINT_OFFSET, -1);
+        assertThat(restore(graph)).isNull();
+    }
+
+    @Test
+    void neighborOutsideGraphIsRejected() throws IOException {
+        byte[] graph = graph();
+        assertThat(ByteBuffer.wrap(graph).getShort(FIRST_NEIGHBOR_OFFSET - 2)).isPositive();
+
+        ByteBuffer.wrap(graph).putInt(FIRST_NEIGHBOR_OFFSET, 5000);
+        assertThat(restore(graph)).isNull();
+
+        ByteBuffer.wrap(graph).putInt(FIRST_NEIGHBOR_OFFSET, -3);
+        assertThat(restore(graph)).isNull();
+    }
+
+    private byte[] graph() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            index.writeGraph(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private HnswIndex restore(byte[] graph) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(graph))) {
+            return HnswIndex.restore(DIMENSION, M, EF_CONSTRUCTION, vectors, 200, in);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package cn.apmen.jsagent.framework.vector;
+
+import cn.apmen.jsagent.framework.openaiunified.model.request.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VectorMemoryStoreTest {
+
+    private static final int DIMENSION = 32;
+
+    @TempDir
+    Path directory;
+
+    static float[] randomVector(SplittableRandom random, int dimension) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        VectorMath.normalize(vector);
+        return vector;
+    }
+
+    private static VectorMemoryConfig config(Path directory) {
+        return VectorMemoryConfig.builder().m(8).efConstruction(64).efSearch(16).directory(directory).build();
+    }
+
+    @Test
+    void sessionFilterReturnsExactTopKForSmallSession() {
+        SplittableRandom random = new SplittableRandom(7);
+        VectorMemoryStore store = new VectorMemoryStore(DIMENSION, config(null));
+        List<float[]> small = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            boolean inSmall = i % 500 == 0;
+            float[] vector = randomVector(random, DIMENSION);
+            store.add(inSmall ? "small" : "big-" + (i % 7), new Message("user", (inSmall ? "small-" : "big-") + i), vector);
+            if (inSmall) {
+                small.add(vector);
+            }
+        }
+
+        float[] query = randomVector(random, DIMENSION);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < small.size(); i++) {
+            expected.add("small-" + i * 500);
+        }
+        List<String> byScore = expected.stream()
+                .sorted(Comparator.comparingDouble(id -> -dot(query, small.get(expected.indexOf(id)))))
+                .limit(5)
+                .collect(Collectors.toList());
+
+        assertThat(store.search(query, 5, "small")).extracting(Message::getContent).containsExactlyElementsOf(byScore);
+        assertThat(store.search(query, 5, "missing")).isEmpty();
+    }
+
+    @Test
+    void sparseSessionInLargeSessionFallsBackToExactSearch() {
+        SplittableRandom random = new SplittableRandom(11);
+        // efSearch=1时精确查询阈值为4，会话有6条记录，走图搜索+兜底
+        VectorMemoryConfig config = VectorMemoryConfig.builder().m(8).efConstruction(64).efSearch(1).build();
+        VectorMemoryStore store = new VectorMemoryStore(DIMENSION, config);
+        for (int i = 0; i < 3000; i++) {
+            store.add(i % 500 == 0 ? "sparse" : "dense", new Message("user", String.valueOf(i)), randomVector(random, DIMENSION));
+        }
+
+        assertThat(store.search(randomVector(random, DIMENSION), 6, "sparse")).hasSize(6);
+    }
+
+    @Test
+    void removedSessionsStayRemovedAfterReopen() {
+        SplittableRandom random = new SplittableRandom(3);
+        try (VectorMemoryStore store = new VectorMemoryStore(DIMENSION, config(directory), "agent")) {
+            for (int i = 0; i < 200; i++) {
+                store.add(i % 2 == 0 ? "a" : "b", new Message("user", String.valueOf(i)), randomVector(random, DIMENSION));
+            }
+            store.removeSession("a");
+            assertThat(store.search(randomVector(random, DIMENSION), 3, "a")).isEmpty();
+        }
+        try (VectorMemoryStore store = new VectorMemoryStore(DIMENSION, config(directory), "agent")) {
+            assertThat(store.size()).isEqualTo(100);
+            assertThat(store.search(randomVector(random, DIMENSION), 3, "a")).isEmpty();
+            assertThat(store.search(randomVector(random, DIMENSION), 3, "b")).hasSize(3);
+            assertThat(store.search(randomVector(random, DIMENSION), 3, null))
+                    .allSatisfy(message -> assertThat(Integer.parseInt(message.getContent()) % 2).isEqualTo(1));
+        }
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}